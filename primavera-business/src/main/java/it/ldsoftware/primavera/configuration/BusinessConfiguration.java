@@ -1,15 +1,64 @@
 package it.ldsoftware.primavera.configuration;
 
+import ch.qos.logback.classic.Level;
+import it.ldsoftware.primavera.dal.base.DefaultBaseDAL;
+import it.ldsoftware.primavera.dal.base.LogEntryDAL;
+import it.ldsoftware.primavera.dal.base.LogStackTraceDAL;
+import it.ldsoftware.primavera.dal.people.UserDAL;
+import it.ldsoftware.primavera.logging.AsyncLogAppender;
+import it.ldsoftware.primavera.logging.LogBucketMigrator;
+import it.ldsoftware.primavera.logging.LogEntryWriter;
+import it.ldsoftware.primavera.logging.LogRetentionService;
+import it.ldsoftware.primavera.logging.LogTraceMigrator;
+import it.ldsoftware.primavera.logging.OverflowPolicy;
 import it.ldsoftware.primavera.mapper.Mapper;
+import it.ldsoftware.primavera.query.EntityMetadataIndex;
+import it.ldsoftware.primavera.security.AuthorityCodec;
+import it.ldsoftware.primavera.security.HashingExecutor;
+import it.ldsoftware.primavera.security.LoginThrottle;
+import it.ldsoftware.primavera.security.OAuth2Client;
+import it.ldsoftware.primavera.security.OAuth2Providers;
+import it.ldsoftware.primavera.security.PasswordAlgorithm;
+import it.ldsoftware.primavera.security.PasswordHasher;
+import it.ldsoftware.primavera.security.PermissionAudit;
+import it.ldsoftware.primavera.security.RowSecurity;
+import it.ldsoftware.primavera.security.TokenService;
 import it.ldsoftware.primavera.services.AbstractBusinessService;
+import it.ldsoftware.primavera.services.interfaces.PropertyService;
+import it.ldsoftware.primavera.services.interfaces.RoleService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by luca on 02/05/16.
- * This configuration enables jpa repositories and scans for base entities
+ * This configuration enables jpa repositories and scans for base entities.
+ * It also indexes the entity metadata used by the predicate factory.
+ * On request, it writes the logs on the database through the {@link AsyncLogAppender}
+ * and applies the {@link LogRetentionService} to them. Unless disabled, the {@link IdSequenceMigrator}
+ * moves the id sequences of an existing database past its ids, the {@link LogBucketMigrator}
+ * fills the log bucket of the entries written before the column existed, and the {@link LogTraceMigrator}
+ * moves their stack traces to the zz_log_trace table.
+ * The {@link PasswordHasher} is configured by the {@code it.primavera.security.password} properties (the
+ * {@link PasswordColumnMigrator} checks that its hashes fit in the password column of the users),
+ * the {@link LoginThrottle}, when enabled, by the {@code it.primavera.security.throttle} ones (behind a reverse
+ * proxy also enable the forwarded headers, or every client shares the address of the proxy) and, when enabled,
+ * the {@link TokenService} for stateless authentication by the {@code it.primavera.security.token} ones.
+ * The {@link RowSecurity} starts without rules, applications add theirs to it. When enabled, the
+ * {@link PermissionAudit} is configured by the {@code it.primavera.security.audit} properties.
+ * The {@link OAuth2Client} used by the logins with external providers is configured by the
+ * {@code it.primavera.oauth} properties.
  */
 @Configuration
 @EntityScan(basePackages = "it.ldsoftware.primavera.model")
@@ -17,7 +66,157 @@ import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
         AbstractBusinessService.class,
         Mapper.class
 })
-@EnableJpaRepositories(basePackages = "it.ldsoftware.primavera.dal")
+@EnableJpaRepositories(basePackages = "it.ldsoftware.primavera.dal", repositoryBaseClass = DefaultBaseDAL.class)
 public class BusinessConfiguration {
 
+    @Bean
+    public EntityMetadataIndex entityMetadataIndex(EntityManagerFactory entityManagerFactory) {
+        return EntityMetadataIndex.initialize(entityManagerFactory.getMetamodel());
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "it.primavera.id.migrate", havingValue = "true", matchIfMissing = true)
+    public IdSequenceMigrator idSequenceMigrator(EntityManagerFactory entityManagerFactory) {
+        IdSequenceMigrator migrator = new IdSequenceMigrator(entityManagerFactory);
+        migrator.migrate();
+        return migrator;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "it.primavera.log.bucket.migrate", havingValue = "true", matchIfMissing = true)
+    public LogBucketMigrator logBucketMigrator(EntityManagerFactory entityManagerFactory,
+                                               PlatformTransactionManager transactionManager) {
+        LogBucketMigrator migrator = new LogBucketMigrator(entityManagerFactory, transactionManager);
+        migrator.migrate();
+        return migrator;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "it.primavera.log.trace.migrate", havingValue = "true", matchIfMissing = true)
+    public LogTraceMigrator logTraceMigrator(EntityManagerFactory entityManagerFactory,
+                                             PlatformTransactionManager transactionManager) {
+        LogTraceMigrator migrator = new LogTraceMigrator(entityManagerFactory, transactionManager);
+        migrator.migrate();
+        return migrator;
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public PasswordHasher passwordHasher(@Value("${it.primavera.security.password.algorithm:BCRYPT}") PasswordAlgorithm algorithm,
+                                         @Value("${it.primavera.security.password.bcrypt-strength:10}") int bcryptStrength,
+                                         @Value("${it.primavera.security.password.pbkdf2-iterations:185000}") int pbkdf2Iterations,
+                                         @Value("${it.primavera.security.password.pbkdf2-secret:}") String pbkdf2Secret,
+                                         @Value("${it.primavera.security.password.threads:0}") int threads,
+                                         @Value("${it.primavera.security.password.queue-size:64}") int queueSize,
+                                         @Value("${it.primavera.security.password.max-wait:5000}") long maxWaitMillis) {
+        // by default half of the cores, leaving the rest to the requests
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return new PasswordHasher(algorithm, bcryptStrength, pbkdf2Iterations, pbkdf2Secret,
+                new HashingExecutor(poolSize, queueSize, maxWaitMillis));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "it.primavera.security.throttle.enabled", havingValue = "true")
+    public LoginThrottle loginThrottle(@Value("${it.primavera.security.throttle.window:60}") long windowSeconds,
+                                       @Value("${it.primavera.security.throttle.max-per-user:20}") int maxPerUser,
+                                       @Value("${it.primavera.security.throttle.max-per-address:200}") int maxPerAddress,
+                                       @Value("${it.primavera.security.throttle.width:4096}") int width) {
+        return new LoginThrottle(windowSeconds, TimeUnit.SECONDS, maxPerUser, maxPerAddress, width);
+    }
+
+    @Bean
+    public PasswordColumnMigrator passwordColumnMigrator(EntityManagerFactory entityManagerFactory, PasswordHasher hasher,
+                                                         @Value("${it.primavera.security.password.migrate:false}") boolean migrate) {
+        PasswordColumnMigrator migrator = new PasswordColumnMigrator(entityManagerFactory);
+        migrator.check(hasher, migrate);
+        return migrator;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "it.primavera.security.audit.enabled", havingValue = "true")
+    public PermissionAudit permissionAudit(@Value("${it.primavera.security.audit.interval:60}") long intervalSeconds,
+                                           @Value("${it.primavera.security.audit.sample-rate:100}") int sampleRate,
+                                           @Value("${it.primavera.security.audit.events:1024}") int events) {
+        return new PermissionAudit(intervalSeconds, TimeUnit.SECONDS, sampleRate, events);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public RowSecurity rowSecurity() {
+        return new RowSecurity();
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "it.primavera.security.token.enabled", havingValue = "true")
+    public AuthorityCodec authorityCodec(RoleService roleService) {
+        return new AuthorityCodec(roleService);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "it.primavera.security.token.enabled", havingValue = "true")
+    public TokenService tokenService(AuthorityCodec authorityCodec,
+                                     @Value("${it.primavera.security.token.key:}") String key,
+                                     @Value("${it.primavera.security.token.ttl:900}") long ttlSeconds) {
+        // the same base64 key on every instance, so that they accept each other's tokens
+        return new TokenService(Base64.getDecoder().decode(key), ttlSeconds, TimeUnit.SECONDS, authorityCodec);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public OAuth2Client oauth2Client(@Value("${it.primavera.oauth.threads:4}") int threads,
+                                     @Value("${it.primavera.oauth.queue-size:100}") int queueSize,
+                                     @Value("${it.primavera.oauth.connect-timeout:2000}") int connectTimeoutMillis,
+                                     @Value("${it.primavera.oauth.read-timeout:5000}") int readTimeoutMillis) {
+        return new OAuth2Client(threads, queueSize, connectTimeoutMillis, readTimeoutMillis);
+    }
+
+    @Bean
+    public OAuth2Providers oauth2Providers(PropertyService propertyService,
+                                           @Value("${it.primavera.oauth.google.authorize-uri:" + OAuth2Providers.GOOGLE_AUTHORIZE_URI + "}") String googleAuthorizeUri,
+                                           @Value("${it.primavera.oauth.google.token-uri:" + OAuth2Providers.GOOGLE_TOKEN_URI + "}") String googleTokenUri,
+                                           @Value("${it.primavera.oauth.google.profile-uri:" + OAuth2Providers.GOOGLE_PROFILE_URI + "}") String googleProfileUri,
+                                           @Value("${it.primavera.oauth.facebook.authorize-uri:" + OAuth2Providers.FACEBOOK_AUTHORIZE_URI + "}") String facebookAuthorizeUri,
+                                           @Value("${it.primavera.oauth.facebook.token-uri:" + OAuth2Providers.FACEBOOK_TOKEN_URI + "}") String facebookTokenUri,
+                                           @Value("${it.primavera.oauth.facebook.profile-uri:" + OAuth2Providers.FACEBOOK_PROFILE_URI + "}") String facebookProfileUri) {
+        return new OAuth2Providers(propertyService, Arrays.asList(
+                OAuth2Providers.googleTemplate(googleAuthorizeUri, googleTokenUri, googleProfileUri),
+                OAuth2Providers.facebookTemplate(facebookAuthorizeUri, facebookTokenUri, facebookProfileUri)));
+    }
+
+    @Bean(initMethod = "attach", destroyMethod = "detach")
+    @ConditionalOnProperty(name = "it.primavera.log.async.enabled", havingValue = "true")
+    public AsyncLogAppender asyncLogAppender(LogEntryDAL entryDAL, LogStackTraceDAL traceDAL, UserDAL userDAL,
+                                             PlatformTransactionManager transactionManager,
+                                             @Value("${it.primavera.log.async.capacity:8192}") int capacity,
+                                             @Value("${it.primavera.log.async.batch-size:200}") int batchSize,
+                                             @Value("${it.primavera.log.async.policy:DROP}") OverflowPolicy policy,
+                                             @Value("${it.primavera.log.async.sample-rate:10}") int sampleRate,
+                                             @Value("${it.primavera.log.async.level:WARN}") String level) {
+        AsyncLogAppender appender = new AsyncLogAppender();
+        appender.setWriter(new LogEntryWriter(entryDAL, traceDAL, userDAL, transactionManager));
+        appender.setCapacity(capacity);
+        appender.setBatchSize(batchSize);
+        appender.setPolicy(policy);
+        appender.setSampleRate(sampleRate);
+        appender.setThreshold(Level.toLevel(level, Level.WARN));
+        return appender;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "it.primavera.log.retention.enabled", havingValue = "true")
+    public LogRetentionService logRetentionService(EntityManagerFactory entityManagerFactory,
+                                                   PlatformTransactionManager transactionManager,
+                                                   @Value("${it.primavera.log.retention.granularity:DAY}") LogRetentionService.Granularity granularity,
+                                                   @Value("${it.primavera.log.retention.keep:30}") int keep,
+                                                   @Value("${it.primavera.log.retention.mode:PURGE}") LogRetentionService.Mode mode,
+                                                   @Value("${it.primavera.log.retention.chunk-size:1000}") int chunkSize,
+                                                   @Value("${it.primavera.log.retention.cron:0 30 3 * * *}") String cron) {
+        LogRetentionService service = new LogRetentionService(entityManagerFactory, transactionManager);
+        service.setGranularity(granularity);
+        service.setKeep(keep);
+        service.setMode(mode);
+        service.setChunkSize(chunkSize);
+        service.setCron(cron);
+        return service;
+    }
+
 }
@@ -0,0 +1,39 @@
+package it.ldsoftware.primavera.configuration;
+
+import it.ldsoftware.primavera.services.AbstractBusinessService;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by luca on 16/06/17.
+ * Enables JDBC batching in Hibernate, used by the bulk operations of the business services,
+ * and keeps the second level cache off unless a cache provider is configured: to use the cache regions
+ * of the entities (e.g. "primavera.properties") set hibernate.cache.use_second_level_cache and
+ * hibernate.cache.region.factory_class.
+ * Lazy collections annotated with a batch size are fetched with a single, padded, statement for all the
+ * entities of a batch, instead of being split in decreasing sizes.
+ * The values are only defaults: any of them can be overridden in the application properties.
+ */
+public class HibernateDefaultsEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    static final String PROPERTY_SOURCE_NAME = "primaveraHibernateDefaults";
+
+    private static final String PREFIX = "spring.jpa.properties.hibernate.";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        Map<String, Object> defaults = new HashMap<>();
+        defaults.put(PREFIX + "jdbc.batch_size", AbstractBusinessService.DEFAULT_BULK_CHUNK_SIZE);
+        defaults.put(PREFIX + "order_inserts", true);
+        defaults.put(PREFIX + "order_updates", true);
+        defaults.put(PREFIX + "jdbc.batch_versioned_data", true);
+        defaults.put(PREFIX + "cache.use_second_level_cache", false);
+        defaults.put(PREFIX + "batch_fetch_style", "PADDED");
+        environment.getPropertySources().addLast(new MapPropertySource(PROPERTY_SOURCE_NAME, defaults));
+    }
+}
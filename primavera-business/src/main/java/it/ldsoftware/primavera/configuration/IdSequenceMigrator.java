@@ -0,0 +1,129 @@
+package it.ldsoftware.primavera.configuration;
+
+import it.ldsoftware.primavera.model.base.PooledIdGenerator;
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.DatabaseStructure;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created by luca on 17/06/17.
+ * Moves the sequences (or tables) of the {@link PooledIdGenerator} past the ids already in the database.
+ * This is needed once when an existing database, whose ids were generated by identity columns,
+ * is upgraded: hibernate creates the new sequences starting from 1, which would clash with the existing rows.
+ * The identity columns can stay as they are, since the ids are now always part of the insert
+ * (on SQL Server the identity has to be removed from the column).
+ * <p>
+ * It runs at startup unless {@code it.primavera.id.migrate=false}, and it is safe to leave it on:
+ * a sequence that is already ahead of the data is left untouched.
+ */
+public class IdSequenceMigrator {
+    private static final Logger logger = Logger.getLogger(IdSequenceMigrator.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public IdSequenceMigrator(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Checks every sequence and moves it if needed.
+     *
+     * @return the names of the sequences or tables that were moved
+     */
+    public List<String> migrate() {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        Dialect dialect = sessionFactory.getDialect();
+        List<String> migrated = new ArrayList<>();
+        Set<String> roots = new HashSet<>();
+
+        EntityManager em = entityManagerFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            for (String entityName : sessionFactory.getAllClassMetadata().keySet()) {
+                EntityPersister persister = sessionFactory.getEntityPersister(entityName);
+                IdentifierGenerator generator = persister.getIdentifierGenerator();
+                if (!(generator instanceof PooledIdGenerator) || !roots.add(persister.getRootEntityName())) {
+                    continue;
+                }
+
+                Long max = em.createQuery("select max(e.id) from " + persister.getRootEntityName() + " e", Long.class)
+                        .getSingleResult();
+                DatabaseStructure structure = ((PooledIdGenerator) generator).getDatabaseStructure();
+                if (max != null && max > 0) {
+                    em.unwrap(Session.class).doWork(c -> {
+                        if (moveIfBehind(c, dialect, structure, max)) {
+                            migrated.add(structure.getName());
+                        }
+                    });
+                }
+            }
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+
+        if (!migrated.isEmpty()) {
+            logger.info("Id sequences moved past the existing rows: " + migrated);
+        }
+        return migrated;
+    }
+
+    /**
+     * With the pooled optimizer a value v of the sequence hands out the ids from v - increment + 1 to v,
+     * so the next value must be at least max + increment.
+     */
+    private boolean moveIfBehind(Connection connection, Dialect dialect, DatabaseStructure structure, long max)
+            throws SQLException {
+        long required = max + structure.getIncrementSize();
+        String name = structure.getName();
+
+        if (structure.isPhysicalSequence()) {
+            long next = queryLong(connection, dialect.getSequenceNextValString(name));
+            if (next >= required) {
+                return false;
+            }
+            try (PreparedStatement ps = connection.prepareStatement("alter sequence " + name + " restart with " + required)) {
+                ps.executeUpdate();
+            } catch (SQLException e) {
+                logger.error("Cannot restart the sequence " + name + ", it must be moved manually to " + required, e);
+                return false;
+            }
+        } else {
+            long next = queryLong(connection, "select " + PooledIdGenerator.VALUE_COLUMN + " from " + name);
+            if (next >= required) {
+                return false;
+            }
+            try (PreparedStatement ps = connection.prepareStatement(
+                    "update " + name + " set " + PooledIdGenerator.VALUE_COLUMN + " = ?")) {
+                ps.setLong(1, required);
+                ps.executeUpdate();
+            }
+        }
+        return true;
+    }
+
+    private static long queryLong(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
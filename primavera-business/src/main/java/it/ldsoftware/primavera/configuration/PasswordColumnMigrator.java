@@ -0,0 +1,134 @@
+package it.ldsoftware.primavera.configuration;
+
+import it.ldsoftware.primavera.security.PasswordHasher;
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.MySQLDialect;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Created by luca on 05/07/17.
+ * Widens the password column of the users, that existing databases created for the BCrypt hashes only:
+ * hibernate does not change the length of an existing column, and the PBKDF2 hashes of the
+ * {@link PasswordHasher} do not fit in its 60 characters.
+ * <p>
+ * The column is checked at startup against the length of the hashes of the configured algorithm. When it is
+ * too short it is widened to {@value #LENGTH} characters if {@code it.primavera.security.password.migrate=true},
+ * otherwise the startup fails, rather than every new password failing later.
+ * The alter statement is the one of H2, PostgreSQL, MySQL, Oracle or SQL Server, depending on the dialect.
+ */
+public class PasswordColumnMigrator {
+    private static final Logger logger = Logger.getLogger(PasswordColumnMigrator.class);
+
+    public static final int LENGTH = 255;
+    private static final String TABLE = "fw_users", COLUMN = "password";
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public PasswordColumnMigrator(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    /**
+     * Makes sure that the hashes of the hasher fit in the column
+     *
+     * @param hasher  the hasher of the new passwords
+     * @param migrate true to widen the column if needed
+     * @throws IllegalStateException if the column is too short and cannot be widened
+     */
+    public void check(PasswordHasher hasher, boolean migrate) {
+        check(hasher.encode("length probe").length(), migrate);
+    }
+
+    /**
+     * @param required the length of the hashes
+     * @param migrate  true to widen the column if needed
+     * @return true if the column was widened
+     * @throws IllegalStateException if the column is too short and cannot be widened
+     */
+    public boolean check(int required, boolean migrate) {
+        int size = columnSize();
+        if (size < 0 || size >= required) {
+            return false;
+        }
+        if (!migrate) {
+            throw new IllegalStateException("The column " + TABLE + "." + COLUMN + " is " + size
+                    + " characters long, the password hashes need " + required + ": widen it or set "
+                    + "it.primavera.security.password.migrate=true");
+        }
+        execute(alterStatement(entityManagerFactory.unwrap(SessionFactoryImplementor.class).getDialect(),
+                Math.max(LENGTH, required)));
+        logger.info("Password column widened from " + size + " to " + Math.max(LENGTH, required) + " characters");
+        return true;
+    }
+
+    /**
+     * @return the length of the password column, -1 if the database does not tell
+     */
+    public int columnSize() {
+        EntityManager em = entityManagerFactory.createEntityManager();
+        try {
+            return em.unwrap(Session.class).doReturningWork(PasswordColumnMigrator::columnSize);
+        } finally {
+            em.close();
+        }
+    }
+
+    private void execute(String sql) {
+        EntityManager em = entityManagerFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            em.unwrap(Session.class).doWork(c -> {
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    ps.executeUpdate();
+                }
+            });
+            em.getTransaction().commit();
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    static String alterStatement(Dialect dialect, int length) {
+        String type = dialect.getTypeName(Types.VARCHAR, length, 0, 0);
+        if (dialect instanceof PostgreSQL81Dialect) {
+            return "alter table " + TABLE + " alter column " + COLUMN + " type " + type;
+        }
+        if (dialect instanceof MySQLDialect) {
+            return "alter table " + TABLE + " modify " + COLUMN + " " + type + " not null";
+        }
+        if (dialect instanceof Oracle8iDialect) {
+            return "alter table " + TABLE + " modify (" + COLUMN + " " + type + ")";
+        }
+        // H2 and SQL Server
+        return "alter table " + TABLE + " alter column " + COLUMN + " " + type + " not null";
+    }
+
+    private static int columnSize(Connection c) throws SQLException {
+        DatabaseMetaData metaData = c.getMetaData();
+        // the names are stored in upper or lower case depending on the database
+        for (String[] names : new String[][]{{TABLE, COLUMN}, {TABLE.toUpperCase(), COLUMN.toUpperCase()}}) {
+            try (ResultSet rs = metaData.getColumns(null, null, names[0], names[1])) {
+                if (rs.next()) {
+                    return rs.getInt("COLUMN_SIZE");
+                }
+            }
+        }
+        return -1;
+    }
+}
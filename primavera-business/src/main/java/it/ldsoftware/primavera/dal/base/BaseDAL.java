@@ -1,19 +1,148 @@
 package it.ldsoftware.primavera.dal.base;
 
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.QBean;
 import it.ldsoftware.primavera.model.base.BaseEntity;
+import it.ldsoftware.primavera.query.Cursor;
+import it.ldsoftware.primavera.query.KeysetPage;
+import it.ldsoftware.primavera.query.Sort;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.querydsl.QueryDslPredicateExecutor;
+import org.springframework.data.repository.NoRepositoryBean;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
 /**
  * Created by luca on 11/04/16.
  * Base Data Access Layer object.
  */
 @Repository
+@NoRepositoryBean
 public interface BaseDAL<E extends BaseEntity> extends JpaRepository<E, Long>, QueryDslPredicateExecutor<E> {
 
+    /**
+     * Finds an entity with everything an editor needs, see {@link FetchPlan#EDITOR}
+     *
+     * @param id the id of the entity
+     * @return the entity, or null if it does not exist
+     */
     default E findFullById(Long id) {
-        return findOne(id);
+        return findOne(id, FetchPlan.EDITOR);
     }
 
+    /**
+     * Finds an entity loading the associations of the graph of the plan, if the entity declares one
+     *
+     * @param id   the id of the entity
+     * @param plan the fetch plan
+     * @return the entity, or null if it does not exist
+     */
+    E findOne(Long id, FetchPlan plan);
+
+    /**
+     * Finds the only entity that matches the predicate loading the associations of the graph of the plan,
+     * if the entity declares one
+     *
+     * @param predicate the filter
+     * @param plan      the fetch plan
+     * @return the entity, or null if none matches
+     */
+    E findOne(Predicate predicate, FetchPlan plan);
+
+    /**
+     * Finds a page of entities loading the associations of the graph of the plan, if the entity declares one.
+     * Graphs with collections should not be used here, see {@link FetchPlan#ROW}.
+     *
+     * @param predicate the filter, can be null
+     * @param pageable  the page and its sorting, can be null
+     * @param plan      the fetch plan
+     * @return the page
+     */
+    Page<E> findAll(Predicate predicate, Pageable pageable, FetchPlan plan);
+
+    /**
+     * Finds a page of entities with keyset pagination: the rows are ordered by the sort property
+     * and by id, and the page starts right after the cursor. No count query is performed and the
+     * cost of a page does not depend on how deep it is. Rows with a null sort value come last.
+     *
+     * @param predicate the filter, can be null
+     * @param sort      the sort property, if null the entities are sorted by id
+     * @param cursor    the cursor returned by the previous page, null for the first one
+     * @param size      the size of the page
+     * @return the page, with the cursor of the next one
+     * @see DefaultBaseDAL
+     */
+    KeysetPage<E> findAll(Predicate predicate, Sort sort, Cursor cursor, int size);
+
+    /**
+     * Passes every entity that matches the predicate to the consumer, reading them with a forward-only
+     * cursor instead of loading the whole result, with the {@link FetchPlan#EXPORT} plan.
+     * The entities are read-only, and the persistence context
+     * is cleared every batchSize rows: the consumer must not keep references to them (or to lazy
+     * associations) after it returns. The pending changes of the transaction, if any, are flushed before
+     * each clear, so that they are not lost.
+     *
+     * @param predicate the filter, can be null
+     * @param batchSize the JDBC fetch size, and the number of rows after which the context is cleared
+     * @param consumer  the consumer of the entities
+     * @throws IllegalArgumentException if the batch size is not positive
+     */
+    void forEach(Predicate predicate, int batchSize, Consumer<? super E> consumer);
+
+    /**
+     * Deletes the entities with the given ids. Entities that do not involve other tables (no collections,
+     * no inheritance) are removed with a single DELETE ... WHERE id IN statement, the others are loaded
+     * with a single query and removed one by one, so that cascades are honoured.
+     *
+     * @param ids the ids to delete
+     * @return the ids that existed and have been deleted
+     */
+    List<Long> deleteAllById(Collection<Long> ids);
+
+    /**
+     * Reads the projection of the entities that match the predicate instead of the entities: only the
+     * columns of the projection are selected, and nothing enters the persistence context, so there is no
+     * dirty checking and no association is loaded.
+     *
+     * @param predicate  the filter, can be null
+     * @param projection the projection, e.g. one built by {@link #projection(Class, Collection)}
+     * @param <P>        the type of the projection
+     * @return the projections
+     */
+    <P> List<P> project(Predicate predicate, Expression<P> projection);
+
+    /**
+     * Same as {@link #project(Predicate, Expression)}, one page at a time
+     *
+     * @param predicate  the filter, can be null
+     * @param projection the projection
+     * @param pageable   the page and its sorting, can be null
+     * @param <P>        the type of the projection
+     * @return the page of projections
+     */
+    <P> Page<P> project(Predicate predicate, Expression<P> projection, Pageable pageable);
+
+    /**
+     * Builds a bean projection that fills the properties of the type with the columns of the entity with the
+     * same name. Properties that are not basic attributes of the entity (associations, collections, embedded
+     * or computed values) or whose type does not match are skipped.
+     *
+     * @param type       the bean to fill, with a default constructor and setters
+     * @param properties the properties to fill
+     * @param <P>        the type of the bean
+     * @return the projection
+     */
+    <P> QBean<P> projection(Class<P> type, Collection<String> properties);
+
+    /**
+     * @return the class of the entities of this DAL
+     */
+    Class<E> getEntityClass();
+
 }
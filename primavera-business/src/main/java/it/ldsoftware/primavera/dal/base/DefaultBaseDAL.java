@@ -0,0 +1,301 @@
+package it.ldsoftware.primavera.dal.base;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.EntityPath;
+import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Order;
+import com.querydsl.core.types.OrderSpecifier;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.Projections;
+import com.querydsl.core.types.QBean;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.core.types.dsl.ComparablePath;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.PathBuilder;
+import com.querydsl.jpa.JPQLQuery;
+import com.querydsl.jpa.impl.AbstractJPAQuery;
+import com.querydsl.jpa.impl.JPADeleteClause;
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import it.ldsoftware.primavera.query.Cursor;
+import it.ldsoftware.primavera.query.KeysetPage;
+import it.ldsoftware.primavera.query.Sort;
+import org.springframework.beans.BeanUtils;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.support.JpaEntityInformation;
+import org.springframework.data.jpa.repository.support.QueryDslJpaRepository;
+import org.springframework.data.jpa.repository.support.Querydsl;
+import org.springframework.data.querydsl.SimpleEntityPathResolver;
+import org.springframework.data.repository.support.PageableExecutionUtils;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
+
+import javax.annotation.Nullable;
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import java.beans.PropertyDescriptor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.querydsl.core.types.OrderSpecifier.NullHandling.NullsLast;
+
+/**
+ * Created by luca on 14/06/17.
+ * Base implementation of every {@link BaseDAL}, registered as repository base class
+ * in the business configuration. It adds the operations that cannot be expressed
+ * with Spring Data query methods.
+ * <p>
+ * The entity graphs of the {@link FetchPlan}s declared by the entity are looked up once, when the DAL is created.
+ *
+ * @param <E> the entity
+ */
+public class DefaultBaseDAL<E extends BaseEntity> extends QueryDslJpaRepository<E, Long> implements BaseDAL<E> {
+
+    private static final String ID = "id";
+    private static final String HINT_FETCH_SIZE = "org.hibernate.fetchSize";
+    private static final String HINT_READ_ONLY = "org.hibernate.readOnly";
+    private static final String HINT_LOAD_GRAPH = "javax.persistence.loadgraph";
+
+    private final EntityManager entityManager;
+    private final Class<E> entityClass;
+    private final EntityPath<E> path;
+    private final PathBuilder<E> builder;
+    private final Querydsl querydsl;
+    private final boolean bulkDeletable;
+    private final Map<FetchPlan, String> graphs = new EnumMap<>(FetchPlan.class);
+
+    public DefaultBaseDAL(JpaEntityInformation<E, Long> entityInformation, EntityManager entityManager) {
+        super(entityInformation, entityManager);
+        this.entityManager = entityManager;
+        this.entityClass = entityInformation.getJavaType();
+        this.path = SimpleEntityPathResolver.INSTANCE.createPath(entityInformation.getJavaType());
+        this.builder = new PathBuilder<>(path.getType(), path.getMetadata());
+        this.querydsl = new Querydsl(entityManager, builder);
+        this.bulkDeletable = isBulkDeletable(entityManager.getMetamodel(), entityInformation.getJavaType());
+        for (FetchPlan plan : FetchPlan.values()) {
+            try {
+                entityManager.getEntityGraph(plan.graphName(entityClass));
+                graphs.put(plan, plan.graphName(entityClass));
+            } catch (IllegalArgumentException e) {
+                // not declared, the plan relies on batch fetching
+            }
+        }
+    }
+
+    @Override
+    public E findOne(Long id, FetchPlan plan) {
+        if (!graphs.containsKey(plan)) {
+            return findOne(id);
+        }
+        // the graph is honoured by queries, while find would ignore it
+        return findOne(builder.getNumber(ID, Long.class).eq(id), plan);
+    }
+
+    @Override
+    public E findOne(Predicate predicate, FetchPlan plan) {
+        // the joined collections repeat the row
+        AbstractJPAQuery<E, ?> query = (AbstractJPAQuery<E, ?>) createQuery(toArray(predicate)).select(path).distinct();
+        applyPlan(query, plan);
+        return query.fetchOne();
+    }
+
+    @Override
+    public Page<E> findAll(Predicate predicate, @Nullable Pageable pageable, FetchPlan plan) {
+        JPQLQuery<?> count = createCountQuery(predicate);
+        JPQLQuery<E> query = querydsl.applyPagination(pageable, createQuery(toArray(predicate)).select(path));
+        applyPlan((AbstractJPAQuery<E, ?>) query, plan);
+        return PageableExecutionUtils.getPage(query.fetch(), pageable, count::fetchCount);
+    }
+
+    @Override
+    public Class<E> getEntityClass() {
+        return entityClass;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public KeysetPage<E> findAll(Predicate predicate, Sort sort, @Nullable Cursor cursor, int size) {
+        Sort actualSort = sort == null ? Sort.EMPTY : sort;
+        boolean byId = actualSort.getProperty().equals(ID);
+        Order order = actualSort.isSortAscending() ? Order.ASC : Order.DESC;
+
+        ComparablePath<Comparable> key = builder.getComparable(actualSort.getProperty(), Comparable.class);
+        NumberPath<Long> id = builder.getNumber(ID, Long.class);
+
+        List<Predicate> where = new ArrayList<>(2);
+        if (predicate != null) {
+            where.add(predicate);
+        }
+        if (cursor != null) {
+            where.add(byId ? after(id, cursor.getId(), order) : after(key, id, cursor, order));
+        }
+
+        List<OrderSpecifier<?>> orderBy = new ArrayList<>(2);
+        if (!byId) {
+            orderBy.add(new OrderSpecifier<>(order, key, NullsLast));
+        }
+        orderBy.add(new OrderSpecifier<>(order, id));
+
+        List<Tuple> rows = createQuery(where.toArray(new Predicate[where.size()]))
+                .select(key, path)
+                .orderBy(orderBy.toArray(new OrderSpecifier[orderBy.size()]))
+                .limit(size + 1)
+                .fetch();
+
+        List<E> content = new ArrayList<>(Math.min(rows.size(), size));
+        for (int i = 0; i < rows.size() && i < size; i++) {
+            content.add(rows.get(i).get(path));
+        }
+
+        Cursor next = null;
+        if (rows.size() > size) {
+            Tuple last = rows.get(size - 1);
+            next = new Cursor(last.get(key), last.get(path).getId());
+        }
+        return new KeysetPage<>(content, next);
+    }
+
+    @Override
+    public void forEach(Predicate predicate, int batchSize, Consumer<? super E> consumer) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("The batch size must be positive, was " + batchSize);
+        AbstractJPAQuery<E, ?> query = (AbstractJPAQuery<E, ?>) createQuery(toArray(predicate)).select(path);
+        query.setHint(HINT_FETCH_SIZE, batchSize).setHint(HINT_READ_ONLY, true);
+        applyPlan(query, FetchPlan.EXPORT);
+
+        int count = 0;
+        detach();
+        try (CloseableIterator<E> iterator = query.iterate()) {
+            while (iterator.hasNext()) {
+                consumer.accept(iterator.next());
+                if (++count % batchSize == 0) {
+                    detach();
+                }
+            }
+        }
+        detach();
+    }
+
+    /**
+     * Clears the persistence context, writing first the pending changes of the transaction, if any
+     */
+    private void detach() {
+        if (entityManager.isJoinedToTransaction()) {
+            entityManager.flush();
+        }
+        entityManager.clear();
+    }
+
+    @Override
+    public <P> List<P> project(Predicate predicate, Expression<P> projection) {
+        return createQuery(toArray(predicate)).select(projection).fetch();
+    }
+
+    @Override
+    public <P> Page<P> project(Predicate predicate, Expression<P> projection, @Nullable Pageable pageable) {
+        JPQLQuery<?> count = createCountQuery(predicate);
+        JPQLQuery<P> query = querydsl.applyPagination(pageable, createQuery(toArray(predicate)).select(projection));
+        return PageableExecutionUtils.getPage(query.fetch(), pageable, count::fetchCount);
+    }
+
+    @Override
+    public <P> QBean<P> projection(Class<P> type, Collection<String> properties) {
+        EntityType<E> entity = entityManager.getMetamodel().entity(entityClass);
+        Map<String, Expression<?>> bindings = new LinkedHashMap<>();
+        for (String property : properties) {
+            PropertyDescriptor descriptor = BeanUtils.getPropertyDescriptor(type, property);
+            if (descriptor == null || descriptor.getWriteMethod() == null) {
+                continue;
+            }
+            for (SingularAttribute<? super E, ?> attribute : entity.getSingularAttributes()) {
+                if (attribute.getName().equals(property)
+                        && attribute.getPersistentAttributeType() == Attribute.PersistentAttributeType.BASIC
+                        && ClassUtils.isAssignable(descriptor.getPropertyType(), attribute.getJavaType())) {
+                    bindings.put(property, builder.get(property, attribute.getJavaType()));
+                }
+            }
+        }
+        return Projections.bean(type, bindings);
+    }
+
+    @Override
+    @Transactional
+    public List<Long> deleteAllById(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        NumberPath<Long> id = builder.getNumber(ID, Long.class);
+        if (bulkDeletable) {
+            List<Long> existing = createQuery(id.in(ids)).select(id).fetch();
+            if (!existing.isEmpty()) {
+                new JPADeleteClause(entityManager, path).where(id.in(existing)).execute();
+            }
+            return existing;
+        }
+
+        List<Long> deleted = new ArrayList<>(ids.size());
+        for (E entity : findAll(ids)) {
+            delete(entity);
+            deleted.add(entity.getId());
+        }
+        return deleted;
+    }
+
+    /**
+     * An entity can be removed with a single DELETE statement only if removing it does not
+     * involve other tables: no collections (which could be cascaded or mapped by join tables)
+     * and no entity inheritance.
+     */
+    private static boolean isBulkDeletable(Metamodel metamodel, Class<?> type) {
+        EntityType<?> entity = metamodel.entity(type);
+        if (!entity.getPluralAttributes().isEmpty() || entity.getSupertype() instanceof EntityType) {
+            return false;
+        }
+        for (EntityType<?> other : metamodel.getEntities()) {
+            if (!other.equals(entity) && type.isAssignableFrom(other.getJavaType())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void applyPlan(AbstractJPAQuery<E, ?> query, FetchPlan plan) {
+        String graph = graphs.get(plan);
+        if (graph != null) {
+            query.setHint(HINT_LOAD_GRAPH, entityManager.getEntityGraph(graph));
+        }
+    }
+
+    private static Predicate[] toArray(Predicate predicate) {
+        return predicate == null ? new Predicate[0] : new Predicate[]{predicate};
+    }
+
+    private static BooleanExpression after(NumberPath<Long> id, long lastId, Order order) {
+        return order == Order.ASC ? id.gt(lastId) : id.lt(lastId);
+    }
+
+    /**
+     * Rows following the cursor when ordering by key and id, with null keys at the end:
+     * (key, id) after (value, lastId), or any row with a null key if the cursor is not yet among them.
+     */
+    @SuppressWarnings("unchecked")
+    private static BooleanExpression after(ComparablePath<Comparable> key, NumberPath<Long> id, Cursor cursor,
+                                           Order order) {
+        Comparable value = (Comparable) cursor.getSortValue();
+        if (value == null) {
+            return key.isNull().and(after(id, cursor.getId(), order));
+        }
+        BooleanExpression beyond = order == Order.ASC ? key.gt(value) : key.lt(value);
+        return beyond.or(key.eq(value).and(after(id, cursor.getId(), order))).or(key.isNull());
+    }
+}
@@ -0,0 +1,37 @@
+package it.ldsoftware.primavera.dal.base;
+
+/**
+ * Created by luca on 03/07/17.
+ * What a read is for, and so which associations it loads with the entities.
+ * <p>
+ * Collections are lazy and fetched in batches of {@link it.ldsoftware.primavera.model.base.BaseEntity#FETCH_BATCH_SIZE}
+ * rows, so touching the same collection on every entity of a page costs one query per batch instead of one per row.
+ * A plan can also name an entity graph, declared on the entity with {@code @NamedEntityGraph} and named after it
+ * (see {@link #graphName(Class)}), that loads the associations in the query of the entity itself. Entities without
+ * the graph are read with batch fetching alone. Translations are always fetched in batches: Hibernate ignores
+ * graphs that include them.
+ */
+public enum FetchPlan {
+    /**
+     * A row of a grid: nothing but the entity, its collections are loaded in batches if they are used.
+     * It is the only plan safe to use with paging, as collections joined in a paged query are paged in memory.
+     */
+    ROW,
+    /**
+     * An editor: a single entity with everything it shows, e.g. "Person.editor"
+     */
+    EDITOR,
+    /**
+     * An export: entities streamed in large numbers, with the single valued associations of the graph,
+     * e.g. "Person.export"
+     */
+    EXPORT;
+
+    /**
+     * @param entity the entity class
+     * @return the name of the graph of this plan for the entity, e.g. "User.editor"
+     */
+    public String graphName(Class<?> entity) {
+        return entity.getSimpleName() + "." + name().toLowerCase();
+    }
+}
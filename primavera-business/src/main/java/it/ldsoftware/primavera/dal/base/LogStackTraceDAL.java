@@ -0,0 +1,18 @@
+package it.ldsoftware.primavera.dal.base;
+
+import it.ldsoftware.primavera.model.base.LogStackTrace;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Created by luca on 18/06/17.
+ * DAL for the stack traces of the log entries
+ */
+@Repository
+public interface LogStackTraceDAL extends BaseDAL<LogStackTrace> {
+    LogStackTrace findByHash(String hash);
+
+    List<LogStackTrace> findByHashIn(Collection<String> hashes);
+}
@@ -0,0 +1,31 @@
+package it.ldsoftware.primavera.dal.base;
+
+import it.ldsoftware.primavera.model.lang.Translatable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.NoRepositoryBean;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Created by luca on 04/07/17.
+ * DAL of the {@link Translatable} entities. Besides loading the entities with all their translations, it can read
+ * the translations of a single language, so that a grid showing one language does not load the others.
+ *
+ * @param <E> the translatable entity
+ */
+@NoRepositoryBean
+public interface TranslatableDAL<E extends Translatable<?>> extends BaseDAL<E> {
+
+    /**
+     * Finds the translations of the entities in the language and in the default language of each entity,
+     * without loading their translations collection.
+     *
+     * @param ids  the ids of the entities
+     * @param lang the two-character code of the language
+     * @return rows of entity id, language and translation; at most two rows for each entity
+     */
+    @Query("select e.id, key(t), value(t) from #{#entityName} e join e.translations t " +
+            "where e.id in ?1 and (key(t) = ?2 or key(t) = e.defaultLang)")
+    List<Object[]> findTranslations(Collection<Long> ids, String lang);
+}
@@ -2,6 +2,7 @@ package it.ldsoftware.primavera.dal.people;
 
 import it.ldsoftware.primavera.dal.base.BaseDAL;
 import it.ldsoftware.primavera.model.people.User;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -12,4 +13,13 @@ import org.springframework.stereotype.Repository;
  */
 @Repository
 public interface UserDAL extends BaseDAL<User> {
+
+    /**
+     * Finds the user by username or primary email together with its groups and roles,
+     * everything needed to authenticate in a single query.
+     */
+    @Query("select distinct u from User u left join fetch u.groups " +
+            "left join fetch u.userRoles ur left join fetch ur.role " +
+            "where u.username = ?1 or u.primaryEmail = ?1")
+    User findForLogin(String login);
 }
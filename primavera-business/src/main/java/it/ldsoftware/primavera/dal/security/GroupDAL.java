@@ -1,14 +1,30 @@
 package it.ldsoftware.primavera.dal.security;
 
-import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.base.TranslatableDAL;
 import it.ldsoftware.primavera.model.security.Group;
+import it.ldsoftware.primavera.model.security.GroupRole;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 /**
  * Created by luca on 12/04/16.
  * DAL class for the groups
  */
 @Repository
-public interface GroupDAL extends BaseDAL<Group> {
+public interface GroupDAL extends TranslatableDAL<Group> {
+    /**
+     * @deprecated use {@link it.ldsoftware.primavera.services.interfaces.GroupService#existsByCode(String)},
+     * served from the cached groups
+     */
+    @Deprecated
     long countByCode(String code);
+
+    @Query("select gr from GroupRole gr join fetch gr.group join fetch gr.role")
+    List<GroupRole> findAllGroupRoles();
+
+    @Query("select gr from GroupRole gr join fetch gr.group join fetch gr.role where gr.group.id in ?1")
+    List<GroupRole> findGroupRoles(Collection<Long> groupIds);
 }
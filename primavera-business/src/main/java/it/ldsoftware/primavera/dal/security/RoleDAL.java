@@ -1,16 +1,32 @@
 package it.ldsoftware.primavera.dal.security;
 
-import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.base.TranslatableDAL;
 import it.ldsoftware.primavera.model.security.Role;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 /**
  * Created by luca on 12/04/16.
  * DAL for roles
  */
 @Repository
-public interface RoleDAL extends BaseDAL<Role> {
+public interface RoleDAL extends TranslatableDAL<Role> {
+    /**
+     * @deprecated use {@link it.ldsoftware.primavera.services.interfaces.RoleService#findByRoleName(String)},
+     * served from the cached roles
+     */
+    @Deprecated
     Role findByCode(String code);
 
+    /**
+     * @deprecated use {@link it.ldsoftware.primavera.services.interfaces.RoleService#existsByRoleName(String)},
+     * served from the cached roles
+     */
+    @Deprecated
     long countByCode(String code);
+
+    @Query("select r.id, r.code from Role r")
+    List<Object[]> findAllCodes();
 }
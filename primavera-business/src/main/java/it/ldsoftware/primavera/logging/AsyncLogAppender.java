@@ -0,0 +1,196 @@
+package it.ldsoftware.primavera.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import lombok.Getter;
+import lombok.Setter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Created by luca on 18/06/17.
+ * Logback appender that writes the events on the zz_log table without slowing down the threads that log.
+ * Events are put in a bounded {@link LogRingBuffer} and a background thread drains it, handing
+ * batches of up to "batchSize" events to the {@link LogEntryWriter}.
+ * <p>
+ * When the database cannot keep up the buffer fills and the {@link OverflowPolicy} decides
+ * which events are lost; {@link #getQueueDepth()}, {@link #getDropped()}, {@link #getWritten()}
+ * and {@link #getFailed()} tell how the appender is doing.
+ * <p>
+ * It is registered on the root logger by the business configuration when
+ * {@code it.primavera.log.async.enabled} is true.
+ */
+public class AsyncLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+    public static final String APPENDER_NAME = "PRIMAVERA_DB";
+
+    @Getter @Setter
+    private LogEntryWriter writer;
+    @Getter @Setter
+    private int capacity = 8192;
+    @Getter @Setter
+    private int batchSize = 200;
+    @Getter @Setter
+    private OverflowPolicy policy = OverflowPolicy.DROP;
+    @Getter
+    private int sampleRate = 10;
+    @Getter @Setter
+    private Level threshold = Level.WARN;
+    @Getter @Setter
+    private long flushIntervalMillis = 500;
+
+    private LogRingBuffer<PendingLog> buffer;
+
+    private Thread worker;
+
+    private volatile boolean running;
+
+    private final AtomicLong dropped = new AtomicLong(), written = new AtomicLong(), failed = new AtomicLong(),
+            sampleCounter = new AtomicLong();
+
+    /**
+     * @param sampleRate with the {@link OverflowPolicy#SAMPLE} policy, one event out of sampleRate is kept
+     *                   once the buffer is three quarters full
+     */
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1)
+            throw new IllegalArgumentException("The sample rate must be at least 1, was " + sampleRate);
+        this.sampleRate = sampleRate;
+    }
+
+    /**
+     * Starts the appender and adds it to the root logger of the current logback context
+     */
+    public void attach() {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        setContext(context);
+        setName(APPENDER_NAME);
+        start();
+        context.getLogger(Logger.ROOT_LOGGER_NAME).addAppender(this);
+    }
+
+    /**
+     * Removes the appender from the root logger and stops it, writing the events still in the buffer
+     */
+    public void detach() {
+        ((LoggerContext) getContext()).getLogger(Logger.ROOT_LOGGER_NAME).detachAppender(this);
+        stop();
+    }
+
+    @Override
+    public void start() {
+        if (writer == null) {
+            addError("No writer set for the appender " + getName());
+            return;
+        }
+        buffer = new LogRingBuffer<>(capacity);
+        running = true;
+        worker = new Thread(this::drain, "primavera-log-writer");
+        worker.setDaemon(true);
+        worker.start();
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // anything logged while writing (e.g. by hibernate) would feed itself
+        if (!event.getLevel().isGreaterOrEqual(threshold) || Thread.currentThread() == worker) {
+            return;
+        }
+        if (policy == OverflowPolicy.SAMPLE && buffer.size() >= buffer.capacity() / 4 * 3
+                && sampleCounter.getAndIncrement() % sampleRate != 0) {
+            dropped.incrementAndGet();
+            return;
+        }
+
+        PendingLog log = new PendingLog(
+                LocalDateTime.ofInstant(Instant.ofEpochMilli(event.getTimeStamp()), ZoneId.systemDefault()),
+                event.getLevel().toString(), event.getLoggerName(), event.getFormattedMessage(),
+                event.getThrowableProxy(), currentUsername());
+        if (!buffer.offer(log)) {
+            dropped.incrementAndGet();
+        } else if (buffer.size() >= batchSize) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void drain() {
+        List<PendingLog> batch = new ArrayList<>(batchSize);
+        long flushInterval = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        while (running || buffer.size() > 0) {
+            buffer.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                if (running) {
+                    LockSupport.parkNanos(this, flushInterval);
+                }
+                continue;
+            }
+            try {
+                writer.write(batch);
+                written.addAndGet(batch.size());
+            } catch (RuntimeException e) {
+                failed.addAndGet(batch.size());
+                addError("Cannot write " + batch.size() + " log entries", e);
+            }
+            batch.clear();
+        }
+    }
+
+    private static String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null ? null : authentication.getName();
+    }
+
+    /**
+     * @return the number of events waiting to be written
+     */
+    public int getQueueDepth() {
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * @return the number of events lost because the buffer was full or discarded by sampling
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * @return the number of events lost because the database refused them
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+}
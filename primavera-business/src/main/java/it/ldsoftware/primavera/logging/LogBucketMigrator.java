@@ -0,0 +1,88 @@
+package it.ldsoftware.primavera.logging;
+
+import com.querydsl.core.Tuple;
+import com.querydsl.jpa.impl.JPAQuery;
+import com.querydsl.jpa.impl.JPAUpdateClause;
+import it.ldsoftware.primavera.model.base.QLogEntry;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.log4j.Logger;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.transaction.TransactionDefinition.PROPAGATION_REQUIRES_NEW;
+
+/**
+ * Created by luca on 05/07/17.
+ * Fills the log bucket of the entries written before the column existed, that hibernate adds empty to an
+ * existing zz_log table. Until then those entries are found by every range on the log date (see
+ * {@link it.ldsoftware.primavera.model.base.DayBucket}) and never removed by the {@link LogRetentionService}.
+ * <p>
+ * Entries are updated in chunks of "chunkSize", each in its own short transaction, grouped by day.
+ * It runs at startup unless {@code it.primavera.log.bucket.migrate=false}, and costs a single query
+ * once every entry has its bucket.
+ */
+public class LogBucketMigrator {
+    private static final Logger logger = Logger.getLogger(LogBucketMigrator.class);
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transaction;
+
+    @Getter @Setter
+    private int chunkSize = 1000;
+
+    public LogBucketMigrator(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.transaction.setPropagationBehavior(PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Fills the bucket of every entry that has none.
+     *
+     * @return the number of entries updated
+     */
+    public long migrate() {
+        long updated = 0, chunk;
+        do {
+            chunk = transaction.execute(status -> migrateChunk());
+            updated += chunk;
+        } while (chunk > 0);
+
+        if (updated > 0) {
+            logger.info("Log bucket filled on " + updated + " log entries");
+        }
+        return updated;
+    }
+
+    private long migrateChunk() {
+        QLogEntry entry = QLogEntry.logEntry;
+        List<Tuple> rows = new JPAQuery<>(entityManager).select(entry.id, entry.logDate).from(entry)
+                .where(entry.logBucket.isNull())
+                .limit(chunkSize)
+                .fetch();
+
+        Map<Long, List<Long>> idsByDay = new HashMap<>();
+        for (Tuple row : rows) {
+            LocalDateTime date = row.get(entry.logDate);
+            idsByDay.computeIfAbsent(date == null ? 0 : date.toLocalDate().toEpochDay(), d -> new ArrayList<>())
+                    .add(row.get(entry.id));
+        }
+        long updated = 0;
+        for (Map.Entry<Long, List<Long>> day : idsByDay.entrySet()) {
+            updated += new JPAUpdateClause(entityManager, entry).set(entry.logBucket, day.getKey())
+                    .where(entry.id.in(day.getValue()))
+                    .execute();
+        }
+        return updated;
+    }
+}
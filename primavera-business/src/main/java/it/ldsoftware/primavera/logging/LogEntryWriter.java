@@ -0,0 +1,161 @@
+package it.ldsoftware.primavera.logging;
+
+import it.ldsoftware.primavera.dal.base.LogEntryDAL;
+import it.ldsoftware.primavera.dal.base.LogStackTraceDAL;
+import it.ldsoftware.primavera.dal.people.UserDAL;
+import it.ldsoftware.primavera.model.base.LogEntry;
+import it.ldsoftware.primavera.model.base.LogStackTrace;
+import it.ldsoftware.primavera.model.people.QUser;
+import it.ldsoftware.primavera.model.people.User;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+
+/**
+ * Created by luca on 18/06/17.
+ * Writes a batch of {@link PendingLog}s in a single transaction: the entries are saved together,
+ * so that hibernate can send them in jdbc batches, and every distinct stack trace is stored only once.
+ * The ids of the most recent stack traces are cached, so that a storm of identical errors
+ * does not even need to look them up.
+ * <p>
+ * It is meant to be called by a single thread, the one of the {@link AsyncLogAppender}.
+ */
+public class LogEntryWriter {
+
+    static final int MAX_MESSAGE_LENGTH = 1000;
+    private static final int TRACE_CACHE_SIZE = 1024;
+
+    private final LogEntryDAL entryDAL;
+    private final LogStackTraceDAL traceDAL;
+    private final UserDAL userDAL;
+    private final TransactionTemplate transaction;
+
+    private final Map<String, Long> traceIds = new LinkedHashMap<String, Long>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > TRACE_CACHE_SIZE;
+        }
+    };
+
+    public LogEntryWriter(LogEntryDAL entryDAL, LogStackTraceDAL traceDAL, UserDAL userDAL,
+                          PlatformTransactionManager transactionManager) {
+        this.entryDAL = entryDAL;
+        this.traceDAL = traceDAL;
+        this.userDAL = userDAL;
+        this.transaction = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Writes the logs. If the write fails and some stack trace was taken from the cache, the cache
+     * is cleared and the write attempted again, as the retention may have removed unused stack traces.
+     */
+    public synchronized void write(List<PendingLog> logs) {
+        try {
+            doWrite(logs);
+        } catch (RuntimeException e) {
+            if (traceIds.isEmpty()) {
+                throw e;
+            }
+            traceIds.clear();
+            doWrite(logs);
+        }
+    }
+
+    private void doWrite(List<PendingLog> logs) {
+        Map<String, Long> newTraces = new HashMap<>();
+        transaction.execute(status -> {
+            entryDAL.save(toEntries(logs, newTraces));
+            return null;
+        });
+        traceIds.putAll(newTraces);
+    }
+
+    private List<LogEntry> toEntries(List<PendingLog> logs, Map<String, Long> newTraces) {
+        String[] hashes = new String[logs.size()];
+        Map<String, String> stackTraces = new HashMap<>();
+        Set<String> usernames = new HashSet<>();
+        for (int i = 0; i < logs.size(); i++) {
+            PendingLog log = logs.get(i);
+            String stackTrace = log.getStackTrace();
+            if (stackTrace != null) {
+                hashes[i] = LogStackTrace.hashOf(stackTrace);
+                stackTraces.putIfAbsent(hashes[i], stackTrace);
+            }
+            if (log.getUsername() != null) {
+                usernames.add(log.getUsername());
+            }
+        }
+
+        Map<String, LogStackTrace> traces = findTraces(stackTraces, newTraces);
+        Map<String, User> users = findUsers(usernames);
+
+        List<LogEntry> entries = new ArrayList<>(logs.size());
+        for (int i = 0; i < logs.size(); i++) {
+            PendingLog log = logs.get(i);
+            LogEntry entry = new LogEntry();
+            entry.setLogDate(log.getLogDate());
+            entry.setLevel(log.getLevel());
+            entry.setLogger(log.getLogger());
+            entry.setMessage(truncate(log.getMessage()));
+            if (hashes[i] != null) {
+                entry.setTrace(traces.get(hashes[i]));
+            }
+            if (log.getUsername() != null) {
+                entry.setUser(users.get(log.getUsername()));
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Resolves the stack traces by hash: cached ones become references without queries,
+     * the others are looked up together and the missing ones are inserted.
+     */
+    private Map<String, LogStackTrace> findTraces(Map<String, String> stackTraces, Map<String, Long> newTraces) {
+        Map<String, LogStackTrace> traces = new HashMap<>();
+        Set<String> unknown = new HashSet<>();
+        for (String hash : stackTraces.keySet()) {
+            Long id = traceIds.get(hash);
+            if (id == null) {
+                unknown.add(hash);
+            } else {
+                traces.put(hash, traceDAL.getOne(id));
+            }
+        }
+        if (unknown.isEmpty()) {
+            return traces;
+        }
+
+        for (LogStackTrace trace : traceDAL.findByHashIn(unknown)) {
+            traces.put(trace.getHash(), trace);
+            newTraces.put(trace.getHash(), trace.getId());
+            unknown.remove(trace.getHash());
+        }
+        List<LogStackTrace> missing = new ArrayList<>(unknown.size());
+        for (String hash : unknown) {
+            missing.add(new LogStackTrace(stackTraces.get(hash)));
+        }
+        for (LogStackTrace trace : traceDAL.save(missing)) {
+            traces.put(trace.getHash(), trace);
+            newTraces.put(trace.getHash(), trace.getId());
+        }
+        return traces;
+    }
+
+    private Map<String, User> findUsers(Set<String> usernames) {
+        Map<String, User> users = new HashMap<>();
+        if (!usernames.isEmpty()) {
+            userDAL.findAll(QUser.user.username.in(usernames)).forEach(u -> users.put(u.getUsername(), u));
+        }
+        return users;
+    }
+
+    private static String truncate(String message) {
+        if (message == null) {
+            return "";
+        }
+        return message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message;
+    }
+}
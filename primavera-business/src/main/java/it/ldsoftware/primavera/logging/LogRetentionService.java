@@ -0,0 +1,161 @@
+package it.ldsoftware.primavera.logging;
+
+import com.querydsl.jpa.JPAExpressions;
+import com.querydsl.jpa.impl.JPADeleteClause;
+import com.querydsl.jpa.impl.JPAQuery;
+import it.ldsoftware.primavera.model.base.QArchivedLogEntry;
+import it.ldsoftware.primavera.model.base.QLogEntry;
+import it.ldsoftware.primavera.model.base.QLogStackTrace;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.log4j.Logger;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+import org.springframework.scheduling.support.CronTrigger;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.springframework.transaction.TransactionDefinition.PROPAGATION_REQUIRES_NEW;
+
+/**
+ * Created by luca on 19/06/17.
+ * Keeps the zz_log table small. Log entries are grouped by day in the log bucket column, and the buckets
+ * older than the retention (a number of days or months) are removed or, in archive mode, moved to
+ * the zz_log_archive table. Stack traces no longer referenced by any entry are removed afterwards.
+ * <p>
+ * Rows are removed in chunks of "chunkSize" ids, each in its own short transaction, so that the live
+ * table is never locked for long and the writes of the {@link AsyncLogAppender} can go on.
+ * On databases where zz_log is partitioned by log bucket the same chunks fall in the expired partitions only.
+ * <p>
+ * It is enabled with {@code it.primavera.log.retention.enabled=true} and runs following the
+ * {@code it.primavera.log.retention.cron} expression.
+ */
+public class LogRetentionService {
+    private static final Logger logger = Logger.getLogger(LogRetentionService.class);
+
+    private static final String ARCHIVE = "insert into ArchivedLogEntry " +
+            "(id, version, logDate, logBucket, user, message, trace, level, logger) " +
+            "select e.id, e.version, e.logDate, e.logBucket, e.user, e.message, e.trace, e.level, e.logger " +
+            "from LogEntry e where e.id in (:ids)";
+
+    public enum Granularity {DAY, MONTH}
+
+    public enum Mode {PURGE, ARCHIVE}
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transaction;
+
+    @Getter @Setter
+    private Granularity granularity = Granularity.DAY;
+    @Getter @Setter
+    private int keep = 30;
+    @Getter @Setter
+    private Mode mode = Mode.PURGE;
+    @Getter @Setter
+    private int chunkSize = 1000;
+    @Getter @Setter
+    private String cron = "0 30 3 * * *";
+
+    private ScheduledExecutorService executor;
+
+    public LogRetentionService(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.transaction.setPropagationBehavior(PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Schedules the retention following the cron expression
+     */
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "primavera-log-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        new ConcurrentTaskScheduler(executor).schedule(this::removeExpired, new CronTrigger(cron));
+    }
+
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Removes (or archives) the entries of the expired buckets, then the unused stack traces.
+     *
+     * @return the number of log entries removed
+     */
+    public long removeExpired() {
+        long bucket = firstKeptBucket(LocalDate.now());
+        long removed = 0, chunk;
+        do {
+            chunk = transaction.execute(status -> removeChunk(bucket));
+            removed += chunk;
+        } while (chunk > 0);
+
+        long traces = 0;
+        do {
+            chunk = transaction.execute(status -> removeUnusedTraces());
+            traces += chunk;
+        } while (chunk > 0);
+
+        if (removed > 0 || traces > 0) {
+            logger.info((mode == Mode.ARCHIVE ? "Archived " : "Removed ") + removed
+                    + " log entries older than " + LocalDate.ofEpochDay(bucket) + " and " + traces + " stack traces");
+        }
+        return removed;
+    }
+
+    /**
+     * @param today the current day
+     * @return the oldest bucket that is kept, i.e. the first day of the oldest day or month in the retention
+     */
+    long firstKeptBucket(LocalDate today) {
+        switch (granularity) {
+            case MONTH:
+                return today.withDayOfMonth(1).minusMonths(keep).toEpochDay();
+            default:
+                return today.minusDays(keep).toEpochDay();
+        }
+    }
+
+    private long removeChunk(long firstKept) {
+        QLogEntry entry = QLogEntry.logEntry;
+        List<Long> ids = new JPAQuery<>(entityManager).select(entry.id).from(entry)
+                .where(entry.logBucket.lt(firstKept))
+                .orderBy(entry.logBucket.asc(), entry.id.asc())
+                .limit(chunkSize)
+                .fetch();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        if (mode == Mode.ARCHIVE) {
+            entityManager.createQuery(ARCHIVE).setParameter("ids", ids).executeUpdate();
+        }
+        return new JPADeleteClause(entityManager, entry).where(entry.id.in(ids)).execute();
+    }
+
+    private long removeUnusedTraces() {
+        QLogStackTrace trace = QLogStackTrace.logStackTrace;
+        QLogEntry entry = QLogEntry.logEntry;
+        QArchivedLogEntry archived = QArchivedLogEntry.archivedLogEntry;
+        List<Long> ids = new JPAQuery<>(entityManager).select(trace.id).from(trace)
+                .where(JPAExpressions.selectOne().from(entry).where(entry.trace.eq(trace)).notExists(),
+                        JPAExpressions.selectOne().from(archived).where(archived.trace.eq(trace)).notExists())
+                .limit(chunkSize)
+                .fetch();
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        return new JPADeleteClause(entityManager, trace).where(trace.id.in(ids)).execute();
+    }
+}
@@ -0,0 +1,147 @@
+package it.ldsoftware.primavera.logging;
+
+import com.querydsl.jpa.impl.JPAQuery;
+import it.ldsoftware.primavera.model.base.LogStackTrace;
+import it.ldsoftware.primavera.model.base.QLogStackTrace;
+import lombok.Getter;
+import lombok.Setter;
+import org.apache.log4j.Logger;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.springframework.transaction.TransactionDefinition.PROPAGATION_REQUIRES_NEW;
+
+/**
+ * Created by luca on 05/07/17.
+ * Moves the stack traces of the entries written before the {@link LogStackTrace}s existed, that an existing
+ * zz_log table keeps in its stack_trace column, to the zz_log_trace table. Hibernate does not drop the old
+ * column, so until then those entries show no stack trace.
+ * <p>
+ * Each stack trace is hashed and stored once, as the {@link LogEntryWriter} does, the entries are linked to it
+ * and their old column emptied, in chunks of "chunkSize" entries, each in its own short transaction.
+ * It runs at startup unless {@code it.primavera.log.trace.migrate=false}, and costs a look at the table
+ * metadata on the databases that never had the column. Once done the column can be dropped by hand.
+ */
+public class LogTraceMigrator {
+    private static final Logger logger = Logger.getLogger(LogTraceMigrator.class);
+
+    private static final String TABLE = "zz_log", COLUMN = "stack_trace";
+
+    private final EntityManager entityManager;
+    private final TransactionTemplate transaction;
+
+    @Getter @Setter
+    private int chunkSize = 200;
+
+    public LogTraceMigrator(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager) {
+        this.entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        this.transaction = new TransactionTemplate(transactionManager);
+        this.transaction.setPropagationBehavior(PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Moves the stack trace of every entry that still has one in the old column.
+     *
+     * @return the number of entries updated
+     */
+    public long migrate() {
+        if (!transaction.execute(status -> session().doReturningWork(LogTraceMigrator::hasColumn))) {
+            return 0;
+        }
+        long updated = 0, chunk;
+        do {
+            chunk = transaction.execute(status -> migrateChunk());
+            updated += chunk;
+        } while (chunk > 0);
+
+        if (updated > 0) {
+            logger.info("Stack traces moved to zz_log_trace from " + updated + " log entries");
+        }
+        return updated;
+    }
+
+    private long migrateChunk() {
+        Map<Long, String> stackTraces = session().doReturningWork(this::readChunk);
+        if (stackTraces.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, String> byHash = new HashMap<>();
+        stackTraces.values().forEach(s -> byHash.putIfAbsent(LogStackTrace.hashOf(s), s));
+        QLogStackTrace trace = QLogStackTrace.logStackTrace;
+        Map<String, Long> traceIds = new HashMap<>();
+        new JPAQuery<>(entityManager).select(trace.hash, trace.id).from(trace)
+                .where(trace.hash.in(byHash.keySet()))
+                .fetch()
+                .forEach(row -> traceIds.put(row.get(trace.hash), row.get(trace.id)));
+        for (Map.Entry<String, String> missing : byHash.entrySet()) {
+            if (!traceIds.containsKey(missing.getKey())) {
+                LogStackTrace created = new LogStackTrace(missing.getValue());
+                entityManager.persist(created);
+                traceIds.put(created.getHash(), created.getId());
+            }
+        }
+        // the entries reference the new traces
+        entityManager.flush();
+
+        session().doWork(c -> {
+            try (PreparedStatement update = c.prepareStatement(
+                    "update " + TABLE + " set trace_id = ?, " + COLUMN + " = null where id = ?")) {
+                for (Map.Entry<Long, String> entry : stackTraces.entrySet()) {
+                    update.setLong(1, traceIds.get(LogStackTrace.hashOf(entry.getValue())));
+                    update.setLong(2, entry.getKey());
+                    update.addBatch();
+                }
+                update.executeBatch();
+            }
+        });
+        return stackTraces.size();
+    }
+
+    private Map<Long, String> readChunk(Connection c) throws SQLException {
+        Map<Long, String> stackTraces = new LinkedHashMap<>();
+        try (PreparedStatement select = c.prepareStatement(
+                "select id, " + COLUMN + " from " + TABLE + " where " + COLUMN + " is not null")) {
+            select.setMaxRows(chunkSize);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    stackTraces.put(rs.getLong(1), rs.getString(2));
+                }
+            }
+        }
+        return stackTraces;
+    }
+
+    private Session session() {
+        return entityManager.unwrap(Session.class);
+    }
+
+    private static boolean hasColumn(Connection c) throws SQLException {
+        DatabaseMetaData metaData = c.getMetaData();
+        String escape = metaData.getSearchStringEscape() == null ? "" : metaData.getSearchStringEscape();
+        // the names are stored in upper or lower case depending on the database
+        for (String table : new String[]{TABLE, TABLE.toUpperCase()}) {
+            String column = table.equals(TABLE) ? COLUMN : COLUMN.toUpperCase();
+            try (ResultSet rs = metaData.getColumns(null, null, table.replace("_", escape + "_"),
+                    column.replace("_", escape + "_"))) {
+                if (rs.next()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,17 @@
+package it.ldsoftware.primavera.logging;
+
+/**
+ * Created by luca on 18/06/17.
+ * What the {@link AsyncLogAppender} does when the database cannot keep up with the logs.
+ */
+public enum OverflowPolicy {
+    /**
+     * Every event is queued as long as there is room, the ones that find the buffer full are dropped
+     */
+    DROP,
+    /**
+     * Once the buffer is three quarters full only one event every "sampleRate" is queued,
+     * so that some room is left for the rest of the storm; the others are dropped
+     */
+    SAMPLE
+}
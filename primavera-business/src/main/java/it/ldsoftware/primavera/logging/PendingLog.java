@@ -0,0 +1,31 @@
+package it.ldsoftware.primavera.logging;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Created by luca on 18/06/17.
+ * A log event waiting to be written, with only the data needed to build the {@link it.ldsoftware.primavera.model.base.LogEntry}.
+ * The stack trace is rendered by the writer, not by the thread that logged the event.
+ */
+@Getter
+@AllArgsConstructor
+public final class PendingLog {
+    private final LocalDateTime logDate;
+    private final String level;
+    private final String logger;
+    private final String message;
+    private final IThrowableProxy throwable;
+    private final String username;
+
+    /**
+     * @return the full stack trace, or null if the event has no exception
+     */
+    public String getStackTrace() {
+        return throwable == null ? null : ThrowableProxyUtil.asString(throwable);
+    }
+}
@@ -1,6 +1,7 @@
 package it.ldsoftware.primavera.mapper.base;
 
 import it.ldsoftware.primavera.model.base.LogEntry;
+import it.ldsoftware.primavera.model.base.LogStackTrace;
 import it.ldsoftware.primavera.presentation.base.LogEntryDTO;
 import org.springframework.stereotype.Service;
 
@@ -18,7 +19,9 @@ public class LogMapper extends BaseMapper<LogEntry, LogEntryDTO> {
         model.setLogDate(view.getLogDate());
         model.setLogger(view.getLogger());
         model.setMessage(view.getMessage());
-        model.setStackTrace(view.getStackTrace());
+        if (view.getStackTrace() != null) {
+            model.setTrace(new LogStackTrace(view.getStackTrace()));
+        }
 
         return model;
     }
@@ -31,8 +34,13 @@ public class LogMapper extends BaseMapper<LogEntry, LogEntryDTO> {
         view.setLogDate(model.getLogDate());
         view.setLogger(model.getLogger());
         view.setMessage(model.getMessage());
-        view.setStackTrace(model.getStackTrace());
-        view.setUsername(model.getUser().getUsername());
+        if (model.getTrace() != null) {
+            view.setStackTrace(model.getTrace().getStackTrace());
+        }
+        if (model.getUser() != null) {
+            view.setUsername(model.getUser().getUsername());
+            view.setFullName(model.getUser().getFullName());
+        }
 
         return view;
     }
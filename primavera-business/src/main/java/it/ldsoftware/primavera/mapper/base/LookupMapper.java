@@ -6,6 +6,8 @@ import it.ldsoftware.primavera.model.lang.ShortTranslation;
 import it.ldsoftware.primavera.presentation.base.LookupDTO;
 import it.ldsoftware.primavera.presentation.lang.ShortTranslationDTO;
 
+import java.util.Map;
+
 /**
  * @author Luca Di Stefano
  */
@@ -41,6 +43,28 @@ public abstract class LookupMapper<E extends Lookup, D extends LookupDTO> extend
         return view;
     }
 
+    /**
+     * Converts the model with the translations of a single language, see
+     * {@link #convertToView(it.ldsoftware.primavera.model.lang.Translatable, Map)}. The description of the view
+     * is the one in the language, or in the default language of the model when it has not been translated.
+     *
+     * @param model        model (database) data
+     * @param translations the translations in the language and in the default language of the model
+     * @param lang         the two-character code of the language
+     * @return view (presentation) data
+     */
+    public D convertToView(E model, Map<String, ShortTranslation> translations, String lang) {
+        D view = convertToView(model, translations);
+        if (view != null) {
+            ShortTranslation translation = translations.get(lang);
+            if (translation == null)
+                translation = translations.get(model.getDefaultLang());
+            if (translation != null)
+                view.setDescription(translation.getDescription());
+        }
+        return view;
+    }
+
     /**
      * Must return the instance of the implementation of {@link Lookup}
      * with instance fields already set
@@ -6,6 +6,8 @@ import it.ldsoftware.primavera.model.lang.Translation;
 import it.ldsoftware.primavera.presentation.lang.TranslatableDTO;
 import it.ldsoftware.primavera.presentation.lang.TranslationDTO;
 
+import java.util.Map;
+
 /**
  * Abstract mapper for translatable entities.
  *
@@ -29,6 +31,27 @@ public abstract class TranslatableMapper<E extends Translatable<T>, T extends Tr
         return view;
     }
 
+    /**
+     * Converts the model with the given translations instead of its own, that are not even loaded: this is how
+     * a page of entities is converted with only the translations of the language it is shown in.
+     *
+     * @param model        model (database) instance
+     * @param translations the translations to convert, by language
+     * @return view (presentation) object
+     */
+    public D convertToView(E model, Map<String, T> translations) {
+        if (model == null)
+            return null;
+        D view = getTranslatableView(model);
+        view.setId(model.getId());
+        view.setDefaultLang(model.getDefaultLang());
+        translations.forEach((s, t) -> {
+            t.setLanguage(s);
+            view.addTranslation(s, getTranslationView(t));
+        });
+        return view;
+    }
+
     /**
      * Must return a {@link Translatable} instance with own fields already set
      *
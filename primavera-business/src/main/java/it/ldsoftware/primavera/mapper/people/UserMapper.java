@@ -6,66 +6,54 @@ import it.ldsoftware.primavera.mapper.security.RoleMapper;
 import it.ldsoftware.primavera.model.people.User;
 import it.ldsoftware.primavera.model.security.UserRole;
 import it.ldsoftware.primavera.presentation.people.UserDTO;
+import it.ldsoftware.primavera.presentation.security.RoleDTO;
+import it.ldsoftware.primavera.processor.GeneratedMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 /**
+ * The contacts and the groups are converted by the {@link ContactMapper} and the {@link GroupMapper};
+ * the roles of the view are the ones given directly to the user.
+ *
  * @author Luca Di Stefano
  */
 @Service
-public class UserMapper extends BaseMapper<User, UserDTO> {
+@GeneratedMapper(ignore = {"version", "people", "confirmPassword", "userRoles", "roles"})
+public abstract class UserMapper extends BaseMapper<User, UserDTO> {
 
-    private final RoleMapper roleMapper;
-    private final GroupMapper groupMapper;
+    // not private, the generated mapper uses them
+    final RoleMapper roleMapper;
+    final GroupMapper groupMapper;
+    final ContactMapper contactMapper;
 
     @Autowired
-    public UserMapper(RoleMapper roleMapper, GroupMapper groupMapper) {
+    public UserMapper(RoleMapper roleMapper, GroupMapper groupMapper, ContactMapper contactMapper) {
         this.roleMapper = roleMapper;
         this.groupMapper = groupMapper;
-    }
-
-    @Override
-    public User getModelInstance(UserDTO view) {
-        User model = new User();
-
-        new PersonMapper().fillModelFields(model, view);
-
-        model.setEnabled(view.isEnabled());
-        model.setPassword(view.getPassword());
-        model.setPrimaryEmail(view.getPrimaryEmail());
-        model.setUsername(view.getUsername());
-
-        model.setGroups(view.getGroups().stream().map(new GroupMapper()::convertToModel).collect(toSet()));
-
-        return model;
+        this.contactMapper = contactMapper;
     }
 
     @Override
     public UserDTO getViewInstance(User model) {
         UserDTO view = new UserDTO();
 
-        new PersonMapper().fillViewFields(view, model);
+        copy(model, view);
 
-        view.setEnabled(model.isEnabled());
-        view.setPassword(model.getPassword());
-        view.setPrimaryEmail(model.getPrimaryEmail());
-        view.setUsername(model.getUsername());
-
-        view.setRoles(model.getUserRoles()
-                .stream()
-                .map(UserRole::getRole)
-                .map(roleMapper::convertToView)
-                .collect(toList())
-        );
-        view.setGroups(model.getGroups()
-                .stream()
-                .map(groupMapper::convertToView)
-                .collect(toList())
-        );
+        Set<UserRole> userRoles = model.getUserRoles();
+        List<RoleDTO> roles = new ArrayList<>(userRoles.size());
+        for (UserRole userRole : userRoles)
+            roles.add(roleMapper.convertToView(userRole.getRole()));
+        view.setRoles(roles);
 
         return view;
     }
+
+    /**
+     * Copies the fields of the user in the view, apart from the roles
+     */
+    abstract void copy(User model, UserDTO view);
 }
@@ -5,31 +5,51 @@ import it.ldsoftware.primavera.mapper.security.RoleMapper;
 import it.ldsoftware.primavera.model.people.User;
 import it.ldsoftware.primavera.model.security.UserRole;
 import it.ldsoftware.primavera.presentation.people.UserVM;
+import it.ldsoftware.primavera.presentation.security.RoleDTO;
+import it.ldsoftware.primavera.processor.GeneratedMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
 
-import static java.util.stream.Collectors.toList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 
 /**
  * This is a special mapper that maps only the minimal fields for front-end
  * viewing of an user. Since there already is a mapper for the User class,
  * this one will not implement the {@link it.ldsoftware.primavera.mapper.base.BaseMapper}
  */
-public class UserViewMapper {
+@Service
+@GeneratedMapper(ignore = "roles")
+public abstract class UserViewMapper {
+
+    // not private, the generated mapper uses them
+    final RoleMapper roleMapper;
+    final GroupMapper groupMapper;
+
+    @Autowired
+    public UserViewMapper(RoleMapper roleMapper, GroupMapper groupMapper) {
+        this.roleMapper = roleMapper;
+        this.groupMapper = groupMapper;
+    }
 
     public UserVM convertToView(User model) {
         UserVM view = new UserVM();
 
-        view.setEnabled(model.isEnabled());
-        view.setFullName(model.getFullName());
-        view.setName(model.getName());
-        view.setPrimaryEmail(model.getPrimaryEmail());
-        view.setSurname(model.getSurname());
-        view.setUsername(model.getUsername());
+        copy(model, view);
 
-        view.setRoles(model.getUserRoles().stream().map(UserRole::getRole).map(new RoleMapper()::convertToView)
-                .collect(toList()));
-        view.setGroups(model.getGroups().stream().map(new GroupMapper()::convertToView).collect(toList()));
+        Set<UserRole> userRoles = model.getUserRoles();
+        List<RoleDTO> roles = new ArrayList<>(userRoles.size());
+        for (UserRole userRole : userRoles)
+            roles.add(roleMapper.convertToView(userRole.getRole()));
+        view.setRoles(roles);
 
         return view;
     }
 
+    /**
+     * Copies the fields of the user in the view, apart from the roles
+     */
+    abstract void copy(User model, UserVM view);
+
 }
@@ -7,6 +7,7 @@ import it.ldsoftware.primavera.model.security.RoleModifiers;
 import it.ldsoftware.primavera.presentation.security.GroupDTO;
 import it.ldsoftware.primavera.presentation.security.RoleDTO;
 import it.ldsoftware.primavera.util.UserUtil;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.stream.Collectors;
@@ -17,6 +18,14 @@ import java.util.stream.Stream;
  */
 @Service
 public class GroupMapper extends LookupMapper<Group, GroupDTO> {
+
+    private final RoleMapper roleMapper;
+
+    @Autowired
+    public GroupMapper(RoleMapper roleMapper) {
+        this.roleMapper = roleMapper;
+    }
+
     @Override
     public Group getLookupInstance(GroupDTO view) {
         Group model = new Group();
@@ -46,7 +55,7 @@ public class GroupMapper extends LookupMapper<Group, GroupDTO> {
 
     private GroupRole groupRole(RoleDTO roleDTO) {
         GroupRole gr = new GroupRole();
-        gr.setRole(new RoleMapper().convertToModel(roleDTO));
+        gr.setRole(roleMapper.convertToModel(roleDTO));
         String roleName = roleDTO.getCode();
         if (roleName.matches(".*(_E|_I|_D|_X)")) {
             gr.getRole().setCode(roleName.substring(0, roleName.length() - 2));
@@ -60,7 +69,7 @@ public class GroupMapper extends LookupMapper<Group, GroupDTO> {
 
     private Stream<RoleDTO> expandRoles(GroupRole groupRole) {
         return groupRole.getActualRoles().stream().map(s -> {
-            RoleDTO dto = new RoleMapper().convertToView(groupRole.getRole());
+            RoleDTO dto = roleMapper.convertToView(groupRole.getRole());
             dto.setCode(s);
             return dto;
         });
@@ -5,10 +5,12 @@ import it.ldsoftware.primavera.util.EntityWithParent;
 import it.ldsoftware.primavera.util.ParentEntity;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
 
 import javax.persistence.*;
 
 import static javax.persistence.EnumType.STRING;
+import static org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE;
 
 /**
  * <p>
@@ -20,6 +22,7 @@ import static javax.persistence.EnumType.STRING;
  */
 @Entity
 @Getter @Setter
+@Cache(usage = READ_WRITE, region = "primavera.properties")
 @Table(name = "zz_properties")
 public class AppProperty extends BaseEntity implements EntityWithParent {
 
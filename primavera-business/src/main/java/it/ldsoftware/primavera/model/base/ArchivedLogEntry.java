@@ -0,0 +1,47 @@
+package it.ldsoftware.primavera.model.base;
+
+import it.ldsoftware.primavera.model.people.User;
+import lombok.Getter;
+import lombok.Setter;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Created by luca on 19/06/17.
+ * A {@link LogEntry} moved out of the live zz_log table by the log retention.
+ * It keeps the id and the data of the original entry, so it is not a {@link BaseEntity}:
+ * its id is never generated.
+ */
+@Entity
+@Getter @Setter
+@Table(name = "zz_log_archive", indexes = @Index(name = "idx_log_archive_bucket", columnList = "log_bucket"))
+public class ArchivedLogEntry implements Serializable {
+
+    @Id
+    private long id;
+
+    private long version;
+
+    private LocalDateTime logDate;
+
+    @DayBucket(of = "logDate")
+    @Column(name = "log_bucket", nullable = false)
+    private long logBucket;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    private User user;
+
+    @Column(length = 1000)
+    private String message;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "trace_id")
+    private LogStackTrace trace;
+
+    private String level;
+
+    private String logger;
+
+}
@@ -2,6 +2,7 @@ package it.ldsoftware.primavera.model.base;
 
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.GenericGenerator;
 
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
@@ -9,12 +10,11 @@ import javax.persistence.MappedSuperclass;
 import javax.persistence.Version;
 import java.io.Serializable;
 
-import static javax.persistence.GenerationType.IDENTITY;
-
 /**
  * Created by luca on 11/04/16.
  * This is the base entity from which every persisted class will inherit.
  * It features only the version field.
+ * Ids are generated by the {@link PooledIdGenerator}, see {@link IdGeneration} to configure it per entity.
  * <p>
  * Please refer to the documentation to see which class fits your implementation best.
  */
@@ -22,8 +22,15 @@ import static javax.persistence.GenerationType.IDENTITY;
 @MappedSuperclass
 public abstract class BaseEntity implements Serializable {
 
+    /**
+     * The number of lazy collections, or entities, of the same kind loaded with a single query
+     * when one of them is used: a page of a grid usually fits in one batch
+     */
+    public static final int FETCH_BATCH_SIZE = 25;
+
     @Id
-    @GeneratedValue(strategy = IDENTITY)
+    @GeneratedValue(generator = PooledIdGenerator.NAME)
+    @GenericGenerator(name = PooledIdGenerator.NAME, strategy = "it.ldsoftware.primavera.model.base.PooledIdGenerator")
     private long id;
 
     @Version
@@ -0,0 +1,22 @@
+package it.ldsoftware.primavera.model.base;
+
+import java.lang.annotation.*;
+
+/**
+ * Created by luca on 19/06/17.
+ * Marks a numeric field holding the epoch day (see {@link java.time.LocalDate#toEpochDay()}) of a date property.
+ * Range filters on the date property are also applied to this field, so that the database
+ * only looks at the relevant days using the index (or the partitions) of the bucket column.
+ * Rows whose bucket is still null (e.g. written before the column was added) always pass the bucket condition,
+ * so they are filtered by the date alone.
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface DayBucket {
+
+    /**
+     * @return the name of the date property
+     */
+    String of();
+}
@@ -0,0 +1,47 @@
+package it.ldsoftware.primavera.model.base;
+
+import java.lang.annotation.*;
+
+/**
+ * Created by luca on 17/06/17.
+ * Configures how the ids of a {@link BaseEntity} are generated by the {@link PooledIdGenerator}.
+ * Entities without this annotation use a sequence named after their table, e.g. {@code fw_people_seq},
+ * reserving {@link #DEFAULT_ALLOCATION_SIZE} ids with every call to the database.
+ * <p>
+ * With joined or single table inheritance the annotation must be placed on the root entity,
+ * as the whole hierarchy shares the same generator.
+ */
+@Documented
+@Inherited
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface IdGeneration {
+
+    int DEFAULT_ALLOCATION_SIZE = 50;
+
+    /**
+     * @return where the ids come from. Dialects without sequences always use a table.
+     */
+    Strategy strategy() default Strategy.SEQUENCE;
+
+    /**
+     * @return the name of the sequence or table, empty to use the table of the entity followed by "_seq"
+     */
+    String name() default "";
+
+    /**
+     * @return how many ids are reserved with a single call, should not be lower than the jdbc batch size
+     */
+    int allocationSize() default DEFAULT_ALLOCATION_SIZE;
+
+    enum Strategy {
+        /**
+         * A database sequence
+         */
+        SEQUENCE,
+        /**
+         * A single row table, for databases where sequences are not wanted
+         */
+        TABLE
+    }
+}
@@ -8,8 +8,6 @@ import javax.persistence.*;
 import javax.validation.constraints.NotNull;
 import java.time.LocalDateTime;
 
-import static javax.persistence.EnumType.STRING;
-
 /**
  * Created by luca on 11/05/16.
  * This entity represents a log entry.
@@ -20,7 +18,8 @@ import static javax.persistence.EnumType.STRING;
  */
 @Entity
 @Getter @Setter
-@Table(name = "zz_log")
+@Table(name = "zz_log", indexes = @Index(name = "idx_log_bucket", columnList = "log_bucket"))
+@IdGeneration(allocationSize = 200)
 public class LogEntry extends BaseEntity {
 
     /**
@@ -29,6 +28,15 @@ public class LogEntry extends BaseEntity {
     @NotNull
     private LocalDateTime logDate;
 
+    /**
+     * The day of the log date, used by range queries and by the retention.
+     * Null on the entries written before the column existed, until the
+     * {@link it.ldsoftware.primavera.logging.LogBucketMigrator} fills it
+     */
+    @DayBucket(of = "logDate")
+    @Column(name = "log_bucket")
+    private Long logBucket;
+
     /**
      * If available, the user that found the error
      */
@@ -44,10 +52,11 @@ public class LogEntry extends BaseEntity {
     private String message;
 
     /**
-     * Full stacktrace of the exception if available
+     * Full stacktrace of the exception if available, shared by the entries with the same one
      */
-    @Lob
-    private String stackTrace;
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "trace_id")
+    private LogStackTrace trace;
 
     /**
      * Log severity
@@ -61,4 +70,9 @@ public class LogEntry extends BaseEntity {
     @NotNull
     private String logger;
 
+    @PrePersist
+    @PreUpdate
+    void updateBucket() {
+        logBucket = logDate == null ? null : logDate.toLocalDate().toEpochDay();
+    }
 }
@@ -0,0 +1,56 @@
+package it.ldsoftware.primavera.model.base;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Created by luca on 18/06/17.
+ * A stack trace referenced by one or more {@link LogEntry}s.
+ * Identical stack traces are stored only once, identified by their SHA-256 hash.
+ */
+@Entity
+@Getter @Setter
+@NoArgsConstructor
+@Table(name = "zz_log_trace")
+public class LogStackTrace extends BaseEntity {
+
+    /**
+     * Hex encoded SHA-256 of the stack trace
+     */
+    @NotNull
+    @Column(nullable = false, unique = true, length = 64)
+    private String hash;
+
+    @Lob
+    @NotNull
+    @Column(nullable = false)
+    private String stackTrace;
+
+    public LogStackTrace(String stackTrace) {
+        this.stackTrace = stackTrace;
+        this.hash = hashOf(stackTrace);
+    }
+
+    public static String hashOf(String stackTrace) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(stackTrace.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
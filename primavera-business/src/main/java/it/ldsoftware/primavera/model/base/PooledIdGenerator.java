@@ -0,0 +1,61 @@
+package it.ldsoftware.primavera.model.base;
+
+import org.hibernate.MappingException;
+import org.hibernate.boot.registry.classloading.spi.ClassLoaderService;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+/**
+ * Created by luca on 17/06/17.
+ * Id generator of every {@link BaseEntity}. Ids are taken from a sequence (or a table) with the pooled optimizer,
+ * so that a single call to the database reserves a whole block of ids: differently from identity columns,
+ * the id is known before the insert and hibernate can send the inserts in jdbc batches.
+ * <p>
+ * The sequence of each entity can be configured with {@link IdGeneration}.
+ */
+public class PooledIdGenerator extends SequenceStyleGenerator {
+
+    public static final String NAME = "primavera";
+
+    public static final String SEQUENCE_SUFFIX = "_seq";
+
+    /**
+     * Name of the column holding the next value when a table is used instead of a sequence
+     */
+    public static final String VALUE_COLUMN = DEF_VALUE_COLUMN;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        IdGeneration config = findConfiguration(params.getProperty(IdentifierGenerator.ENTITY_NAME), serviceRegistry);
+
+        String name = config == null ? "" : config.name();
+        if (name.isEmpty()) {
+            name = params.getProperty(PersistentIdentifierGenerator.TABLE) + SEQUENCE_SUFFIX;
+        }
+        int allocationSize = config == null ? IdGeneration.DEFAULT_ALLOCATION_SIZE : config.allocationSize();
+        boolean table = config != null && config.strategy() == IdGeneration.Strategy.TABLE;
+
+        params.setProperty(SEQUENCE_PARAM, name);
+        params.setProperty(INCREMENT_PARAM, String.valueOf(allocationSize));
+        params.setProperty(INITIAL_PARAM, "1");
+        params.setProperty(OPT_PARAM, StandardOptimizerDescriptor.POOLED.getExternalName());
+        params.setProperty(FORCE_TBL_PARAM, String.valueOf(table));
+        params.setProperty(VALUE_COLUMN_PARAM, VALUE_COLUMN);
+
+        super.configure(type, params, serviceRegistry);
+    }
+
+    private static IdGeneration findConfiguration(String entityName, ServiceRegistry serviceRegistry) {
+        if (entityName == null) {
+            return null;
+        }
+        Class<?> entity = serviceRegistry.getService(ClassLoaderService.class).classForName(entityName);
+        return entity.getAnnotation(IdGeneration.class);
+    }
+}
@@ -4,6 +4,7 @@ import it.ldsoftware.primavera.util.EntityWithParent;
 import it.ldsoftware.primavera.util.ParentEntity;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.Cache;
 
 import javax.persistence.Entity;
 import javax.persistence.ManyToOne;
@@ -13,6 +14,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import static javax.persistence.CascadeType.ALL;
+import static org.hibernate.annotations.CacheConcurrencyStrategy.READ_WRITE;
 
 /**
  * This entity groups properties
@@ -21,6 +23,7 @@ import static javax.persistence.CascadeType.ALL;
  */
 @Entity
 @Getter @Setter
+@Cache(usage = READ_WRITE, region = "primavera.properties")
 @Table(name = "zz_property_group")
 public class PropertyGroup extends BaseEntity implements EntityWithParent, ParentEntity {
 
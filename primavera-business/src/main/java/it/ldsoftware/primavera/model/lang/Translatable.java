@@ -3,6 +3,7 @@ package it.ldsoftware.primavera.model.lang;
 import it.ldsoftware.primavera.model.base.BaseEntity;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.Column;
 import javax.persistence.ElementCollection;
@@ -12,7 +13,7 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
-import static javax.persistence.FetchType.EAGER;
+import static javax.persistence.FetchType.LAZY;
 
 
 /**
@@ -25,11 +26,14 @@ import static javax.persistence.FetchType.EAGER;
  * (normally goes under object_translations)
  *
  * Note that the translation is NOT a {@link BaseEntity}.
+ * <p>
+ * Translations are loaded when they are first used, for a batch of translatables at a time.
  */
 @MappedSuperclass
 public abstract class Translatable<T extends Translation> extends BaseEntity {
 
-    @ElementCollection(fetch = EAGER)
+    @BatchSize(size = FETCH_BATCH_SIZE)
+    @ElementCollection(fetch = LAZY)
     @MapKeyColumn(name = "lang", length = 2)
     private final Map<String, T> translations = new HashMap<>();
 
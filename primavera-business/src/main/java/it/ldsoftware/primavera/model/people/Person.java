@@ -6,6 +6,7 @@ import it.ldsoftware.primavera.presentation.enums.PersonType;
 import it.ldsoftware.primavera.validation.groups.PersonValidationGroup;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -16,7 +17,6 @@ import java.util.Set;
 
 import static javax.persistence.CascadeType.ALL;
 import static javax.persistence.EnumType.STRING;
-import static javax.persistence.FetchType.EAGER;
 import static javax.persistence.FetchType.LAZY;
 import static javax.persistence.InheritanceType.JOINED;
 
@@ -27,14 +27,16 @@ import static javax.persistence.InheritanceType.JOINED;
  *         <p>
  *         This class represents a person in the database.
  *         A "person" can be a real person or an abstract person, i.e. a company.
+ *         The contacts are loaded with the entity only by the {@link #PERSON_GRAPH}.
  */
 @Entity
 @Getter @Setter
 @Table(name = "fw_people")
 @Inheritance(strategy = JOINED)
+@NamedEntityGraph(name = Person.PERSON_GRAPH, attributeNodes = @NamedAttributeNode("contacts"))
 public class Person extends BaseEntity {
 
-    public static final String PERSON_GRAPH = "Graph.person";
+    public static final String PERSON_GRAPH = "Person.editor";
 
     @NotNull(groups = PersonValidationGroup.class)
     private String name;
@@ -62,10 +64,12 @@ public class Person extends BaseEntity {
     @Column(name = "person_type")
     private PersonType personType;
 
+    @BatchSize(size = FETCH_BATCH_SIZE)
     @ManyToMany(cascade = ALL, fetch = LAZY)
     private Set<Person> people = new HashSet<>();
 
-    @OneToMany(cascade = ALL, fetch = EAGER, orphanRemoval = true, mappedBy = "person")
+    @BatchSize(size = FETCH_BATCH_SIZE)
+    @OneToMany(cascade = ALL, fetch = LAZY, orphanRemoval = true, mappedBy = "person")
     private Set<Contact> contacts = new HashSet<>();
 
     public Contact getContact(ContactType type) {
@@ -105,8 +109,8 @@ public class Person extends BaseEntity {
     }
 
     public void addContact(Contact contact) {
-        contacts.add(contact);
         contact.setPerson(this);
+        contacts.add(contact);
     }
 
     @Override
@@ -7,6 +7,7 @@ import it.ldsoftware.primavera.util.RoleCollector;
 import it.ldsoftware.primavera.validation.groups.NewUserValidationGroup;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
@@ -18,19 +19,29 @@ import java.util.Set;
  * Created by luca on 11/04/16.
  *
  * @author luca
- *         An User is a @{link Person} that can log in to the program
+ *         An User is a @{link Person} that can log in to the program.
+ *         The {@link #USER_GRAPH} loads it with its contacts, groups and roles.
  */
 @Entity
 @Getter @Setter
-@Table(name = "fw_users")
+@Table(name = "fw_users", indexes = {
+        @Index(name = "idx_users_username", columnList = "username"),
+        @Index(name = "idx_users_email", columnList = "primary_email")})
 @PrimaryKeyJoinColumn(name = "id")
+@NamedEntityGraph(name = User.USER_GRAPH, attributeNodes = {
+        @NamedAttributeNode("contacts"), @NamedAttributeNode("groups"),
+        @NamedAttributeNode(value = "userRoles", subgraph = "roles")},
+        subgraphs = @NamedSubgraph(name = "roles", attributeNodes = @NamedAttributeNode("role")))
 public class User extends Person {
 
+    public static final String USER_GRAPH = "User.editor";
+
     @NotNull
     @Column(nullable = false)
     private String username;
 
-    @Column(length = 60, nullable = false)
+    // room for the hashes of any PasswordAlgorithm, not only BCrypt's 60 characters
+    @Column(nullable = false)
     @NotNull(groups = NewUserValidationGroup.class)
     private String password;
 
@@ -44,10 +55,12 @@ public class User extends Person {
 
     private boolean enabled = false;
 
+    @BatchSize(size = FETCH_BATCH_SIZE)
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL)
     private Set<UserRole> userRoles = new HashSet<>();
 
     @ManyToMany
+    @BatchSize(size = FETCH_BATCH_SIZE)
     private Set<Group> groups = new HashSet<>();
 
     public User() {
@@ -4,6 +4,7 @@ import it.ldsoftware.primavera.model.base.Lookup;
 import it.ldsoftware.primavera.util.RoleCollector;
 import lombok.Getter;
 import lombok.Setter;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.*;
 import java.util.HashSet;
@@ -11,14 +12,20 @@ import java.util.Set;
 
 /**
  * Created by luca on 12/04/16.
- * This entity represents a group of users
+ * This entity represents a group of users.
+ * The {@link #GROUP_GRAPH} loads it with its roles, the translations are fetched in batches.
  */
 @Entity
 @Getter @Setter
 @Table(name = "fw_groups")
 @AssociationOverride(name = "translations", joinTable = @JoinTable(name = "fw_groups_translations"))
+@NamedEntityGraph(name = Group.GROUP_GRAPH, attributeNodes = @NamedAttributeNode(value = "groupRoles", subgraph = "roles"),
+        subgraphs = @NamedSubgraph(name = "roles", attributeNodes = @NamedAttributeNode("role")))
 public class Group extends Lookup {
 
+    public static final String GROUP_GRAPH = "Group.editor";
+
+    @BatchSize(size = FETCH_BATCH_SIZE)
     @OneToMany(mappedBy = "group", cascade = CascadeType.ALL)
     private Set<GroupRole> groupRoles = new HashSet<>();
 
@@ -1,18 +1,23 @@
 package it.ldsoftware.primavera.model.security;
 
 import it.ldsoftware.primavera.model.base.Lookup;
+import org.hibernate.annotations.BatchSize;
 
 import javax.persistence.AssociationOverride;
 import javax.persistence.Entity;
 import javax.persistence.JoinTable;
 import javax.persistence.Table;
 
+import static it.ldsoftware.primavera.model.base.BaseEntity.FETCH_BATCH_SIZE;
+
 /**
  * Created by luca on 12/04/16.
- * This entity represents a role in the database
+ * This entity represents a role in the database.
+ * Roles referenced by groups and users are loaded in batches.
  */
 @Entity
 @Table(name = "fw_roles")
+@BatchSize(size = FETCH_BATCH_SIZE)
 @AssociationOverride(name = "translations", joinTable = @JoinTable(name = "fw_roles_translations"))
 public class Role extends Lookup {
 }
@@ -1,11 +1,10 @@
 package it.ldsoftware.primavera.model.security;
 
-import it.ldsoftware.primavera.util.UserUtil;
+import it.ldsoftware.primavera.util.RoleExpansion;
 import lombok.Getter;
 import lombok.Setter;
 
 import javax.persistence.Embeddable;
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,16 +25,8 @@ public class RoleModifiers {
     private boolean insert, edit, delete, execute;
 
     public List<String> getRoleWithModifiers(String role) {
-        List<String> tmp = new ArrayList<>();
-        if (isDelete())
-            tmp.add(UserUtil.deleteVariant(role));
-        if (isEdit())
-            tmp.add(UserUtil.editVariant(role));
-        if (isExecute())
-            tmp.add(UserUtil.executeVariant(role));
-        if (isInsert())
-            tmp.add(UserUtil.insertVariant(role));
-        return tmp;
+        List<String> roles = RoleExpansion.roles(role, this);
+        return roles.subList(1, roles.size());
     }
 
     /**
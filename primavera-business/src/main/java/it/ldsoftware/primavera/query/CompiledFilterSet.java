@@ -0,0 +1,151 @@
+package it.ldsoftware.primavera.query;
+
+import com.querydsl.core.BooleanBuilder;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.SimplePath;
+import com.querydsl.core.types.dsl.StringPath;
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import org.apache.log4j.Logger;
+
+import java.util.*;
+
+import static it.ldsoftware.primavera.query.PredicateFactory.*;
+
+/**
+ * Compiled form of a list of filters with a given list of {@link FilterShape}s.
+ * All the work that does not depend on the values of the filters (property resolution,
+ * path creation, pairing of range filters) is done once when the set is compiled;
+ * {@link #bind(Filter[])} only appends the clauses with the actual values.
+ *
+ * @author luca
+ */
+final class CompiledFilterSet {
+    private static final Logger logger = Logger.getLogger(CompiledFilterSet.class);
+
+    private final Step[] steps;
+
+    private CompiledFilterSet(Step[] steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * Builds the predicate binding the values of the given filters,
+     * which must have the same shapes this set was compiled from.
+     *
+     * @param filters the filters, in the same order of the shapes
+     * @return the predicate
+     */
+    Predicate bind(Filter[] filters) {
+        BooleanBuilder builder = new BooleanBuilder();
+        for (Step step : steps) {
+            step.apply(builder, filters);
+        }
+        return builder.getValue();
+    }
+
+    static <E extends BaseEntity> CompiledFilterSet compile(EntityQueryPlan<E> plan, List<FilterShape> shapes) {
+        List<Step> steps = new ArrayList<>(shapes.size());
+        Set<String> betweenParsed = new HashSet<>();
+
+        for (int i = 0; i < shapes.size(); i++) {
+            FilterShape shape = shapes.get(i);
+            EntityQueryPlan.PropertyPlan property = plan.property(shape.getProperty());
+            switch (property.kind) {
+                case STRING:
+                    steps.add(stringStep(i, property.stringPath, shape.getMode()));
+                    break;
+                case COLLECTION:
+                    steps.add(collectionStep(i, property));
+                    break;
+                case ENTITY:
+                    Step step = entityStep(i, property, shape);
+                    if (step != null) steps.add(step);
+                    break;
+                case OTHER:
+                    steps.add(equalsStep(i, property.simplePath));
+                    break;
+                case MISSING:
+                    String fname = shape.getProperty();
+                    if (isBetweenField(fname)) {
+                        String fieldName = getBetweenFieldName(fname);
+                        if (!betweenParsed.contains(fieldName))
+                            steps.add(betweenStep(i, shapes, fieldName, plan.between(fieldName)));
+                        betweenParsed.add(fieldName);
+                    } else {
+                        logger.debug("The field " + fname
+                                + " does not exist in the entity. Remember to add any custom query after the call.");
+                    }
+                    break;
+            }
+        }
+
+        return new CompiledFilterSet(steps.toArray(new Step[steps.size()]));
+    }
+
+    private static Step stringStep(int index, StringPath path, FilterShape.ValueMode mode) {
+        return (builder, filters) -> {
+            Filter filter = filters[index];
+            append(builder, filter, stringExpression(path, mode, mode.strip(filter.getValue().toString())));
+        };
+    }
+
+    private static Step equalsStep(int index, SimplePath<Object> path) {
+        return (builder, filters) -> {
+            Filter filter = filters[index];
+            append(builder, filter, path.eq(filter.getValue()));
+        };
+    }
+
+    private static Step collectionStep(int index, EntityQueryPlan.PropertyPlan property) {
+        return (builder, filters) ->
+                handleCollection(property.newParentBuilder(), property.leaf, builder, filters[index]);
+    }
+
+    private static Step entityStep(int index, EntityQueryPlan.PropertyPlan property, FilterShape shape) {
+        switch (shape.getMode()) {
+            case BY_ID:
+                return equalsStep(index, property.simplePath);
+            case BY_EXAMPLE:
+                return (builder, filters) ->
+                        handleExample(property.newParentBuilder(), property.leaf, builder, filters[index]);
+            case WRONG_TYPE:
+                return (builder, filters) -> logger.error("An invalid value was passed to the field "
+                        + filters[index].getProperty() + ": expected " + property.type.getName() + ", got "
+                        + filters[index].getValue().getClass().getName());
+            default:
+                return null;
+        }
+    }
+
+    private static Step betweenStep(int index, List<FilterShape> shapes, String fieldName,
+                                    EntityQueryPlan.BetweenPaths paths) {
+        int fromIndex;
+        int toIndex;
+        if (shapes.get(index).getProperty().toLowerCase().endsWith("from")) {
+            fromIndex = index;
+            toIndex = indexOf(shapes, fieldName + "to");
+        } else {
+            toIndex = index;
+            fromIndex = indexOf(shapes, fieldName + "from");
+        }
+        return (builder, filters) -> appendBetween(paths, builder, filters[index],
+                fromIndex < 0 ? null : filters[fromIndex].getValue(),
+                toIndex < 0 ? null : filters[toIndex].getValue());
+    }
+
+    private static int indexOf(List<FilterShape> shapes, String property) {
+        for (int i = 0; i < shapes.size(); i++) {
+            if (shapes.get(i).getProperty().equalsIgnoreCase(property))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * A single clause of the compiled set
+     */
+    @FunctionalInterface
+    interface Step {
+        void apply(BooleanBuilder builder, Filter[] filters);
+    }
+}
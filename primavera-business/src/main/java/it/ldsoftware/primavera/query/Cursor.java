@@ -0,0 +1,54 @@
+package it.ldsoftware.primavera.query;
+
+import java.io.Serializable;
+
+/**
+ * Created by luca on 14/06/17.
+ * Position of a keyset (seek) pagination: the value of the sort key and the id
+ * of the last row of a page. The next page starts right after that row,
+ * without counting or skipping the previous ones.
+ *
+ * @see KeysetPage
+ */
+public class Cursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object sortValue;
+    private final long id;
+
+    public Cursor(Object sortValue, long id) {
+        this.sortValue = sortValue;
+        this.id = id;
+    }
+
+    public Object getSortValue() {
+        return sortValue;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Cursor cursor = (Cursor) o;
+
+        return id == cursor.id && (sortValue != null ? sortValue.equals(cursor.sortValue) : cursor.sortValue == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = sortValue != null ? sortValue.hashCode() : 0;
+        result = 31 * result + (int) (id ^ (id >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "after " + sortValue + ", " + id;
+    }
+}
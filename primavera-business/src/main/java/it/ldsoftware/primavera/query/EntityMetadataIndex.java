@@ -0,0 +1,205 @@
+package it.ldsoftware.primavera.query;
+
+import org.apache.log4j.Logger;
+
+import javax.persistence.metamodel.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.util.*;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Index of the filterable properties of every managed type, built once from the JPA {@link Metamodel}.
+ * For each entity it contains the properties declared in the whole class hierarchy and the dotted
+ * paths that can be reached navigating singular and plural associations and embeddables,
+ * e.g. {@code contacts.contactValue}, up to {@link #MAX_DEPTH} levels. Self referencing associations are
+ * navigated too (e.g. {@code father.groupName}), the depth alone bounds the recursion.
+ * <p>
+ * The index is used by the {@link PredicateFactory} to resolve a filter property with a single map lookup.
+ * Until {@link #initialize(Metamodel)} is called (usually at startup, see the business configuration)
+ * the factory falls back to reflection.
+ *
+ * @author luca
+ */
+public final class EntityMetadataIndex {
+    private static final Logger logger = Logger.getLogger(EntityMetadataIndex.class);
+
+    /**
+     * Maximum number of segments of an indexed dotted path
+     */
+    public static final int MAX_DEPTH = 3;
+
+    private static volatile EntityMetadataIndex current;
+
+    private final Map<Class<?>, Map<String, PropertyPath>> properties;
+
+    private EntityMetadataIndex(Map<Class<?>, Map<String, PropertyPath>> properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Builds the index from the given metamodel and makes it available to the {@link PredicateFactory}.
+     *
+     * @param metamodel the metamodel of the persistence unit
+     * @return the index that was built
+     */
+    public static EntityMetadataIndex initialize(Metamodel metamodel) {
+        Map<Class<?>, Map<String, PropertyPath>> properties = new HashMap<>();
+        for (ManagedType<?> type : metamodel.getManagedTypes()) {
+            Map<String, PropertyPath> paths = new HashMap<>();
+            collect(metamodel, type, "", new ArrayList<>(), paths);
+            properties.put(type.getJavaType(), unmodifiableMap(paths));
+        }
+
+        EntityMetadataIndex index = new EntityMetadataIndex(unmodifiableMap(properties));
+        current = index;
+        PredicateFactory.clearCaches();
+        logger.debug("Indexed the filterable properties of " + properties.size() + " managed types");
+        return index;
+    }
+
+    /**
+     * @return the index in use, or null if it has not been initialized yet
+     */
+    static EntityMetadataIndex current() {
+        return current;
+    }
+
+    /**
+     * Discards the index in use, the {@link PredicateFactory} will go back to reflection
+     */
+    static void reset() {
+        current = null;
+        PredicateFactory.clearCaches();
+    }
+
+    /**
+     * Returns the resolved path of a property
+     *
+     * @param type     the managed type
+     * @param property the property, possibly dotted
+     * @return the path, or null if the type is not managed or the property does not exist
+     */
+    PropertyPath find(Class<?> type, String property) {
+        Map<String, PropertyPath> paths = properties.get(type);
+        return paths == null ? null : paths.get(property);
+    }
+
+    /**
+     * Resolves a property walking the class hierarchy with reflection. This is used only
+     * when the index is not available, as the result is cached by the query plans.
+     *
+     * @param type     the entity class
+     * @param property the property, possibly dotted
+     * @return the path, or null if the property does not exist
+     */
+    static PropertyPath reflect(Class<?> type, String property) {
+        String[] names = property.split("\\.");
+        List<Segment> segments = new ArrayList<>(names.length);
+        Class<?> current = type;
+        for (String name : names) {
+            Field field = findField(current, name);
+            if (field == null) {
+                return null;
+            }
+            if (Collection.class.isAssignableFrom(field.getType())) {
+                current = getElementType(field);
+                segments.add(new Segment(name, true, current));
+            } else {
+                current = field.getType();
+                segments.add(new Segment(name, false, current));
+            }
+        }
+        return new PropertyPath(unmodifiableList(segments));
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            try {
+                return c.getDeclaredField(name);
+            } catch (NoSuchFieldException ignored) {
+                // look in the superclass
+            }
+        }
+        return null;
+    }
+
+    private static Class<?> getElementType(Field field) {
+        java.lang.reflect.Type generic = field.getGenericType();
+        if (generic instanceof ParameterizedType) {
+            java.lang.reflect.Type arg = ((ParameterizedType) generic).getActualTypeArguments()[0];
+            if (arg instanceof Class) {
+                return (Class<?>) arg;
+            }
+        }
+        return Object.class;
+    }
+
+    boolean isIndexed(Class<?> type) {
+        return properties.containsKey(type);
+    }
+
+    private static void collect(Metamodel metamodel, ManagedType<?> type, String prefix, List<Segment> parents,
+                                Map<String, PropertyPath> paths) {
+        for (Attribute<?, ?> attribute : type.getAttributes()) {
+            String name = prefix + attribute.getName();
+            List<Segment> segments = new ArrayList<>(parents);
+
+            Class<?> target;
+            boolean navigable;
+            if (attribute instanceof MapAttribute) {
+                segments.add(new Segment(attribute.getName(), false, attribute.getJavaType()));
+                target = attribute.getJavaType();
+                navigable = false;
+            } else if (attribute instanceof PluralAttribute) {
+                Type<?> element = ((PluralAttribute<?, ?, ?>) attribute).getElementType();
+                segments.add(new Segment(attribute.getName(), true, element.getJavaType()));
+                target = element.getJavaType();
+                navigable = element.getPersistenceType() != Type.PersistenceType.BASIC;
+            } else {
+                Type<?> attrType = ((SingularAttribute<?, ?>) attribute).getType();
+                segments.add(new Segment(attribute.getName(), false, attrType.getJavaType()));
+                target = attrType.getJavaType();
+                navigable = attrType.getPersistenceType() != Type.PersistenceType.BASIC;
+            }
+
+            paths.put(name, new PropertyPath(unmodifiableList(segments)));
+
+            if (navigable && segments.size() < MAX_DEPTH) {
+                collect(metamodel, metamodel.managedType(target), name + ".", segments, paths);
+            }
+        }
+    }
+
+    /**
+     * A single step of a property path. Plural segments are navigated with "any"
+     */
+    static final class Segment {
+        final String name;
+        final boolean plural;
+        final Class<?> type;
+
+        Segment(String name, boolean plural, Class<?> type) {
+            this.name = name;
+            this.plural = plural;
+            this.type = type;
+        }
+    }
+
+    /**
+     * A resolved, possibly dotted, property path
+     */
+    static final class PropertyPath {
+        final List<Segment> segments;
+
+        PropertyPath(List<Segment> segments) {
+            this.segments = segments;
+        }
+
+        Segment leaf() {
+            return segments.get(segments.size() - 1);
+        }
+    }
+}
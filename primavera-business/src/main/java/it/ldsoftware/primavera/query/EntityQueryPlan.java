@@ -0,0 +1,271 @@
+package it.ldsoftware.primavera.query;
+
+import com.querydsl.core.types.Path;
+import com.querydsl.core.types.PathMetadata;
+import com.querydsl.core.types.dsl.*;
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import it.ldsoftware.primavera.model.base.DayBucket;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.querydsl.core.types.PathMetadataFactory.forProperty;
+import static com.querydsl.core.types.PathMetadataFactory.forVariable;
+
+/**
+ * Per-entity query plan used by the {@link PredicateFactory}.
+ * Every filterable property, inherited or dotted (e.g. {@code contacts.contactValue}), is resolved
+ * only once to its kind and to the path that will be used in the query, using the {@link EntityMetadataIndex}.
+ * Properties that do not exist are remembered as such, so that the resolution cost is paid only
+ * on the first request for a given entity. The names come from the callers, so the resolved properties
+ * are forgotten, as the compiled filter sets, when there are too many of them.
+ * <p>
+ * Paths are built directly from their {@link PathMetadata} instead of going through
+ * a shared {@link PathBuilder}, whose internal caches are not thread safe.
+ *
+ * @author luca
+ */
+final class EntityQueryPlan<E extends BaseEntity> {
+
+    /**
+     * Maximum number of compiled filter sets kept for a single entity.
+     */
+    static final int MAX_COMPILED_SETS = 256;
+
+    /**
+     * Maximum number of resolved properties, and of range paths, kept for a single entity.
+     */
+    static final int MAX_PROPERTIES = 1024;
+
+    enum PropertyKind {STRING, COLLECTION, ENTITY, OTHER, MISSING}
+
+    private final Class<E> entityClass;
+    private final String alias;
+    private final Path<E> root;
+
+    private final ConcurrentMap<String, PropertyPlan> properties = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BetweenPaths> betweens = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<FilterShape>, CompiledFilterSet> compiled = new ConcurrentHashMap<>();
+
+    private volatile List<Method> exampleGetters;
+
+    EntityQueryPlan(Class<E> entityClass) {
+        this.entityClass = entityClass;
+        this.alias = getEntityName(entityClass);
+        this.root = new PathBuilder<>(entityClass, forVariable(alias));
+    }
+
+    Class<E> getEntityClass() {
+        return entityClass;
+    }
+
+    String getAlias() {
+        return alias;
+    }
+
+    /**
+     * Creates a new path builder rooted on this entity.
+     *
+     * @return a fresh, not shared, path builder
+     */
+    PathBuilder<E> newPathBuilder() {
+        return new PathBuilder<>(entityClass, alias);
+    }
+
+    PropertyPlan property(String name) {
+        PropertyPlan plan = properties.get(name);
+        if (plan == null) {
+            if (properties.size() >= MAX_PROPERTIES) {
+                properties.clear();
+            }
+            plan = properties.computeIfAbsent(name, this::resolve);
+        }
+        return plan;
+    }
+
+    BetweenPaths between(String fieldName) {
+        BetweenPaths paths = betweens.get(fieldName);
+        if (paths == null) {
+            if (betweens.size() >= MAX_PROPERTIES) {
+                betweens.clear();
+            }
+            paths = betweens.computeIfAbsent(fieldName, n -> {
+                PropertyPlan property = property(n);
+                return property.kind == PropertyKind.MISSING
+                        ? new BetweenPaths(root, n, null)
+                        : new BetweenPaths(property.parent, property.leaf, findBucket(property.parentType, property.leaf));
+            });
+        }
+        return paths;
+    }
+
+    CompiledFilterSet compiled(List<FilterShape> shapes) {
+        return compiled.get(shapes);
+    }
+
+    void storeCompiled(List<FilterShape> shapes, CompiledFilterSet set) {
+        if (compiled.size() >= MAX_COMPILED_SETS) {
+            compiled.clear();
+        }
+        compiled.putIfAbsent(shapes, set);
+    }
+
+    /**
+     * Returns the getters that are used to build a list of filters from an example entity,
+     * including the ones inherited from the superclasses.
+     *
+     * @return the list of candidate getters, computed once
+     */
+    List<Method> getExampleGetters() {
+        List<Method> getters = exampleGetters;
+        if (getters == null) {
+            List<Method> candidates = new ArrayList<>();
+            Set<String> names = new HashSet<>();
+            for (Class<?> c = entityClass; c != null && !c.equals(BaseEntity.class); c = c.getSuperclass()) {
+                for (Method m : c.getDeclaredMethods()) {
+                    if (isCandidate(m) && names.add(m.getName())) {
+                        candidates.add(m);
+                    }
+                }
+            }
+            getters = Collections.unmodifiableList(candidates);
+            exampleGetters = getters;
+        }
+        return getters;
+    }
+
+    private PropertyPlan resolve(String name) {
+        EntityMetadataIndex.PropertyPath path = findPath(name);
+        if (path == null) {
+            return PropertyPlan.MISSING_PLAN;
+        }
+
+        Path<?> parent = root;
+        Class<?> parentType = entityClass;
+        List<EntityMetadataIndex.Segment> segments = path.segments;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            EntityMetadataIndex.Segment segment = segments.get(i);
+            PathBuilder<?> builder = new PathBuilder<>(parentType, parent.getMetadata());
+            parent = segment.plural
+                    ? builder.getCollection(segment.name, segment.type).any()
+                    : builder.get(segment.name, segment.type);
+            parentType = segment.type;
+        }
+
+        EntityMetadataIndex.Segment leaf = path.leaf();
+        PathMetadata metadata = forProperty(parent, leaf.name);
+        if (leaf.plural) {
+            return new PropertyPlan(PropertyKind.COLLECTION, leaf.type, parent, parentType, leaf.name, null, null);
+        } else if (String.class.isAssignableFrom(leaf.type)) {
+            return new PropertyPlan(PropertyKind.STRING, leaf.type, parent, parentType, leaf.name,
+                    Expressions.stringPath(metadata), null);
+        } else if (BaseEntity.class.isAssignableFrom(leaf.type)) {
+            return new PropertyPlan(PropertyKind.ENTITY, leaf.type, parent, parentType, leaf.name,
+                    null, Expressions.path(Object.class, metadata));
+        } else {
+            return new PropertyPlan(PropertyKind.OTHER, leaf.type, parent, parentType, leaf.name,
+                    null, Expressions.path(Object.class, metadata));
+        }
+    }
+
+    /**
+     * Looks for the property in the metadata index, falling back to reflection when the index is not available,
+     * does not know the entity or the path is longer than the indexed ones.
+     */
+    private EntityMetadataIndex.PropertyPath findPath(String name) {
+        EntityMetadataIndex index = EntityMetadataIndex.current();
+        if (index != null && index.isIndexed(entityClass)) {
+            EntityMetadataIndex.PropertyPath path = index.find(entityClass, name);
+            if (path != null || name.split("\\.").length <= EntityMetadataIndex.MAX_DEPTH) {
+                return path;
+            }
+        }
+        return EntityMetadataIndex.reflect(entityClass, name);
+    }
+
+    /**
+     * @return the name of the field annotated as {@link DayBucket} of the given property, or null
+     */
+    private static String findBucket(Class<?> type, String property) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                DayBucket bucket = field.getAnnotation(DayBucket.class);
+                if (bucket != null && bucket.of().equals(property)) {
+                    return field.getName();
+                }
+            }
+        }
+        return null;
+    }
+
+    static String getEntityName(Class<?> eClass) {
+        String entityName = eClass.getSimpleName();
+        entityName = entityName.substring(0, 1).toLowerCase() + entityName.substring(1);
+        if (entityName.equals("group")) entityName += "1";
+        return entityName;
+    }
+
+    static boolean isCandidate(Method method) {
+        return method.getParameterCount() == 0 && !method.isSynthetic()
+                && (method.getName().startsWith("get") || method.getName().startsWith("is"))
+                && !(method.getName().equals("getId") || method.getName().equals("getVersion")
+                || method.getName().equals("getSysFields"))
+                && !(Collection.class.isAssignableFrom(method.getReturnType()));
+    }
+
+    /**
+     * Resolved information about a single, possibly inherited or dotted, property of the entity.
+     * The parent is the path that owns the last segment of the property: the root of the entity
+     * for simple properties, a nested path (or an "any" path for collections) for dotted ones.
+     */
+    static final class PropertyPlan {
+        static final PropertyPlan MISSING_PLAN = new PropertyPlan(PropertyKind.MISSING, null, null, null, null,
+                null, null);
+
+        final PropertyKind kind;
+        final Class<?> type;
+        final Path<?> parent;
+        final Class<?> parentType;
+        final String leaf;
+        final StringPath stringPath;
+        final SimplePath<Object> simplePath;
+
+        PropertyPlan(PropertyKind kind, Class<?> type, Path<?> parent, Class<?> parentType, String leaf,
+                     StringPath stringPath, SimplePath<Object> simplePath) {
+            this.kind = kind;
+            this.type = type;
+            this.parent = parent;
+            this.parentType = parentType;
+            this.leaf = leaf;
+            this.stringPath = stringPath;
+            this.simplePath = simplePath;
+        }
+
+        /**
+         * @return a fresh path builder on the parent of this property
+         */
+        PathBuilder<?> newParentBuilder() {
+            return new PathBuilder<>(parentType, parent.getMetadata());
+        }
+    }
+
+    /**
+     * Paths used by range filters, one for date values and one for any other comparable.
+     * If the property has a {@link DayBucket}, the bucket path is used to restrict the range to the relevant days.
+     */
+    static final class BetweenPaths {
+        final DatePath<Calendar> datePath;
+        final ComparablePath<Comparable> comparablePath;
+        final NumberPath<Long> bucketPath;
+
+        BetweenPaths(Path<?> root, String fieldName, String bucketName) {
+            PathMetadata metadata = forProperty(root, fieldName);
+            this.datePath = Expressions.datePath(Calendar.class, metadata);
+            this.comparablePath = Expressions.comparablePath(Comparable.class, metadata);
+            this.bucketPath = bucketName == null ? null : Expressions.numberPath(Long.class, forProperty(root, bucketName));
+        }
+    }
+}
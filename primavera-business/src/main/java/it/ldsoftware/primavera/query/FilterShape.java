@@ -0,0 +1,82 @@
+package it.ldsoftware.primavera.query;
+
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * The shape of a {@link Filter}, that is everything that determines the structure of the
+ * clause it generates, but not the value that will be bound to it.
+ * Two lists of filters with the same shapes produce the same query, so the compiled form
+ * can be reused and only the values need to be bound again.
+ *
+ * @author luca
+ */
+@Getter
+@EqualsAndHashCode
+final class FilterShape {
+
+    enum ValueMode {
+        ANY, EQUALS, STARTS_WITH, ENDS_WITH, CONTAINS, BY_ID, BY_EXAMPLE, NOT_ENTITY, WRONG_TYPE;
+
+        static ValueMode forString(String s) {
+            boolean startsWith = s.endsWith("%");
+            boolean endsWith = s.startsWith("%");
+            if (startsWith && endsWith) {
+                return CONTAINS;
+            } else if (startsWith) {
+                return STARTS_WITH;
+            } else if (endsWith) {
+                return ENDS_WITH;
+            }
+            return EQUALS;
+        }
+
+        String strip(String s) {
+            switch (this) {
+                case CONTAINS:
+                    return s.length() > 1 ? s.substring(1, s.length() - 1) : "";
+                case STARTS_WITH:
+                    return s.substring(0, s.length() - 1);
+                case ENDS_WITH:
+                    return s.substring(1);
+                default:
+                    return s;
+            }
+        }
+    }
+
+    private final String property;
+    private final FilterOperator operator;
+    private final boolean negative;
+    private final ValueMode mode;
+
+    private FilterShape(String property, FilterOperator operator, boolean negative, ValueMode mode) {
+        this.property = property;
+        this.operator = operator;
+        this.negative = negative;
+        this.mode = mode;
+    }
+
+    static FilterShape of(EntityQueryPlan.PropertyPlan plan, Filter filter) {
+        return new FilterShape(filter.getProperty(), filter.getOperator(), filter.isNegative(), modeOf(plan, filter));
+    }
+
+    private static ValueMode modeOf(EntityQueryPlan.PropertyPlan plan, Filter filter) {
+        switch (plan.kind) {
+            case STRING:
+                return ValueMode.forString(filter.getValue().toString());
+            case ENTITY:
+                Object o = filter.getValue();
+                if (!(o instanceof BaseEntity)) {
+                    return ValueMode.NOT_ENTITY;
+                }
+                if (!o.getClass().equals(plan.type)) {
+                    return ValueMode.WRONG_TYPE;
+                }
+                return ((BaseEntity) o).getId() != 0 ? ValueMode.BY_ID : ValueMode.BY_EXAMPLE;
+            default:
+                return ValueMode.ANY;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package it.ldsoftware.primavera.query;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static java.util.Collections.unmodifiableList;
+
+/**
+ * Created by luca on 14/06/17.
+ * A page obtained with keyset pagination. Unlike a {@link org.springframework.data.domain.Page}
+ * it does not know the total number of elements, only whether there is a next page
+ * and the {@link Cursor} to request it.
+ *
+ * @param <T> type of the content
+ */
+public class KeysetPage<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> content;
+    private final Cursor next;
+
+    public KeysetPage(List<T> content, Cursor next) {
+        this.content = unmodifiableList(content);
+        this.next = next;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return the cursor of the next page, or null if this is the last page
+     */
+    public Cursor getNext() {
+        return next;
+    }
+
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    public <R> KeysetPage<R> map(Function<? super T, ? extends R> converter) {
+        List<R> converted = new ArrayList<>(content.size());
+        for (T t : content) {
+            converted.add(converter.apply(t));
+        }
+        return new KeysetPage<>(converted, next);
+    }
+}
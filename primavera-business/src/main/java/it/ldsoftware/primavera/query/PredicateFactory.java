@@ -9,9 +9,14 @@ import com.querydsl.jpa.JPQLQuery;
 import it.ldsoftware.primavera.model.base.BaseEntity;
 import org.apache.log4j.Logger;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static it.ldsoftware.primavera.query.FilterOperator.AND;
 import static it.ldsoftware.primavera.util.CalendarUtil.endOfDay;
@@ -21,15 +26,22 @@ import static it.ldsoftware.primavera.util.ReflectionUtil.getPropertyFromMethod;
 /**
  * This class serves as a dynamic QueryDSL predicate factory.
  * Using reflection and dynamic paths, this class can easily create predicates based on a filter list
- * or on an example entity.
+ * or on an example entity. The result of the reflection is cached per entity class, see {@link EntityQueryPlan}.
  *
  * @author luca
  */
 public class PredicateFactory {
     private static final Logger logger = Logger.getLogger(PredicateFactory.class);
 
+    private static final ConcurrentMap<Class<?>, EntityQueryPlan<?>> plans = new ConcurrentHashMap<>();
+
     /**
      * This function returns the boolean expression that corresponds to given entity and filters.
+     * <p>
+     * Properties are resolved once per entity class, and the structure of the predicate is compiled
+     * once for each combination of filter shapes (property, operator, negation and wildcard usage):
+     * repeated calls with the same filters and different values, as done by lazy grids while scrolling,
+     * only bind the new values.
      *
      * @param eClass  entity class used to build the dynamic path
      * @param filters collection of filters
@@ -38,30 +50,21 @@ public class PredicateFactory {
      * @see Filter How to create filtering parameters
      */
     public static <E extends BaseEntity> Predicate createPredicate(Class<E> eClass, Collection<Filter> filters) {
-        PathBuilder<E> pb = getPathBuilder(eClass);
-        BooleanBuilder builder = new BooleanBuilder();
-
-        Set<String> betweenParsed = new HashSet<>();
-
-        for (Filter filter : filters) {
-            try {
-                Field f = eClass.getDeclaredField(filter.getProperty());
-                getBasicExpression(pb, builder, filter, f);
-            } catch (NoSuchFieldException ignored) {
-                String fname = filter.getProperty();
-                if (fname.toLowerCase().endsWith("from") || fname.toLowerCase().endsWith("to")) {
-                    if (!betweenParsed.contains(getBetweenFieldName(fname)))
-                        handleBetween(pb, builder, filter, filters);
-                    betweenParsed.add(getBetweenFieldName(fname));
+        EntityQueryPlan<E> plan = planFor(eClass);
+        Filter[] values = filters.toArray(new Filter[filters.size()]);
 
-                } else {
-                    logger.debug("The field " + filter.getProperty()
-                            + " does not exist in the entity. Remember to add any custom query after the call.");
-                }
-            }
+        List<FilterShape> shapes = new ArrayList<>(values.length);
+        for (Filter filter : values) {
+            shapes.add(FilterShape.of(plan.property(filter.getProperty()), filter));
+        }
+
+        CompiledFilterSet compiled = plan.compiled(shapes);
+        if (compiled == null) {
+            compiled = CompiledFilterSet.compile(plan, shapes);
+            plan.storeCompiled(shapes, compiled);
         }
 
-        return builder.getValue();
+        return compiled.bind(values);
     }
 
     /**
@@ -85,38 +88,25 @@ public class PredicateFactory {
      */
     public static <E extends BaseEntity> List<Filter> getFiltersByEntity(Class<E> entityClass, E entity) {
         List<Filter> filters = new ArrayList<>();
-        Arrays.stream(entityClass.getDeclaredMethods()).filter(PredicateFactory::isCandidate)
+        planFor(entityClass).getExampleGetters().stream()
                 .map(m -> filterFromMethod(m, entity)).filter(Objects::nonNull).forEach(filters::add);
         return filters;
     }
 
-    private static <E extends BaseEntity> PathBuilder<E> getPathBuilder(Class<E> eClass) {
-        return new PathBuilder<>(eClass, getEntityName(eClass));
-    }
-
-    private static <E extends BaseEntity> String getEntityName(Class<E> eClass) {
-        String entityName = eClass.getSimpleName();
-        entityName = entityName.substring(0, 1).toLowerCase() + entityName.substring(1);
-        if (entityName.equals("group")) entityName += "1";
-        return entityName;
-    }
-
-    private static <E extends BaseEntity> void getBasicExpression(PathBuilder<E> pb, BooleanBuilder builder, Filter filter, Field f) {
-        if (Collection.class.isAssignableFrom(f.getType())) {
-            handleCollection(pb, builder, filter);
-        } else if (String.class.isAssignableFrom(f.getType())) {
-            handleString(pb, builder, filter);
-        } else if (BaseEntity.class.isAssignableFrom(f.getType())) {
-            handleEntity(pb, builder, filter, f);
-        } else {
-            handleOther(pb, builder, filter);
+    @SuppressWarnings("unchecked")
+    static <E extends BaseEntity> EntityQueryPlan<E> planFor(Class<E> eClass) {
+        EntityQueryPlan<?> plan = plans.get(eClass);
+        if (plan == null) {
+            plan = plans.computeIfAbsent(eClass, c -> new EntityQueryPlan<>(eClass));
         }
+        return (EntityQueryPlan<E>) plan;
     }
-    private static boolean isCandidate(Method method) {
-        return (method.getName().startsWith("get") || method.getName().startsWith("is"))
-                && !(method.getName().equals("getId") || method.getName().equals("getVersion")
-                || method.getName().equals("getSysFields"))
-                && !(Collection.class.isAssignableFrom(method.getReturnType()));
+
+    /**
+     * Discards every cached plan. Plans are rebuilt on demand.
+     */
+    static void clearCaches() {
+        plans.clear();
     }
 
     private static <E extends BaseEntity> Filter filterFromMethod(Method method, E entity) {
@@ -133,172 +123,146 @@ public class PredicateFactory {
         return new Filter(property, value, false, AND);
     }
 
+    private static void getBasicExpression(PathBuilder<?> pb, BooleanBuilder builder, Filter filter,
+                                           EntityQueryPlan.PropertyPlan property) {
+        switch (property.kind) {
+            case COLLECTION:
+                handleCollection(pb, filter.getProperty(), builder, filter);
+                break;
+            case STRING:
+                String s = filter.getValue().toString();
+                FilterShape.ValueMode mode = FilterShape.ValueMode.forString(s);
+                append(builder, filter, stringExpression(pb.getString(filter.getProperty()), mode, mode.strip(s)));
+                break;
+            case ENTITY:
+                handleEntity(pb, builder, filter, property.type);
+                break;
+            case OTHER:
+                append(builder, filter, pb.get(filter.getProperty()).eq(filter.getValue()));
+                break;
+            default:
+                logger.debug("The field " + filter.getProperty() + " does not exist in the example entity.");
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    private static <E extends BaseEntity> void handleCollection(PathBuilder<E> pb, BooleanBuilder base, Filter filter) {
+    static <E extends BaseEntity> void handleCollection(PathBuilder<?> pb, String property, BooleanBuilder base,
+                                                        Filter filter) {
         // TODO if the object is a collection the query will state "contains all of the elements in the collection"
         Object o = filter.getValue();
         Class<E> eClass = (Class<E>) o.getClass();
-        CollectionPath path = pb.getCollection(filter.getProperty(), eClass);
+        EntityQueryPlan<E> plan = planFor(eClass);
+        CollectionPath path = pb.getCollection(property, eClass);
 
-        PathBuilder subPb = getPathBuilder(eClass);
-        EntityPathBase<E> pathBase = new EntityPathBase<>(eClass, getEntityName(eClass));
+        PathBuilder subPb = plan.newPathBuilder();
+        EntityPathBase<E> pathBase = new EntityPathBase<>(eClass, plan.getAlias());
 
         BooleanExpression subClause = subPb.isNotNull();
         subClause = subClause.and(createPredicate(eClass, (E)o));
 
         JPQLQuery<E> q = JPAExpressions.selectFrom(pathBase).where(subClause);
 
-        switch (filter.getOperator()) {
-            case AND:
-                base.and(findNegation(path.any().in(q), filter));
-                break;
-            case OR:
-                base.or(findNegation(path.any().in(q), filter));
-                break;
-        }
-    }
-
-    private static void handleString(PathBuilder<?> pb, BooleanBuilder base, Filter filter) {
-        String s = filter.getValue().toString();
-        boolean startsWith = s.endsWith("%");
-        boolean endsWith = s.startsWith("%");
-        StringPath sp = pb.getString(filter.getProperty());
-        if (startsWith) {
-            s = s.substring(0, s.length() - 1);
-        }
-        if (endsWith) {
-            s = s.substring(1);
-        }
-
-        switch (filter.getOperator()) {
-            case AND:
-                if (startsWith && endsWith) {
-                    base.and(findNegation(sp.containsIgnoreCase(s), filter));
-                } else if (startsWith) {
-                    base.and(findNegation(sp.startsWithIgnoreCase(s), filter));
-                } else if (endsWith) {
-                    base.and(findNegation(sp.endsWithIgnoreCase(s), filter));
-                } else {
-                    base.and(findNegation(sp.equalsIgnoreCase(s), filter));
-                }
-                break;
-            case OR:
-                if (startsWith && endsWith) {
-                    base.or(findNegation(sp.containsIgnoreCase(s), filter));
-                } else if (startsWith) {
-                    base.or(findNegation(sp.startsWithIgnoreCase(s), filter));
-                } else if (endsWith) {
-                    base.or(findNegation(sp.endsWithIgnoreCase(s), filter));
-                } else {
-                    base.or(findNegation(sp.equalsIgnoreCase(s), filter));
-                }
-                break;
-        }
+        append(base, filter, path.any().in(q));
     }
 
-    @SuppressWarnings("unchecked")
-    private static <E extends BaseEntity> void handleEntity(PathBuilder<?> pb, BooleanBuilder base,
-                                                                         Filter filter, Field field) {
+    private static void handleEntity(PathBuilder<?> pb, BooleanBuilder base, Filter filter, Class<?> type) {
         Object o = filter.getValue();
         if (o instanceof BaseEntity) {
-            if (o.getClass().equals(field.getType())) {
+            if (o.getClass().equals(type)) {
                 if (((BaseEntity) o).getId() != 0) {
-                    handleOther(pb, base, filter);
+                    append(base, filter, pb.get(filter.getProperty()).eq(o));
                 } else {
-                    List<Filter> subFilters = getFiltersByEntity((Class<E>) o.getClass(), (E) o);
-
-                    PathBuilder nested = pb.get(filter.getProperty());
-                    BooleanBuilder partial = new BooleanBuilder();
-
-                    for (Filter sf: subFilters) {
-                        try {
-                            getBasicExpression(nested, partial, sf, o.getClass().getDeclaredField(sf.getProperty()));
-                        } catch (NoSuchFieldException e) {
-                            // Should not be thrown as we are building filters from example
-                            e.printStackTrace();
-                        }
-                    }
-
-                    switch (filter.getOperator()) {
-                        case AND:
-                            base.and(findNegation(partial, filter));
-                            break;
-                        case OR:
-                            base.or(findNegation(partial, filter));
-                            break;
-                    }
+                    handleExample(pb, filter.getProperty(), base, filter);
                 }
             } else {
                 logger.error("An invalid value was passed to the field " + filter.getProperty() + ": expected "
-                        + field.getType().getName() + ", got " + filter.getValue().getClass().getName());
+                        + type.getName() + ", got " + filter.getValue().getClass().getName());
             }
         }
     }
 
-    private static void handleOther(PathBuilder<?> pb, BooleanBuilder base, Filter filter) {
-        switch (filter.getOperator()) {
-            case AND:
-                base.and(findNegation(pb.get(filter.getProperty()).eq(filter.getValue()), filter));
-                break;
-            case OR:
-                base.or(findNegation(pb.get(filter.getProperty()).eq(filter.getValue()), filter));
-                break;
-        }
-    }
-
-    private static void handleBetween(PathBuilder<?> pb, BooleanBuilder base, Filter filter,
-                                                   Collection<Filter> filters) {
-
-        String fromToField = filter.getProperty();
-        final String fieldName = getBetweenFieldName(fromToField);
-        Object fromValue = null;
-        Object toValue = null;
-
-        if (fromToField.toLowerCase().endsWith("from")) {
-            fromValue = filter.getValue();
-            Optional<Filter> toFilter = filters.stream().filter(f -> f.getProperty().equalsIgnoreCase(fieldName + "to"))
-                    .findFirst();
-
-            if (toFilter.isPresent())
-                toValue = toFilter.get().getValue();
-        } else {
-            toValue = filter.getValue();
+    @SuppressWarnings("unchecked")
+    static <E extends BaseEntity> void handleExample(PathBuilder<?> pb, String property, BooleanBuilder base,
+                                                     Filter filter) {
+        E o = (E) filter.getValue();
+        Class<E> eClass = (Class<E>) o.getClass();
+        EntityQueryPlan<E> plan = planFor(eClass);
+        List<Filter> subFilters = getFiltersByEntity(eClass, o);
 
-            Optional<Filter> fromFilter = filters.stream()
-                    .filter(f -> f.getProperty().equalsIgnoreCase(fieldName + "from")).findFirst();
+        PathBuilder nested = pb.get(property);
+        BooleanBuilder partial = new BooleanBuilder();
 
-            if (fromFilter.isPresent())
-                fromValue = fromFilter.get().getValue();
+        for (Filter sf : subFilters) {
+            getBasicExpression(nested, partial, sf, plan.property(sf.getProperty()));
         }
 
+        append(base, filter, partial);
+    }
+
+    static void appendBetween(EntityQueryPlan.BetweenPaths paths, BooleanBuilder base, Filter filter,
+                              Object fromValue, Object toValue) {
         Object fromToValue = (fromValue != null ? fromValue : toValue);
 
         assert fromToValue != null;
+        BooleanExpression expr;
         if (fromToValue.getClass().isAssignableFrom(Calendar.class)
                 || fromToValue.getClass().isAssignableFrom(Date.class)) {
             Calendar f = ensureIsCalendar(fromValue);
-            Calendar t = endOfDay(ensureIsCalendar(toValue));
-            switch (filter.getOperator()) {
-                case AND:
-                    base.and(findNegation(pb.getDate(fieldName, Calendar.class).between(f, t), filter));
-                    break;
-                case OR:
-                    base.or(findNegation(pb.getDate(fieldName, Calendar.class).between(f, t), filter));
-                    break;
-            }
+            Calendar t = toValue == null ? null : endOfDay(ensureIsCalendar(toValue));
+            expr = paths.datePath.between(f, t);
         } else {
             Comparable<?> f = (Comparable<?>) fromValue;
             Comparable<?> t = (Comparable<?>) toValue;
-            switch (filter.getOperator()) {
-                case AND:
-                    base.and(findNegation(pb.getComparable(fieldName, Comparable.class).between(f, t), filter));
-                    break;
-                case OR:
-                    base.or(findNegation(pb.getComparable(fieldName, Comparable.class).between(f, t), filter));
-                    break;
-            }
+            expr = paths.comparablePath.between(f, t);
+        }
+        Long fromDay = toEpochDay(fromValue), toDay = toEpochDay(toValue);
+        if (paths.bucketPath != null && (fromDay != null || toDay != null)) {
+            // implied by the range itself, it only lets the database skip the other days;
+            // rows without a bucket yet are left to the date condition
+            expr = expr.and(paths.bucketPath.between(fromDay, toDay).or(paths.bucketPath.isNull()));
         }
+        append(base, filter, expr);
+    }
 
+    /**
+     * @return the epoch day of a date value, or null if the value is null or not a date
+     */
+    static Long toEpochDay(Object value) {
+        if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toLocalDate().toEpochDay();
+        } else if (value instanceof LocalDate) {
+            return ((LocalDate) value).toEpochDay();
+        } else if (value instanceof Calendar) {
+            return toEpochDay(((Calendar) value).getTime());
+        } else if (value instanceof Date) {
+            return Instant.ofEpochMilli(((Date) value).getTime()).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+        }
+        return null;
+    }
+
+    static BooleanExpression stringExpression(StringPath sp, FilterShape.ValueMode mode, String s) {
+        switch (mode) {
+            case CONTAINS:
+                return sp.containsIgnoreCase(s);
+            case STARTS_WITH:
+                return sp.startsWithIgnoreCase(s);
+            case ENDS_WITH:
+                return sp.endsWithIgnoreCase(s);
+            default:
+                return sp.equalsIgnoreCase(s);
+        }
+    }
+
+    static void append(BooleanBuilder base, Filter filter, Predicate expr) {
+        Predicate negated = filter.isNegative() ? expr.not() : expr;
+        switch (filter.getOperator()) {
+            case AND:
+                base.and(negated);
+                break;
+            case OR:
+                base.or(negated);
+                break;
+        }
     }
 
     private static Calendar ensureIsCalendar(Object object) {
@@ -307,7 +271,12 @@ public class PredicateFactory {
         return (Calendar) object;
     }
 
-    private static String getBetweenFieldName(String field) {
+    static boolean isBetweenField(String field) {
+        String lower = field.toLowerCase();
+        return lower.endsWith("from") || lower.endsWith("to");
+    }
+
+    static String getBetweenFieldName(String field) {
         if (field.toLowerCase().endsWith("from")) {
             return field.substring(0, field.length() - "from".length());
         } else if (field.toLowerCase().endsWith("to")) {
@@ -316,16 +285,4 @@ public class PredicateFactory {
             return field;
         }
     }
-
-    private static BooleanExpression findNegation(BooleanExpression expr, Filter filter) {
-        if (filter.isNegative())
-            return expr.not();
-        return expr;
-    }
-
-    private static BooleanBuilder findNegation(BooleanBuilder expr, Filter filter) {
-        if (filter.isNegative())
-            return expr.not();
-        return expr;
-    }
 }
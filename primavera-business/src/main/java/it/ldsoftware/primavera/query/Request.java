@@ -15,6 +15,8 @@ public class Request implements Serializable {
     private Sort sort;
     private Set<Filter> filters = new HashSet<>();
 
+    private Cursor cursor;
+
 
     public Request withFilters(Set<Filter> filters) {
         this.filters = filters;
@@ -36,6 +38,11 @@ public class Request implements Serializable {
         return this;
     }
 
+    public Request withCursor(Cursor cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
     public int getFirstRow() {
         return firstRow;
     }
@@ -68,4 +75,16 @@ public class Request implements Serializable {
         this.filters = filters;
     }
 
+    /**
+     * @return the keyset cursor of the requested page, if known. When it is null and the first row
+     * is not 0, providers must fall back to offset pagination.
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(Cursor cursor) {
+        this.cursor = cursor;
+    }
+
 }
\ No newline at end of file
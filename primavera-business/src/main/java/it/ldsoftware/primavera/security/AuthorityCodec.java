@@ -0,0 +1,160 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.services.SecurityModelChangedEvent;
+import it.ldsoftware.primavera.services.interfaces.RoleService;
+import it.ldsoftware.primavera.util.UserUtil;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+
+/**
+ * Created by luca on 27/06/17.
+ * Turns the authorities of a user into bytes and back, for the {@link TokenService}.
+ * <p>
+ * The ids of the {@link it.ldsoftware.primavera.util.RoleRegistry} are given in the order the authorities are
+ * met, so they differ between two instances of the application. The roles here are identified by their ids in
+ * the database instead, so a token can be read by every instance using the same database. Each role of the user
+ * is written as its id, as the difference from the previous one in a variable length (7 bits per byte), followed
+ * by a byte with a bit for the role itself and one for each of its variants (delete, edit, execute, insert).
+ * The size of the encoding depends on the number of roles of the user, not on the values of their ids, that are
+ * sparse since they come from pooled sequences.
+ * Authorities that are not roles of the database are not encoded.
+ */
+public class AuthorityCodec {
+
+    private static final List<UnaryOperator<String>> VARIANTS = new ArrayList<>(5);
+
+    static {
+        VARIANTS.add(UnaryOperator.identity());
+        VARIANTS.add(UserUtil::deleteVariant);
+        VARIANTS.add(UserUtil::editVariant);
+        VARIANTS.add(UserUtil::executeVariant);
+        VARIANTS.add(UserUtil::insertVariant);
+    }
+
+    private final RoleService roles;
+
+    private volatile Index index;
+    private final AtomicLong version = new AtomicLong();
+
+    public AuthorityCodec(RoleService roles) {
+        this.roles = roles;
+    }
+
+    public byte[] encode(Collection<? extends GrantedAuthority> authorities) {
+        Index current = index();
+        SortedMap<Long, Integer> masks = new TreeMap<>();
+        for (GrantedAuthority authority : authorities) {
+            Bit bit = current.bits.get(authority.getAuthority());
+            if (bit != null)
+                masks.merge(bit.roleId, 1 << bit.variant, (a, b) -> a | b);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(masks.size() * 4);
+        long previous = 0;
+        for (Map.Entry<Long, Integer> mask : masks.entrySet()) {
+            long delta = mask.getKey() - previous;
+            previous = mask.getKey();
+            while ((delta & ~0x7FL) != 0) {
+                out.write((int) (delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            out.write((int) delta);
+            out.write(mask.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the authorities of the bytes, roles that no longer exist are ignored
+     * @throws IllegalArgumentException if the bytes are not an encoding of this codec
+     */
+    public List<GrantedAuthority> decode(byte[] bytes) {
+        Index current = index();
+        List<GrantedAuthority> authorities = new ArrayList<>();
+        long roleId = 0;
+        int i = 0;
+        while (i < bytes.length) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (i >= bytes.length || shift > 63)
+                    throw new IllegalArgumentException("Truncated role id");
+                b = bytes[i++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            if (i >= bytes.length)
+                throw new IllegalArgumentException("Missing variants of role " + (roleId + delta));
+            roleId += delta;
+            int mask = bytes[i++];
+            GrantedAuthority[] variants = current.authorities.get(roleId);
+            if (variants == null)
+                continue;
+            for (int v = 0; v < variants.length; v++) {
+                if ((mask & 1 << v) != 0)
+                    authorities.add(variants[v]);
+            }
+        }
+        return authorities;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecurityModelChanged(SecurityModelChangedEvent event) {
+        // roles changed
+        if (event.isAll() && event.isAllGroups()) {
+            version.incrementAndGet();
+            index = null;
+        }
+    }
+
+    private Index index() {
+        Index current = index;
+        if (current == null) {
+            long start = version.get();
+            current = new Index(roles.findRoleCodes());
+            // a role changed while reading: used this time but not kept
+            if (version.get() == start)
+                index = current;
+        }
+        return current;
+    }
+
+    private static final class Bit {
+        final long roleId;
+        final int variant;
+
+        Bit(long roleId, int variant) {
+            this.roleId = roleId;
+            this.variant = variant;
+        }
+    }
+
+    private static final class Index {
+        final Map<String, Bit> bits = new HashMap<>();
+        final Map<Long, GrantedAuthority[]> authorities = new HashMap<>();
+
+        Index(Map<Long, String> codes) {
+            codes.forEach((id, code) -> {
+                GrantedAuthority[] variants = new GrantedAuthority[VARIANTS.size()];
+                for (int i = 0; i < VARIANTS.size(); i++) {
+                    String authority = VARIANTS.get(i).apply(code);
+                    variants[i] = new SimpleGrantedAuthority(authority);
+                    bits.put(authority, new Bit(id, i));
+                }
+                authorities.put(id, variants);
+            });
+        }
+    }
+}
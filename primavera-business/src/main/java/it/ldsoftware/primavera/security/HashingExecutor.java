@@ -0,0 +1,148 @@
+package it.ldsoftware.primavera.security;
+
+import org.apache.log4j.Logger;
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by luca on 25/06/17.
+ * Bounded pool where the {@link PasswordHasher} runs its hashes, so that a storm of logins uses at most
+ * "threads" cores instead of all the request threads. At most "queueSize" hashes can wait for a thread,
+ * and a caller waits at most "maxWaitMillis": past these limits the login is refused with an
+ * {@link AuthenticationServiceException} rather than piling up.
+ * <p>
+ * The time spent in the queue is measured, see {@link #getAverageQueueMillis()} and {@link #getMaxQueueMillis()}.
+ */
+public class HashingExecutor {
+    private static final Logger logger = Logger.getLogger(HashingExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitMillis;
+
+    private final AtomicLong started = new AtomicLong(), rejected = new AtomicLong(), timedOut = new AtomicLong(),
+            queueNanos = new AtomicLong(), maxQueueNanos = new AtomicLong();
+
+    public HashingExecutor(int threads, int queueSize, long maxWaitMillis) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "primavera-password-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Runs the task on the pool and waits for its result
+     *
+     * @throws AuthenticationServiceException if the queue is full or the task waited too long
+     */
+    public <T> T call(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(measured(task));
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new AuthenticationServiceException("Too many password checks in progress", e);
+        }
+        try {
+            return future.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timedOut.incrementAndGet();
+            throw new AuthenticationServiceException("Password check timed out", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AuthenticationServiceException("Interrupted while checking the password", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new AuthenticationServiceException("Password check failed", e.getCause());
+        }
+    }
+
+    /**
+     * Runs the task on the pool without waiting for it, if there is room in the queue
+     *
+     * @return false if the task was refused
+     */
+    public boolean offer(Runnable task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    measured(() -> {
+                        task.run();
+                        return null;
+                    }).call();
+                } catch (Exception e) {
+                    logger.error("Background password task failed", e);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> Callable<T> measured(Callable<T> task) {
+        long queuedAt = System.nanoTime();
+        return () -> {
+            long waited = System.nanoTime() - queuedAt;
+            started.incrementAndGet();
+            queueNanos.addAndGet(waited);
+            maxQueueNanos.accumulateAndGet(waited, Math::max);
+            return task.call();
+        };
+    }
+
+    /**
+     * @return the number of hashes waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActive() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of hashes that left the queue
+     */
+    public long getStarted() {
+        return started.get();
+    }
+
+    /**
+     * @return the number of hashes refused because the queue was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the number of callers that gave up after waiting "maxWaitMillis"
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    public double getAverageQueueMillis() {
+        long count = started.get();
+        return count == 0 ? 0 : queueNanos.get() / 1e6 / count;
+    }
+
+    public double getMaxQueueMillis() {
+        return maxQueueNanos.get() / 1e6;
+    }
+}
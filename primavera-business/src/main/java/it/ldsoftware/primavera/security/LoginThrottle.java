@@ -0,0 +1,111 @@
+package it.ldsoftware.primavera.security;
+
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by luca on 26/06/17.
+ * Limits the failed logins of each username from each client address, and of each client address, over a
+ * sliding window, so that guessing passwords or trying stolen credentials costs no database query and no hash
+ * once over the limit. Failures are counted in two {@link SlidingWindowSketch}es, so memory does not grow
+ * with the number of usernames or addresses tried.
+ * <p>
+ * Only failed logins are counted, reported with {@link #failed(String, String)}: refused attempts and
+ * successful logins are not, so a client is let in again as soon as its failures slide out of the window.
+ * A username is limited per address, so that failures from other addresses cannot lock its owner out.
+ * <p>
+ * The address is the remote address of the request: behind a reverse proxy it is the one of the proxy,
+ * unless the servlet container is told to take it from the X-Forwarded-For header
+ * (e.g. {@code server.use-forward-headers=true} with Spring Boot).
+ */
+public class LoginThrottle {
+
+    private final SlidingWindowSketch users, addresses;
+    private final int maxPerUser, maxPerAddress;
+
+    private final LongAdder allowed = new LongAdder(), failed = new LongAdder(), rejectedByUser = new LongAdder(),
+            rejectedByAddress = new LongAdder();
+
+    /**
+     * @param window        the length of the sliding window
+     * @param unit          the unit of the window
+     * @param maxPerUser    the failures allowed to a username from an address in the window
+     * @param maxPerAddress the failures allowed to a client address in the window
+     * @param width         the counters of each row of the sketches, more counters mean less false positives
+     */
+    public LoginThrottle(long window, TimeUnit unit, int maxPerUser, int maxPerAddress, int width) {
+        this.users = new SlidingWindowSketch(width, 4, unit.toNanos(window));
+        this.addresses = new SlidingWindowSketch(width, 4, unit.toNanos(window));
+        this.maxPerUser = maxPerUser;
+        this.maxPerAddress = maxPerAddress;
+    }
+
+    /**
+     * Checks an attempt of the user from the address, without counting it
+     *
+     * @param username the username (or email) tried
+     * @param address  the address of the client, null if unknown
+     * @throws LoginThrottledException if the user or the address failed too many times
+     */
+    public void check(String username, String address) {
+        long now = System.nanoTime();
+        if (address != null && addresses.estimate(address, now) >= maxPerAddress) {
+            rejectedByAddress.increment();
+            throw new LoginThrottledException("Too many login attempts, try again later");
+        }
+        if (username != null && users.estimate(userKey(username, address), now) >= maxPerUser) {
+            rejectedByUser.increment();
+            throw new LoginThrottledException("Too many login attempts, try again later");
+        }
+        allowed.increment();
+    }
+
+    /**
+     * Counts a failed login of the user from the address
+     *
+     * @param username the username (or email) tried
+     * @param address  the address of the client, null if unknown
+     */
+    public void failed(String username, String address) {
+        long now = System.nanoTime();
+        failed.increment();
+        if (address != null)
+            addresses.increment(address, now);
+        if (username != null)
+            users.increment(userKey(username, address), now);
+    }
+
+    public long getAllowed() {
+        return allowed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejectedByUser() {
+        return rejectedByUser.sum();
+    }
+
+    public long getRejectedByAddress() {
+        return rejectedByAddress.sum();
+    }
+
+    /**
+     * @return the remote address of the current request, null outside of a request
+     */
+    public static String clientAddress() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return attributes instanceof ServletRequestAttributes
+                ? ((ServletRequestAttributes) attributes).getRequest().getRemoteAddr() : null;
+    }
+
+    private static String userKey(String username, String address) {
+        String user = username.toLowerCase();
+        return address == null ? user : user + '\u0000' + address;
+    }
+}
@@ -0,0 +1,14 @@
+package it.ldsoftware.primavera.security;
+
+import org.springframework.security.core.AuthenticationException;
+
+/**
+ * Created by luca on 26/06/17.
+ * Thrown when a login is refused by the {@link LoginThrottle}, before looking for the user
+ */
+public class LoginThrottledException extends AuthenticationException {
+
+    public LoginThrottledException(String msg) {
+        super(msg);
+    }
+}
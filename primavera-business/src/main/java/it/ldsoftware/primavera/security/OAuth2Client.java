@@ -0,0 +1,164 @@
+package it.ldsoftware.primavera.security;
+
+import org.apache.log4j.Logger;
+import org.springframework.security.authentication.AuthenticationServiceException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static it.ldsoftware.primavera.security.OAuth2Provider.encode;
+
+/**
+ * Created by luca on 28/06/17.
+ * Runs the authorization code flow of an {@link OAuth2Provider}: exchanges the code for an access token and
+ * reads the profile of the user with it.
+ * <p>
+ * The calls run on a small bounded pool and are returned as futures, so a slow provider keeps busy only
+ * these threads and never the ones serving the requests. Every call has a connect and a read timeout,
+ * and when the pool and its queue are full the flow fails at once instead of waiting.
+ * Responses are read by the {@link OAuth2ResponseParser} and always to the end, so the connections are kept
+ * alive and reused between logins.
+ */
+public class OAuth2Client {
+    private static final Logger logger = Logger.getLogger(OAuth2Client.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int connectTimeoutMillis, readTimeoutMillis;
+
+    private final LongAdder completed = new LongAdder(), failed = new LongAdder(), rejected = new LongAdder();
+
+    public OAuth2Client(int threads, int queueSize, int connectTimeoutMillis, int readTimeoutMillis) {
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), r -> {
+            Thread thread = new Thread(r, "primavera-oauth-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @param provider the provider that issued the code
+     * @param code     the authorization code received on the callback
+     * @param callback the callback address used to get the code
+     * @return the profile of the user, completed exceptionally with an {@link AuthenticationServiceException}
+     * if the provider refuses the code, does not answer in time or too many logins are in progress
+     */
+    public CompletableFuture<OAuth2Profile> fetchProfile(OAuth2Provider provider, String code, String callback) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    OAuth2Profile profile = readProfile(provider, requestToken(provider, code, callback));
+                    completed.increment();
+                    return profile;
+                } catch (IOException e) {
+                    failed.increment();
+                    logger.warn("OAuth2 login with " + provider.getName() + " failed", e);
+                    throw new AuthenticationServiceException("Could not log in with " + provider.getName(), e);
+                }
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            CompletableFuture<OAuth2Profile> result = new CompletableFuture<>();
+            result.completeExceptionally(new AuthenticationServiceException("Too many logins in progress", e));
+            return result;
+        }
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private String requestToken(OAuth2Provider provider, String code, String callback) throws IOException {
+        byte[] form = ("grant_type=authorization_code"
+                + "&code=" + encode(code)
+                + "&client_id=" + encode(provider.getClientId())
+                + "&client_secret=" + encode(provider.getClientSecret())
+                + "&redirect_uri=" + encode(callback)).getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = open(provider.getTokenUri());
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(form.length);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(form);
+        }
+
+        String accessToken = read(connection, OAuth2ResponseParser::accessToken);
+        if (accessToken == null)
+            throw new IOException("The token response of " + provider.getName() + " has no access token");
+        return accessToken;
+    }
+
+    private OAuth2Profile readProfile(OAuth2Provider provider, String accessToken) throws IOException {
+        HttpURLConnection connection = open(provider.getProfileUri());
+        connection.setRequestProperty("Authorization", "Bearer " + accessToken);
+        return read(connection, in -> OAuth2ResponseParser.profile(in, provider));
+    }
+
+    private HttpURLConnection open(String uri) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(uri).openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("Accept", "application/json");
+        return connection;
+    }
+
+    private static <T> T read(HttpURLConnection connection, BodyReader<T> reader) throws IOException {
+        int status = connection.getResponseCode();
+        if (status >= 400) {
+            try (InputStream error = connection.getErrorStream()) {
+                drain(error);
+            }
+            throw new IOException(connection.getURL() + " answered " + status);
+        }
+        try (InputStream in = connection.getInputStream()) {
+            T value = reader.read(in);
+            drain(in);
+            return value;
+        }
+    }
+
+    /**
+     * Reads what is left of the response, otherwise the connection cannot be reused
+     */
+    private static void drain(InputStream in) throws IOException {
+        if (in == null)
+            return;
+        byte[] buffer = new byte[512];
+        while (in.read(buffer) >= 0) {
+            // discarded
+        }
+    }
+
+    private interface BodyReader<T> {
+        T read(InputStream in) throws IOException;
+    }
+}
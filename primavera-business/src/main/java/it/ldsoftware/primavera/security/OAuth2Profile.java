@@ -0,0 +1,45 @@
+package it.ldsoftware.primavera.security;
+
+/**
+ * Created by luca on 29/06/17.
+ * The user as described by an OAuth2 provider, with the same fields whatever the provider.
+ * Fields the provider does not give are null.
+ */
+public final class OAuth2Profile {
+
+    private final String provider, id, email, givenName, familyName, pictureUrl;
+
+    public OAuth2Profile(String provider, String id, String email, String givenName, String familyName,
+                         String pictureUrl) {
+        this.provider = provider;
+        this.id = id;
+        this.email = email;
+        this.givenName = givenName;
+        this.familyName = familyName;
+        this.pictureUrl = pictureUrl;
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getPictureUrl() {
+        return pictureUrl;
+    }
+}
@@ -0,0 +1,48 @@
+package it.ldsoftware.primavera.security;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by luca on 29/06/17.
+ * Where the fields of an {@link OAuth2Profile} are in the profile response of a provider, as dotted paths where
+ * numbers are array positions, e.g. {@code emails.0.value} or {@code picture.data.url}.
+ * <p>
+ * The paths are compiled in a tree once, and the {@link OAuth2ResponseParser} walks it along with the response,
+ * skipping every branch that is not in the tree. Instances are immutable and shared.
+ */
+public final class OAuth2ProfileMapping {
+
+    static final int ID = 0, EMAIL = 1, GIVEN_NAME = 2, FAMILY_NAME = 3, PICTURE = 4, FIELDS = 5;
+
+    final Node root = new Node();
+
+    /**
+     * @param id         the path of the id of the user in the provider
+     * @param email      the path of the email
+     * @param givenName  the path of the given name, may be null
+     * @param familyName the path of the family name, may be null
+     * @param picture    the path of the address of the picture, may be null
+     */
+    public OAuth2ProfileMapping(String id, String email, String givenName, String familyName, String picture) {
+        add(id, ID);
+        add(email, EMAIL);
+        add(givenName, GIVEN_NAME);
+        add(familyName, FAMILY_NAME);
+        add(picture, PICTURE);
+    }
+
+    private void add(String path, int slot) {
+        if (path == null)
+            return;
+        Node node = root;
+        for (String part : path.split("\\."))
+            node = node.children.computeIfAbsent(part, p -> new Node());
+        node.slot = slot;
+    }
+
+    static final class Node {
+        final Map<String, Node> children = new HashMap<>(4);
+        int slot = -1;
+    }
+}
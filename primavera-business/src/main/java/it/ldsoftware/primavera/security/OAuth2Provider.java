@@ -0,0 +1,83 @@
+package it.ldsoftware.primavera.security;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Created by luca on 28/06/17.
+ * Configuration of an OAuth2 identity provider: the client credentials, the endpoints of the authorization
+ * code flow and where the fields of the profile are in its response.
+ * Instances are immutable and shared, see {@link OAuth2Providers}.
+ */
+public final class OAuth2Provider {
+
+    private final String name, clientId, clientSecret, authorizeUri, tokenUri, profileUri, scope;
+    private final OAuth2ProfileMapping profileMapping;
+
+    public OAuth2Provider(String name, String clientId, String clientSecret, String authorizeUri, String tokenUri,
+                          String profileUri, String scope, OAuth2ProfileMapping profileMapping) {
+        this.name = name;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.authorizeUri = authorizeUri;
+        this.tokenUri = tokenUri;
+        this.profileUri = profileUri;
+        this.scope = scope;
+        this.profileMapping = profileMapping;
+    }
+
+    /**
+     * @return the same provider for another client
+     */
+    public OAuth2Provider withCredentials(String clientId, String clientSecret) {
+        return new OAuth2Provider(name, clientId, clientSecret, authorizeUri, tokenUri, profileUri, scope,
+                profileMapping);
+    }
+
+    /**
+     * @param callback the address the provider sends the user back to, with the code
+     * @return the address where the user logs in to the provider
+     */
+    public String getAuthorizationUrl(String callback) {
+        return authorizeUri + (authorizeUri.contains("?") ? "&" : "?") + "response_type=code"
+                + "&client_id=" + encode(clientId)
+                + "&redirect_uri=" + encode(callback)
+                + (scope == null ? "" : "&scope=" + encode(scope));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public String getClientSecret() {
+        return clientSecret;
+    }
+
+    public String getTokenUri() {
+        return tokenUri;
+    }
+
+    public String getProfileUri() {
+        return profileUri;
+    }
+
+    public String getScope() {
+        return scope;
+    }
+
+    public OAuth2ProfileMapping getProfileMapping() {
+        return profileMapping;
+    }
+
+    static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
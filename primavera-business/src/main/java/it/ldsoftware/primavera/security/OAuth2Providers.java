@@ -0,0 +1,80 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.services.interfaces.PropertyService;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Created by luca on 28/06/17.
+ * Gives the configured {@link OAuth2Provider}s. Each provider is known by a template with its endpoints and
+ * profile mapping, and is configured when the application properties {@code <name>.client.id} and
+ * {@code <name>.client.secret} are set (e.g. {@code google.client.id}). The credentials are read from the cached
+ * snapshot of the {@link PropertyService}, and the provider is built again only when they change.
+ * <p>
+ * Adding a provider means adding its template: Google and Facebook are available with
+ * {@link #googleTemplate(String, String, String)} and {@link #facebookTemplate(String, String, String)}.
+ */
+public class OAuth2Providers {
+
+    public static final String GOOGLE = "google", GOOGLE_SCOPE = "openid profile email",
+            GOOGLE_AUTHORIZE_URI = "https://accounts.google.com/o/oauth2/auth",
+            GOOGLE_TOKEN_URI = "https://accounts.google.com/o/oauth2/token",
+            GOOGLE_PROFILE_URI = "https://www.googleapis.com/plus/v1/people/me";
+
+    public static final String FACEBOOK = "facebook", FACEBOOK_SCOPE = "public_profile,email",
+            FACEBOOK_AUTHORIZE_URI = "https://www.facebook.com/v2.9/dialog/oauth",
+            FACEBOOK_TOKEN_URI = "https://graph.facebook.com/v2.9/oauth/access_token",
+            FACEBOOK_PROFILE_URI = "https://graph.facebook.com/v2.9/me?fields=id,email,first_name,last_name,picture";
+
+    private final PropertyService properties;
+    private final Map<String, OAuth2Provider> templates = new HashMap<>();
+    private final ConcurrentMap<String, OAuth2Provider> configured = new ConcurrentHashMap<>();
+
+    /**
+     * @param properties the service of the application properties
+     * @param templates  the known providers, without credentials
+     */
+    public OAuth2Providers(PropertyService properties, Collection<OAuth2Provider> templates) {
+        this.properties = properties;
+        templates.forEach(template -> this.templates.put(template.getName(), template));
+    }
+
+    public static OAuth2Provider googleTemplate(String authorizeUri, String tokenUri, String profileUri) {
+        return new OAuth2Provider(GOOGLE, null, null, authorizeUri, tokenUri, profileUri, GOOGLE_SCOPE,
+                new OAuth2ProfileMapping("id", "emails.0.value", "name.givenName", "name.familyName", "image.url"));
+    }
+
+    public static OAuth2Provider facebookTemplate(String authorizeUri, String tokenUri, String profileUri) {
+        return new OAuth2Provider(FACEBOOK, null, null, authorizeUri, tokenUri, profileUri, FACEBOOK_SCOPE,
+                new OAuth2ProfileMapping("id", "email", "first_name", "last_name", "picture.data.url"));
+    }
+
+    /**
+     * @param name the name of the provider
+     * @return the provider, null if it is unknown or its client id or secret are not configured
+     */
+    public OAuth2Provider get(String name) {
+        OAuth2Provider template = templates.get(name);
+        if (template == null)
+            return null;
+        String id = properties.getString(name + ".client.id", null);
+        String secret = properties.getString(name + ".client.secret", null);
+        if (id == null || secret == null)
+            return null;
+
+        OAuth2Provider current = configured.get(name);
+        if (current == null || !id.equals(current.getClientId()) || !secret.equals(current.getClientSecret())) {
+            current = template.withCredentials(id, secret);
+            configured.put(name, current);
+        }
+        return current;
+    }
+
+    public OAuth2Provider google() {
+        return get(GOOGLE);
+    }
+}
@@ -0,0 +1,90 @@
+package it.ldsoftware.primavera.security;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import it.ldsoftware.primavera.security.OAuth2ProfileMapping.Node;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by luca on 29/06/17.
+ * Reads the responses of the OAuth2 providers as a stream of tokens, taking only the wanted fields: no tree
+ * nor object is built for the rest of the response, which is skipped.
+ * The {@link JsonFactory} is shared, it is thread safe and keeps its symbol tables between the parses.
+ * The input streams are not closed.
+ */
+public final class OAuth2ResponseParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory().disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+    private static final String[] INDEXES = {"0", "1", "2", "3", "4", "5", "6", "7"};
+
+    private OAuth2ResponseParser() {
+    }
+
+    /**
+     * @return the access token of a token response, null if there is none
+     */
+    public static String accessToken(InputStream in) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            expectObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.VALUE_STRING && "access_token".equals(name))
+                    return parser.getText();
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param in       the profile response
+     * @param provider the provider that gave the response
+     * @return the profile, with the fields found with the mapping of the provider
+     */
+    public static OAuth2Profile profile(InputStream in, OAuth2Provider provider) throws IOException {
+        String[] values = new String[OAuth2ProfileMapping.FIELDS];
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            expectObject(parser);
+            readObject(parser, provider.getProfileMapping().root, values);
+        }
+        return new OAuth2Profile(provider.getName(), values[OAuth2ProfileMapping.ID],
+                values[OAuth2ProfileMapping.EMAIL], values[OAuth2ProfileMapping.GIVEN_NAME],
+                values[OAuth2ProfileMapping.FAMILY_NAME], values[OAuth2ProfileMapping.PICTURE]);
+    }
+
+    private static void expectObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new JsonParseException(parser, "Expected a json object");
+    }
+
+    private static void readObject(JsonParser parser, Node node, String[] values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Node child = node.children.get(parser.getCurrentName());
+            readValue(parser, parser.nextToken(), child, values);
+        }
+    }
+
+    private static void readValue(JsonParser parser, JsonToken token, Node node, String[] values) throws IOException {
+        if (node == null) {
+            parser.skipChildren();
+        } else if (token == JsonToken.START_OBJECT) {
+            readObject(parser, node, values);
+        } else if (token == JsonToken.START_ARRAY) {
+            int index = 0;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                readValue(parser, token, node.children.get(index(index++)), values);
+            }
+        } else if (node.slot >= 0 && token != JsonToken.VALUE_NULL) {
+            values[node.slot] = parser.getText();
+        }
+    }
+
+    private static String index(int index) {
+        return index < INDEXES.length ? INDEXES[index] : Integer.toString(index);
+    }
+}
@@ -0,0 +1,9 @@
+package it.ldsoftware.primavera.security;
+
+/**
+ * Created by luca on 25/06/17.
+ * The algorithms the {@link PasswordHasher} can hash new passwords with
+ */
+public enum PasswordAlgorithm {
+    BCRYPT, PBKDF2
+}
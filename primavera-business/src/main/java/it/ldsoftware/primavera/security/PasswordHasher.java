@@ -0,0 +1,119 @@
+package it.ldsoftware.primavera.security;
+
+import lombok.Getter;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.crypto.password.Pbkdf2PasswordEncoder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by luca on 25/06/17.
+ * Password encoder with configurable algorithm and cost, running every hash on a {@link HashingExecutor}.
+ * <p>
+ * New passwords are hashed with the configured {@link PasswordAlgorithm}; existing hashes are recognized
+ * by their format, so changing the configuration does not lock anybody out: BCrypt hashes ($2a$cost$...)
+ * carry their cost, PBKDF2 hashes are stored as {pbkdf2:iterations}hash. {@link #needsRehash(String)}
+ * tells if a hash was made with other parameters, and the {@link RehashingAuthenticationProvider}
+ * uses it to bring the passwords up to date as the users log in.
+ * <p>
+ * Argon2 is not available in this version of Spring Security.
+ */
+public class PasswordHasher implements PasswordEncoder {
+
+    private static final Pattern BCRYPT = Pattern.compile("^\\$2[aby]?\\$(\\d\\d)\\$.{53}$");
+    private static final Pattern PBKDF2 = Pattern.compile("^\\{pbkdf2:(\\d+)}(.+)$");
+
+    @Getter
+    private final PasswordAlgorithm algorithm;
+    private final int bcryptStrength, pbkdf2Iterations;
+    private final String pbkdf2Secret;
+    @Getter
+    private final HashingExecutor executor;
+
+    private final BCryptPasswordEncoder bcrypt;
+    private final ConcurrentMap<Integer, Pbkdf2PasswordEncoder> pbkdf2 = new ConcurrentHashMap<>();
+
+    /**
+     * @param algorithm        the algorithm of the new hashes
+     * @param bcryptStrength   the log rounds of BCrypt, from 4 to 31
+     * @param pbkdf2Iterations the iterations of PBKDF2
+     * @param pbkdf2Secret     the secret mixed in the PBKDF2 hashes, it cannot change once there are hashes
+     * @param executor         where the hashes are computed
+     */
+    public PasswordHasher(PasswordAlgorithm algorithm, int bcryptStrength, int pbkdf2Iterations, String pbkdf2Secret,
+                          HashingExecutor executor) {
+        this.algorithm = algorithm;
+        this.bcryptStrength = bcryptStrength;
+        this.pbkdf2Iterations = pbkdf2Iterations;
+        this.pbkdf2Secret = pbkdf2Secret;
+        this.executor = executor;
+        this.bcrypt = new BCryptPasswordEncoder(bcryptStrength);
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return executor.call(() -> encodeNow(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        if (encodedPassword == null || encodedPassword.isEmpty())
+            return false;
+        return executor.call(() -> matchesNow(rawPassword, encodedPassword));
+    }
+
+    /**
+     * @return true if the hash was made with another algorithm or other parameters than the current ones
+     */
+    public boolean needsRehash(String encodedPassword) {
+        if (encodedPassword == null)
+            return false;
+        Matcher m = BCRYPT.matcher(encodedPassword);
+        if (m.matches())
+            return algorithm != PasswordAlgorithm.BCRYPT || Integer.parseInt(m.group(1)) != bcryptStrength;
+        m = PBKDF2.matcher(encodedPassword);
+        if (m.matches())
+            return algorithm != PasswordAlgorithm.PBKDF2 || Integer.parseInt(m.group(1)) != pbkdf2Iterations;
+        return false;
+    }
+
+    /**
+     * Hashes the password again in background, if the executor has room for it
+     *
+     * @param rawPassword the password, already verified
+     * @param store       receives the new hash
+     */
+    public void rehashLater(CharSequence rawPassword, Consumer<String> store) {
+        executor.offer(() -> store.accept(encodeNow(rawPassword)));
+    }
+
+    private String encodeNow(CharSequence rawPassword) {
+        switch (algorithm) {
+            case PBKDF2:
+                return "{pbkdf2:" + pbkdf2Iterations + "}" + pbkdf2(pbkdf2Iterations).encode(rawPassword);
+            default:
+                return bcrypt.encode(rawPassword);
+        }
+    }
+
+    private boolean matchesNow(CharSequence rawPassword, String encodedPassword) {
+        Matcher m = PBKDF2.matcher(encodedPassword);
+        if (m.matches())
+            return pbkdf2(Integer.parseInt(m.group(1))).matches(rawPassword, m.group(2));
+        // BCrypt reads the cost from the hash itself
+        return bcrypt.matches(rawPassword, encodedPassword);
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private Pbkdf2PasswordEncoder pbkdf2(int iterations) {
+        return pbkdf2.computeIfAbsent(iterations, i -> new Pbkdf2PasswordEncoder(pbkdf2Secret, i, 256));
+    }
+}
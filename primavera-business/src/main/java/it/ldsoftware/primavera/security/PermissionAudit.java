@@ -0,0 +1,368 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.util.RoleRegistry;
+import it.ldsoftware.primavera.util.UserUtil;
+import org.apache.log4j.Logger;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.authentication.event.AbstractAuthenticationFailureEvent;
+import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Created by luca on 01/07/17.
+ * Records the permission checks of {@link UserUtil}, allowed or denied, by role, and the outcome of the logins.
+ * <p>
+ * Logins are counted from the authentication events that spring security publishes once the credentials have
+ * been checked, so a wrong password is a failure; the logins refused by the {@link LoginThrottle} are reported
+ * by the {@link it.ldsoftware.primavera.services.DatabaseUserDetailService}, as they raise no event.
+ * <p>
+ * Each thread counts its own checks in counters only it writes, so recording costs no lock and no contended
+ * write. One denial out of "sampleRate" is also kept, with the user and the time, in a ring of the last
+ * "events" samples. Every "interval" a background thread sums the counters of all the threads and logs what
+ * changed since the previous flush: denials are logged as warnings, so they reach the zz_log table when the
+ * {@link it.ldsoftware.primavera.logging.AsyncLogAppender} is enabled.
+ * <p>
+ * It is enabled by {@code it.primavera.security.audit.enabled}; once started it is installed on {@link UserUtil}.
+ */
+public class PermissionAudit {
+
+    private static final Logger logger = Logger.getLogger(PermissionAudit.class);
+
+    /**
+     * The outcome of a login
+     */
+    public enum LoginOutcome {
+        SUCCEEDED, FAILED, THROTTLED
+    }
+
+    private final long interval;
+    private final TimeUnit unit;
+    private final int sampleRate, mask;
+
+    private final ThreadLocal<Counters> local = ThreadLocal.withInitial(this::newCounters);
+    private final List<Counters> threads = new CopyOnWriteArrayList<>();
+
+    private final AtomicReferenceArray<Event> events;
+    private final AtomicLong nextEvent = new AtomicLong();
+
+    // written only while holding the lock of the instance
+    private long[] retired = new long[0], retiredLogins = new long[LoginOutcome.values().length];
+    private long[] flushed = new long[0], flushedLogins = new long[LoginOutcome.values().length];
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param interval   the time between two flushes
+     * @param unit       the unit of the interval
+     * @param sampleRate one denial out of sampleRate is kept as an event, 0 keeps none
+     * @param events     the minimum number of events kept, rounded up to the next power of two
+     */
+    public PermissionAudit(long interval, TimeUnit unit, int sampleRate, int events) {
+        if (events < 2)
+            throw new IllegalArgumentException("At least 2 events must be kept");
+        int size = Integer.highestOneBit(events - 1) << 1;
+        this.interval = interval;
+        this.unit = unit;
+        this.sampleRate = sampleRate;
+        this.mask = size - 1;
+        this.events = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Installs the audit on {@link UserUtil} and starts flushing
+     */
+    public void start() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "primavera-permission-audit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flush, interval, interval, unit);
+        UserUtil.setAudit(this);
+    }
+
+    /**
+     * Removes the audit from {@link UserUtil} and flushes what was recorded since the last time
+     */
+    public void stop() {
+        if (UserUtil.getAudit() == this)
+            UserUtil.setAudit(null);
+        if (executor != null)
+            executor.shutdownNow();
+        flush();
+    }
+
+    /**
+     * Records a permission check
+     *
+     * @param roleId   the id in the {@link RoleRegistry} of the role checked
+     * @param username the user checked, null if anonymous
+     * @param allowed  the outcome of the check
+     */
+    public void check(int roleId, String username, boolean allowed) {
+        if (roleId < 0)
+            return;
+        Counters counters = local.get();
+        counters.increment(roleId << 1 | (allowed ? 0 : 1));
+        if (!allowed && counters.sample())
+            sample(username, RoleRegistry.authority(roleId));
+    }
+
+    /**
+     * Records a login
+     *
+     * @param username the username (or email) tried
+     * @param outcome  the outcome of the login
+     */
+    public void login(String username, LoginOutcome outcome) {
+        Counters counters = local.get();
+        AtomicLongArray logins = counters.logins;
+        logins.lazySet(outcome.ordinal(), logins.get(outcome.ordinal()) + 1);
+        if (outcome != LoginOutcome.SUCCEEDED && counters.sample())
+            sample(username, outcome.name());
+    }
+
+    /**
+     * Records a login whose credentials were accepted
+     */
+    @EventListener
+    public void onAuthenticationSuccess(AuthenticationSuccessEvent event) {
+        login(event.getAuthentication().getName(), LoginOutcome.SUCCEEDED);
+    }
+
+    /**
+     * Records a login whose credentials were refused: wrong password, unknown user, disabled account...
+     */
+    @EventListener
+    public void onAuthenticationFailure(AbstractAuthenticationFailureEvent event) {
+        // already recorded as throttled
+        if (!(event.getException() instanceof LoginThrottledException))
+            login(event.getAuthentication().getName(), LoginOutcome.FAILED);
+    }
+
+    /**
+     * @param authority the role or role variant
+     * @return the checks of the authority that were allowed
+     */
+    public long getAllowed(String authority) {
+        int id = RoleRegistry.find(authority);
+        return id < 0 ? 0 : get(id << 1);
+    }
+
+    /**
+     * @param authority the role or role variant
+     * @return the checks of the authority that were denied
+     */
+    public long getDenied(String authority) {
+        int id = RoleRegistry.find(authority);
+        return id < 0 ? 0 : get(id << 1 | 1);
+    }
+
+    /**
+     * @param outcome the outcome of the logins
+     * @return the logins with the outcome
+     */
+    public synchronized long getLogins(LoginOutcome outcome) {
+        long total = retiredLogins[outcome.ordinal()];
+        for (Counters counters : threads)
+            total += counters.logins.get(outcome.ordinal());
+        return total;
+    }
+
+    /**
+     * @return the sampled events still in the ring, oldest first
+     */
+    public List<Event> getEvents() {
+        List<Event> result = new ArrayList<>(mask + 1);
+        for (int i = 0; i <= mask; i++) {
+            Event event = events.get(i);
+            if (event != null)
+                result.add(event);
+        }
+        result.sort(Comparator.comparingLong(Event::getSequence));
+        return result;
+    }
+
+    /**
+     * Logs the checks and the logins since the previous flush. Called periodically by the background thread.
+     */
+    public synchronized void flush() {
+        long[] totals = collect(), logins = retiredLogins.clone();
+        for (Counters counters : threads) {
+            for (int i = 0; i < logins.length; i++)
+                logins[i] += counters.logins.get(i);
+        }
+
+        long allowed = 0, denied = 0;
+        List<String> denials = new ArrayList<>();
+        for (int i = 0; i < totals.length; i += 2) {
+            long a = totals[i] - (i < flushed.length ? flushed[i] : 0);
+            long d = totals[i + 1] - (i + 1 < flushed.length ? flushed[i + 1] : 0);
+            allowed += a;
+            denied += d;
+            if (d > 0)
+                denials.add(RoleRegistry.authority(i >> 1) + " " + d + "/" + (a + d));
+        }
+        long[] loginDeltas = new long[logins.length];
+        long loginTotal = 0;
+        for (int i = 0; i < logins.length; i++) {
+            loginDeltas[i] = logins[i] - flushedLogins[i];
+            loginTotal += loginDeltas[i];
+        }
+        flushed = totals;
+        flushedLogins = logins;
+
+        if (allowed + denied + loginTotal == 0)
+            return;
+        String message = "Permission checks: " + allowed + " allowed, " + denied + " denied"
+                + (denials.isEmpty() ? "" : " " + denials) + "; logins: "
+                + loginDeltas[LoginOutcome.SUCCEEDED.ordinal()] + " succeeded, "
+                + loginDeltas[LoginOutcome.FAILED.ordinal()] + " failed, "
+                + loginDeltas[LoginOutcome.THROTTLED.ordinal()] + " throttled";
+        if (denied > 0 || loginTotal > loginDeltas[LoginOutcome.SUCCEEDED.ordinal()])
+            logger.warn(message);
+        else
+            logger.info(message);
+    }
+
+    private synchronized long get(int index) {
+        long total = index < retired.length ? retired[index] : 0;
+        for (Counters counters : threads) {
+            AtomicLongArray roles = counters.roles;
+            if (index < roles.length())
+                total += roles.get(index);
+        }
+        return total;
+    }
+
+    /**
+     * Sums the counters of all the threads, and moves the ones of the threads that ended to the retired totals
+     */
+    private long[] collect() {
+        long[] totals = retired.clone();
+        List<Counters> ended = new ArrayList<>();
+        for (Counters counters : threads) {
+            AtomicLongArray roles = counters.roles;
+            if (roles.length() > totals.length)
+                totals = Arrays.copyOf(totals, roles.length());
+            for (int i = 0; i < roles.length(); i++)
+                totals[i] += roles.get(i);
+            if (!counters.owner.isAlive())
+                ended.add(counters);
+        }
+        for (Counters counters : ended) {
+            AtomicLongArray roles = counters.roles;
+            if (roles.length() > retired.length)
+                retired = Arrays.copyOf(retired, roles.length());
+            for (int i = 0; i < roles.length(); i++)
+                retired[i] += roles.get(i);
+            for (int i = 0; i < retiredLogins.length; i++)
+                retiredLogins[i] += counters.logins.get(i);
+        }
+        threads.removeAll(ended);
+        return totals;
+    }
+
+    private void sample(String username, String subject) {
+        long sequence = nextEvent.getAndIncrement();
+        events.lazySet((int) (sequence & mask), new Event(sequence, System.currentTimeMillis(), username, subject));
+    }
+
+    private Counters newCounters() {
+        Counters counters = new Counters(Thread.currentThread(), sampleRate);
+        threads.add(counters);
+        return counters;
+    }
+
+    /**
+     * The counters of a thread: only the thread writes them, the flush reads them
+     */
+    private static final class Counters {
+        final Thread owner;
+        final AtomicLongArray logins = new AtomicLongArray(LoginOutcome.values().length);
+        final int sampleRate;
+        volatile AtomicLongArray roles;
+        int untilSample;
+
+        Counters(Thread owner, int sampleRate) {
+            this.owner = owner;
+            this.sampleRate = sampleRate;
+            this.roles = new AtomicLongArray(Math.max(16, RoleRegistry.size() * 2));
+            this.untilSample = 1;
+        }
+
+        void increment(int index) {
+            AtomicLongArray current = roles;
+            if (index >= current.length())
+                current = grow(current, index);
+            current.lazySet(index, current.get(index) + 1);
+        }
+
+        boolean sample() {
+            if (sampleRate <= 0 || --untilSample > 0)
+                return false;
+            untilSample = sampleRate;
+            return true;
+        }
+
+        private AtomicLongArray grow(AtomicLongArray current, int index) {
+            AtomicLongArray grown = new AtomicLongArray(Math.max((index | 1) + 1, current.length() * 2));
+            for (int i = 0; i < current.length(); i++)
+                grown.set(i, current.get(i));
+            roles = grown;
+            return grown;
+        }
+    }
+
+    /**
+     * A sampled denial
+     */
+    public static final class Event {
+
+        private final long sequence, time;
+        private final String username, subject;
+
+        Event(long sequence, long time, String username, String subject) {
+            this.sequence = sequence;
+            this.time = time;
+            this.username = username;
+            this.subject = subject;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the time of the denial, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return the user denied, null if anonymous
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * @return the role denied, or the {@link LoginOutcome} of a failed login
+         */
+        public String getSubject() {
+            return subject;
+        }
+    }
+}
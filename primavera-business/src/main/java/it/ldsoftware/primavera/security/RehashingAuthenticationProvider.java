@@ -0,0 +1,76 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.services.interfaces.UserService;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+
+/**
+ * Created by luca on 25/06/17.
+ * Authentication provider that checks the passwords with the {@link PasswordHasher} and, after a successful
+ * login, stores the password hashed again if its hash was made with an older configuration.
+ * The new hash is computed in background, so the login does not pay for it.
+ * <p>
+ * When a {@link LoginThrottle} is set, each failed check of the credentials (wrong password or unknown user)
+ * is counted on it.
+ */
+public class RehashingAuthenticationProvider extends DaoAuthenticationProvider {
+
+    private final PasswordHasher hasher;
+    private final UserService users;
+    private LoginThrottle throttle;
+
+    /**
+     * @param userDetailsService finds the users
+     * @param hasher             checks and hashes the passwords
+     * @param users              stores the new hashes, may be null to never rehash
+     */
+    public RehashingAuthenticationProvider(UserDetailsService userDetailsService, PasswordHasher hasher, UserService users) {
+        this.hasher = hasher;
+        this.users = users;
+        setUserDetailsService(userDetailsService);
+        setPasswordEncoder(hasher);
+    }
+
+    /**
+     * @param throttle counts the failed logins, may be null
+     */
+    public void setThrottle(LoginThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Lets a {@link LoginThrottledException} of the user details service through, instead of it being
+     * reported as an internal error
+     */
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        try {
+            return super.authenticate(authentication);
+        } catch (InternalAuthenticationServiceException e) {
+            if (e.getCause() instanceof LoginThrottledException)
+                throw (LoginThrottledException) e.getCause();
+            throw e;
+        } catch (BadCredentialsException e) {
+            if (throttle != null)
+                throttle.failed(authentication.getName(), LoginThrottle.clientAddress());
+            throw e;
+        }
+    }
+
+    @Override
+    protected void additionalAuthenticationChecks(UserDetails userDetails, UsernamePasswordAuthenticationToken authentication)
+            throws AuthenticationException {
+        super.additionalAuthenticationChecks(userDetails, authentication);
+        if (users != null && hasher.needsRehash(userDetails.getPassword())) {
+            String username = userDetails.getUsername();
+            hasher.rehashLater(authentication.getCredentials().toString(),
+                    hash -> users.updatePassword(username, userDetails.getPassword(), hash));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package it.ldsoftware.primavera.security;
+
+import com.querydsl.core.types.Predicate;
+import it.ldsoftware.primavera.util.SecuredUser;
+
+/**
+ * Created by luca on 30/06/17.
+ * Rule of the {@link RowSecurity} that depends on the user, e.g. the rows they own.
+ * Rules that do not depend on the user should be given as plain predicates, that are combined only once.
+ */
+@FunctionalInterface
+public interface RowRule {
+
+    /**
+     * @param user the current user
+     * @return the rows the user can read, null for all of them
+     */
+    Predicate rowsFor(SecuredUser user);
+}
@@ -0,0 +1,230 @@
+package it.ldsoftware.primavera.security;
+
+import com.querydsl.core.types.ExpressionUtils;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.PathBuilder;
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import it.ldsoftware.primavera.util.RoleRegistry;
+import it.ldsoftware.primavera.util.SecuredUser;
+import it.ldsoftware.primavera.util.UserUtil;
+import org.springframework.data.querydsl.SimpleEntityPathResolver;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Created by luca on 30/06/17.
+ * Row level security: the rows of an entity a user can read, by role. The predicate of the user is added to the
+ * ones of the queries of the {@link it.ldsoftware.primavera.services.AbstractBusinessService}, so the rows the
+ * user cannot read never leave the database.
+ * <p>
+ * Rules are given for an entity and a role, e.g. {@code allow(Document.class, "ROLE_SALES", QDocument.document
+ * .department.eq("SALES"))}: a user reads the rows allowed by any of their roles. Once an entity has a rule:
+ * <ul>
+ * <li>users without any of the roles of its rules read nothing</li>
+ * <li>super administrators read everything</li>
+ * <li>calls without an authentication, anonymous users and principals that are not a {@link SecuredUser}
+ * read nothing</li>
+ * <li>the code run by {@link #runAsSystem(Supplier)} (e.g. scheduled jobs) reads everything</li>
+ * </ul>
+ * The predicates are written on the default Q-class instance of the entity (e.g. {@code QDocument.document}).
+ * <p>
+ * The rules that apply to a set of roles are combined once and cached by the set of roles; only the
+ * {@link RowRule}s that depend on the user are evaluated at every query.
+ */
+public class RowSecurity {
+
+    private static final int ROLE_SUPERADMIN = RoleRegistry.register(UserUtil.ROLE_SUPERADMIN);
+
+    private static final ThreadLocal<Boolean> SYSTEM = ThreadLocal.withInitial(() -> false);
+
+    private final ConcurrentMap<Class<?>, EntityRules> entities = new ConcurrentHashMap<>();
+
+    /**
+     * Allows the users with the role to read the rows of the entity that match the predicate
+     */
+    public RowSecurity allow(Class<? extends BaseEntity> entity, String role, Predicate predicate) {
+        return add(entity, new Grant(RoleRegistry.register(role), predicate, null, false));
+    }
+
+    /**
+     * Allows the users with the role to read the rows of the entity chosen by the rule
+     */
+    public RowSecurity allow(Class<? extends BaseEntity> entity, String role, RowRule rule) {
+        return add(entity, new Grant(RoleRegistry.register(role), null, rule, false));
+    }
+
+    /**
+     * Allows the users with the role to read all the rows of the entity
+     */
+    public RowSecurity allowAll(Class<? extends BaseEntity> entity, String role) {
+        return add(entity, new Grant(RoleRegistry.register(role), null, null, true));
+    }
+
+    /**
+     * Removes all the rules of the entity, that becomes readable by everyone
+     */
+    public void clear(Class<? extends BaseEntity> entity) {
+        entities.remove(entity);
+    }
+
+    /**
+     * Runs the work on the current thread without any restriction, whatever the authentication.
+     * Meant for the jobs that are not run on behalf of a user, e.g. the scheduled ones.
+     *
+     * @return the result of the work
+     */
+    public static <T> T runAsSystem(Supplier<T> work) {
+        boolean previous = SYSTEM.get();
+        SYSTEM.set(true);
+        try {
+            return work.get();
+        } finally {
+            SYSTEM.set(previous);
+        }
+    }
+
+    /**
+     * Same as {@link #runAsSystem(Supplier)}
+     */
+    public static void runAsSystem(Runnable work) {
+        runAsSystem(() -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * @return true if the current thread is running as system, see {@link #runAsSystem(Supplier)}
+     */
+    public static boolean isSystem() {
+        return SYSTEM.get();
+    }
+
+    /**
+     * @return the restriction for the current user, see {@link #restriction(Class, SecuredUser)}
+     */
+    public Predicate restriction(Class<? extends BaseEntity> entity) {
+        EntityRules rules = entities.get(entity);
+        if (rules == null || isSystem())
+            return null;
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        Object principal = authentication == null ? null : authentication.getPrincipal();
+        return principal instanceof SecuredUser ? restriction(entity, (SecuredUser) principal) : rules.nothing;
+    }
+
+    /**
+     * @param entity the entity being read
+     * @param user   the user reading, null for calls without an authentication
+     * @return the predicate of the rows the user can read, null if they can read all of them
+     */
+    public Predicate restriction(Class<? extends BaseEntity> entity, SecuredUser user) {
+        EntityRules rules = entities.get(entity);
+        if (rules == null || isSystem())
+            return null;
+        if (user == null)
+            return rules.nothing;
+        return user.hasAuthority(ROLE_SUPERADMIN) ? null : rules.restriction(user);
+    }
+
+    private synchronized RowSecurity add(Class<? extends BaseEntity> entity, Grant grant) {
+        EntityRules current = entities.get(entity);
+        List<Grant> grants = current == null ? new ArrayList<>() : new ArrayList<>(current.grants);
+        if (grants.size() == Long.SIZE)
+            throw new IllegalStateException("At most " + Long.SIZE + " rules for each entity");
+        grants.add(grant);
+        // the templates of the previous rules are dropped with them
+        entities.put(entity, new EntityRules(entity, grants));
+        return this;
+    }
+
+    private static final class Grant {
+        final int roleId;
+        final Predicate predicate;
+        final RowRule rule;
+        final boolean all;
+
+        Grant(int roleId, Predicate predicate, RowRule rule, boolean all) {
+            this.roleId = roleId;
+            this.predicate = predicate;
+            this.rule = rule;
+            this.all = all;
+        }
+    }
+
+    private static final class EntityRules {
+        final List<Grant> grants;
+        final Predicate nothing;
+        final ConcurrentMap<Long, Template> templates = new ConcurrentHashMap<>();
+
+        EntityRules(Class<? extends BaseEntity> entity, List<Grant> grants) {
+            this.grants = grants;
+            // ids are never null, and unlike a boolean literal this is valid in every dialect
+            this.nothing = new PathBuilder<>(entity, SimpleEntityPathResolver.INSTANCE.createPath(entity)
+                    .getMetadata()).getNumber("id", Long.class).isNull();
+        }
+
+        Predicate restriction(SecuredUser user) {
+            long roles = 0;
+            for (int i = 0; i < grants.size(); i++) {
+                if (user.hasAuthority(grants.get(i).roleId))
+                    roles |= 1L << i;
+            }
+            Template template = templates.get(roles);
+            if (template == null)
+                template = templates.computeIfAbsent(roles, this::compile);
+            return template.apply(user);
+        }
+
+        Template compile(long roles) {
+            if (roles == 0)
+                return new Template(nothing, new RowRule[0], false);
+            List<Predicate> predicates = new ArrayList<>();
+            List<RowRule> rules = new ArrayList<>();
+            for (int i = 0; i < grants.size(); i++) {
+                if ((roles & 1L << i) == 0)
+                    continue;
+                Grant grant = grants.get(i);
+                if (grant.all)
+                    return new Template(null, new RowRule[0], true);
+                if (grant.predicate != null)
+                    predicates.add(grant.predicate);
+                else
+                    rules.add(grant.rule);
+            }
+            return new Template(ExpressionUtils.anyOf(predicates), rules.toArray(new RowRule[rules.size()]), false);
+        }
+    }
+
+    private static final class Template {
+        final Predicate fixed;
+        final RowRule[] rules;
+        final boolean all;
+
+        Template(Predicate fixed, RowRule[] rules, boolean all) {
+            this.fixed = fixed;
+            this.rules = rules;
+            this.all = all;
+        }
+
+        Predicate apply(SecuredUser user) {
+            if (all)
+                return null;
+            if (rules.length == 0)
+                return fixed;
+            Predicate result = fixed;
+            for (RowRule rule : rules) {
+                Predicate rows = rule.rowsFor(user);
+                if (rows == null)
+                    return null;
+                result = result == null ? rows : ExpressionUtils.or(result, rows);
+            }
+            return result;
+        }
+    }
+}
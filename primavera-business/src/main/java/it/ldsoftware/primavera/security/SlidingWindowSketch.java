@@ -0,0 +1,109 @@
+package it.ldsoftware.primavera.security;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by luca on 26/06/17.
+ * Count-min sketch that counts the events of each key over a sliding window, in a fixed amount of memory
+ * whatever the number of keys: "depth" rows of "width" counters, each row hashing the key with its own seed,
+ * the estimate being the smallest of the counters. Estimates can be too high, never too low.
+ * <p>
+ * There are two generations of counters, the current window and the previous one, weighted by how much
+ * of it is still inside the sliding window. Counters are incremented without locks; the thread that moves
+ * to a new window clears the oldest generation, and the few increments racing with it may be lost.
+ */
+class SlidingWindowSketch {
+
+    private final int depth, mask;
+    private final int[] seeds;
+    private final AtomicIntegerArray[] generations = new AtomicIntegerArray[2];
+    private final long windowNanos;
+    private final AtomicLong window = new AtomicLong();
+
+    /**
+     * @param width       the counters of each row, rounded up to a power of two
+     * @param depth       the rows
+     * @param windowNanos the length of the window
+     */
+    SlidingWindowSketch(int width, int depth, long windowNanos) {
+        int size = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.depth = depth;
+        this.mask = size - 1;
+        this.seeds = new int[depth];
+        for (int i = 0; i < depth; i++) {
+            // random seeds, so that colliding keys cannot be computed in advance
+            seeds[i] = ThreadLocalRandom.current().nextInt() | 1;
+        }
+        generations[0] = new AtomicIntegerArray(size * depth);
+        generations[1] = new AtomicIntegerArray(size * depth);
+        this.windowNanos = windowNanos;
+        this.window.set(Math.floorDiv(System.nanoTime(), windowNanos));
+    }
+
+    /**
+     * Counts an event for the key
+     *
+     * @return the estimate of the events of the key in the sliding window, this one included
+     */
+    int increment(String key, long now) {
+        return count(key, now, true);
+    }
+
+    /**
+     * @return the estimate of the events of the key in the sliding window, without counting one
+     */
+    int estimate(String key, long now) {
+        return count(key, now, false);
+    }
+
+    private int count(String key, long now, boolean increment) {
+        long current = advance(now);
+        AtomicIntegerArray counts = generations[(int) (current & 1)], previous = generations[(int) ((current + 1) & 1)];
+        double elapsed = (double) (now - current * windowNanos) / windowNanos;
+        double weight = 1 - Math.min(1, Math.max(0, elapsed));
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int slot = slot(key, row);
+            int count = (increment ? counts.incrementAndGet(slot) : counts.get(slot))
+                    + (int) (previous.get(slot) * weight);
+            estimate = Math.min(estimate, count);
+        }
+        return estimate;
+    }
+
+    private long advance(long now) {
+        long target = Math.floorDiv(now, windowNanos);
+        long current = window.get();
+        while (target > current) {
+            if (window.compareAndSet(current, target)) {
+                // the generation of the new window held the one before the previous
+                clear(generations[(int) (target & 1)]);
+                if (target - current > 1) {
+                    clear(generations[(int) ((target + 1) & 1)]);
+                }
+                return target;
+            }
+            current = window.get();
+        }
+        return current;
+    }
+
+    private int slot(String key, int row) {
+        int h = seeds[row];
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return row * (mask + 1) + (h & mask);
+    }
+
+    private static void clear(AtomicIntegerArray counts) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.lazySet(i, 0);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package it.ldsoftware.primavera.security;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Created by luca on 27/06/17.
+ * Authenticates each request from the token of the {@link TokenService}, read from the
+ * {@code Authorization: Bearer} header or from a cookie. Requests without a valid token go on unauthenticated,
+ * and the security configuration decides what they can reach.
+ */
+public class TokenAuthenticationFilter extends OncePerRequestFilter {
+
+    private static final String BEARER = "Bearer ";
+
+    private final TokenService tokens;
+    private final String cookieName;
+
+    /**
+     * @param tokens     the service that verifies the tokens
+     * @param cookieName the cookie that holds the token, null to read only the header
+     */
+    public TokenAuthenticationFilter(TokenService tokens, String cookieName) {
+        this.tokens = tokens;
+        this.cookieName = cookieName;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (SecurityContextHolder.getContext().getAuthentication() == null) {
+            Authentication authentication = tokens.authenticate(token(request));
+            if (authentication != null)
+                SecurityContextHolder.getContext().setAuthentication(authentication);
+        }
+        chain.doFilter(request, response);
+    }
+
+    private String token(HttpServletRequest request) {
+        String header = request.getHeader("Authorization");
+        if (header != null && header.startsWith(BEARER))
+            return header.substring(BEARER.length()).trim();
+        if (cookieName != null && request.getCookies() != null)
+            for (Cookie cookie : request.getCookies())
+                if (cookieName.equals(cookie.getName()))
+                    return cookie.getValue();
+        return null;
+    }
+}
@@ -0,0 +1,214 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.services.SecurityModelChangedEvent;
+import it.ldsoftware.primavera.util.SecuredUser;
+import org.apache.log4j.Logger;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by luca on 27/06/17.
+ * Issues and verifies signed tokens that carry the id, the username and the authorities of a user, so that
+ * a request can be authenticated without the http session and without reading the database.
+ * <p>
+ * A token is the payload and its HMAC-SHA256, both base64url encoded and separated by a dot. The payload holds
+ * a random token id, the user id, the issue and expiration times, the username and the authorities as encoded
+ * by the {@link AuthorityCodec}. Every instance that shares the key and the database can verify the tokens
+ * of the others.
+ * <p>
+ * Tokens cannot be changed once issued: they are revoked one by one with {@link #revoke(String)}, or all the
+ * tokens of a user issued so far with {@link #revokeUser(String)}, which happens by itself when the user changes.
+ * The revocations are kept in memory until the revoked tokens expire, and are not shared between instances;
+ * changes to the groups of a user reach the tokens only when they expire, so keep the time to live short.
+ */
+public class TokenService {
+    private static final Logger logger = Logger.getLogger(TokenService.class);
+
+    private static final byte VERSION = 2;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final AuthorityCodec codec;
+    private final long ttlMillis;
+    private final ThreadLocal<Mac> macs;
+    private final SecureRandom random = new SecureRandom();
+
+    // token id -> expiration, username -> last revocation
+    private final ConcurrentMap<Long, Long> revokedTokens = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Long> revokedUsers = new ConcurrentHashMap<>();
+
+    /**
+     * @param key   the key of the signature, at least 32 bytes
+     * @param ttl   the time to live of the tokens
+     * @param unit  the unit of the time to live
+     * @param codec the codec of the authorities
+     */
+    public TokenService(byte[] key, long ttl, TimeUnit unit, AuthorityCodec codec) {
+        if (key == null || key.length < 32)
+            throw new IllegalArgumentException("The token key must be at least 32 bytes long");
+        SecretKeySpec spec = new SecretKeySpec(key.clone(), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(spec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.ttlMillis = unit.toMillis(ttl);
+        this.codec = codec;
+    }
+
+    /**
+     * @param user the authenticated user
+     * @return the token for the user, valid for the time to live
+     */
+    public String issue(SecuredUser user) {
+        byte[] username = user.getUsername().getBytes(StandardCharsets.UTF_8);
+        byte[] authorities = codec.encode(user.getAuthorities());
+        long now = System.currentTimeMillis();
+
+        ByteBuffer payload = ByteBuffer.allocate(1 + 8 * 4 + 2 + username.length + 2 + authorities.length);
+        payload.put(VERSION)
+                .putLong(random.nextLong())
+                .putLong(user.getId() == null ? -1 : user.getId())
+                .putLong(now)
+                .putLong(now + ttlMillis)
+                .putShort((short) username.length)
+                .put(username)
+                .putShort((short) authorities.length)
+                .put(authorities);
+
+        byte[] bytes = payload.array();
+        return ENCODER.encodeToString(bytes) + "." + ENCODER.encodeToString(sign(bytes));
+    }
+
+    /**
+     * @param token the token
+     * @return the authentication of the user of the token, null if the token is not valid, expired or revoked
+     */
+    public Authentication authenticate(String token) {
+        byte[] payload = verify(token);
+        if (payload == null)
+            return null;
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            if (buffer.get() != VERSION)
+                return null;
+            long tokenId = buffer.getLong(), userId = buffer.getLong(), issuedAt = buffer.getLong(),
+                    expiresAt = buffer.getLong();
+            byte[] username = new byte[buffer.getShort()];
+            buffer.get(username);
+            byte[] authorities = new byte[buffer.getShort()];
+            buffer.get(authorities);
+
+            String name = new String(username, StandardCharsets.UTF_8);
+            if (expiresAt <= System.currentTimeMillis() || isRevoked(tokenId, name, issuedAt))
+                return null;
+
+            SecuredUser user = SecuredUser.authenticated(userId < 0 ? null : userId, name,
+                    codec.decode(authorities));
+            return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+        } catch (BufferUnderflowException | NegativeArraySizeException | IllegalArgumentException e) {
+            // signed by us, so only a token of another version
+            logger.warn("Could not read a token with a valid signature", e);
+            return null;
+        }
+    }
+
+    /**
+     * Revokes a single token, e.g. on logout. Tokens that are not signed with the key are ignored, and the
+     * revocation is kept at most for the time to live, whatever the expiration the token claims.
+     */
+    public void revoke(String token) {
+        byte[] payload = verify(token);
+        if (payload == null)
+            return;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(payload);
+            if (buffer.get() != VERSION)
+                return;
+            long tokenId = buffer.getLong();
+            buffer.getLong();
+            buffer.getLong();
+            long now = System.currentTimeMillis(), expiresAt = Math.min(buffer.getLong(), now + ttlMillis);
+            if (expiresAt > now)
+                revokedTokens.put(tokenId, expiresAt);
+        } catch (BufferUnderflowException e) {
+            return;
+        }
+        purge();
+    }
+
+    /**
+     * Revokes all the tokens issued so far to the user
+     *
+     * @param username the username of the user
+     */
+    public void revokeUser(String username) {
+        revokedUsers.put(username.toLowerCase(), System.currentTimeMillis());
+        purge();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecurityModelChanged(SecurityModelChangedEvent event) {
+        // logins may also be emails, revoking them costs only an entry
+        event.getLogins().forEach(this::revokeUser);
+    }
+
+    private boolean isRevoked(long tokenId, String username, long issuedAt) {
+        if (revokedTokens.containsKey(tokenId))
+            return true;
+        Long revokedAt = revokedUsers.isEmpty() ? null : revokedUsers.get(username.toLowerCase());
+        return revokedAt != null && issuedAt <= revokedAt;
+    }
+
+    /**
+     * Forgets the revocations of tokens that have expired anyway
+     */
+    private void purge() {
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(expiresAt -> expiresAt <= now);
+        revokedUsers.values().removeIf(revokedAt -> revokedAt + ttlMillis <= now);
+    }
+
+    /**
+     * @return the payload of the token, null if the token is malformed or its signature is not ours
+     */
+    private byte[] verify(String token) {
+        int dot = token == null ? -1 : token.indexOf('.');
+        if (dot < 0)
+            return null;
+
+        byte[] payload, signature;
+        try {
+            payload = DECODER.decode(token.substring(0, dot));
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return MessageDigest.isEqual(signature, sign(payload)) ? payload : null;
+    }
+
+    private byte[] sign(byte[] payload) {
+        // doFinal resets the mac for the next use
+        return macs.get().doFinal(payload);
+    }
+}
@@ -1,22 +1,42 @@
 package it.ldsoftware.primavera.services;
 
+import com.querydsl.core.types.ExpressionUtils;
 import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.QBean;
+import com.querydsl.core.types.dsl.PathBuilder;
 import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.base.FetchPlan;
 import it.ldsoftware.primavera.mapper.Mapper;
 import it.ldsoftware.primavera.model.base.BaseEntity;
 import it.ldsoftware.primavera.presentation.base.BaseDTO;
+import it.ldsoftware.primavera.query.Cursor;
+import it.ldsoftware.primavera.query.KeysetPage;
+import it.ldsoftware.primavera.query.Sort;
+import it.ldsoftware.primavera.security.RowSecurity;
 import it.ldsoftware.primavera.services.interfaces.BusinessService;
 import lombok.Getter;
+import org.springframework.beans.BeanUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.GenericTypeResolver;
+import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.querydsl.SimpleEntityPathResolver;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.annotation.Nullable;
 import javax.transaction.Transactional;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import static org.springframework.transaction.TransactionDefinition.PROPAGATION_REQUIRES_NEW;
+
 /**
  * Abstract business service with basic implementations. If the business logic
  * does not differ from simple CRUD operations, just leave the implementation alone.
@@ -24,17 +44,32 @@ import java.util.stream.StreamSupport;
  * Note that it defines a default constructor to allow DAL and Mapper injection
  * <br />
  * Override methods when necessary.
+ * <br />
+ * When a {@link RowSecurity} is available, the reads are restricted to the rows the current user can read:
+ * its predicate is added to the one of the caller before reaching the DAL.
+ * <br />
+ * The projections of {@link #projectBy(Predicate)} fill the DTO with the columns named in its
+ * {@link BaseDTO#_fields()}; override {@link #projection()} to choose them differently.
+ * <br />
+ * A single element is read with the {@link FetchPlan#EDITOR} plan, pages with the {@link FetchPlan#ROW} one.
  *
  * @author Luca Di Stefano
  */
 public abstract class AbstractBusinessService<D extends BaseDTO, E extends BaseEntity> implements BusinessService<D> {
 
+    public static final int DEFAULT_BULK_CHUNK_SIZE = 50;
+
     @Getter
     private final BaseDAL<E> dal;
 
     @Getter
     private final Mapper<E, D> mapper;
 
+    private RowSecurity rowSecurity;
+    private TransactionTemplate bulkTransaction, exportTransaction;
+    private int bulkChunkSize = DEFAULT_BULK_CHUNK_SIZE;
+    private volatile QBean<D> projection;
+
     @Autowired
     public AbstractBusinessService(BaseDAL<E> dal, Mapper<E, D> mapper) {
         this.dal = dal;
@@ -44,38 +79,73 @@ public abstract class AbstractBusinessService<D extends BaseDTO, E extends BaseE
     @Override
     @Transactional
     public D findOne(Long id) {
-        return mapper.convertToView(dal.findOne(id));
+        Predicate restriction = restriction();
+        if (restriction == null)
+            return mapper.convertToView(dal.findFullById(id));
+        PathBuilder<E> entity = new PathBuilder<>(dal.getEntityClass(),
+                SimpleEntityPathResolver.INSTANCE.createPath(dal.getEntityClass()).getMetadata());
+        return mapper.convertToView(dal.findOne(ExpressionUtils.and(entity.getNumber("id", Long.class).eq(id),
+                restriction), FetchPlan.EDITOR));
     }
 
     @Override
     @Transactional
     public D findOne(Predicate predicate) {
-        return mapper.convertToView(dal.findOne(predicate));
+        return mapper.convertToView(dal.findOne(restrict(predicate)));
     }
 
     @Override
     @Transactional
     public List<D> findAll() {
+        if (restriction() != null)
+            return findBy(null);
         return dal.findAll().stream().map(mapper::convertToView).collect(Collectors.toList());
     }
 
     @Override
     @Transactional
     public List<D> findBy(Predicate predicate) {
-        return StreamSupport.stream(dal.findAll(predicate).spliterator(), false)
+        return StreamSupport.stream(dal.findAll(restrict(predicate)).spliterator(), false)
                 .map(mapper::convertToView).collect(Collectors.toList());
     }
 
     @Override
     @Transactional
     public Page<D> findBy(Predicate predicate, @Nullable Pageable pageable) {
-        return dal.findAll(predicate, pageable).map(mapper::convertToView);
+        return dal.findAll(restrict(predicate), pageable, FetchPlan.ROW).map(mapper::convertToView);
+    }
+
+    @Override
+    @Transactional
+    public KeysetPage<D> findBy(@Nullable Predicate predicate, @Nullable Sort sort, @Nullable Cursor cursor, int size) {
+        return dal.findAll(restrict(predicate), sort, cursor, size).map(mapper::convertToView);
+    }
+
+    @Override
+    public void forEachBy(@Nullable Predicate predicate, int batchSize, Consumer<? super D> consumer) {
+        // the persistence context is cleared while reading, it must not be the one of the caller
+        exportTransaction.execute(status -> {
+            dal.forEach(restrict(predicate), batchSize, e -> consumer.accept(mapper.convertToView(e)));
+            return null;
+        });
+    }
+
+    @Override
+    @Transactional
+    public List<D> projectBy(@Nullable Predicate predicate) {
+        return dal.project(restrict(predicate), projection());
+    }
+
+    @Override
+    @Transactional
+    public Page<D> projectBy(@Nullable Predicate predicate, @Nullable Pageable pageable) {
+        return dal.project(restrict(predicate), projection(), pageable);
     }
 
     @Override
     @Transactional
     public D save(D toSave) {
-        return mapper.convertToView(dal.save(mapper.convertToModel(toSave)));
+        return mapper.convertToView(dal.save(toModel(toSave)));
     }
 
     @Override
@@ -83,4 +153,151 @@ public abstract class AbstractBusinessService<D extends BaseDTO, E extends BaseE
     public void delete(Long id) {
         dal.delete(id);
     }
+
+    /**
+     * Saves the elements in chunks of the JDBC batch size, each chunk in its own transaction.
+     * If a chunk fails, its elements are saved again one per transaction, so that only the
+     * elements that actually fail are reported as failures.
+     */
+    @Override
+    public BulkResult<D> saveAll(Collection<D> toSave) {
+        List<D> items = new ArrayList<>(toSave);
+        BulkResult<D> result = new BulkResult<>();
+
+        for (int start = 0; start < items.size(); start += bulkChunkSize) {
+            List<D> chunk = items.subList(start, Math.min(start + bulkChunkSize, items.size()));
+            try {
+                bulkTransaction.execute(status -> saveChunk(chunk)).forEach(result::addSuccess);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    List<D> single = chunk.subList(i, i + 1);
+                    try {
+                        bulkTransaction.execute(status -> saveChunk(single)).forEach(result::addSuccess);
+                    } catch (RuntimeException ex) {
+                        result.addFailure(start + i, ex);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes the elements in chunks, each chunk in its own transaction, with the same failure
+     * isolation of {@link #saveAll(Collection)}. Ids that do not exist are reported as failures.
+     *
+     * @see BaseDAL#deleteAllById(Collection)
+     */
+    @Override
+    public BulkResult<Long> deleteAll(Collection<Long> ids) {
+        List<Long> items = new ArrayList<>(ids);
+        BulkResult<Long> result = new BulkResult<>();
+
+        for (int start = 0; start < items.size(); start += bulkChunkSize) {
+            List<Long> chunk = items.subList(start, Math.min(start + bulkChunkSize, items.size()));
+            List<Long> deleted;
+            try {
+                deleted = bulkTransaction.execute(status -> dal.deleteAllById(chunk));
+            } catch (RuntimeException e) {
+                deleted = new ArrayList<>();
+                for (int i = 0; i < chunk.size(); i++) {
+                    List<Long> single = chunk.subList(i, i + 1);
+                    try {
+                        deleted.addAll(bulkTransaction.execute(status -> dal.deleteAllById(single)));
+                    } catch (RuntimeException ex) {
+                        result.addFailure(start + i, ex);
+                    }
+                }
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                Long id = chunk.get(i);
+                if (deleted.contains(id)) {
+                    result.addSuccess(id);
+                } else if (!result.getFailures().containsKey(start + i)) {
+                    result.addFailure(start + i, new EmptyResultDataAccessException(
+                            "No entity with id " + id + " exists", 1));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Autowired(required = false)
+    public void setRowSecurity(RowSecurity rowSecurity) {
+        this.rowSecurity = rowSecurity;
+    }
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        bulkTransaction = new TransactionTemplate(transactionManager);
+        bulkTransaction.setPropagationBehavior(PROPAGATION_REQUIRES_NEW);
+        exportTransaction = new TransactionTemplate(transactionManager);
+        exportTransaction.setPropagationBehavior(PROPAGATION_REQUIRES_NEW);
+        exportTransaction.setReadOnly(true);
+    }
+
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:" + DEFAULT_BULK_CHUNK_SIZE + "}")
+    public void setBulkChunkSize(int bulkChunkSize) {
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
+    /**
+     * Converts an element that is going to be saved. Override it to attach related entities
+     * that the mapper cannot resolve; it is called within the saving transaction.
+     *
+     * @param view the element to save
+     * @return the entity to save
+     */
+    protected E toModel(D view) {
+        return mapper.convertToModel(view);
+    }
+
+    /**
+     * The projection used by {@link #projectBy(Predicate)}, built once from the fields of the DTO
+     * that are columns of the entity.
+     *
+     * @return the projection of the entity in the DTO
+     */
+    @SuppressWarnings("unchecked")
+    protected QBean<D> projection() {
+        if (projection == null) {
+            Class<D> type = (Class<D>) GenericTypeResolver
+                    .resolveTypeArguments(getClass(), AbstractBusinessService.class)[0];
+            projection = dal.projection(type, BeanUtils.instantiateClass(type)._fields());
+        }
+        return projection;
+    }
+
+    /**
+     * @return the predicate of the rows of the entity the current user can read, null if they can read all of them
+     */
+    @Nullable
+    protected Predicate restriction() {
+        return rowSecurity == null ? null : rowSecurity.restriction(dal.getEntityClass());
+    }
+
+    /**
+     * @return the predicate restricted to the rows the current user can read
+     */
+    protected Predicate restrict(@Nullable Predicate predicate) {
+        Predicate restriction = restriction();
+        if (restriction == null)
+            return predicate;
+        return predicate == null ? restriction : ExpressionUtils.and(predicate, restriction);
+    }
+
+    private List<D> saveChunk(List<D> chunk) {
+        List<E> entities = new ArrayList<>(chunk.size());
+        for (D d : chunk) {
+            entities.add(toModel(d));
+        }
+        List<E> saved = dal.save(entities);
+        dal.flush();
+
+        List<D> views = new ArrayList<>(saved.size());
+        for (E e : saved) {
+            views.add(mapper.convertToView(e));
+        }
+        return views;
+    }
 }
@@ -0,0 +1,232 @@
+package it.ldsoftware.primavera.services;
+
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.PathBuilder;
+import it.ldsoftware.primavera.dal.base.FetchPlan;
+import it.ldsoftware.primavera.dal.base.TranslatableDAL;
+import it.ldsoftware.primavera.mapper.base.LookupMapper;
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import it.ldsoftware.primavera.model.base.Lookup;
+import it.ldsoftware.primavera.model.lang.ShortTranslation;
+import it.ldsoftware.primavera.presentation.base.LookupDTO;
+import it.ldsoftware.primavera.services.interfaces.LookupService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.querydsl.SimpleEntityPathResolver;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Nullable;
+import javax.transaction.Transactional;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.stream.Collectors.toList;
+import static org.springframework.transaction.TransactionDefinition.PROPAGATION_REQUIRES_NEW;
+
+/**
+ * Abstract business service of the lookups. Besides the basic implementations of
+ * {@link AbstractBusinessService}, it reads pages in a single language: the translations
+ * of the page are read with one query that returns at most two rows for each lookup,
+ * whatever the number of languages it is translated in.
+ * <p>
+ * Lookups are small tables read far more often than they are written, so the reads by id, by code and of the
+ * whole table are served from a {@link LookupCache}: all the lookups are read at once, in their own transaction,
+ * and kept for {@code it.primavera.lookup.cache.ttl} seconds (0 disables the cache), shared by every session.
+ * These reads open no transaction of their own when served from the cache, and the lookups are only read
+ * into it outside of any transaction, so that a caller never holds two connections: a read inside a transaction
+ * with no cached lookups goes to the database.
+ * Saving or deleting through this service discards them once the transaction commits; subclasses discard them
+ * with {@link #invalidateCache()} when something else they depend on changes. When a {@link
+ * it.ldsoftware.primavera.security.RowSecurity} restricts the lookups, the reads go to the database instead.
+ *
+ * @author Luca Di Stefano
+ */
+public abstract class AbstractLookupService<D extends LookupDTO, E extends Lookup> extends AbstractBusinessService<D, E>
+        implements LookupService<D> {
+
+    private final TranslatableDAL<E> dal;
+    private final LookupMapper<E, D> mapper;
+    private final PathBuilder<E> entity;
+
+    private LookupCache<E> cache;
+    private TransactionTemplate cacheTransaction, readTransaction;
+
+    public AbstractLookupService(TranslatableDAL<E> dal, LookupMapper<E, D> mapper) {
+        super(dal, mapper);
+        this.dal = dal;
+        this.mapper = mapper;
+        this.entity = new PathBuilder<>(dal.getEntityClass(),
+                SimpleEntityPathResolver.INSTANCE.createPath(dal.getEntityClass()).getMetadata());
+    }
+
+    /**
+     * @param seconds how long the lookups are kept in the cache, 0 to disable the cache
+     */
+    @Value("${it.primavera.lookup.cache.ttl:600}")
+    public void setCacheTtl(long seconds) {
+        cache = seconds > 0 ? new LookupCache<>(seconds, TimeUnit.SECONDS) : null;
+    }
+
+    @Override
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        super.setTransactionManager(transactionManager);
+        cacheTransaction = new TransactionTemplate(transactionManager);
+        cacheTransaction.setPropagationBehavior(PROPAGATION_REQUIRES_NEW);
+        cacheTransaction.setReadOnly(true);
+        readTransaction = new TransactionTemplate(transactionManager);
+        readTransaction.setReadOnly(true);
+    }
+
+    @Override
+    public D findOne(Long id) {
+        LookupCache.Snapshot<E> snapshot = snapshot();
+        return snapshot == null ? read(() -> super.findOne(id)) : mapper.convertToView(snapshot.byId(id));
+    }
+
+    @Override
+    public List<D> findAll() {
+        LookupCache.Snapshot<E> snapshot = snapshot();
+        if (snapshot == null)
+            return read(super::findAll);
+        return snapshot.getAll().stream().map(mapper::convertToView).collect(toList());
+    }
+
+    @Override
+    public D findByCode(String code) {
+        LookupCache.Snapshot<E> snapshot = snapshot();
+        if (snapshot == null)
+            return read(() -> mapper.convertToView(dal.findOne(restrict(entity.getString("code").eq(code)))));
+        return mapper.convertToView(snapshot.byCode(code));
+    }
+
+    @Override
+    public boolean existsByCode(String code) {
+        LookupCache.Snapshot<E> snapshot = snapshot();
+        if (snapshot == null)
+            return dal.count(restrict(entity.getString("code").eq(code))) != 0;
+        return snapshot.byCode(code) != null;
+    }
+
+    @Override
+    public String findDescription(Long id, String lang) {
+        LookupCache.Snapshot<E> snapshot = snapshot();
+        if (snapshot != null)
+            return snapshot.description(id, lang);
+        return read(() -> readDescription(id, lang));
+    }
+
+    private String readDescription(Long id, String lang) {
+        if (restriction() != null && dal.count(restrict(entity.getNumber("id", Long.class).eq(id))) == 0)
+            return null;
+        String description = null;
+        for (Object[] row : dal.findTranslations(Collections.singleton(id), lang)) {
+            if (description == null || lang.equals(row[1]))
+                description = ((ShortTranslation) row[2]).getDescription();
+        }
+        return description;
+    }
+
+    @Override
+    @Transactional
+    public Page<D> findBy(@Nullable Predicate predicate, @Nullable Pageable pageable, String lang) {
+        Page<E> page = dal.findAll(restrict(predicate), pageable, FetchPlan.ROW);
+        Map<Long, Map<String, ShortTranslation>> translations = new HashMap<>();
+        if (page.hasContent()) {
+            List<Long> ids = page.getContent().stream().map(BaseEntity::getId).collect(toList());
+            for (Object[] row : dal.findTranslations(ids, lang)) {
+                translations.computeIfAbsent((Long) row[0], id -> new HashMap<>(4))
+                        .put((String) row[1], (ShortTranslation) row[2]);
+            }
+        }
+        return page.map(e -> mapper.convertToView(e, translations.getOrDefault(e.getId(), Collections.emptyMap()),
+                lang));
+    }
+
+    @Override
+    @Transactional
+    public D save(D toSave) {
+        invalidateAfterCommit();
+        return super.save(toSave);
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        invalidateAfterCommit();
+        super.delete(id);
+    }
+
+    @Override
+    public BulkResult<D> saveAll(Collection<D> toSave) {
+        try {
+            return super.saveAll(toSave);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    @Override
+    public BulkResult<Long> deleteAll(Collection<Long> ids) {
+        try {
+            return super.deleteAll(ids);
+        } finally {
+            invalidateCache();
+        }
+    }
+
+    /**
+     * Discards the cached lookups, that are read again by the next call
+     */
+    protected void invalidateCache() {
+        if (cache != null)
+            cache.invalidate();
+    }
+
+    /**
+     * @return the cached lookups, null if the cache is disabled, the current user cannot read all of them or they
+     * are not cached and a transaction is active
+     */
+    LookupCache.Snapshot<E> snapshot() {
+        if (cache == null || restriction() != null)
+            return null;
+        LookupCache.Snapshot<E> current = cache.peek();
+        // loading them would take a second connection while the caller holds the one of its transaction
+        if (current != null || TransactionSynchronizationManager.isActualTransactionActive())
+            return current;
+        return cache.get(() -> cacheTransaction.execute(status -> {
+            List<E> all = dal.findAll();
+            // loads what the conversion needs while the session is open, as the lookups are detached afterwards
+            all.forEach(mapper::convertToView);
+            return all;
+        }));
+    }
+
+    /**
+     * Reads from the database in the transaction of the caller, or in a new one
+     */
+    private <T> T read(Supplier<T> reader) {
+        return readTransaction.execute(status -> reader.get());
+    }
+
+    private void invalidateAfterCommit() {
+        if (cache == null)
+            return;
+        // invalidated now, so that reads in progress are discarded, and again after the commit
+        invalidateCache();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidateCache();
+                }
+            });
+        }
+    }
+}
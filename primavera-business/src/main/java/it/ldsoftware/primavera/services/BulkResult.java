@@ -0,0 +1,48 @@
+package it.ldsoftware.primavera.services;
+
+import java.io.Serializable;
+import java.util.*;
+
+import static java.util.Collections.unmodifiableList;
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Created by luca on 16/06/17.
+ * Outcome of a bulk operation of a business service: the elements that were processed
+ * successfully, in input order, and the failures indexed by the position of the element
+ * in the input collection.
+ *
+ * @param <T> the type of the results
+ */
+public class BulkResult<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> succeeded = new ArrayList<>();
+    private final SortedMap<Integer, Exception> failures = new TreeMap<>();
+
+    void addSuccess(T result) {
+        succeeded.add(result);
+    }
+
+    void addFailure(int index, Exception cause) {
+        failures.put(index, cause);
+    }
+
+    public List<T> getSucceeded() {
+        return unmodifiableList(succeeded);
+    }
+
+    public Map<Integer, Exception> getFailures() {
+        return unmodifiableMap(failures);
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return succeeded.size() + " succeeded, " + failures.size() + " failed";
+    }
+}
@@ -1,35 +1,102 @@
 package it.ldsoftware.primavera.services;
 
 import it.ldsoftware.primavera.model.people.User;
+import it.ldsoftware.primavera.security.LoginThrottle;
+import it.ldsoftware.primavera.security.LoginThrottledException;
+import it.ldsoftware.primavera.security.PermissionAudit;
+import it.ldsoftware.primavera.security.PermissionAudit.LoginOutcome;
 import it.ldsoftware.primavera.services.interfaces.UserService;
 import it.ldsoftware.primavera.util.SecuredUser;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by luca on 11/04/16.
  * This provides a fully fledged user detail service against the database
  * using the entities
+ * <p>
+ * Users are loaded with their groups and roles in a single query and kept in a {@link UserDetailsCache}
+ * for {@code it.primavera.security.user-cache.ttl} seconds (0 disables the cache). The authorities of
+ * the groups come from the {@link RoleExpansionService}, so a login does not walk the groups' roles.
+ * Cached users are discarded when a {@link SecurityModelChangedEvent} is published, after the transaction commits.
+ * <p>
+ * When a {@link LoginThrottle} is configured, each attempt is checked against it before anything else,
+ * by username and by the address of the current request.
+ * <p>
+ * When a {@link PermissionAudit} is configured, the attempts refused by the throttle are recorded on it; the
+ * other outcomes are known only after the password check, and the audit takes them from the authentication events.
  */
 @Service
 public class DatabaseUserDetailService implements UserDetailsService {
 
     private final UserService svc;
+    private final RoleExpansionService expansions;
+
+    private UserDetailsCache cache;
+    private LoginThrottle throttle;
+    private PermissionAudit audit;
 
     @Autowired
-    public DatabaseUserDetailService(UserService svc) {
+    public DatabaseUserDetailService(UserService svc, RoleExpansionService expansions) {
         this.svc = svc;
+        this.expansions = expansions;
+    }
+
+    @Value("${it.primavera.security.user-cache.ttl:300}")
+    public void setCacheTtl(long seconds) {
+        cache = seconds > 0 ? new UserDetailsCache(seconds, TimeUnit.SECONDS) : null;
+    }
+
+    @Autowired(required = false)
+    public void setThrottle(LoginThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    @Autowired(required = false)
+    public void setAudit(PermissionAudit audit) {
+        this.audit = audit;
     }
 
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
-        User user = svc.findByUsername(username);
+        if (throttle != null) {
+            try {
+                throttle.check(username, LoginThrottle.clientAddress());
+            } catch (LoginThrottledException e) {
+                if (audit != null)
+                    audit.login(username, LoginOutcome.THROTTLED);
+                throw e;
+            }
+        }
+
+        SecuredUser user = cache == null ? load(username) : cache.get(username, this::load);
         if (user == null)
             throw new UsernameNotFoundException("");
+        return user;
+    }
+
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecurityModelChanged(SecurityModelChangedEvent event) {
+        if (cache == null)
+            return;
+        if (event.isAll())
+            cache.clear();
+        else
+            event.getLogins().forEach(cache::invalidate);
+    }
 
-        return SecuredUser.fromUser(user);
+    private SecuredUser load(String login) {
+        User user = svc.findForLogin(login);
+        return user == null ? null : SecuredUser.fromUser(user, expansions.getGroupAuthorities());
     }
 }
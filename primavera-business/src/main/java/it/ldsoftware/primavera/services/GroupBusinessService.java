@@ -1,42 +1,120 @@
 package it.ldsoftware.primavera.services;
 
-import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.base.TranslatableDAL;
 import it.ldsoftware.primavera.dal.security.GroupDAL;
-import it.ldsoftware.primavera.mapper.Mapper;
+import it.ldsoftware.primavera.mapper.base.LookupMapper;
 import it.ldsoftware.primavera.model.security.Group;
+import it.ldsoftware.primavera.model.security.GroupRole;
 import it.ldsoftware.primavera.presentation.security.GroupDTO;
 import it.ldsoftware.primavera.presentation.security.RoleDTO;
+import it.ldsoftware.primavera.security.RowSecurity;
 import it.ldsoftware.primavera.services.interfaces.GroupService;
 import it.ldsoftware.primavera.services.interfaces.RoleService;
 import it.ldsoftware.primavera.util.PrimaveraConstants;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.transaction.Transactional;
+import java.util.*;
+
+import static java.util.stream.Collectors.toList;
 
 /**
+ * Every change to a group is published as a {@link SecurityModelChangedEvent} with the id of the group,
+ * since it may change the authorities of all its users. The cached groups are discarded by any such event
+ * that involves groups or roles, as they hold their roles.
+ *
  * @author Luca Di Stefano
  */
 @Service
-public class GroupBusinessService extends AbstractBusinessService<GroupDTO, Group> implements GroupService {
+public class GroupBusinessService extends AbstractLookupService<GroupDTO, Group> implements GroupService {
+    private static final Logger logger = Logger.getLogger(GroupBusinessService.class);
 
     private final RoleService roles;
+    private final ApplicationEventPublisher publisher;
 
     @Autowired
-    public GroupBusinessService(BaseDAL<Group> dal, Mapper<Group, GroupDTO> mapper, RoleService roles) {
+    public GroupBusinessService(TranslatableDAL<Group> dal, LookupMapper<Group, GroupDTO> mapper, RoleService roles,
+                                ApplicationEventPublisher publisher) {
         super(dal, mapper);
         this.roles = roles;
+        this.publisher = publisher;
+    }
+
+    @Override
+    @Transactional
+    public Map<Long, List<String>> findAuthoritiesByGroup() {
+        return authoritiesByGroup(((GroupDAL) getDal()).findAllGroupRoles());
     }
 
     @Override
-    public boolean existsByCode(String code) {
-        return ((GroupDAL) getDal()).countByCode(code) != 0;
+    @Transactional
+    public Map<Long, List<String>> findAuthoritiesByGroup(Collection<Long> groupIds) {
+        return groupIds.isEmpty() ? new HashMap<>() : authoritiesByGroup(((GroupDAL) getDal()).findGroupRoles(groupIds));
+    }
+
+    private static Map<Long, List<String>> authoritiesByGroup(List<GroupRole> groupRoles) {
+        Map<Long, List<String>> authorities = new HashMap<>();
+        for (GroupRole groupRole : groupRoles) {
+            authorities.computeIfAbsent(groupRole.getGroup().getId(), id -> new ArrayList<>())
+                    .addAll(groupRole.getActualRoles());
+        }
+        return authorities;
+    }
+
+    @Override
+    @Transactional
+    public GroupDTO save(GroupDTO toSave) {
+        GroupDTO saved = super.save(toSave);
+        publisher.publishEvent(SecurityModelChangedEvent.forGroups(this, Collections.singleton(saved.getId())));
+        return saved;
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        publisher.publishEvent(SecurityModelChangedEvent.forGroups(this, Collections.singleton(id)));
+        super.delete(id);
+    }
+
+    @Override
+    public BulkResult<GroupDTO> saveAll(Collection<GroupDTO> toSave) {
+        BulkResult<GroupDTO> result = super.saveAll(toSave);
+        publisher.publishEvent(SecurityModelChangedEvent.forGroups(this,
+                result.getSucceeded().stream().map(GroupDTO::getId).collect(toList())));
+        return result;
+    }
+
+    @Override
+    public BulkResult<Long> deleteAll(Collection<Long> ids) {
+        try {
+            return super.deleteAll(ids);
+        } finally {
+            publisher.publishEvent(SecurityModelChangedEvent.forGroups(this, ids));
+        }
+    }
+
+    /**
+     * Discards the cached groups on changes made elsewhere, and on changes to the roles
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecurityModelChanged(SecurityModelChangedEvent event) {
+        if (event.isAllGroups() || !event.getGroupIds().isEmpty())
+            invalidateCache();
     }
 
     @Override
     public void initGroups() {
-        PrimaveraConstants.BASE_GROUPS.stream()
+        // the base groups are looked for among all the groups, whoever is running
+        BulkResult<GroupDTO> result = RowSecurity.runAsSystem(() -> saveAll(PrimaveraConstants.BASE_GROUPS.stream()
                 .filter(g -> !existsByCode(g.getCode()))
                 .peek(this::instantiateRoles)
-                .forEach(this::save);
+                .collect(toList())));
+        if (result.hasFailures())
+            logger.error("Could not initialize all the base groups: " + result);
     }
 
     private void instantiateRoles(GroupDTO dto) {
@@ -1,10 +1,11 @@
 package it.ldsoftware.primavera.services;
 
 import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.base.LogStackTraceDAL;
 import it.ldsoftware.primavera.mapper.Mapper;
 import it.ldsoftware.primavera.model.base.LogEntry;
+import it.ldsoftware.primavera.model.base.LogStackTrace;
 import it.ldsoftware.primavera.presentation.base.LogEntryDTO;
-import it.ldsoftware.primavera.services.interfaces.BusinessService;
 import it.ldsoftware.primavera.services.interfaces.LogService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -15,9 +16,27 @@ import org.springframework.stereotype.Service;
 @Service
 public class LogBusinessService extends AbstractBusinessService<LogEntryDTO, LogEntry> implements LogService {
 
+    private final LogStackTraceDAL traceDAL;
+
     @Autowired
-    public LogBusinessService(BaseDAL<LogEntry> dal, Mapper<LogEntry, LogEntryDTO> mapper) {
+    public LogBusinessService(BaseDAL<LogEntry> dal, Mapper<LogEntry, LogEntryDTO> mapper, LogStackTraceDAL traceDAL) {
         super(dal, mapper);
+        this.traceDAL = traceDAL;
+    }
+
+    /**
+     * Reuses the stack trace if an identical one is already stored.
+     * For high volumes of logs see the {@link it.ldsoftware.primavera.logging.AsyncLogAppender}.
+     */
+    @Override
+    protected LogEntry toModel(LogEntryDTO view) {
+        LogEntry entry = super.toModel(view);
+        LogStackTrace trace = entry.getTrace();
+        if (trace != null) {
+            LogStackTrace existing = traceDAL.findByHash(trace.getHash());
+            entry.setTrace(existing == null ? traceDAL.save(trace) : existing);
+        }
+        return entry;
     }
 
 }
@@ -0,0 +1,139 @@
+package it.ldsoftware.primavera.services;
+
+import it.ldsoftware.primavera.model.base.Lookup;
+import it.ldsoftware.primavera.model.lang.ShortTranslation;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Created by luca on 05/07/17.
+ * In-memory copy of a whole lookup table, used by the {@link AbstractLookupService}. Lookups are small and read
+ * far more often than they are written, so they are read all at once into an immutable {@link Snapshot}, indexed
+ * by id and by code, that is shared by every session until something changes or it expires.
+ * <p>
+ * The snapshot is replaced as a whole: {@link #invalidate()} discards it, and a snapshot read while an
+ * invalidation happened is used once but not kept, so a read racing with a save never puts back the old rows.
+ * The lookups of the snapshot are detached and shared by all the callers, that must not modify them.
+ *
+ * @param <L> the lookup
+ */
+class LookupCache<L extends Lookup> {
+
+    private final long ttlNanos;
+    private final AtomicLong version = new AtomicLong();
+    private final Object lock = new Object();
+    private volatile Snapshot<L> snapshot;
+
+    LookupCache(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * @param loader reads all the lookups, with everything their conversion needs already loaded
+     * @return the current snapshot, read again if it is missing or expired
+     */
+    Snapshot<L> get(Supplier<List<L>> loader) {
+        Snapshot<L> current = peek();
+        if (current != null) {
+            return current;
+        }
+        synchronized (lock) {
+            current = snapshot;
+            long now = System.nanoTime();
+            if (current != null && now - current.createdAt < ttlNanos) {
+                return current;
+            }
+            long start = version.get();
+            current = new Snapshot<>(loader.get(), now);
+            // a lookup changed while reading: the snapshot is used once but not kept
+            if (version.get() == start) {
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return the current snapshot, null if it is missing or expired
+     */
+    Snapshot<L> peek() {
+        Snapshot<L> current = snapshot;
+        return current != null && System.nanoTime() - current.createdAt < ttlNanos ? current : null;
+    }
+
+    void invalidate() {
+        version.incrementAndGet();
+        snapshot = null;
+    }
+
+    /**
+     * Immutable view of all the lookups of a table
+     *
+     * @param <L> the lookup
+     */
+    static final class Snapshot<L extends Lookup> {
+        private final List<L> all;
+        private final Map<Long, L> byId;
+        private final Map<String, L> byCode;
+        private final Map<String, Map<Long, String>> descriptions;
+        private final long createdAt;
+
+        Snapshot(List<L> lookups, long createdAt) {
+            this.createdAt = createdAt;
+            Map<Long, L> ids = new HashMap<>(lookups.size() * 2);
+            Map<String, L> codes = new HashMap<>(lookups.size() * 2);
+            Map<String, Map<Long, String>> langs = new HashMap<>();
+            for (L lookup : lookups) {
+                ids.put(lookup.getId(), lookup);
+                if (lookup.getCode() != null)
+                    codes.put(lookup.getCode(), lookup);
+                for (Map.Entry<String, ShortTranslation> t : lookup.getTranslations().entrySet()) {
+                    langs.computeIfAbsent(t.getKey(), l -> new HashMap<>(lookups.size() * 2))
+                            .put(lookup.getId(), t.getValue().getDescription());
+                }
+            }
+            this.all = Collections.unmodifiableList(new ArrayList<>(lookups));
+            this.byId = ids;
+            this.byCode = codes;
+            this.descriptions = langs;
+        }
+
+        /**
+         * @return all the lookups, in the order they were read
+         */
+        List<L> getAll() {
+            return all;
+        }
+
+        /**
+         * @return the lookup with the id, null if there is none
+         */
+        L byId(Long id) {
+            return byId.get(id);
+        }
+
+        /**
+         * @return the lookup with the code, null if there is none
+         */
+        L byCode(String code) {
+            return byCode.get(code);
+        }
+
+        /**
+         * @return the description of the lookup in the language, or in its default language if it has not been
+         * translated; null if there is no such lookup
+         */
+        String description(Long id, String lang) {
+            String description = descriptions.getOrDefault(lang, Collections.emptyMap()).get(id);
+            if (description == null) {
+                L lookup = byId.get(id);
+                if (lookup != null)
+                    description = descriptions.getOrDefault(lookup.getDefaultLang(), Collections.emptyMap()).get(id);
+            }
+            return description;
+        }
+    }
+}
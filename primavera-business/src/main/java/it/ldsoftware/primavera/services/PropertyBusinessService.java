@@ -1,28 +1,210 @@
 package it.ldsoftware.primavera.services;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import it.ldsoftware.primavera.dal.base.AppPropertyDAL;
 import it.ldsoftware.primavera.dal.base.BaseDAL;
 import it.ldsoftware.primavera.mapper.Mapper;
 import it.ldsoftware.primavera.model.base.AppProperty;
 import it.ldsoftware.primavera.presentation.base.AppPropertyDTO;
-import it.ldsoftware.primavera.services.interfaces.BusinessService;
 import it.ldsoftware.primavera.services.interfaces.PropertyService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.transaction.Transactional;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
 
 /**
+ * Properties are read far more often than they are written, so {@link #findByKey(String)} is served
+ * from an in-memory {@link PropertyCache}. Saving or deleting through this service invalidates the
+ * affected keys once the transaction commits; changes made elsewhere are seen when the entries expire.
+ * <p>
+ * The typed accessors ({@link #getInt(String, int)}, {@link #getBoolean(String, boolean)}...) read from a
+ * {@link PropertySnapshot} of all the properties instead, meant for flags checked on every request:
+ * the snapshot is replaced as a whole when a property changes or it expires, and reading it costs
+ * no query and no boxing.
+ *
  * @author Luca Di Stefano
  */
 @Service
 public class PropertyBusinessService extends AbstractBusinessService<AppPropertyDTO, AppProperty> implements PropertyService {
 
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private PropertyCache cache;
+    private long ttlNanos;
+
+    private volatile PropertySnapshot snapshot;
+    private final AtomicLong snapshotVersion = new AtomicLong();
+    private final Object snapshotLock = new Object();
+
     @Autowired
     public PropertyBusinessService(BaseDAL<AppProperty> dal, Mapper<AppProperty, AppPropertyDTO> mapper) {
         super(dal, mapper);
     }
 
+    /**
+     * @param seconds how long a property is kept in the cache, 0 to disable the cache
+     */
+    @Value("${it.primavera.property.cache.ttl:600}")
+    public void setCacheTtl(long seconds) {
+        cache = seconds > 0 ? new PropertyCache(seconds, TimeUnit.SECONDS) : null;
+        ttlNanos = TimeUnit.SECONDS.toNanos(seconds);
+        invalidateSnapshot();
+    }
+
     @Override
     public AppPropertyDTO findByKey(String key) {
-        return getMapper().convertToView(((AppPropertyDAL) getDal()).findByKey(key));
+        AppPropertyDAL dal = (AppPropertyDAL) getDal();
+        if (cache == null) {
+            return getMapper().convertToView(dal.findByKey(key));
+        }
+        return cache.get(key, dal::findByKey, getMapper()::convertToView);
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        return snapshot(key).getInt(key, defaultValue);
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        return snapshot(key).getLong(key, defaultValue);
+    }
+
+    @Override
+    public float getFloat(String key, float defaultValue) {
+        return snapshot(key).getFloat(key, defaultValue);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return snapshot(key).getBoolean(key, defaultValue);
+    }
+
+    @Override
+    public String getString(String key, String defaultValue) {
+        return snapshot(key).getString(key, defaultValue);
+    }
+
+    @Override
+    public <T> T getJson(String key, Class<T> type) {
+        return snapshot(key).getJson(key, type, JSON);
+    }
+
+    /**
+     * @return the current snapshot, rebuilt if it is missing or expired. If the cache is disabled
+     * a snapshot with just the requested property is read every time.
+     */
+    private PropertySnapshot snapshot(String key) {
+        if (cache == null) {
+            AppProperty property = ((AppPropertyDAL) getDal()).findByKey(key);
+            return new PropertySnapshot(property == null ? Collections.emptyList() : Collections.singletonList(property),
+                    System.nanoTime());
+        }
+        PropertySnapshot current = snapshot;
+        if (current != null && System.nanoTime() - current.getCreatedAt() < ttlNanos) {
+            return current;
+        }
+        synchronized (snapshotLock) {
+            current = snapshot;
+            long now = System.nanoTime();
+            if (current != null && now - current.getCreatedAt() < ttlNanos) {
+                return current;
+            }
+            long version = snapshotVersion.get();
+            current = new PropertySnapshot(getDal().findAll(), now);
+            // a property changed while reading: the snapshot is used once but not kept
+            if (snapshotVersion.get() == version) {
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private void invalidateSnapshot() {
+        snapshotVersion.incrementAndGet();
+        snapshot = null;
+    }
+
+    @Override
+    @Transactional
+    public AppPropertyDTO save(AppPropertyDTO toSave) {
+        invalidateAfterCommit(keysOf(Collections.singleton(toSave.getId()), toSave.getKey()));
+        return super.save(toSave);
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        invalidateAfterCommit(keysOf(Collections.singleton(id), null));
+        super.delete(id);
+    }
+
+    @Override
+    public BulkResult<AppPropertyDTO> saveAll(Collection<AppPropertyDTO> toSave) {
+        Set<String> keys = keysOf(toSave.stream().map(AppPropertyDTO::getId).collect(toList()), null);
+        toSave.forEach(p -> keys.add(p.getKey()));
+        try {
+            return super.saveAll(toSave);
+        } finally {
+            keys.forEach(this::invalidate);
+            invalidateSnapshot();
+        }
+    }
+
+    @Override
+    public BulkResult<Long> deleteAll(Collection<Long> ids) {
+        Set<String> keys = keysOf(ids, null);
+        try {
+            return super.deleteAll(ids);
+        } finally {
+            keys.forEach(this::invalidate);
+            invalidateSnapshot();
+        }
+    }
+
+    /**
+     * @return the keys the given properties have on the database, plus the extra key if not null
+     */
+    private Set<String> keysOf(Collection<Long> ids, String extra) {
+        Set<String> keys = new HashSet<>();
+        if (cache != null) {
+            getDal().findAll(ids).forEach(p -> keys.add(p.getKey()));
+            if (extra != null) {
+                keys.add(extra);
+            }
+        }
+        return keys;
+    }
+
+    private void invalidateAfterCommit(Set<String> keys) {
+        if (cache == null) {
+            return;
+        }
+        // invalidated now, so that loads in progress are discarded, and again after the commit
+        keys.forEach(cache::invalidate);
+        invalidateSnapshot();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    keys.forEach(cache::invalidate);
+                    invalidateSnapshot();
+                }
+            });
+        }
+    }
+
+    private void invalidate(String key) {
+        if (cache != null && key != null) {
+            cache.invalidate(key);
+        }
     }
 }
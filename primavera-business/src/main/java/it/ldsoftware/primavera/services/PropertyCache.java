@@ -0,0 +1,112 @@
+package it.ldsoftware.primavera.services;
+
+import it.ldsoftware.primavera.model.base.AppProperty;
+import it.ldsoftware.primavera.presentation.base.AppPropertyDTO;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Created by luca on 20/06/17.
+ * In-memory cache of the {@link AppProperty}s by key, used by the {@link PropertyBusinessService}.
+ * <p>
+ * A value loaded from the database is stored only if nothing newer happened in the meantime:
+ * every invalidation takes a new stamp from a global clock, and a load that started before
+ * the last invalidation of its key, or that read an older {@link AppProperty#getVersion()} than the
+ * cached one, is discarded. This way a read racing with a save never puts back the old value.
+ * Entries also expire after a time to live, for changes made by other nodes.
+ */
+class PropertyCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong clock = new AtomicLong();
+    private final long ttlNanos;
+    private volatile long clearedAt;
+
+    PropertyCache(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * Returns the cached property, loading it if it is missing or expired
+     *
+     * @param key    the key of the property
+     * @param loader loads the property from the database, may return null
+     * @param mapper converts the property
+     * @return a copy of the property, or null if there is no property with the key
+     */
+    AppPropertyDTO get(String key, Function<String, AppProperty> loader, Function<AppProperty, AppPropertyDTO> mapper) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.isValid(now)) {
+            long stamp = clock.get();
+            AppProperty property = loader.apply(key);
+            Entry loaded = new Entry(property == null ? null : mapper.apply(property),
+                    property == null ? -1 : property.getVersion(), stamp, now + ttlNanos, true);
+            entry = stamp < clearedAt ? loaded
+                    : entries.compute(key, (k, old) -> old != null && old.supersedes(loaded, now) ? old : loaded);
+            if (!entry.loaded) {
+                // invalidated while loading: use what was read, without caching it
+                entry = loaded;
+            }
+        }
+        return copy(entry.value);
+    }
+
+    /**
+     * Discards the cached value of the key, and any load of it that is in progress
+     */
+    void invalidate(String key) {
+        entries.put(key, new Entry(null, Long.MAX_VALUE, clock.incrementAndGet(), 0, false));
+    }
+
+    void clear() {
+        clearedAt = clock.incrementAndGet();
+        entries.clear();
+    }
+
+    private static AppPropertyDTO copy(AppPropertyDTO value) {
+        if (value == null) {
+            return null;
+        }
+        AppPropertyDTO copy = new AppPropertyDTO();
+        copy.setId(value.getId());
+        copy.setKey(value.getKey());
+        copy.setValue(value.getValue());
+        copy.setPropertyType(value.getPropertyType());
+        return copy;
+    }
+
+    private static final class Entry {
+        final AppPropertyDTO value;
+        final long version;
+        final long stamp;
+        final long expiresAt;
+        final boolean loaded;
+
+        Entry(AppPropertyDTO value, long version, long stamp, long expiresAt, boolean loaded) {
+            this.value = value;
+            this.version = version;
+            this.stamp = stamp;
+            this.expiresAt = expiresAt;
+            this.loaded = loaded;
+        }
+
+        boolean isValid(long now) {
+            return loaded && now - expiresAt < 0;
+        }
+
+        /**
+         * @return true if this entry is more recent than the other, which must not replace it
+         */
+        boolean supersedes(Entry other, long now) {
+            if (stamp > other.stamp) {
+                return true;
+            }
+            return loaded && isValid(now) && version > other.version;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package it.ldsoftware.primavera.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.ldsoftware.primavera.model.base.AppProperty;
+import it.ldsoftware.primavera.presentation.enums.PropertyType;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Created by luca on 21/06/17.
+ * Immutable copy of all the {@link AppProperty}s, used by the typed accessors of the {@link PropertyBusinessService}.
+ * <p>
+ * Each property has a slot: numbers and booleans are kept in a primitive array (floats as their bits,
+ * booleans as 0 or 1), strings and json in an object array, so reading a flag never boxes.
+ * Json values are parsed the first time they are asked for a class and the result is shared by all the
+ * callers, that must not modify it.
+ */
+final class PropertySnapshot {
+    private static final Logger logger = Logger.getLogger(PropertySnapshot.class);
+
+    private final Map<String, Integer> slots;
+    private final PropertyType[] types;
+    private final boolean[] present;
+    private final long[] numbers;
+    private final String[] texts;
+    private final ConcurrentMap<Class<?>, Object>[] parsed;
+    private final long createdAt;
+
+    @SuppressWarnings("unchecked")
+    PropertySnapshot(List<AppProperty> properties, long createdAt) {
+        int size = properties.size();
+        this.slots = new HashMap<>(size * 2);
+        this.types = new PropertyType[size];
+        this.present = new boolean[size];
+        this.numbers = new long[size];
+        this.texts = new String[size];
+        this.parsed = new ConcurrentMap[size];
+        this.createdAt = createdAt;
+
+        for (int i = 0; i < size; i++) {
+            AppProperty property = properties.get(i);
+            slots.put(property.getKey(), i);
+            types[i] = property.getType();
+            if (types[i] == null) {
+                continue;
+            }
+            switch (types[i]) {
+                case INTEGER:
+                    present[i] = property.getIntVal() != null;
+                    numbers[i] = present[i] ? property.getIntVal() : 0;
+                    break;
+                case LONG:
+                    present[i] = property.getLongVal() != null;
+                    numbers[i] = present[i] ? property.getLongVal() : 0;
+                    break;
+                case FLOAT:
+                    present[i] = property.getFloatVal() != null;
+                    numbers[i] = present[i] ? Float.floatToIntBits(property.getFloatVal()) : 0;
+                    break;
+                case BOOLEAN:
+                    present[i] = property.getBoolVal() != null;
+                    numbers[i] = present[i] && property.getBoolVal() ? 1 : 0;
+                    break;
+                case STRING:
+                    texts[i] = property.getStringVal();
+                    present[i] = texts[i] != null;
+                    break;
+                case JSON:
+                    texts[i] = property.getJsonVal();
+                    present[i] = texts[i] != null;
+                    parsed[i] = new ConcurrentHashMap<>(2);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the properties were read
+     */
+    long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the value of the key, the default if it has none or it is a long that does not fit in an int
+     */
+    int getInt(String key, int defaultValue) {
+        int slot = slot(key, PropertyType.INTEGER, PropertyType.LONG);
+        if (slot < 0) {
+            return defaultValue;
+        }
+        long value = numbers[slot];
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            logger.warn("Property " + key + " is " + value + ", out of the range of an int");
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    long getLong(String key, long defaultValue) {
+        int slot = slot(key, PropertyType.LONG, PropertyType.INTEGER);
+        return slot < 0 ? defaultValue : numbers[slot];
+    }
+
+    float getFloat(String key, float defaultValue) {
+        int slot = slot(key, PropertyType.FLOAT, PropertyType.FLOAT);
+        return slot < 0 ? defaultValue : Float.intBitsToFloat((int) numbers[slot]);
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        int slot = slot(key, PropertyType.BOOLEAN, PropertyType.BOOLEAN);
+        return slot < 0 ? defaultValue : numbers[slot] != 0;
+    }
+
+    String getString(String key, String defaultValue) {
+        int slot = slot(key, PropertyType.STRING, PropertyType.JSON);
+        return slot < 0 ? defaultValue : texts[slot];
+    }
+
+    <T> T getJson(String key, Class<T> type, ObjectMapper mapper) {
+        int slot = slot(key, PropertyType.JSON, PropertyType.JSON);
+        if (slot < 0) {
+            return null;
+        }
+        Object value = parsed[slot].get(type);
+        if (value == null) {
+            try {
+                value = mapper.readValue(texts[slot], type);
+            } catch (IOException e) {
+                logger.warn("Property " + key + " is not a valid " + type.getSimpleName(), e);
+                return null;
+            }
+            Object previous = parsed[slot].putIfAbsent(type, value);
+            value = previous == null ? value : previous;
+        }
+        return type.cast(value);
+    }
+
+    /**
+     * @return the slot of the key if it has a value of one of the types, -1 otherwise
+     */
+    private int slot(String key, PropertyType type, PropertyType alternative) {
+        Integer slot = slots.get(key);
+        if (slot == null || !present[slot]) {
+            return -1;
+        }
+        PropertyType actual = types[slot];
+        return actual == type || actual == alternative ? slot : -1;
+    }
+}
@@ -1,40 +1,108 @@
 package it.ldsoftware.primavera.services;
 
-import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.base.TranslatableDAL;
 import it.ldsoftware.primavera.dal.security.RoleDAL;
-import it.ldsoftware.primavera.mapper.Mapper;
+import it.ldsoftware.primavera.mapper.base.LookupMapper;
 import it.ldsoftware.primavera.model.security.Role;
 import it.ldsoftware.primavera.presentation.security.RoleDTO;
 import it.ldsoftware.primavera.services.interfaces.RoleService;
 import it.ldsoftware.primavera.util.PrimaveraConstants;
+import org.apache.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.transaction.Transactional;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
 
 /**
+ * Every change to a role is published as a {@link SecurityModelChangedEvent}, and one that involves all the groups
+ * discards the cached roles.
+ *
  * @author Luca Di Stefano
  */
 @Service
-public class RoleBusinessService extends AbstractBusinessService<RoleDTO, Role> implements RoleService {
+public class RoleBusinessService extends AbstractLookupService<RoleDTO, Role> implements RoleService {
+    private static final Logger logger = Logger.getLogger(RoleBusinessService.class);
+
+    private final ApplicationEventPublisher publisher;
 
     @Autowired
-    public RoleBusinessService(BaseDAL<Role> dal, Mapper<Role, RoleDTO> mapper) {
+    public RoleBusinessService(TranslatableDAL<Role> dal, LookupMapper<Role, RoleDTO> mapper,
+                               ApplicationEventPublisher publisher) {
         super(dal, mapper);
+        this.publisher = publisher;
+    }
+
+    @Override
+    @Transactional
+    public RoleDTO save(RoleDTO toSave) {
+        publisher.publishEvent(SecurityModelChangedEvent.all(this));
+        return super.save(toSave);
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        publisher.publishEvent(SecurityModelChangedEvent.all(this));
+        super.delete(id);
+    }
+
+    @Override
+    public BulkResult<RoleDTO> saveAll(Collection<RoleDTO> toSave) {
+        try {
+            return super.saveAll(toSave);
+        } finally {
+            publisher.publishEvent(SecurityModelChangedEvent.all(this));
+        }
+    }
+
+    @Override
+    public BulkResult<Long> deleteAll(Collection<Long> ids) {
+        try {
+            return super.deleteAll(ids);
+        } finally {
+            publisher.publishEvent(SecurityModelChangedEvent.all(this));
+        }
+    }
+
+    /**
+     * Discards the cached roles on changes made elsewhere
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecurityModelChanged(SecurityModelChangedEvent event) {
+        if (event.isAllGroups())
+            invalidateCache();
     }
 
     @Override
     public RoleDTO findByRoleName(String roleName) {
-        return getMapper().convertToView(((RoleDAL) getDal()).findByCode(roleName));
+        return findByCode(roleName);
     }
 
     @Override
     public boolean existsByRoleName(String roleName) {
-        return ((RoleDAL) getDal()).countByCode(roleName) != 0;
+        return existsByCode(roleName);
+    }
+
+    @Override
+    public Map<Long, String> findRoleCodes() {
+        Map<Long, String> codes = new HashMap<>();
+        ((RoleDAL) getDal()).findAllCodes().forEach(row -> codes.put((Long) row[0], (String) row[1]));
+        return codes;
     }
 
     @Override
     public void initRoles() {
-        PrimaveraConstants.BASE_ROLES.stream()
+        BulkResult<RoleDTO> result = saveAll(PrimaveraConstants.BASE_ROLES.stream()
                 .filter(r -> !existsByRoleName(r.getCode()))
-                .forEach(this::save);
+                .collect(toList()));
+        if (result.hasFailures())
+            logger.error("Could not initialize all the base roles: " + result);
     }
 }
@@ -0,0 +1,97 @@
+package it.ldsoftware.primavera.services;
+
+import it.ldsoftware.primavera.services.interfaces.GroupService;
+import it.ldsoftware.primavera.util.RoleExpansion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Created by luca on 24/06/17.
+ * Keeps the authorities granted by each group, expanded with {@link RoleExpansion}, so that logging in
+ * does not walk the roles of the groups of the user. The table is read once and then kept up to date by the
+ * {@link SecurityModelChangedEvent}s: a change to some groups reloads only those groups, a change to the
+ * roles reloads everything.
+ */
+@Service
+public class RoleExpansionService {
+
+    private final GroupService groups;
+
+    private volatile Map<Long, List<GrantedAuthority>> table;
+    private final AtomicLong version = new AtomicLong();
+
+    @Autowired
+    public RoleExpansionService(GroupService groups) {
+        this.groups = groups;
+    }
+
+    /**
+     * @return the authorities of the group, empty if it has no roles
+     */
+    public List<GrantedAuthority> getGroupAuthorities(Long groupId) {
+        return getGroupAuthorities().getOrDefault(groupId, Collections.emptyList());
+    }
+
+    /**
+     * @return the authorities of every group that has any, by group id
+     */
+    public Map<Long, List<GrantedAuthority>> getGroupAuthorities() {
+        Map<Long, List<GrantedAuthority>> current = table;
+        if (current == null) {
+            long start = version.get();
+            current = new ConcurrentHashMap<>();
+            load(groups.findAuthoritiesByGroup(), current);
+            // a group changed while reading: used this time but not kept
+            if (version.get() == start) {
+                table = current;
+                if (version.get() != start)
+                    table = null;
+            }
+        }
+        return Collections.unmodifiableMap(current);
+    }
+
+    /**
+     * Runs before the listener of the {@link DatabaseUserDetailService}, so that users loaded
+     * again find the new authorities
+     */
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSecurityModelChanged(SecurityModelChangedEvent event) {
+        if (event.isAllGroups()) {
+            version.incrementAndGet();
+            table = null;
+        } else if (!event.getGroupIds().isEmpty()) {
+            refresh(event.getGroupIds());
+        }
+    }
+
+    private synchronized void refresh(Collection<Long> groupIds) {
+        version.incrementAndGet();
+        Map<Long, List<GrantedAuthority>> current = table;
+        if (current == null)
+            return;
+        Map<Long, List<String>> roles = groups.findAuthoritiesByGroup(groupIds);
+        groupIds.stream().filter(id -> !roles.containsKey(id)).forEach(current::remove);
+        load(roles, current);
+    }
+
+    private static void load(Map<Long, List<String>> roles, Map<Long, List<GrantedAuthority>> table) {
+        roles.forEach((id, codes) -> table.put(id,
+                Collections.unmodifiableList(codes.stream().map(SimpleGrantedAuthority::new).collect(toList()))));
+    }
+}
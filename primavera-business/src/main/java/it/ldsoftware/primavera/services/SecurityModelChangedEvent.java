@@ -0,0 +1,71 @@
+package it.ldsoftware.primavera.services;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Created by luca on 22/06/17.
+ * Published when users, groups or roles change, so that whoever keeps the authorities in memory
+ * (e.g. the {@link DatabaseUserDetailService} and the {@link RoleExpansionService}) can discard them.
+ * The event carries the usernames and emails of the changed users, or the ids of the changed groups
+ * (any user may be in them), or nothing when a role changed, meaning that everything may be affected.
+ * <p>
+ * Code that changes the security entities without going through the business services should publish it too.
+ */
+public class SecurityModelChangedEvent extends ApplicationEvent {
+
+    private final Set<String> logins;
+    private final Set<Long> groupIds;
+
+    private SecurityModelChangedEvent(Object source, Set<String> logins, Set<Long> groupIds) {
+        super(source);
+        this.logins = logins;
+        this.groupIds = groupIds;
+    }
+
+    public static SecurityModelChangedEvent forLogins(Object source, Collection<String> logins) {
+        Set<String> tmp = new HashSet<>(logins);
+        tmp.remove(null);
+        return new SecurityModelChangedEvent(source, Collections.unmodifiableSet(tmp), Collections.emptySet());
+    }
+
+    public static SecurityModelChangedEvent forGroups(Object source, Collection<Long> groupIds) {
+        return new SecurityModelChangedEvent(source, null, Collections.unmodifiableSet(new HashSet<>(groupIds)));
+    }
+
+    public static SecurityModelChangedEvent all(Object source) {
+        return new SecurityModelChangedEvent(source, null, null);
+    }
+
+    /**
+     * @return true if every user may be affected
+     */
+    public boolean isAll() {
+        return logins == null;
+    }
+
+    /**
+     * @return the usernames and emails of the changed users, empty if {@link #isAll()}
+     */
+    public Set<String> getLogins() {
+        return logins == null ? Collections.emptySet() : logins;
+    }
+
+    /**
+     * @return true if the authorities of every group may be affected
+     */
+    public boolean isAllGroups() {
+        return groupIds == null;
+    }
+
+    /**
+     * @return the ids of the changed groups, empty if {@link #isAllGroups()}
+     */
+    public Set<Long> getGroupIds() {
+        return groupIds == null ? Collections.emptySet() : groupIds;
+    }
+}
@@ -1,6 +1,7 @@
 package it.ldsoftware.primavera.services;
 
 import it.ldsoftware.primavera.dal.base.BaseDAL;
+import it.ldsoftware.primavera.dal.people.UserDAL;
 import it.ldsoftware.primavera.mapper.Mapper;
 import it.ldsoftware.primavera.mapper.people.UserViewMapper;
 import it.ldsoftware.primavera.model.people.User;
@@ -8,22 +9,33 @@ import it.ldsoftware.primavera.presentation.people.UserDTO;
 import it.ldsoftware.primavera.presentation.people.UserVM;
 import it.ldsoftware.primavera.services.interfaces.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import javax.transaction.Transactional;
+import java.util.*;
+
 import static it.ldsoftware.primavera.model.people.QUser.user;
+import static java.util.stream.Collectors.toList;
 
 /**
+ * Changes to users are published as {@link SecurityModelChangedEvent}s with the usernames and emails
+ * the users had before and after the change.
+ *
  * @author Luca Di Stefano
  */
 @Service
 public class UserBusinessService extends AbstractBusinessService<UserDTO, User> implements UserService {
 
-    private UserViewMapper vmMapper;
+    private final UserViewMapper vmMapper;
+    private final ApplicationEventPublisher publisher;
 
     @Autowired
-    public UserBusinessService(BaseDAL<User> dal, Mapper<User, UserDTO> mapper) {
+    public UserBusinessService(BaseDAL<User> dal, Mapper<User, UserDTO> mapper, UserViewMapper vmMapper,
+                               ApplicationEventPublisher publisher) {
         super(dal, mapper);
-        vmMapper = new UserViewMapper();
+        this.vmMapper = vmMapper;
+        this.publisher = publisher;
     }
 
     @Override
@@ -31,8 +43,79 @@ public class UserBusinessService extends AbstractBusinessService<UserDTO, User>
         return getDal().findOne(user.username.eq(username).or(user.primaryEmail.eq(username)));
     }
 
+    @Override
+    public User findForLogin(String login) {
+        return ((UserDAL) getDal()).findForLogin(login);
+    }
+
+    @Override
+    @Transactional
+    public boolean updatePassword(String username, String oldPassword, String newPassword) {
+        User found = getDal().findOne(user.username.eq(username));
+        if (found == null || !found.getPassword().equals(oldPassword))
+            return false;
+        found.setPassword(newPassword);
+        publisher.publishEvent(SecurityModelChangedEvent.forLogins(this, Arrays.asList(found.getUsername(), found.getPrimaryEmail())));
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public UserDTO save(UserDTO toSave) {
+        Set<String> logins = loginsOf(toSave.getId() == 0 ? Collections.emptyList() : Collections.singleton(toSave.getId()));
+        logins.add(toSave.getUsername());
+        logins.add(toSave.getPrimaryEmail());
+        publisher.publishEvent(SecurityModelChangedEvent.forLogins(this, logins));
+        return super.save(toSave);
+    }
+
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        publisher.publishEvent(SecurityModelChangedEvent.forLogins(this, loginsOf(Collections.singleton(id))));
+        super.delete(id);
+    }
+
+    @Override
+    public BulkResult<UserDTO> saveAll(Collection<UserDTO> toSave) {
+        Set<String> logins = loginsOf(toSave.stream().map(UserDTO::getId).filter(id -> id != 0).collect(toList()));
+        toSave.forEach(u -> {
+            logins.add(u.getUsername());
+            logins.add(u.getPrimaryEmail());
+        });
+        try {
+            return super.saveAll(toSave);
+        } finally {
+            publisher.publishEvent(SecurityModelChangedEvent.forLogins(this, logins));
+        }
+    }
+
+    @Override
+    public BulkResult<Long> deleteAll(Collection<Long> ids) {
+        Set<String> logins = loginsOf(ids);
+        try {
+            return super.deleteAll(ids);
+        } finally {
+            publisher.publishEvent(SecurityModelChangedEvent.forLogins(this, logins));
+        }
+    }
+
+    /**
+     * @return the usernames and emails the given users have on the database
+     */
+    private Set<String> loginsOf(Collection<Long> ids) {
+        Set<String> logins = new HashSet<>();
+        if (!ids.isEmpty()) {
+            getDal().findAll(ids).forEach(u -> {
+                logins.add(u.getUsername());
+                logins.add(u.getPrimaryEmail());
+            });
+        }
+        return logins;
+    }
+
     @Override
     public UserVM findVMById(Long id) {
-        return vmMapper.convertToView(getDal().findOne(id));
+        return vmMapper.convertToView(getDal().findFullById(id));
     }
 }
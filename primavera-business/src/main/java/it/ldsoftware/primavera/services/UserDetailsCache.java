@@ -0,0 +1,82 @@
+package it.ldsoftware.primavera.services;
+
+import it.ldsoftware.primavera.util.SecuredUser;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Created by luca on 22/06/17.
+ * In-memory cache of the {@link SecuredUser}s by login (username or email), used by the {@link DatabaseUserDetailService}.
+ * <p>
+ * Every invalidation moves a global generation forward, and a user loaded during an older generation
+ * is returned but not cached, so a login racing with a change never puts back the old authorities.
+ * Entries also expire after a time to live, for changes made by other nodes.
+ * <p>
+ * The logins are compared ignoring the case, as most databases do: a login typed in another case than the
+ * stored one is invalidated with it.
+ */
+class UserDetailsCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final long ttlNanos;
+
+    UserDetailsCache(long ttl, TimeUnit unit) {
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    /**
+     * @param login  the username or email
+     * @param loader loads the user, may return null
+     * @return a copy of the cached user, or null if there is no such user
+     */
+    SecuredUser get(String login, Function<String, SecuredUser> loader) {
+        long now = System.nanoTime();
+        String key = key(login);
+        Entry entry = entries.get(key);
+        if (entry == null || now - entry.expiresAt >= 0) {
+            long start = generation.get();
+            SecuredUser user = loader.apply(login);
+            if (user == null) {
+                return null;
+            }
+            entry = new Entry(user, now + ttlNanos);
+            if (generation.get() == start) {
+                entries.put(key, entry);
+                // an invalidation may have slipped in between the check and the put
+                if (generation.get() != start) {
+                    entries.remove(key, entry);
+                }
+            }
+        }
+        return entry.user.copy();
+    }
+
+    void invalidate(String login) {
+        generation.incrementAndGet();
+        entries.remove(key(login));
+    }
+
+    void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    private static String key(String login) {
+        return login.toLowerCase();
+    }
+
+    private static final class Entry {
+        final SecuredUser user;
+        final long expiresAt;
+
+        Entry(SecuredUser user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
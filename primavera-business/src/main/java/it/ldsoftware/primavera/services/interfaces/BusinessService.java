@@ -2,12 +2,18 @@ package it.ldsoftware.primavera.services.interfaces;
 
 import com.querydsl.core.types.Predicate;
 import it.ldsoftware.primavera.presentation.base.BaseDTO;
+import it.ldsoftware.primavera.query.Cursor;
+import it.ldsoftware.primavera.query.KeysetPage;
+import it.ldsoftware.primavera.query.Sort;
+import it.ldsoftware.primavera.services.BulkResult;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
 import javax.annotation.Nullable;
 import javax.validation.constraints.NotNull;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Base interface of a generic business service.
@@ -35,8 +41,71 @@ public interface BusinessService<D extends BaseDTO> {
 
     Page<D> findBy(@NotNull Predicate predicate, @Nullable Pageable pageable);
 
+    /**
+     * Keyset pagination, to be preferred to {@link #findBy(Predicate, Pageable)} to scroll large tables.
+     *
+     * @param predicate the filter
+     * @param sort      the sort property, null to sort by id
+     * @param cursor    the cursor of the previous page, null for the first page
+     * @param size      the size of the page
+     * @return the page and the cursor to the next one
+     */
+    KeysetPage<D> findBy(@Nullable Predicate predicate, @Nullable Sort sort, @Nullable Cursor cursor, int size);
+
+    /**
+     * Converts and passes to the consumer, one by one, all the elements that match the predicate.
+     * Unlike {@link #findBy(Predicate)} the result is never held in memory, so this is the method
+     * to use for exports and reprocessing of large tables.
+     * <p>
+     * The elements are read in a new read-only transaction, whose persistence context is cleared after each
+     * batch: the changes pending in the transaction of the caller are kept, but they are not seen by the read,
+     * and changes made by the consumer to the elements are not saved.
+     *
+     * @param predicate the filter, null for all the elements
+     * @param batchSize number of rows fetched at a time
+     * @param consumer  the consumer of the elements
+     */
+    void forEachBy(@Nullable Predicate predicate, int batchSize, @NotNull Consumer<? super D> consumer);
+
+    /**
+     * Read-only listing: the elements are built directly from the columns named by {@link BaseDTO#_fields()},
+     * without loading and converting the entities. Only the properties that are plain columns of the entity
+     * are filled, collections and values computed by the mapper are left to their defaults.
+     *
+     * @param predicate the filter, null for all the elements
+     * @return the elements
+     */
+    List<D> projectBy(@Nullable Predicate predicate);
+
+    /**
+     * Same as {@link #projectBy(Predicate)}, one page at a time
+     *
+     * @param predicate the filter, null for all the elements
+     * @param pageable  the page and its sorting
+     * @return the page of elements
+     */
+    Page<D> projectBy(@Nullable Predicate predicate, @Nullable Pageable pageable);
+
     D save(@NotNull D toSave);
 
     void delete(@NotNull Long id);
 
+    /**
+     * Saves all the elements using JDBC batching. A failure does not stop the operation:
+     * the elements that could not be saved are reported in the result.
+     *
+     * @param toSave the elements to save
+     * @return the saved elements and the failures
+     */
+    BulkResult<D> saveAll(@NotNull Collection<D> toSave);
+
+    /**
+     * Deletes all the elements with the given ids, with a single statement where possible.
+     * The elements that could not be deleted are reported in the result.
+     *
+     * @param ids the ids of the elements to delete
+     * @return the deleted ids and the failures
+     */
+    BulkResult<Long> deleteAll(@NotNull Collection<Long> ids);
+
 }
@@ -2,11 +2,23 @@ package it.ldsoftware.primavera.services.interfaces;
 
 import it.ldsoftware.primavera.presentation.security.GroupDTO;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author Luca Di Stefano
  */
-public interface GroupService extends BusinessService<GroupDTO> {
-    boolean existsByCode(String code);
+public interface GroupService extends LookupService<GroupDTO> {
+    /**
+     * @return the roles (with their modifier variants) of every group that has any, by group id
+     */
+    Map<Long, List<String>> findAuthoritiesByGroup();
+
+    /**
+     * Same as {@link #findAuthoritiesByGroup()}, only for the given groups
+     */
+    Map<Long, List<String>> findAuthoritiesByGroup(Collection<Long> groupIds);
 
     /**
      * Initializes the basic groups
@@ -0,0 +1,49 @@
+package it.ldsoftware.primavera.services.interfaces;
+
+import com.querydsl.core.types.Predicate;
+import it.ldsoftware.primavera.presentation.base.LookupDTO;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import javax.annotation.Nullable;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Business service of the lookups, that can be read in a single language and by code.
+ *
+ * @author Luca Di Stefano
+ */
+public interface LookupService<D extends LookupDTO> extends BusinessService<D> {
+
+    /**
+     * Same as {@link #findBy(Predicate, Pageable)}, but each element has only the translations in the language
+     * and in its default language, and the description in the language (or the default one, if missing).
+     * The other translations are not even read: this is the method to use for grids and choices.
+     *
+     * @param predicate the filter, null for all the elements
+     * @param pageable  the page and its sorting
+     * @param lang      the two-character code of the language
+     * @return the page of elements
+     */
+    Page<D> findBy(@Nullable Predicate predicate, @Nullable Pageable pageable, @NotNull String lang);
+
+    /**
+     * @param code the code of the lookup
+     * @return the lookup with the code, null if there is none
+     */
+    D findByCode(@NotNull String code);
+
+    /**
+     * @param code the code of the lookup
+     * @return true if a lookup with the code exists
+     */
+    boolean existsByCode(@NotNull String code);
+
+    /**
+     * @param id   the id of the lookup
+     * @param lang the two-character code of the language
+     * @return the description of the lookup in the language, or in its default language if it has not been
+     * translated; null if there is no such lookup
+     */
+    String findDescription(@NotNull Long id, @NotNull String lang);
+}
@@ -9,4 +9,26 @@ public interface PropertyService extends BusinessService<AppPropertyDTO> {
 
     AppPropertyDTO findByKey(String key);
 
+    /**
+     * Typed accessors for hot paths, e.g. feature flags. They never box and, unless the property cache
+     * is disabled, never query the database. A missing property, a null value or a property of a
+     * different type gives the default value (int and long properties can be read as each other, a long
+     * that does not fit in an int gives the default too).
+     */
+    int getInt(String key, int defaultValue);
+
+    long getLong(String key, long defaultValue);
+
+    float getFloat(String key, float defaultValue);
+
+    boolean getBoolean(String key, boolean defaultValue);
+
+    String getString(String key, String defaultValue);
+
+    /**
+     * @return the json property parsed as the given type, or null if missing or not valid.
+     * The same instance is returned to all callers, so it must not be modified.
+     */
+    <T> T getJson(String key, Class<T> type);
+
 }
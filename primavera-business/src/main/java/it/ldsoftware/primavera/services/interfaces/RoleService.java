@@ -2,13 +2,27 @@ package it.ldsoftware.primavera.services.interfaces;
 
 import it.ldsoftware.primavera.presentation.security.RoleDTO;
 
+import java.util.Map;
+
 /**
  * @author Luca Di Stefano
  */
-public interface RoleService extends BusinessService<RoleDTO> {
+public interface RoleService extends LookupService<RoleDTO> {
+    /**
+     * Same as {@link #findByCode(String)}
+     */
     RoleDTO findByRoleName(String roleName);
+
+    /**
+     * Same as {@link #existsByCode(String)}
+     */
     boolean existsByRoleName(String roleName);
 
+    /**
+     * @return the code of every role, by role id
+     */
+    Map<Long, String> findRoleCodes();
+
     /**
      * Initializes the basic roles
      */
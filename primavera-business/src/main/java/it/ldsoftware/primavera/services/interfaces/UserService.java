@@ -10,5 +10,20 @@ import it.ldsoftware.primavera.presentation.people.UserVM;
 public interface UserService extends BusinessService<UserDTO> {
     User findByUsername(String username);
 
+    /**
+     * @return the user with the given username or primary email, with its groups and roles already loaded
+     */
+    User findForLogin(String login);
+
+    /**
+     * Replaces the password hash of the user, only if it is still the expected one
+     *
+     * @param username    the username of the user
+     * @param oldPassword the hash the user is expected to have
+     * @param newPassword the new hash
+     * @return true if the password was replaced
+     */
+    boolean updatePassword(String username, String oldPassword, String newPassword);
+
     UserVM findVMById(Long id);
 }
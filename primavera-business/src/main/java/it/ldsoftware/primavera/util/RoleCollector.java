@@ -2,9 +2,8 @@ package it.ldsoftware.primavera.util;
 
 import it.ldsoftware.primavera.model.security.Role;
 import it.ldsoftware.primavera.model.security.RoleModifiers;
+import org.springframework.security.core.GrantedAuthority;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.List;
 
 /**
@@ -17,11 +16,15 @@ public interface RoleCollector {
 
     RoleModifiers getModifiers();
 
-    default Collection<String> getActualRoles() {
-        String r = getRole().getCode();
-        List<String> roles = new ArrayList<>();
-        roles.add(r);
-        roles.addAll(getModifiers().getRoleWithModifiers(r));
-        return roles;
+    /**
+     * @return the role followed by its variants, shared and immutable
+     * @see RoleExpansion
+     */
+    default List<String> getActualRoles() {
+        return RoleExpansion.roles(getRole().getCode(), getModifiers());
+    }
+
+    default List<GrantedAuthority> getActualAuthorities() {
+        return RoleExpansion.authorities(getRole().getCode(), getModifiers());
     }
 }
@@ -0,0 +1,89 @@
+package it.ldsoftware.primavera.util;
+
+import it.ldsoftware.primavera.model.security.RoleModifiers;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Created by luca on 24/06/17.
+ * Expands a role and its {@link RoleModifiers} in the list of authorities they grant, e.g. ROLE_X with edit
+ * and delete gives ROLE_X, ROLE_X_D and ROLE_X_E. There are only 16 combinations of modifiers, so the expansion
+ * is computed once per role and combination and then shared: the lists returned are immutable.
+ *
+ * @see RoleCollector#getActualRoles()
+ */
+public final class RoleExpansion {
+
+    private static final int EDIT = 1, INSERT = 2, DELETE = 4, EXECUTE = 8;
+
+    private static final ConcurrentMap<String, Expansion[]> EXPANSIONS = new ConcurrentHashMap<>();
+
+    private RoleExpansion() {
+    }
+
+    /**
+     * @param role      the base ROLE_X
+     * @param modifiers the modifiers, may be null for none
+     * @return the role followed by its variants
+     */
+    public static List<String> roles(String role, RoleModifiers modifiers) {
+        return expansion(role, modifiers).roles;
+    }
+
+    /**
+     * Same as {@link #roles(String, RoleModifiers)}, as authorities
+     */
+    public static List<GrantedAuthority> authorities(String role, RoleModifiers modifiers) {
+        return expansion(role, modifiers).authorities;
+    }
+
+    private static Expansion expansion(String role, RoleModifiers modifiers) {
+        Expansion[] slots = EXPANSIONS.get(role);
+        if (slots == null) {
+            slots = EXPANSIONS.computeIfAbsent(role, r -> new Expansion[16]);
+        }
+        int mask = mask(modifiers);
+        Expansion expansion = slots[mask];
+        if (expansion == null) {
+            // computing it twice on a race is harmless, the expansion is immutable
+            expansion = new Expansion(role, mask);
+            slots[mask] = expansion;
+        }
+        return expansion;
+    }
+
+    private static int mask(RoleModifiers modifiers) {
+        if (modifiers == null)
+            return 0;
+        return (modifiers.isEdit() ? EDIT : 0) | (modifiers.isInsert() ? INSERT : 0)
+                | (modifiers.isDelete() ? DELETE : 0) | (modifiers.isExecute() ? EXECUTE : 0);
+    }
+
+    private static final class Expansion {
+        final List<String> roles;
+        final List<GrantedAuthority> authorities;
+
+        Expansion(String role, int mask) {
+            List<String> tmp = new ArrayList<>(5);
+            tmp.add(role);
+            if ((mask & DELETE) != 0)
+                tmp.add(UserUtil.deleteVariant(role));
+            if ((mask & EDIT) != 0)
+                tmp.add(UserUtil.editVariant(role));
+            if ((mask & EXECUTE) != 0)
+                tmp.add(UserUtil.executeVariant(role));
+            if ((mask & INSERT) != 0)
+                tmp.add(UserUtil.insertVariant(role));
+            roles = Collections.unmodifiableList(tmp);
+            authorities = Collections.unmodifiableList(tmp.stream().map(SimpleGrantedAuthority::new).collect(toList()));
+        }
+    }
+}
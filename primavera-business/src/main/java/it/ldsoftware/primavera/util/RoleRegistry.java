@@ -0,0 +1,62 @@
+package it.ldsoftware.primavera.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by luca on 23/06/17.
+ * Gives each authority (a role code or one of its _E/_I/_D/_X variants) a small int id, valid for
+ * the lifetime of the application, so that {@link SecuredUser} can keep its authorities in a bitset
+ * and checking a permission is a bit test instead of a scan of strings.
+ * <p>
+ * Only the authorities actually granted to someone are registered: looking up an unknown one
+ * with {@link #find(String)} does not register it, since nobody can have it. Code that keeps
+ * the id of a role to check it often should get it with {@link #register(String)}.
+ */
+public final class RoleRegistry {
+
+    private static final ConcurrentMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<Integer, String> AUTHORITIES = new ConcurrentHashMap<>();
+    private static final AtomicInteger NEXT = new AtomicInteger();
+
+    private RoleRegistry() {
+    }
+
+    /**
+     * @param authority the role or role variant
+     * @return the id of the authority, registering it if needed
+     */
+    public static int register(String authority) {
+        Integer id = IDS.get(authority);
+        return id != null ? id : IDS.computeIfAbsent(authority, a -> {
+            int next = NEXT.getAndIncrement();
+            AUTHORITIES.put(next, a);
+            return next;
+        });
+    }
+
+    /**
+     * @param authority the role or role variant
+     * @return the id of the authority, or -1 if it was never registered
+     */
+    public static int find(String authority) {
+        Integer id = IDS.get(authority);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id the id of an authority
+     * @return the authority with the id, or null if no authority has it
+     */
+    public static String authority(int id) {
+        return AUTHORITIES.get(id);
+    }
+
+    /**
+     * @return the number of registered authorities
+     */
+    public static int size() {
+        return NEXT.get();
+    }
+}
@@ -6,8 +6,11 @@ import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -20,9 +23,12 @@ import java.util.stream.Stream;
  */
 public class SecuredUser implements UserDetails {
 
+    private Long id;
     private boolean enabled;
     private String username, password;
     private List<GrantedAuthority> authorities = new ArrayList<>();
+    // ids of the RoleRegistry are local to the application, so the bitset is rebuilt after deserialization
+    private transient volatile BitSet granted;
 
     private SecuredUser() {
 
@@ -32,13 +38,13 @@ public class SecuredUser implements UserDetails {
         authorities = Stream.concat(user.getGroups()
                         .stream()
                         .flatMap(group -> group.getGroupRoles().stream())
-                        .flatMap(groupRole -> groupRole.getActualRoles().stream()),
+                        .flatMap(groupRole -> groupRole.getActualAuthorities().stream()),
                 user.getUserRoles()
                         .stream()
-                        .flatMap(userRole -> userRole.getActualRoles().stream()))
-                .map(SimpleGrantedAuthority::new)
+                        .flatMap(userRole -> userRole.getActualAuthorities().stream()))
                 .collect(Collectors.toList());
 
+        id = user.getId();
         enabled = user.isEnabled();
         username = user.getUsername();
         password = user.getPassword();
@@ -48,6 +54,56 @@ public class SecuredUser implements UserDetails {
         return new SecuredUser(user);
     }
 
+    /**
+     * Creates the secured user taking the authorities of the groups from a precomputed table,
+     * so that only the roles given directly to the user are expanded.
+     *
+     * @param user             the user, with its groups and user roles loaded
+     * @param groupAuthorities the authorities of each group by group id, groups without roles may be missing
+     */
+    public static SecuredUser fromUser(User user, Map<Long, List<GrantedAuthority>> groupAuthorities) {
+        SecuredUser secured = new SecuredUser();
+        user.getGroups().forEach(group ->
+                secured.authorities.addAll(groupAuthorities.getOrDefault(group.getId(), Collections.emptyList())));
+        user.getUserRoles().forEach(userRole -> secured.authorities.addAll(userRole.getActualAuthorities()));
+        secured.id = user.getId();
+        secured.enabled = user.isEnabled();
+        secured.username = user.getUsername();
+        secured.password = user.getPassword();
+        return secured;
+    }
+
+    /**
+     * @return a copy of this user that can be modified independently
+     */
+    public SecuredUser copy() {
+        SecuredUser copy = new SecuredUser();
+        copy.id = id;
+        copy.enabled = enabled;
+        copy.username = username;
+        copy.password = password;
+        copy.authorities = new ArrayList<>(authorities);
+        copy.granted = granted;
+        return copy;
+    }
+
+    /**
+     * Creates an enabled user without password, for users that have already been authenticated elsewhere
+     * (e.g. by a signed token)
+     *
+     * @param id          the id of the user, may be null
+     * @param username    the username
+     * @param authorities the authorities granted to the user
+     */
+    public static SecuredUser authenticated(Long id, String username, Collection<? extends GrantedAuthority> authorities) {
+        SecuredUser user = new SecuredUser();
+        user.id = id;
+        user.enabled = true;
+        user.username = username;
+        user.authorities.addAll(authorities);
+        return user;
+    }
+
     public static SecuredUser dummy(String username, String password) {
         SecuredUser user = new SecuredUser();
         user.username = username;
@@ -60,6 +116,40 @@ public class SecuredUser implements UserDetails {
         return authorities;
     }
 
+    /**
+     * @param authorityId the id of the authority in the {@link RoleRegistry}
+     * @return true if the authority has been granted to the user
+     */
+    public boolean hasAuthority(int authorityId) {
+        return authorityId >= 0 && granted().get(authorityId);
+    }
+
+    public boolean hasAuthority(String authority) {
+        // the authorities of the user are registered while building the bitset, so it comes first
+        BitSet bits = granted();
+        int id = RoleRegistry.find(authority);
+        return id >= 0 && bits.get(id);
+    }
+
+    private BitSet granted() {
+        BitSet bits = granted;
+        if (bits == null) {
+            bits = new BitSet(RoleRegistry.size());
+            for (GrantedAuthority authority : authorities) {
+                bits.set(RoleRegistry.register(authority.getAuthority()));
+            }
+            granted = bits;
+        }
+        return bits;
+    }
+
+    /**
+     * @return the id of the user, null for users that are not in the database
+     */
+    public Long getId() {
+        return id;
+    }
+
     @Override
     public String getPassword() {
         return password;
@@ -70,19 +160,20 @@ public class SecuredUser implements UserDetails {
         return username;
     }
 
+    // users have no expiration nor lock, only the enabled flag
     @Override
     public boolean isAccountNonExpired() {
-        return false;
+        return true;
     }
 
     @Override
     public boolean isAccountNonLocked() {
-        return false;
+        return true;
     }
 
     @Override
     public boolean isCredentialsNonExpired() {
-        return false;
+        return true;
     }
 
     @Override
@@ -96,5 +187,6 @@ public class SecuredUser implements UserDetails {
 
     public void addAuthority(String role) {
         this.authorities.add(new SimpleGrantedAuthority(role));
+        this.granted = null;
     }
 }
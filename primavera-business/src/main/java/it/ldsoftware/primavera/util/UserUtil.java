@@ -2,6 +2,7 @@ package it.ldsoftware.primavera.util;
 
 import it.ldsoftware.primavera.model.security.Role;
 import it.ldsoftware.primavera.model.security.RoleModifiers;
+import it.ldsoftware.primavera.security.PermissionAudit;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -12,6 +13,8 @@ import java.util.Collection;
  * <p>
  * This class is used to get the current user and assess if the user has
  * certain permissions.
+ * <p>
+ * When a {@link PermissionAudit} is installed, the outcome of the checks is recorded on it.
  */
 public class UserUtil {
     public static final String ROLE_ANONYMOUS = "ROLE_ANONYMOUS",
@@ -21,6 +24,19 @@ public class UserUtil {
 
     private static final String EDIT = "_E", INSERT = "_I", DELETE = "_D", EXECUTE = "_X";
 
+    private static volatile PermissionAudit audit;
+
+    public static PermissionAudit getAudit() {
+        return audit;
+    }
+
+    /**
+     * @param audit the audit recording the checks, null to stop recording them
+     */
+    public static void setAudit(PermissionAudit audit) {
+        UserUtil.audit = audit;
+    }
+
     /**
      * Returns the edit version of a base role
      *
@@ -85,7 +101,30 @@ public class UserUtil {
      * @return true or false
      */
     public static boolean isCurrentUserEnabled(String role) {
-        return (role.equals(ROLE_ANONYMOUS) || containsRole(role) || isCurrentUserSuperAdmin());
+        if (role.equals(ROLE_ANONYMOUS))
+            return true;
+        SecuredUser user = (SecuredUser) getCurrentUser();
+        boolean enabled = user != null && (user.hasAuthority(role) || user.hasAuthority(ROLE_SUPERADMIN));
+        PermissionAudit current = audit;
+        if (current != null)
+            current.check(RoleRegistry.register(role), user == null ? null : user.getUsername(), enabled);
+        return enabled;
+    }
+
+    /**
+     * Same as {@link #isCurrentUserEnabled(String)} for a role registered in the {@link RoleRegistry},
+     * for checks done very often
+     *
+     * @param roleId the id of the role
+     * @return true or false
+     */
+    public static boolean isCurrentUserEnabled(int roleId) {
+        SecuredUser user = (SecuredUser) getCurrentUser();
+        boolean enabled = user != null && (user.hasAuthority(roleId) || user.hasAuthority(ROLE_SUPERADMIN));
+        PermissionAudit current = audit;
+        if (current != null)
+            current.check(roleId, user == null ? null : user.getUsername(), enabled);
+        return enabled;
     }
 
     /**
@@ -97,13 +136,21 @@ public class UserUtil {
     public static boolean isCurrentUserEnabled(Collection<Role> roles) {
         if (roles == null || roles.isEmpty())
             return true;
-        if (isCurrentUserSuperAdmin())
+        SecuredUser user = (SecuredUser) getCurrentUser();
+        if (user != null && user.hasAuthority(ROLE_SUPERADMIN))
             return true;
-        boolean tmp = true;
-        for (Role role: roles) {
-            tmp &= isCurrentUserEnabled(role.getCode());
+        PermissionAudit current = audit;
+        for (Role role : roles) {
+            String code = role.getCode();
+            if (code.equals(ROLE_ANONYMOUS))
+                continue;
+            boolean enabled = user != null && user.hasAuthority(code);
+            if (current != null)
+                current.check(RoleRegistry.register(code), user == null ? null : user.getUsername(), enabled);
+            if (!enabled)
+                return false;
         }
-        return tmp;
+        return true;
     }
 
     /**
@@ -117,9 +164,8 @@ public class UserUtil {
     }
 
     private static boolean containsRole(String role) {
-        UserDetails user = getCurrentUser();
-        return (user != null && (user.getAuthorities().size() > 0
-                && user.getAuthorities().stream().filter(r -> r.getAuthority().equals(role)).count() > 0));
+        SecuredUser user = (SecuredUser) getCurrentUser();
+        return user != null && user.hasAuthority(role);
     }
 
     public static RoleModifiers fromModifier(String modifier) {
@@ -0,0 +1,50 @@
+package it.ldsoftware.primavera.mapper;
+
+import it.ldsoftware.primavera.mapper.people.ContactMapperImpl;
+import it.ldsoftware.primavera.mapper.people.UserMapperImpl;
+import it.ldsoftware.primavera.mapper.security.GroupMapper;
+import it.ldsoftware.primavera.mapper.security.RoleMapper;
+import it.ldsoftware.primavera.model.people.Contact;
+import it.ldsoftware.primavera.model.people.User;
+import it.ldsoftware.primavera.model.security.Group;
+import it.ldsoftware.primavera.presentation.people.UserDTO;
+import org.junit.Assert;
+import org.junit.Test;
+
+import static it.ldsoftware.primavera.presentation.enums.ContactType.EMAIL;
+
+/**
+ * Created by luca on 05/07/17.
+ * Tests the mappers generated by the annotation processor, without the spring context.
+ */
+public class GeneratedMapperTest {
+
+    @Test
+    public void testUserMapper() {
+        RoleMapper roleMapper = new RoleMapper();
+        Mapper<User, UserDTO> userMapper = new UserMapperImpl(roleMapper, new GroupMapper(roleMapper),
+                new ContactMapperImpl());
+
+        Group group = new Group();
+        group.setId(7);
+        group.setCode("MAPPED_GROUP");
+        User user = new User();
+        user.setId(3);
+        user.setUsername("mapped");
+        user.setEnabled(true);
+        user.addContact(new Contact().withContactType(EMAIL).withValue("mapped@ldsoftware.it"));
+        user.addGroups(group);
+
+        UserDTO view = userMapper.convertToView(user);
+        Assert.assertEquals(3, view.getId());
+        Assert.assertEquals("mapped", view.getUsername());
+        Assert.assertTrue(view.isEnabled());
+        Assert.assertEquals("mapped@ldsoftware.it", view.getContacts().iterator().next().getContactValue());
+        Assert.assertEquals("MAPPED_GROUP", view.getGroups().get(0).getCode());
+
+        User model = userMapper.convertToModel(view);
+        Assert.assertEquals("mapped", model.getUsername());
+        Assert.assertSame(model, model.getContacts().iterator().next().getPerson());
+        Assert.assertEquals(7, model.getGroups().iterator().next().getId());
+    }
+}
@@ -0,0 +1,140 @@
+package it.ldsoftware.primavera.mapper;
+
+import it.ldsoftware.primavera.mapper.people.ContactMapperImpl;
+import it.ldsoftware.primavera.mapper.people.UserMapperImpl;
+import it.ldsoftware.primavera.mapper.security.GroupMapper;
+import it.ldsoftware.primavera.mapper.security.RoleMapper;
+import it.ldsoftware.primavera.model.people.Contact;
+import it.ldsoftware.primavera.model.people.User;
+import it.ldsoftware.primavera.model.security.Group;
+import it.ldsoftware.primavera.model.security.Role;
+import it.ldsoftware.primavera.model.security.UserRole;
+import it.ldsoftware.primavera.presentation.enums.ContactType;
+import it.ldsoftware.primavera.presentation.people.UserDTO;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Created by luca on 02/07/17.
+ * Compares the generated user mapper with the hand-written one it replaced, that created a mapper
+ * for each contact, group and role and collected them with streams.
+ * Run with the main method, it is not part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MapperBenchmark {
+
+    private UserMapperImpl mapper;
+    private User user;
+    private UserDTO dto;
+
+    @Setup
+    public void setUp() {
+        RoleMapper roleMapper = new RoleMapper();
+        mapper = new UserMapperImpl(roleMapper, new GroupMapper(roleMapper), new ContactMapperImpl());
+
+        user = new User();
+        user.setId(1);
+        user.setName("Luca");
+        user.setSurname("Di Stefano");
+        user.setFullName("Luca Di Stefano");
+        user.setBirthDate(LocalDate.of(1985, 4, 11));
+        user.setUsername("luca");
+        user.setPrimaryEmail("luca@example.com");
+        user.setEnabled(true);
+        for (int i = 0; i < 3; i++)
+            user.addContact(new Contact().withContactType(ContactType.EMAIL).withValue("luca" + i + "@example.com"));
+        for (int i = 0; i < 4; i++) {
+            Role role = role("ROLE_" + i);
+            Group group = new Group();
+            group.setId(10 + i);
+            group.setCode("GROUP_" + i);
+            group.addRole(new UserRole().withRole(role).withEditAllowed(true));
+            user.addGroups(group);
+            user.getUserRoles().add(new UserRole().withRole(role("ROLE_USER_" + i)).withUser(user));
+        }
+        dto = mapper.convertToView(user);
+    }
+
+    private static Role role(String code) {
+        Role role = new Role();
+        role.setId(code.hashCode());
+        role.setCode(code);
+        return role;
+    }
+
+    @Benchmark
+    public UserDTO generatedToView() {
+        return mapper.convertToView(user);
+    }
+
+    @Benchmark
+    public UserDTO handWrittenToView() {
+        UserDTO view = new UserDTO();
+        view.setId(user.getId());
+        view.setBirthDate(user.getBirthDate());
+        view.setFullName(user.getFullName());
+        view.setName(user.getName());
+        view.setPersonType(user.getPersonType());
+        view.setSex(user.getSex());
+        view.setSurname(user.getSurname());
+        view.setUniqueId(user.getUniqueId());
+        view.setVatInfo(user.getVatInfo());
+        view.setContacts(user.getContacts().stream().map(new ContactMapperImpl()::getViewInstance).collect(toSet()));
+        view.setEnabled(user.isEnabled());
+        view.setPassword(user.getPassword());
+        view.setPrimaryEmail(user.getPrimaryEmail());
+        view.setUsername(user.getUsername());
+        view.setRoles(user.getUserRoles().stream().map(UserRole::getRole).map(new RoleMapper()::convertToView)
+                .collect(toList()));
+        view.setGroups(user.getGroups().stream().map(new GroupMapper(new RoleMapper())::convertToView)
+                .collect(toList()));
+        return view;
+    }
+
+    @Benchmark
+    public User generatedToModel() {
+        return mapper.convertToModel(dto);
+    }
+
+    @Benchmark
+    public User handWrittenToModel() {
+        User model = new User();
+        model.setId(dto.getId());
+        model.setBirthDate(dto.getBirthDate());
+        model.setFullName(dto.getFullName());
+        model.setName(dto.getName());
+        model.setPersonType(dto.getPersonType());
+        model.setSex(dto.getSex());
+        model.setSurname(dto.getSurname());
+        model.setUniqueId(dto.getUniqueId());
+        model.setVatInfo(dto.getVatInfo());
+        dto.getContacts().stream().map(new ContactMapperImpl()::getModelInstance).forEach(model::addContact);
+        model.setEnabled(dto.isEnabled());
+        model.setPassword(dto.getPassword());
+        model.setPrimaryEmail(dto.getPrimaryEmail());
+        model.setUsername(dto.getUsername());
+        model.setGroups(dto.getGroups().stream().map(new GroupMapper(new RoleMapper())::convertToModel).collect(toSet()));
+        return model;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(MapperBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
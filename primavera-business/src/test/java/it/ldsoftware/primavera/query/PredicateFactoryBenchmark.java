@@ -0,0 +1,102 @@
+package it.ldsoftware.primavera.query;
+
+import com.querydsl.core.types.Predicate;
+import it.ldsoftware.primavera.model.base.BaseEntity;
+import it.ldsoftware.primavera.model.people.Person;
+import it.ldsoftware.primavera.model.people.User;
+import it.ldsoftware.primavera.model.security.Group;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static it.ldsoftware.primavera.query.FilterOperator.AND;
+import static it.ldsoftware.primavera.query.FilterOperator.OR;
+
+/**
+ * Created by luca on 12/06/17.
+ * Compares the construction of predicates with an empty plan cache (first query on an entity)
+ * and with a warm cache (a lazy grid scrolling with the same filters and different values).
+ * Run with the main method, it is not part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PredicateFactoryBenchmark {
+
+    @Param({"person", "user", "group"})
+    private String entity;
+
+    private Class<? extends BaseEntity> entityClass;
+    private List<List<Filter>> filterSets;
+    private int counter;
+
+    @Setup
+    public void setUp() {
+        switch (entity) {
+            case "person":
+                entityClass = Person.class;
+                filterSets = Arrays.asList(personFilters("Luc%", "Di%"), personFilters("Mar%", "%Ross%"));
+                break;
+            case "user":
+                entityClass = User.class;
+                filterSets = Arrays.asList(userFilters("admin%", true), userFilters("guest", false));
+                break;
+            default:
+                entityClass = Group.class;
+                filterSets = Arrays.asList(groupFilters("ADM%"), groupFilters("%USR"));
+        }
+    }
+
+    @Benchmark
+    public Predicate cold() {
+        PredicateFactory.clearCaches();
+        return PredicateFactory.createPredicate(entityClass, next());
+    }
+
+    @Benchmark
+    public Predicate warm() {
+        return PredicateFactory.createPredicate(entityClass, next());
+    }
+
+    private List<Filter> next() {
+        return filterSets.get(counter++ & 1);
+    }
+
+    private static List<Filter> personFilters(String name, String surname) {
+        return Arrays.asList(
+                new Filter("name", name, false, AND),
+                new Filter("surname", surname, false, AND),
+                new Filter("sex", "M", true, OR),
+                new Filter("idFrom", 10L, false, AND),
+                new Filter("idTo", 5000L, false, AND));
+    }
+
+    private static List<Filter> userFilters(String username, boolean enabled) {
+        return Arrays.asList(
+                new Filter("username", username, false, AND),
+                new Filter("primaryEmail", "%@ldsoftware.it", false, OR),
+                new Filter("enabled", enabled, false, AND));
+    }
+
+    private static List<Filter> groupFilters(String code) {
+        return Arrays.asList(
+                new Filter("code", code, false, AND),
+                new Filter("defaultLang", "it", false, AND));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PredicateFactoryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
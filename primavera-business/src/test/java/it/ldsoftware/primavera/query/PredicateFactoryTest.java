@@ -2,13 +2,20 @@ package it.ldsoftware.primavera.query;
 
 import com.querydsl.core.BooleanBuilder;
 import com.querydsl.core.types.Predicate;
+import it.ldsoftware.primavera.model.base.LogEntry;
+import it.ldsoftware.primavera.model.base.QLogEntry;
 import it.ldsoftware.primavera.model.people.Contact;
 import it.ldsoftware.primavera.model.people.Person;
 import it.ldsoftware.primavera.model.people.QPerson;
+import it.ldsoftware.primavera.model.people.QUser;
+import it.ldsoftware.primavera.model.people.User;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
 
 import static it.ldsoftware.primavera.query.FilterOperator.AND;
@@ -64,4 +71,70 @@ public class PredicateFactoryTest {
         Assert.assertEquals(expected, predicate);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testCompiledPredicateBindsNewValues() {
+        PredicateFactory.createPredicate(Person.class, singletonList(new Filter("name", "Luc%", false, AND)));
+        Predicate predicate = PredicateFactory.createPredicate(Person.class,
+                singletonList(new Filter("name", "%Mar%", true, AND)));
+
+        QPerson qp = QPerson.person;
+        Predicate expected = new BooleanBuilder().and(qp.name.containsIgnoreCase("Mar").not()).getValue();
+
+        Assert.assertEquals(expected, predicate);
+    }
+
+    @Test
+    public void testOpenRangePredicate() {
+        LocalDate from = LocalDate.of(1990, 1, 1);
+        Predicate predicate = PredicateFactory.createPredicate(Person.class,
+                singletonList(new Filter("birthDateFrom", from, false, AND)));
+
+        // no upper bound without a "to"
+        QPerson qp = QPerson.person;
+        Predicate expected = new BooleanBuilder().and(qp.birthDate.goe(from)).getValue();
+
+        Assert.assertEquals(expected.toString(), predicate.toString());
+    }
+
+    @Test
+    public void testInheritedPropertyPredicate() {
+        List<Filter> filterList = singletonList(new Filter("fullName", "Luca Di Stefano", false, AND));
+
+        Predicate predicate = PredicateFactory.createPredicate(User.class, filterList);
+
+        QUser qu = QUser.user;
+        Predicate expected = new BooleanBuilder().and(qu.fullName.equalsIgnoreCase("Luca Di Stefano")).getValue();
+
+        Assert.assertEquals(expected, predicate);
+    }
+
+    @Test
+    public void testNestedPathPredicate() {
+        List<Filter> filterList = singletonList(new Filter("contacts.contactValue", "123%", false, AND));
+
+        Predicate predicate = PredicateFactory.createPredicate(Person.class, filterList);
+
+        QPerson qp = QPerson.person;
+        Predicate expected = new BooleanBuilder()
+                .and(qp.contacts.any().contactValue.startsWithIgnoreCase("123")).getValue();
+
+        Assert.assertEquals(expected.toString(), predicate.toString());
+    }
+
+    @Test
+    public void testBucketRangePredicate() {
+        LocalDateTime from = LocalDateTime.of(2017, 6, 1, 0, 0), to = LocalDateTime.of(2017, 6, 3, 12, 0);
+        List<Filter> filterList = Arrays.asList(new Filter("logDateFrom", from, false, AND),
+                new Filter("logDateTo", to, false, AND));
+
+        Predicate predicate = PredicateFactory.createPredicate(LogEntry.class, filterList);
+
+        QLogEntry ql = QLogEntry.logEntry;
+        Predicate expected = new BooleanBuilder().and(ql.logDate.between(from, to)
+                .and(ql.logBucket.between(from.toLocalDate().toEpochDay(), to.toLocalDate().toEpochDay())
+                        .or(ql.logBucket.isNull()))).getValue();
+
+        Assert.assertEquals(expected.toString(), predicate.toString());
+    }
+
+}
@@ -0,0 +1,51 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.services.interfaces.RoleService;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Created by luca on 05/07/17.
+ * Tests the encoding of the authorities in the tokens, without the database.
+ */
+public class AuthorityCodecTest {
+
+    @Test
+    public void testSparseRoleIds() throws Exception {
+        Map<Long, String> codes = new HashMap<>();
+        codes.put(3L, "ROLE_SMALL");
+        codes.put(5_000_000_000L, "ROLE_BIG");
+        codes.put(5_000_000_200L, "ROLE_UNUSED");
+        RoleService roles = Mockito.mock(RoleService.class);
+        Mockito.when(roles.findRoleCodes()).thenReturn(codes);
+        AuthorityCodec codec = new AuthorityCodec(roles);
+
+        byte[] encoded = codec.encode(Arrays.asList(new SimpleGrantedAuthority("ROLE_SMALL"),
+                new SimpleGrantedAuthority("ROLE_BIG_E"), new SimpleGrantedAuthority("ROLE_BIG_X"),
+                new SimpleGrantedAuthority("ROLE_NOT_IN_DATABASE")));
+        // two roles: the size does not depend on the ids
+        Assert.assertTrue(encoded.length <= 2 * 10);
+
+        List<String> decoded = codec.decode(encoded).stream().map(GrantedAuthority::getAuthority).sorted()
+                .collect(toList());
+        Assert.assertEquals(Arrays.asList("ROLE_BIG_E", "ROLE_BIG_X", "ROLE_SMALL"), decoded);
+        Assert.assertEquals(0, codec.encode(Arrays.asList(new SimpleGrantedAuthority("ROLE_NOT_IN_DATABASE"))).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTruncated() throws Exception {
+        RoleService roles = Mockito.mock(RoleService.class);
+        Mockito.when(roles.findRoleCodes()).thenReturn(new HashMap<>());
+        new AuthorityCodec(roles).decode(new byte[]{(byte) 0x83});
+    }
+}
@@ -0,0 +1,57 @@
+package it.ldsoftware.primavera.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by luca on 05/07/17.
+ * Tests the limits of the {@link LoginThrottle}, without the database.
+ */
+public class LoginThrottleTest {
+
+    @Test
+    public void testFailuresPerUser() throws Exception {
+        LoginThrottle throttle = new LoginThrottle(60, TimeUnit.SECONDS, 3, 100, 256);
+        for (int i = 0; i < 3; i++) {
+            throttle.check("bob", "10.0.0.1");
+            throttle.failed("bob", "10.0.0.1");
+        }
+        try {
+            throttle.check("Bob", "10.0.0.1");
+            Assert.fail("Attempt after three failures allowed");
+        } catch (LoginThrottledException ignored) {
+        }
+        // the owner of the account can still log in from elsewhere
+        throttle.check("bob", "10.0.0.2");
+        // refusals are not counted as failures
+        Assert.assertEquals(3, throttle.getFailed());
+        Assert.assertEquals(4, throttle.getAllowed());
+        Assert.assertEquals(1, throttle.getRejectedByUser());
+    }
+
+    @Test
+    public void testFailuresPerAddress() throws Exception {
+        LoginThrottle throttle = new LoginThrottle(60, TimeUnit.SECONDS, 100, 3, 256);
+        throttle.failed("alice", "10.0.0.1");
+        throttle.failed("carol", "10.0.0.1");
+        throttle.failed("dave", "10.0.0.1");
+        try {
+            throttle.check("erin", "10.0.0.1");
+            Assert.fail("Attempt after three failures of the address allowed");
+        } catch (LoginThrottledException ignored) {
+        }
+        throttle.check("erin", "10.0.0.2");
+        Assert.assertEquals(1, throttle.getRejectedByAddress());
+    }
+
+    @Test
+    public void testSuccessesNotCounted() throws Exception {
+        LoginThrottle throttle = new LoginThrottle(60, TimeUnit.SECONDS, 1, 1, 256);
+        for (int i = 0; i < 10; i++) {
+            throttle.check("bob", "10.0.0.1");
+        }
+        Assert.assertEquals(10, throttle.getAllowed());
+    }
+}
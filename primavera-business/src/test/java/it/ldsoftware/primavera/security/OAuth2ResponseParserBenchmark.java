@@ -0,0 +1,90 @@
+package it.ldsoftware.primavera.security;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Created by luca on 29/06/17.
+ * Compares the streaming extraction of the {@link OAuth2ResponseParser} with reading the whole response,
+ * as a tree for the profile and with the regular expression used before for the token.
+ * Run with the main method, it is not part of the unit tests.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OAuth2ResponseParserBenchmark {
+
+    private static final String TOKEN = "{\n  \"access_token\" : \"ya29.GlxyBNDkSnQwP1bYzUMEbCqgX3kHQq7mJ4H\",\n" +
+            "  \"token_type\" : \"Bearer\",\n  \"expires_in\" : 3600,\n" +
+            "  \"id_token\" : \"eyJhbGciOiJSUzI1NiIsImtpZCI6IjNmMGE3N2Q5YzM4Y2RlNzc2ODg3NGE5ZmNkM2MwNmM1MDk5ZjYwZjYifQ\"\n}";
+
+    private static final String PROFILE = "{\"kind\":\"plus#person\",\"etag\":\"\\\"Sh4n9u6EtD24TM0RmWv7jTXojqc\\\"\"," +
+            "\"occupation\":\"Developer\",\"gender\":\"male\"," +
+            "\"emails\":[{\"value\":\"luca@example.com\",\"type\":\"account\"},{\"value\":\"l@example.com\",\"type\":\"home\"}]," +
+            "\"urls\":[{\"value\":\"http://example.com\",\"type\":\"otherProfile\",\"label\":\"Site\"}]," +
+            "\"objectType\":\"person\",\"id\":\"108235486453221894512\",\"displayName\":\"Luca Di Stefano\"," +
+            "\"name\":{\"familyName\":\"Di Stefano\",\"givenName\":\"Luca\"}," +
+            "\"organizations\":[{\"name\":\"LD Software\",\"title\":\"Developer\",\"type\":\"work\",\"primary\":true}]," +
+            "\"placesLived\":[{\"value\":\"Milano\",\"primary\":true}],\"isPlusUser\":true,\"language\":\"it\"," +
+            "\"image\":{\"url\":\"https://lh3.googleusercontent.com/photo.jpg?sz=50\",\"isDefault\":false}," +
+            "\"circledByCount\":12,\"verified\":false}";
+
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("\"access_token\" : \"([^&\"]+)\"");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final OAuth2Provider google = OAuth2Providers.googleTemplate("a", "t", "p");
+    private byte[] token, profile;
+
+    @Setup
+    public void setUp() {
+        token = TOKEN.getBytes(StandardCharsets.UTF_8);
+        profile = PROFILE.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String tokenStreaming() throws IOException {
+        return OAuth2ResponseParser.accessToken(new ByteArrayInputStream(token));
+    }
+
+    @Benchmark
+    public String tokenRegex() {
+        Matcher matcher = TOKEN_PATTERN.matcher(new String(token, StandardCharsets.UTF_8));
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    @Benchmark
+    public OAuth2Profile profileStreaming() throws IOException {
+        return OAuth2ResponseParser.profile(new ByteArrayInputStream(profile), google);
+    }
+
+    @Benchmark
+    public OAuth2Profile profileTree() throws IOException {
+        JsonNode node = mapper.readTree(new ByteArrayInputStream(profile));
+        return new OAuth2Profile("google", node.path("id").asText(null),
+                node.path("emails").path(0).path("value").asText(null),
+                node.path("name").path("givenName").asText(null), node.path("name").path("familyName").asText(null),
+                node.path("image").path("url").asText(null));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(OAuth2ResponseParserBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,38 @@
+package it.ldsoftware.primavera.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Created by luca on 05/07/17.
+ * Tests the parsing of the responses of the providers, without the network.
+ */
+public class OAuth2ResponseParserTest {
+
+    @Test
+    public void testProfile() throws Exception {
+        String facebook = "{\"id\":\"1001\",\"first_name\":\"Face\",\"last_name\":\"Book\",\"email\":null," +
+                "\"friends\":{\"data\":[{\"id\":\"1\"}],\"summary\":{\"total_count\":1}}," +
+                "\"picture\":{\"data\":{\"is_silhouette\":false,\"url\":\"http://example.com/fb.png\"}}}";
+        OAuth2Provider provider = OAuth2Providers.facebookTemplate("a", "t", "p");
+        OAuth2Profile profile = OAuth2ResponseParser.profile(
+                new ByteArrayInputStream(facebook.getBytes(StandardCharsets.UTF_8)), provider);
+        Assert.assertEquals(OAuth2Providers.FACEBOOK, profile.getProvider());
+        Assert.assertEquals("1001", profile.getId());
+        Assert.assertNull(profile.getEmail());
+        Assert.assertEquals("Face", profile.getGivenName());
+        Assert.assertEquals("Book", profile.getFamilyName());
+        Assert.assertEquals("http://example.com/fb.png", profile.getPictureUrl());
+    }
+
+    @Test
+    public void testAccessToken() throws Exception {
+        String token = "{\"token_type\":\"bearer\",\"scopes\":[\"a\",{\"access_token\":\"nested\"}]," +
+                "\"access_token\":\"top\"}";
+        Assert.assertEquals("top", OAuth2ResponseParser.accessToken(
+                new ByteArrayInputStream(token.getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -0,0 +1,89 @@
+package it.ldsoftware.primavera.security;
+
+import it.ldsoftware.primavera.util.RoleRegistry;
+import it.ldsoftware.primavera.util.SecuredUser;
+import it.ldsoftware.primavera.util.UserUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.event.AuthenticationFailureBadCredentialsEvent;
+import org.springframework.security.authentication.event.AuthenticationFailureServiceExceptionEvent;
+import org.springframework.security.authentication.event.AuthenticationSuccessEvent;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by luca on 05/07/17.
+ * Tests the counters and the sampled events of the {@link PermissionAudit}, without the database.
+ */
+public class PermissionAuditTest {
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+        UserUtil.setAudit(null);
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        PermissionAudit audit = new PermissionAudit(1, TimeUnit.HOURS, 1, 4);
+        UserUtil.setAudit(audit);
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                SecuredUser.authenticated(null, "auditor", Collections.singletonList(
+                        new SimpleGrantedAuthority("ROLE_AUDIT_READ"))), null));
+
+        Assert.assertTrue(UserUtil.isCurrentUserEnabled("ROLE_AUDIT_READ"));
+        Assert.assertFalse(UserUtil.isCurrentUserEnabled("ROLE_AUDIT_WRITE"));
+        Assert.assertFalse(UserUtil.isCurrentUserEnabled(RoleRegistry.register("ROLE_AUDIT_WRITE")));
+
+        // the counters of a thread that ended are kept
+        Thread other = new Thread(() -> UserUtil.isCurrentUserEnabled("ROLE_AUDIT_WRITE"));
+        other.start();
+        other.join();
+        audit.login("nobody", PermissionAudit.LoginOutcome.FAILED);
+        audit.flush();
+
+        UserUtil.setAudit(null);
+        UserUtil.isCurrentUserEnabled("ROLE_AUDIT_WRITE");
+
+        Assert.assertEquals(1, audit.getAllowed("ROLE_AUDIT_READ"));
+        Assert.assertEquals(0, audit.getDenied("ROLE_AUDIT_READ"));
+        Assert.assertEquals(3, audit.getDenied("ROLE_AUDIT_WRITE"));
+        Assert.assertEquals(1, audit.getLogins(PermissionAudit.LoginOutcome.FAILED));
+
+        List<PermissionAudit.Event> events = audit.getEvents();
+        Assert.assertEquals(4, events.size());
+        Assert.assertEquals("auditor", events.get(0).getUsername());
+        Assert.assertEquals("ROLE_AUDIT_WRITE", events.get(0).getSubject());
+        Assert.assertNull(events.get(2).getUsername());
+        Assert.assertEquals("FAILED", events.get(3).getSubject());
+    }
+
+    @Test
+    public void testLoginEvents() throws Exception {
+        PermissionAudit audit = new PermissionAudit(1, TimeUnit.HOURS, 1, 4);
+        UsernamePasswordAuthenticationToken attempt = new UsernamePasswordAuthenticationToken("bob", "password");
+
+        audit.onAuthenticationSuccess(new AuthenticationSuccessEvent(attempt));
+        audit.onAuthenticationFailure(new AuthenticationFailureBadCredentialsEvent(attempt,
+                new BadCredentialsException("wrong password")));
+        // the throttle records its refusals itself
+        audit.login("bob", PermissionAudit.LoginOutcome.THROTTLED);
+        audit.onAuthenticationFailure(new AuthenticationFailureServiceExceptionEvent(attempt,
+                new LoginThrottledException("throttled")));
+
+        Assert.assertEquals(1, audit.getLogins(PermissionAudit.LoginOutcome.SUCCEEDED));
+        Assert.assertEquals(1, audit.getLogins(PermissionAudit.LoginOutcome.FAILED));
+        Assert.assertEquals(1, audit.getLogins(PermissionAudit.LoginOutcome.THROTTLED));
+        List<PermissionAudit.Event> events = audit.getEvents();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("bob", events.get(0).getUsername());
+        Assert.assertEquals("FAILED", events.get(0).getSubject());
+    }
+}
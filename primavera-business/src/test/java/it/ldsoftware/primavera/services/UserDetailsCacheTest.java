@@ -0,0 +1,39 @@
+package it.ldsoftware.primavera.services;
+
+import it.ldsoftware.primavera.util.SecuredUser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Created by luca on 05/07/17.
+ * Tests the keys of the {@link UserDetailsCache}, without the database.
+ */
+public class UserDetailsCacheTest {
+
+    @Test
+    public void testLoginInAnotherCase() throws Exception {
+        UserDetailsCache cache = new UserDetailsCache(300, TimeUnit.SECONDS);
+        AtomicReference<String> password = new AtomicReference<>("old hash");
+        AtomicInteger loads = new AtomicInteger();
+        // as a database with a case insensitive collation
+        Function<String, SecuredUser> loader = login -> {
+            loads.incrementAndGet();
+            return login.equalsIgnoreCase("bob") ? SecuredUser.dummy("bob", password.get()) : null;
+        };
+
+        Assert.assertEquals("old hash", cache.get("Bob", loader).getPassword());
+        Assert.assertEquals("old hash", cache.get("BOB", loader).getPassword());
+        Assert.assertEquals(1, loads.get());
+
+        // the password changes: the user service invalidates the stored username
+        password.set("new hash");
+        cache.invalidate("bob");
+        Assert.assertEquals("new hash", cache.get("Bob", loader).getPassword());
+        Assert.assertEquals(2, loads.get());
+    }
+}
@@ -0,0 +1,172 @@
+package it.ldsoftware.primavera.test;
+
+import it.ldsoftware.primavera.presentation.base.AppPropertyDTO;
+import it.ldsoftware.primavera.presentation.enums.ContactType;
+import it.ldsoftware.primavera.presentation.enums.PropertyType;
+import it.ldsoftware.primavera.presentation.people.ContactDTO;
+import it.ldsoftware.primavera.presentation.people.PersonDTO;
+import it.ldsoftware.primavera.services.BulkResult;
+import it.ldsoftware.primavera.services.interfaces.PeopleService;
+import it.ldsoftware.primavera.services.interfaces.PropertyService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Created by luca on 16/06/17.
+ * Compares single and bulk save and delete of {@link AppPropertyDTO}s against an in-memory H2 database,
+ * and the bulk import of {@link PersonDTO}s with their contacts.
+ * Besides the time, the "statements" counter reports how many JDBC statements were prepared,
+ * that is the number of round trips to the database: divided by the "operations" counter
+ * it gives the statements needed to save or delete all the rows.
+ * Run with the main method, it is not part of the unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkOperationsBenchmark {
+
+    @Param({"200"})
+    private int rows;
+
+    private ConfigurableApplicationContext context;
+    private PropertyService service;
+    private PeopleService peopleService;
+    private Statistics statistics;
+
+    private List<AppPropertyDTO> toSave;
+    private List<PersonDTO> people;
+    private List<Long> toDelete;
+    private int round;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long statements;
+        public long operations;
+    }
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = new SpringApplicationBuilder(TestApplication.class)
+                .web(false)
+                .properties("spring.datasource.url=jdbc:h2:mem:bulk;DB_CLOSE_DELAY=-1",
+                        "spring.jpa.properties.hibernate.generate_statistics=true",
+                        "logging.level.root=WARN")
+                .run();
+        service = context.getBean(PropertyService.class);
+        peopleService = context.getBean(PeopleService.class);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareRows() {
+        round++;
+        toSave = properties("save." + round);
+        people = people("person." + round);
+        toDelete = service.saveAll(properties("delete." + round)).getSucceeded().stream()
+                .map(AppPropertyDTO::getId).collect(toList());
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public void saveOneByOne(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        toSave.forEach(service::save);
+        counters.statements += statistics.getPrepareStatementCount() - before;
+        counters.operations++;
+    }
+
+    @Benchmark
+    public BulkResult<AppPropertyDTO> saveAll(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        BulkResult<AppPropertyDTO> result = service.saveAll(toSave);
+        counters.statements += statistics.getPrepareStatementCount() - before;
+        counters.operations++;
+        return result;
+    }
+
+    @Benchmark
+    public void deleteOneByOne(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        toDelete.forEach(service::delete);
+        counters.statements += statistics.getPrepareStatementCount() - before;
+        counters.operations++;
+    }
+
+    @Benchmark
+    public BulkResult<Long> deleteAll(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        BulkResult<Long> result = service.deleteAll(toDelete);
+        counters.statements += statistics.getPrepareStatementCount() - before;
+        counters.operations++;
+        return result;
+    }
+
+    @Benchmark
+    public BulkResult<PersonDTO> savePeopleWithContacts(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        BulkResult<PersonDTO> result = peopleService.saveAll(people);
+        counters.statements += statistics.getPrepareStatementCount() - before;
+        counters.operations++;
+        return result;
+    }
+
+    private List<PersonDTO> people(String prefix) {
+        List<PersonDTO> people = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            PersonDTO person = new PersonDTO();
+            person.setFullName(prefix + "." + i);
+            person.getContacts().add(contact(ContactType.EMAIL, prefix + "." + i + "@primavera.it"));
+            person.getContacts().add(contact(ContactType.PHONE, String.valueOf(i)));
+            people.add(person);
+        }
+        return people;
+    }
+
+    private static ContactDTO contact(ContactType type, String value) {
+        ContactDTO contact = new ContactDTO();
+        contact.setContactType(type);
+        contact.setContactValue(value);
+        return contact;
+    }
+
+    private List<AppPropertyDTO> properties(String prefix) {
+        List<AppPropertyDTO> properties = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            AppPropertyDTO property = new AppPropertyDTO();
+            property.setKey(prefix + "." + i);
+            property.setPropertyType(PropertyType.LONG);
+            property.setValue((long) i);
+            properties.add(property);
+        }
+        return properties;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BulkOperationsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -1,30 +1,116 @@
 package it.ldsoftware.primavera.test;
 
+import ch.qos.logback.classic.LoggerContext;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.jpa.JPAExpressions;
+import it.ldsoftware.primavera.configuration.IdSequenceMigrator;
+import it.ldsoftware.primavera.configuration.PasswordColumnMigrator;
+import it.ldsoftware.primavera.dal.base.LogEntryDAL;
+import it.ldsoftware.primavera.dal.base.LogStackTraceDAL;
+import it.ldsoftware.primavera.dal.base.PropertyGroupDAL;
 import it.ldsoftware.primavera.dal.people.PersonDAL;
+import it.ldsoftware.primavera.dal.people.UserDAL;
+import it.ldsoftware.primavera.dal.security.GroupDAL;
+import it.ldsoftware.primavera.logging.AsyncLogAppender;
+import it.ldsoftware.primavera.logging.LogBucketMigrator;
+import it.ldsoftware.primavera.logging.LogEntryWriter;
+import it.ldsoftware.primavera.logging.LogRetentionService;
+import it.ldsoftware.primavera.logging.LogTraceMigrator;
+import it.ldsoftware.primavera.model.base.LogEntry;
+import it.ldsoftware.primavera.model.base.LogStackTrace;
+import it.ldsoftware.primavera.model.base.PropertyGroup;
+import it.ldsoftware.primavera.model.base.QLogEntry;
 import it.ldsoftware.primavera.model.people.Contact;
 import it.ldsoftware.primavera.model.people.Person;
+import it.ldsoftware.primavera.model.people.User;
 import it.ldsoftware.primavera.model.people.QContact;
 import it.ldsoftware.primavera.model.people.QPerson;
+import it.ldsoftware.primavera.model.people.QUser;
+import it.ldsoftware.primavera.model.security.Group;
+import it.ldsoftware.primavera.model.security.QGroup;
+import it.ldsoftware.primavera.model.security.GroupRole;
+import it.ldsoftware.primavera.model.security.Role;
+import it.ldsoftware.primavera.model.security.RoleModifiers;
+import it.ldsoftware.primavera.model.lang.ShortTranslation;
 import it.ldsoftware.primavera.presentation.lang.ShortTranslationDTO;
+import it.ldsoftware.primavera.presentation.people.PersonDTO;
+import it.ldsoftware.primavera.presentation.people.UserDTO;
 import it.ldsoftware.primavera.presentation.security.GroupDTO;
+import it.ldsoftware.primavera.presentation.security.RoleDTO;
 import it.ldsoftware.primavera.query.Filter;
+import it.ldsoftware.primavera.query.KeysetPage;
+import it.ldsoftware.primavera.query.Sort;
 import it.ldsoftware.primavera.query.PredicateFactory;
+import it.ldsoftware.primavera.presentation.base.AppPropertyDTO;
+import it.ldsoftware.primavera.presentation.base.LogEntryDTO;
+import it.ldsoftware.primavera.presentation.enums.PropertyType;
+import it.ldsoftware.primavera.security.AuthorityCodec;
+import it.ldsoftware.primavera.security.HashingExecutor;
+import it.ldsoftware.primavera.security.OAuth2Client;
+import it.ldsoftware.primavera.security.OAuth2Profile;
+import it.ldsoftware.primavera.security.OAuth2Provider;
+import it.ldsoftware.primavera.security.PasswordAlgorithm;
+import it.ldsoftware.primavera.security.PasswordHasher;
+import it.ldsoftware.primavera.security.RehashingAuthenticationProvider;
+import it.ldsoftware.primavera.security.RowSecurity;
+import it.ldsoftware.primavera.security.TokenService;
+import it.ldsoftware.primavera.services.BulkResult;
+import it.ldsoftware.primavera.services.DatabaseUserDetailService;
+import it.ldsoftware.primavera.services.SecurityModelChangedEvent;
 import it.ldsoftware.primavera.services.interfaces.GroupService;
+import it.ldsoftware.primavera.services.interfaces.LogService;
+import it.ldsoftware.primavera.services.interfaces.PeopleService;
+import it.ldsoftware.primavera.services.interfaces.PropertyService;
+import it.ldsoftware.primavera.services.interfaces.RoleService;
+import it.ldsoftware.primavera.services.interfaces.UserService;
+import it.ldsoftware.primavera.util.RoleRegistry;
+import it.ldsoftware.primavera.util.SecuredUser;
+import it.ldsoftware.primavera.util.UserUtil;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static it.ldsoftware.primavera.presentation.enums.ContactType.EMAIL;
 import static it.ldsoftware.primavera.presentation.enums.ContactType.PHONE;
 import static it.ldsoftware.primavera.query.FilterOperator.AND;
 import static it.ldsoftware.primavera.query.PredicateFactory.createPredicate;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.StreamSupport.stream;
@@ -48,6 +134,54 @@ public class DatabaseTest {
     @Autowired
     private PersonDAL personDAL;
 
+    @Autowired
+    private GroupDAL groupDAL;
+
+    @Autowired
+    private PropertyGroupDAL propertyGroupDAL;
+
+    @Autowired
+    private PropertyService pService;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private LogEntryDAL logEntryDAL;
+
+    @Autowired
+    private LogStackTraceDAL logStackTraceDAL;
+
+    @Autowired
+    private UserDAL userDAL;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private LogService logService;
+
+    @Autowired
+    private DatabaseUserDetailService userDetailService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private UserService uService;
+
+    @Autowired
+    private RoleService rService;
+
+    @Autowired
+    private RowSecurity rowSecurity;
+
+    @Autowired
+    private PeopleService peService;
+
     @Test
     public void contextLoads() {
 
@@ -104,6 +238,814 @@ public class DatabaseTest {
         Assert.assertEquals(1, auto.size());
     }
 
+    @Test
+    public void nestedPathTest() throws Exception {
+        Person person = new Person();
+        person.addContact(new Contact().withContactType(EMAIL).withValue("nested@ldsoftware.it"));
+        person.setName("Nested");
+        person.setSurname("Path");
+        person.setFullName("Nested Path");
+
+        personDAL.save(person);
+
+        List<Filter> filters = Arrays.asList(
+                new Filter("contacts.contactValue", "nested@%", false, AND),
+                new Filter("fullName", "Nested Path", false, AND));
+        List<Person> found = stream(personDAL.findAll(createPredicate(Person.class, filters)).spliterator(), false)
+                .collect(toList());
+
+        Assert.assertEquals(1, found.size());
+    }
+
+    @Test
+    public void selfReferencePathTest() throws Exception {
+        for (String father : Arrays.asList("Self father", "Other father")) {
+            PropertyGroup group = new PropertyGroup();
+            group.setGroupName(father);
+            group = propertyGroupDAL.save(group);
+            for (int i = 0; i < (father.startsWith("Self") ? 2 : 1); i++) {
+                PropertyGroup child = new PropertyGroup();
+                child.setGroupName(father + " child " + i);
+                child.setFather(group);
+                propertyGroupDAL.save(child);
+            }
+        }
+
+        Predicate predicate = createPredicate(PropertyGroup.class,
+                singletonList(new Filter("father.groupName", "Self father", false, AND)));
+        List<PropertyGroup> found = stream(propertyGroupDAL.findAll(predicate).spliterator(), false)
+                .collect(toList());
+
+        Assert.assertEquals(2, found.size());
+        Assert.assertTrue(found.stream().allMatch(g -> g.getGroupName().startsWith("Self father child")));
+    }
+
+    @Test
+    public void keysetTest() throws Exception {
+        for (String surname : Arrays.asList("Delta", "Alpha", "Echo", "Charlie", "Bravo", "Alpha")) {
+            Person person = new Person();
+            person.setName("Keyset");
+            person.setSurname(surname);
+            person.setFullName("Keyset " + surname);
+            personDAL.save(person);
+        }
+
+        Predicate predicate = createPredicate(Person.class, singletonList(new Filter("name", "Keyset", false, AND)));
+        Sort sort = new Sort("surname", true);
+
+        List<String> surnames = new ArrayList<>();
+        KeysetPage<Person> page = personDAL.findAll(predicate, sort, null, 4);
+        page.getContent().forEach(p -> surnames.add(p.getSurname()));
+        Assert.assertTrue(page.hasNext());
+
+        page = personDAL.findAll(predicate, sort, page.getNext(), 4);
+        page.getContent().forEach(p -> surnames.add(p.getSurname()));
+        Assert.assertFalse(page.hasNext());
+
+        Assert.assertEquals(Arrays.asList("Alpha", "Alpha", "Bravo", "Charlie", "Delta", "Echo"), surnames);
+    }
+
+    @Test
+    public void forEachTest() throws Exception {
+        for (int i = 0; i < 7; i++) {
+            GroupDTO group = new GroupDTO();
+            group.setCode("STREAM_" + i);
+            group.addTranslation("it", new ShortTranslationDTO().withContent(CAPTION_1));
+            gService.save(group);
+        }
+
+        Predicate predicate = createPredicate(Group.class, singletonList(new Filter("code", "STREAM_%", false, AND)));
+        List<String> codes = new ArrayList<>();
+        gService.forEachBy(predicate, 3, g -> codes.add(g.getCode()));
+
+        Assert.assertEquals(7, codes.size());
+
+        // the context is cleared after each batch, and at the end
+        new TransactionTemplate(transactionManager).execute(status -> {
+            EntityManager em = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+            List<Group> seen = new ArrayList<>();
+            List<Boolean> previousManaged = new ArrayList<>();
+            groupDAL.forEach(predicate, 3, g -> {
+                if (!seen.isEmpty())
+                    previousManaged.add(em.contains(seen.get(seen.size() - 1)));
+                seen.add(g);
+            });
+            Assert.assertEquals(Arrays.asList(true, true, false, true, true, false), previousManaged);
+            Assert.assertFalse(em.contains(seen.get(6)));
+            return null;
+        });
+
+        // the changes pending in the transaction of the caller, on tables the reads do not flush, survive them
+        for (boolean service : new boolean[]{true, false}) {
+            String name = "Pending export " + service;
+            new TransactionTemplate(transactionManager).execute(status -> {
+                PropertyGroup pending = new PropertyGroup();
+                pending.setGroupName(name);
+                propertyGroupDAL.save(pending);
+                if (service)
+                    gService.forEachBy(predicate, 3, g -> { });
+                else
+                    groupDAL.forEach(predicate, 3, g -> { });
+                return null;
+            });
+            Assert.assertNotNull(name, propertyGroupDAL.findOne(createPredicate(PropertyGroup.class,
+                    singletonList(new Filter("groupName", name, false, AND)))));
+        }
+
+        try {
+            groupDAL.forEach(predicate, 0, g -> Assert.fail("Read with a batch size of 0"));
+            Assert.fail("Batch size of 0 accepted");
+        } catch (InvalidDataAccessApiUsageException e) {
+            // the repository translates the IllegalArgumentException
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+    @Test
+    public void bulkTest() throws Exception {
+        List<AppPropertyDTO> properties = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            AppPropertyDTO property = new AppPropertyDTO();
+            property.setKey("bulk.property." + i);
+            property.setPropertyType(PropertyType.INTEGER);
+            property.setValue(i);
+            properties.add(property);
+        }
+
+        BulkResult<AppPropertyDTO> saved = pService.saveAll(properties);
+        Assert.assertFalse(saved.hasFailures());
+        Assert.assertEquals(120, saved.getSucceeded().size());
+
+        List<Long> ids = saved.getSucceeded().stream().map(AppPropertyDTO::getId).collect(toList());
+        ids.add(3, -1L);
+        BulkResult<Long> deleted = pService.deleteAll(ids);
+        Assert.assertEquals(120, deleted.getSucceeded().size());
+        Assert.assertEquals(singletonList(3), new ArrayList<>(deleted.getFailures().keySet()));
+        Assert.assertNull(pService.findOne(ids.get(0)));
+
+        GroupDTO group = new GroupDTO();
+        group.setCode("BULK");
+        group.addTranslation("it", new ShortTranslationDTO().withContent(CAPTION_1));
+        BulkResult<GroupDTO> groups = gService.saveAll(singletonList(group));
+        BulkResult<Long> deletedGroups = gService.deleteAll(Arrays.asList(-1L, groups.getSucceeded().get(0).getId()));
+        Assert.assertEquals(1, deletedGroups.getSucceeded().size());
+        Assert.assertEquals(singletonList(0), new ArrayList<>(deletedGroups.getFailures().keySet()));
+    }
+
+    @Test
+    public void idMigrationTest() throws Exception {
+        AppPropertyDTO property = new AppPropertyDTO();
+        property.setKey("migration.property");
+        property.setPropertyType(PropertyType.INTEGER);
+        property.setValue(1);
+        pService.save(property);
+
+        // a database coming from identity columns has the new sequences starting from 1
+        jdbcTemplate.execute("alter sequence zz_properties_seq restart with 1");
+
+        IdSequenceMigrator migrator = new IdSequenceMigrator(entityManagerFactory);
+        Assert.assertTrue(migrator.migrate().contains("zz_properties_seq"));
+        Assert.assertFalse(migrator.migrate().contains("zz_properties_seq"));
+    }
+
+    @Test
+    public void asyncLogTest() throws Exception {
+        long entries = logEntryDAL.count(), traces = logStackTraceDAL.count();
+
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        AsyncLogAppender appender = new AsyncLogAppender();
+        appender.setContext(context);
+        appender.setBatchSize(20);
+        try {
+            appender.setSampleRate(0);
+            Assert.fail("Sample rate 0 accepted");
+        } catch (IllegalArgumentException ignored) {
+        }
+        appender.setWriter(new LogEntryWriter(logEntryDAL, logStackTraceDAL, userDAL, transactionManager));
+        appender.start();
+
+        ch.qos.logback.classic.Logger logger = context.getLogger("it.ldsoftware.primavera.test.async");
+        logger.setAdditive(false);
+        logger.addAppender(appender);
+        Exception storm = new IllegalStateException("storm");
+        for (int i = 0; i < 50; i++) {
+            logger.error("Error " + i, storm);
+        }
+        logger.detachAppender(appender);
+        appender.stop();
+
+        Assert.assertEquals(0, appender.getQueueDepth());
+        Assert.assertEquals(50, appender.getWritten());
+        Assert.assertEquals(0, appender.getDropped());
+        Assert.assertEquals(entries + 50, logEntryDAL.count());
+        Assert.assertEquals(traces + 1, logStackTraceDAL.count());
+    }
+
+    @Test
+    public void logRetentionTest() throws Exception {
+        for (int daysAgo : new int[]{100, 100, 45, 0}) {
+            LogEntryDTO entry = new LogEntryDTO();
+            entry.setLogDate(LocalDateTime.now().minusDays(daysAgo));
+            entry.setLoggingLevel("ERROR");
+            entry.setLogger("retention");
+            entry.setMessage("Expired " + daysAgo);
+            entry.setStackTrace("retention trace " + daysAgo);
+            logService.save(entry);
+        }
+        long traces = logStackTraceDAL.count();
+
+        LogRetentionService retention = new LogRetentionService(entityManagerFactory, transactionManager);
+        retention.setMode(LogRetentionService.Mode.ARCHIVE);
+        retention.setChunkSize(2);
+        retention.setKeep(30);
+
+        Assert.assertEquals(3, retention.removeExpired());
+        // archived entries still reference their stack traces
+        Assert.assertEquals(traces, logStackTraceDAL.count());
+        Assert.assertEquals(3L, (long) jdbcTemplate.queryForObject(
+                "select count(*) from zz_log_archive where logger = 'retention'", Long.class));
+        Assert.assertEquals(1, logService.findBy(QLogEntry.logEntry.logger.eq("retention")).size());
+        Assert.assertEquals(0, retention.removeExpired());
+    }
+
+    @Test
+    public void logBucketMigrationTest() throws Exception {
+        LogEntryDTO entry = new LogEntryDTO();
+        entry.setLogDate(LocalDateTime.now().minusDays(2));
+        entry.setLoggingLevel("ERROR");
+        entry.setLogger("bucket");
+        entry.setMessage("Before the bucket");
+        logService.save(entry);
+        // as if written before the column existed
+        jdbcTemplate.update("update zz_log set log_bucket = null where logger = 'bucket'");
+
+        Predicate range = createPredicate(LogEntry.class, Arrays.asList(
+                new Filter("logDateFrom", LocalDateTime.now().minusDays(3), false, AND),
+                new Filter("logDateTo", LocalDateTime.now(), false, AND)));
+        Predicate bucketed = QLogEntry.logEntry.logger.eq("bucket").and(range);
+        Assert.assertEquals(1, logService.findBy(bucketed).size());
+
+        LogBucketMigrator migrator = new LogBucketMigrator(entityManagerFactory, transactionManager);
+        migrator.setChunkSize(1);
+        Assert.assertTrue(migrator.migrate() >= 1);
+        Assert.assertEquals(0, migrator.migrate());
+        Assert.assertEquals(LocalDateTime.now().minusDays(2).toLocalDate().toEpochDay(), (long) jdbcTemplate
+                .queryForObject("select log_bucket from zz_log where logger = 'bucket'", Long.class));
+        Assert.assertEquals(1, logService.findBy(bucketed).size());
+    }
+
+    @Test
+    public void logTraceMigrationTest() throws Exception {
+        LogTraceMigrator migrator = new LogTraceMigrator(entityManagerFactory, transactionManager);
+        // the column is not there on a new database
+        Assert.assertEquals(0, migrator.migrate());
+
+        LogEntryDTO entry = new LogEntryDTO();
+        entry.setLogDate(LocalDateTime.now());
+        entry.setLoggingLevel("ERROR");
+        entry.setLogger("trace");
+        entry.setMessage("Before the traces");
+        logService.save(entry);
+        logService.save(entry);
+        // as if written before the stack traces had their own table
+        jdbcTemplate.execute("alter table zz_log add column stack_trace clob");
+        try {
+            jdbcTemplate.update("update zz_log set stack_trace = 'at Old.trace(Old.java:1)' where logger = 'trace'");
+            long traces = logStackTraceDAL.count();
+
+            migrator.setChunkSize(1);
+            Assert.assertEquals(2, migrator.migrate());
+            Assert.assertEquals(0, migrator.migrate());
+            Assert.assertEquals(traces + 1, logStackTraceDAL.count());
+            LogStackTrace trace = logStackTraceDAL.findByHash(LogStackTrace.hashOf("at Old.trace(Old.java:1)"));
+            Assert.assertEquals(2, (long) jdbcTemplate.queryForObject(
+                    "select count(*) from zz_log where logger = 'trace' and trace_id = ? and stack_trace is null",
+                    Long.class, trace.getId()));
+        } finally {
+            jdbcTemplate.execute("alter table zz_log drop column stack_trace");
+        }
+    }
+
+    @Test
+    public void propertyCacheTest() throws Exception {
+        AppPropertyDTO property = new AppPropertyDTO();
+        property.setKey("cache.property");
+        property.setPropertyType(PropertyType.STRING);
+        property.setValue("first");
+        property = pService.save(property);
+        Assert.assertEquals("first", pService.findByKey("cache.property").getValue());
+
+        // not seen: the value comes from the cache
+        jdbcTemplate.update("update zz_properties set string_val = 'outside' where id = ?", property.getId());
+        Assert.assertEquals("first", pService.findByKey("cache.property").getValue());
+
+        property.setValue("second");
+        pService.save(property);
+        Assert.assertEquals("second", pService.findByKey("cache.property").getValue());
+
+        pService.delete(property.getId());
+        Assert.assertNull(pService.findByKey("cache.property"));
+    }
+
+    @Test
+    public void typedPropertyTest() throws Exception {
+        AppPropertyDTO flag = new AppPropertyDTO();
+        flag.setKey("typed.flag");
+        flag.setPropertyType(PropertyType.BOOLEAN);
+        flag.setValue(true);
+        flag = pService.save(flag);
+
+        AppPropertyDTO limit = new AppPropertyDTO();
+        limit.setKey("typed.limit");
+        limit.setPropertyType(PropertyType.INTEGER);
+        limit.setValue(42);
+        pService.save(limit);
+
+        AppPropertyDTO big = new AppPropertyDTO();
+        big.setKey("typed.big");
+        big.setPropertyType(PropertyType.LONG);
+        big.setValue(Integer.MAX_VALUE + 1L);
+        pService.save(big);
+
+        AppPropertyDTO json = new AppPropertyDTO();
+        json.setKey("typed.json");
+        json.setPropertyType(PropertyType.JSON);
+        json.setValue("{\"a\": 1, \"b\": \"two\"}");
+        pService.save(json);
+
+        Assert.assertTrue(pService.getBoolean("typed.flag", false));
+        Assert.assertEquals(42, pService.getInt("typed.limit", 0));
+        Assert.assertEquals(42L, pService.getLong("typed.limit", 0));
+        Assert.assertEquals(7, pService.getInt("typed.flag", 7));
+        Assert.assertEquals(3, pService.getInt("typed.missing", 3));
+        // not truncated
+        Assert.assertEquals(5, pService.getInt("typed.big", 5));
+        Assert.assertEquals(Integer.MAX_VALUE + 1L, pService.getLong("typed.big", 0));
+        Map<?, ?> parsed = pService.getJson("typed.json", Map.class);
+        Assert.assertEquals("two", parsed.get("b"));
+        Assert.assertSame(parsed, pService.getJson("typed.json", Map.class));
+
+        // not seen: the value comes from the snapshot
+        jdbcTemplate.update("update zz_properties set bool_val = false where id = ?", flag.getId());
+        Assert.assertTrue(pService.getBoolean("typed.flag", false));
+
+        flag.setValue(false);
+        pService.save(flag);
+        Assert.assertFalse(pService.getBoolean("typed.flag", true));
+    }
+
+    @Test
+    public void userDetailsCacheTest() throws Exception {
+        Long userId = new TransactionTemplate(transactionManager).execute(status -> {
+            EntityManager em = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+            Role role = new Role();
+            role.setCode("ROLE_CACHED");
+            em.persist(role);
+
+            Group group = new Group();
+            group.setCode("CACHED_GROUP");
+            em.persist(group);
+            GroupRole groupRole = new GroupRole();
+            groupRole.setGroup(group);
+            groupRole.setRole(role);
+            groupRole.setModifiers(new RoleModifiers());
+            groupRole.getModifiers().setEdit(true);
+            em.persist(groupRole);
+
+            User user = new User();
+            user.setUsername("cached");
+            user.setPrimaryEmail("cached@example.com");
+            user.setPassword("password");
+            user.setFullName("Cached User");
+            user.setEnabled(true);
+            user.addGroups(group);
+            em.persist(user);
+            return user.getId();
+        });
+
+        UserDetails details = userDetailService.loadUserByUsername("cached@example.com");
+        Assert.assertTrue(details.isEnabled());
+        Assert.assertEquals(Arrays.asList("ROLE_CACHED", "ROLE_CACHED_E"),
+                details.getAuthorities().stream().map(GrantedAuthority::getAuthority).sorted().collect(toList()));
+
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(details, null));
+        try {
+            Assert.assertTrue(UserUtil.isCurrentUserEnabled("ROLE_CACHED_E"));
+            Assert.assertTrue(UserUtil.isCurrentUserEnabled(RoleRegistry.register("ROLE_CACHED")));
+            Assert.assertFalse(UserUtil.isCurrentUserEnabled("ROLE_CACHED_D"));
+            Assert.assertFalse(UserUtil.isCurrentUserSuperAdmin());
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+
+        // not seen: the user comes from the cache
+        jdbcTemplate.update("update fw_users set enabled = false where id = ?", userId);
+        Assert.assertTrue(userDetailService.loadUserByUsername("cached@example.com").isEnabled());
+
+        eventPublisher.publishEvent(SecurityModelChangedEvent.forLogins(this, singletonList("cached@example.com")));
+        Assert.assertFalse(userDetailService.loadUserByUsername("cached@example.com").isEnabled());
+
+        // a change to a group reloads its authorities and clears all the users
+        jdbcTemplate.update("update fw_group_roles set edit = false");
+        Long groupId = jdbcTemplate.queryForObject("select id from fw_groups where code = 'CACHED_GROUP'", Long.class);
+        eventPublisher.publishEvent(SecurityModelChangedEvent.forGroups(this, singletonList(groupId)));
+        Assert.assertEquals(singletonList("ROLE_CACHED"), userDetailService.loadUserByUsername("cached")
+                .getAuthorities().stream().map(GrantedAuthority::getAuthority).collect(toList()));
+    }
+
+    @Test
+    public void passwordRehashTest() throws Exception {
+        PasswordHasher bcrypt = new PasswordHasher(PasswordAlgorithm.BCRYPT, 4, 1000, "", new HashingExecutor(1, 4, 5000));
+        PasswordHasher pbkdf2 = new PasswordHasher(PasswordAlgorithm.PBKDF2, 4, 1000, "", new HashingExecutor(1, 4, 5000));
+        try {
+            User user = new User();
+            user.setUsername("rehashed");
+            user.setPrimaryEmail("rehashed@example.com");
+            user.setPassword(bcrypt.encode("secret"));
+            user.setFullName("Rehashed User");
+            user.setEnabled(true);
+            userDAL.save(user);
+
+            Assert.assertFalse(bcrypt.needsRehash(user.getPassword()));
+            Assert.assertTrue(pbkdf2.needsRehash(user.getPassword()));
+
+            RehashingAuthenticationProvider provider = new RehashingAuthenticationProvider(userDetailService, pbkdf2, uService);
+            provider.authenticate(new UsernamePasswordAuthenticationToken("rehashed", "secret"));
+
+            // the executor has a single thread: once this runs, the rehash is done
+            pbkdf2.getExecutor().call(() -> null);
+            String hash = jdbcTemplate.queryForObject("select password from fw_users where username = 'rehashed'",
+                    String.class);
+            Assert.assertTrue(hash.startsWith("{pbkdf2:1000}"));
+            Assert.assertTrue(pbkdf2.matches("secret", hash));
+            Assert.assertFalse(pbkdf2.needsRehash(hash));
+
+            // the cached user was discarded, the new hash is used from now on
+            Assert.assertEquals(hash, userDetailService.loadUserByUsername("rehashed").getPassword());
+            provider.authenticate(new UsernamePasswordAuthenticationToken("rehashed", "secret"));
+        } finally {
+            bcrypt.shutdown();
+            pbkdf2.shutdown();
+        }
+    }
+
+    @Test
+    public void passwordColumnTest() throws Exception {
+        PasswordColumnMigrator migrator = new PasswordColumnMigrator(entityManagerFactory);
+        Assert.assertEquals(PasswordColumnMigrator.LENGTH, migrator.columnSize());
+        Assert.assertFalse(migrator.check(200, false));
+
+        int longest = jdbcTemplate.queryForObject("select coalesce(max(length(password)), 0) from fw_users",
+                Integer.class);
+        // as if created for the BCrypt hashes only
+        jdbcTemplate.execute("alter table fw_users alter column password varchar(" + Math.max(60, longest) + ") not null");
+        try {
+            migrator.check(PasswordColumnMigrator.LENGTH, false);
+            Assert.fail("Too short password column accepted");
+        } catch (IllegalStateException ignored) {
+        }
+        Assert.assertTrue(migrator.check(PasswordColumnMigrator.LENGTH, true));
+        Assert.assertEquals(PasswordColumnMigrator.LENGTH, migrator.columnSize());
+    }
+
+    @Test
+    public void tokenTest() throws Exception {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            Role role = new Role();
+            role.setCode("ROLE_TOKEN");
+            EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory).persist(role);
+            return role.getId();
+        });
+        byte[] key = new byte[32];
+        Arrays.fill(key, (byte) 7);
+        TokenService tokens = new TokenService(key, 15, TimeUnit.MINUTES, new AuthorityCodec(rService));
+
+        SecuredUser user = SecuredUser.authenticated(42L, "tokenuser", Arrays.asList(
+                new SimpleGrantedAuthority("ROLE_TOKEN"), new SimpleGrantedAuthority("ROLE_TOKEN_E"),
+                new SimpleGrantedAuthority("ROLE_NOT_IN_DATABASE")));
+        String token = tokens.issue(user);
+
+        Authentication authentication = tokens.authenticate(token);
+        Assert.assertNotNull(authentication);
+        SecuredUser principal = (SecuredUser) authentication.getPrincipal();
+        Assert.assertEquals("tokenuser", principal.getUsername());
+        Assert.assertEquals(Long.valueOf(42), principal.getId());
+        Assert.assertEquals(Arrays.asList("ROLE_TOKEN", "ROLE_TOKEN_E"), principal.getAuthorities().stream()
+                .map(GrantedAuthority::getAuthority).sorted().collect(toList()));
+
+        char last = token.charAt(10);
+        Assert.assertNull(tokens.authenticate(token.substring(0, 10) + (last == 'A' ? 'B' : 'A') + token.substring(11)));
+        Arrays.fill(key, (byte) 8);
+        Assert.assertNull(new TokenService(key, 15, TimeUnit.MINUTES, new AuthorityCodec(rService)).authenticate(token));
+
+        String other = tokens.issue(user);
+        // a logout cookie that is not signed by us revokes nothing
+        tokens.revoke(other.substring(0, other.indexOf('.')) + ".AAAA");
+        Assert.assertNotNull(tokens.authenticate(other));
+        tokens.revoke(token);
+        Assert.assertNull(tokens.authenticate(token));
+        Assert.assertNotNull(tokens.authenticate(other));
+
+        tokens.revokeUser("TokenUser");
+        Assert.assertNull(tokens.authenticate(other));
+        Thread.sleep(2);
+        Assert.assertNotNull(tokens.authenticate(tokens.issue(user)));
+    }
+
+    @Test
+    public void oauth2ClientTest() throws Exception {
+        OAuth2Client client = new OAuth2Client(2, 4, 1000, 300);
+        try (StubOAuth2Provider stub = new StubOAuth2Provider()) {
+            OAuth2Provider provider = stub.provider();
+            for (int i = 0; i < 5; i++) {
+                OAuth2Profile profile = client.fetchProfile(provider, StubOAuth2Provider.CODE,
+                        "http://localhost/callback").get(5, TimeUnit.SECONDS);
+                Assert.assertEquals("42", profile.getId());
+                Assert.assertEquals("stub@example.com", profile.getEmail());
+                Assert.assertEquals("Stub", profile.getGivenName());
+                Assert.assertEquals("User", profile.getFamilyName());
+                Assert.assertEquals("http://example.com/stub.png", profile.getPictureUrl());
+            }
+            // ten calls on kept alive connections
+            Assert.assertTrue(stub.getConnections() <= 2);
+
+            try {
+                client.fetchProfile(provider, "bad-code", "http://localhost/callback").get(5, TimeUnit.SECONDS);
+                Assert.fail("Profile read with a refused code");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof AuthenticationServiceException);
+            }
+
+            stub.setDelayMillis(1000);
+            CompletableFuture<OAuth2Profile> slow = client.fetchProfile(provider, StubOAuth2Provider.CODE,
+                    "http://localhost/callback");
+            Assert.assertFalse(slow.isDone());
+            try {
+                slow.get(5, TimeUnit.SECONDS);
+                Assert.fail("Slow provider did not time out");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof AuthenticationServiceException);
+            }
+            Assert.assertEquals(5, client.getCompleted());
+            Assert.assertEquals(2, client.getFailed());
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void rowSecurityTest() throws Exception {
+        Map<String, Long> ids = new HashMap<>();
+        for (String code : Arrays.asList("ROW_NORTH_1", "ROW_NORTH_2", "ROW_SOUTH_1")) {
+            GroupDTO group = new GroupDTO();
+            group.setCode(code);
+            group.addTranslation("it", new ShortTranslationDTO().withContent(CAPTION_1));
+            ids.put(code, gService.save(group).getId());
+        }
+        QGroup g = QGroup.group;
+        rowSecurity.allow(Group.class, "ROLE_ROW_NORTH", g.code.like("ROW_NORTH%"))
+                .allow(Group.class, "ROLE_ROW_OWN", user -> g.code.eq("ROW_" + user.getUsername().toUpperCase() + "_1"))
+                .allowAll(Group.class, "ROLE_ROW_ALL");
+        Predicate rows = g.code.like("ROW_%");
+        try {
+            // without an authentication nothing is read, unless running as system
+            Assert.assertEquals(0, gService.findBy(rows).size());
+            Assert.assertEquals(3, RowSecurity.runAsSystem(() -> gService.findBy(rows)).size());
+            SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                    "a string principal", null, singletonList(new SimpleGrantedAuthority("ROLE_ROW_ALL"))));
+            Assert.assertEquals(0, gService.findBy(rows).size());
+            SecurityContextHolder.clearContext();
+            Assert.assertEquals(2, findGroupsAs("north", rows, "ROLE_ROW_NORTH").size());
+            Assert.assertEquals(1, findGroupsAs("south", rows, "ROLE_ROW_OWN").size());
+            Assert.assertEquals(3, findGroupsAs("south", rows, "ROLE_ROW_NORTH", "ROLE_ROW_OWN").size());
+            Assert.assertEquals(0, findGroupsAs("nobody", rows).size());
+            Assert.assertEquals(3, findGroupsAs("all", rows, "ROLE_ROW_ALL").size());
+            Assert.assertEquals(3, findGroupsAs("admin", rows, UserUtil.ROLE_SUPERADMIN).size());
+            // unfiltered reads are restricted too
+            Assert.assertEquals(Arrays.asList("ROW_NORTH_1", "ROW_NORTH_2"), findGroupsAs("north", null, "ROLE_ROW_NORTH")
+                    .stream().map(GroupDTO::getCode).sorted().collect(toList()));
+
+            SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                    SecuredUser.authenticated(null, "north", singletonList(new SimpleGrantedAuthority("ROLE_ROW_NORTH"))),
+                    null));
+            Assert.assertNotNull(gService.findOne(ids.get("ROW_NORTH_1")));
+            Assert.assertNull(gService.findOne(ids.get("ROW_SOUTH_1")));
+        } finally {
+            SecurityContextHolder.clearContext();
+            rowSecurity.clear(Group.class);
+        }
+    }
+
+    @Test
+    public void projectionTest() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            User user = new User();
+            user.setUsername("projected" + i);
+            user.setFullName("Projected " + i);
+            user.setPassword("secret");
+            user.setPrimaryEmail("projected" + i + "@ldsoftware.it");
+            user.setEnabled(i > 0);
+            user.addContact(new Contact().withContactType(EMAIL).withValue("projected" + i + "@ldsoftware.it"));
+            userDAL.save(user);
+        }
+
+        QUser u = QUser.user;
+        List<UserDTO> users = uService.projectBy(u.username.like("projected%"));
+        Assert.assertEquals(3, users.size());
+        UserDTO first = users.stream().filter(dto -> dto.getUsername().equals("projected0")).findFirst()
+                .orElseThrow(AssertionError::new);
+        Assert.assertTrue(first.getId() > 0);
+        Assert.assertEquals("Projected 0", first.getFullName());
+        Assert.assertEquals("projected0@ldsoftware.it", first.getPrimaryEmail());
+        Assert.assertFalse(first.isEnabled());
+        // only columns are projected
+        Assert.assertTrue(first.getContacts().isEmpty());
+        Assert.assertNull(first.getPassword());
+
+        Page<UserDTO> page = uService.projectBy(u.username.like("projected%"),
+                new PageRequest(0, 2, Direction.DESC, "username"));
+        Assert.assertEquals(3, page.getTotalElements());
+        Assert.assertEquals(Arrays.asList("projected2", "projected1"),
+                page.getContent().stream().map(UserDTO::getUsername).collect(toList()));
+    }
+
+    @Test
+    public void fetchPlanTest() throws Exception {
+        new TransactionTemplate(transactionManager).execute(status -> {
+            EntityManager em = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+            List<Role> roles = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                Role role = new Role();
+                role.setCode("ROLE_PLAN_" + i);
+                em.persist(role);
+                roles.add(role);
+            }
+            for (int i = 0; i < 15; i++) {
+                Group group = new Group();
+                group.setCode("PLAN_" + i);
+                group.addTranslation("it", new ShortTranslation().withContent(CAPTION_1));
+                em.persist(group);
+                for (int r = i % 2; r < roles.size(); r++) {
+                    GroupRole groupRole = new GroupRole();
+                    groupRole.setGroup(group);
+                    groupRole.setRole(roles.get(r));
+                    groupRole.setModifiers(new RoleModifiers());
+                    em.persist(groupRole);
+                }
+
+                Person person = new Person();
+                person.setName("Plan");
+                person.setSurname("Person " + i);
+                person.setFullName("Plan Person " + i);
+                person.addContact(new Contact().withContactType(EMAIL).withValue("plan" + i + "@ldsoftware.it"));
+                person.addContact(new Contact().withContactType(EMAIL).withValue("plan" + i + "@example.com"));
+                em.persist(person);
+            }
+            return null;
+        });
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            // a page costs the same number of statements whatever its size: rows, count and a batch per collection
+            statistics.clear();
+            Page<GroupDTO> groups = gService.findBy(QGroup.group.code.like("PLAN_%"), new PageRequest(0, 5));
+            Assert.assertEquals(5, groups.getContent().size());
+            long fewRows = statistics.getPrepareStatementCount();
+
+            statistics.clear();
+            groups = gService.findBy(QGroup.group.code.like("PLAN_%"), new PageRequest(0, 15));
+            Assert.assertEquals(15, groups.getContent().size());
+            Assert.assertTrue(groups.getContent().stream().allMatch(g -> !g.getRoles().isEmpty()));
+            Assert.assertEquals(fewRows, statistics.getPrepareStatementCount());
+
+            statistics.clear();
+            Page<PersonDTO> people = peService.findBy(QPerson.person.name.eq("Plan"), new PageRequest(0, 15));
+            Assert.assertEquals(15, people.getContent().size());
+            Assert.assertTrue(people.getContent().stream().allMatch(p -> p.getContacts().size() == 2));
+            Assert.assertTrue(statistics.getPrepareStatementCount() <= 3);
+
+            // the editor graph loads the person with the contacts in one statement
+            statistics.clear();
+            PersonDTO person = peService.findOne(people.getContent().get(0).getId());
+            Assert.assertEquals(2, person.getContacts().size());
+            Assert.assertEquals(1, statistics.getPrepareStatementCount());
+
+            // also when the rows are restricted
+            rowSecurity.allow(Person.class, "ROLE_PLAN", QPerson.person.name.eq("Plan"));
+            SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                    SecuredUser.authenticated(null, "plan", singletonList(new SimpleGrantedAuthority("ROLE_PLAN"))),
+                    null));
+            statistics.clear();
+            person = peService.findOne(people.getContent().get(1).getId());
+            Assert.assertEquals(2, person.getContacts().size());
+            Assert.assertEquals(1, statistics.getPrepareStatementCount());
+        } finally {
+            SecurityContextHolder.clearContext();
+            rowSecurity.clear(Person.class);
+            statistics.setStatisticsEnabled(false);
+        }
+    }
+
+    @Test
+    public void lookupLanguageTest() throws Exception {
+        GroupDTO dto = new GroupDTO();
+        dto.setCode("LANGUAGE_GROUP");
+        dto.setDefaultLang("it");
+        dto.addTranslation("it", new ShortTranslationDTO().withContent("Gruppo"));
+        dto.addTranslation("en", new ShortTranslationDTO().withContent("Group"));
+        dto.addTranslation("de", new ShortTranslationDTO().withContent("Gruppe"));
+        gService.save(dto);
+
+        Predicate predicate = QGroup.group.code.eq("LANGUAGE_GROUP");
+        GroupDTO english = gService.findBy(predicate, new PageRequest(0, 15), "en").getContent().get(0);
+        Assert.assertEquals(new HashSet<>(Arrays.asList("en", "it")), english.getTranslations().keySet());
+        Assert.assertEquals("Group", english.getDescription());
+        Assert.assertEquals("en", english.getTranslations().get("en").getLanguage());
+
+        // not translated: only the default language is read
+        GroupDTO french = gService.findBy(predicate, new PageRequest(0, 15), "fr").getContent().get(0);
+        Assert.assertEquals(singleton("it"), french.getTranslations().keySet());
+        Assert.assertEquals("Gruppo", french.getDescription());
+    }
+
+    @Test
+    public void lookupCacheTest() throws Exception {
+        long groupId = new TransactionTemplate(transactionManager).execute(status -> {
+            EntityManager em = EntityManagerFactoryUtils.getTransactionalEntityManager(entityManagerFactory);
+            Role role = new Role();
+            role.setCode("ROLE_LOOKUP");
+            role.setDefaultLang("en");
+            role.addTranslation("en", new ShortTranslation().withContent("Lookup"));
+            em.persist(role);
+
+            Group group = new Group();
+            group.setCode("LOOKUP_GROUP");
+            group.setDefaultLang("it");
+            group.addTranslation("it", new ShortTranslation().withContent("Gruppo"));
+            group.addTranslation("en", new ShortTranslation().withContent("Group"));
+            em.persist(group);
+            GroupRole groupRole = new GroupRole();
+            groupRole.setGroup(group);
+            groupRole.setRole(role);
+            groupRole.setModifiers(new RoleModifiers());
+            em.persist(groupRole);
+            return group.getId();
+        });
+        // changed without the services, as the cached lookups may have been read by other tests
+        eventPublisher.publishEvent(SecurityModelChangedEvent.all(this));
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        try {
+            // inside a transaction the lookups are read from the database, and not loaded in the cache
+            for (int i = 0; i < 2; i++) {
+                statistics.clear();
+                long found = new TransactionTemplate(transactionManager).execute(status ->
+                        gService.findByCode("LOOKUP_GROUP").getId());
+                Assert.assertEquals(groupId, found);
+                Assert.assertNotEquals(0, statistics.getPrepareStatementCount());
+            }
+
+            gService.findByCode("LOOKUP_GROUP");
+            statistics.clear();
+            GroupDTO cached = gService.findByCode("LOOKUP_GROUP");
+            Assert.assertEquals(groupId, cached.getId());
+            Assert.assertEquals(1, cached.getRoles().size());
+            Assert.assertEquals("LOOKUP_GROUP", gService.findOne(groupId).getCode());
+            Assert.assertTrue(gService.existsByCode("LOOKUP_GROUP"));
+            Assert.assertFalse(gService.existsByCode("MISSING_GROUP"));
+            Assert.assertEquals("Group", gService.findDescription(groupId, "en"));
+            Assert.assertEquals("Gruppo", gService.findDescription(groupId, "fr"));
+            Assert.assertEquals(0, statistics.getPrepareStatementCount());
+
+            // the views can be changed without affecting the cache
+            cached.getTranslations().clear();
+            Assert.assertEquals(2, gService.findByCode("LOOKUP_GROUP").getTranslations().size());
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+
+        // a save discards the cached roles, and the cached groups that hold them
+        RoleDTO role = rService.findByRoleName("ROLE_LOOKUP");
+        role.addTranslation("en", new ShortTranslationDTO().withContent("Cached lookup"));
+        rService.save(role);
+        Assert.assertEquals("Cached lookup", rService.findDescription(role.getId(), "en"));
+        Assert.assertEquals("Cached lookup",
+                gService.findByCode("LOOKUP_GROUP").getRoles().get(0).getTranslations().get("en").getDescription());
+    }
+
+    private List<GroupDTO> findGroupsAs(String username, Predicate predicate, String... roles) {
+        List<GrantedAuthority> authorities = Arrays.stream(roles).map(SimpleGrantedAuthority::new).collect(toList());
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken(
+                SecuredUser.authenticated(null, username, authorities), null));
+        try {
+            return predicate == null ? gService.findAll() : gService.findBy(predicate);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
     public void testExample() throws Exception {
         Person p = new Person();
         PredicateFactory.getFiltersByEntity(Person.class, p);
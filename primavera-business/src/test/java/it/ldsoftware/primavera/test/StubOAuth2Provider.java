@@ -0,0 +1,101 @@
+package it.ldsoftware.primavera.test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.ldsoftware.primavera.security.OAuth2Provider;
+import it.ldsoftware.primavera.security.OAuth2Providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Created by luca on 28/06/17.
+ * Local OAuth2 provider for the tests, answering like Google: it gives the access token "stub-token" for the code "good-code" and the
+ * client "stub-client"/"stub-secret", and a fixed profile to that token. Every answer can be delayed.
+ */
+class StubOAuth2Provider implements AutoCloseable {
+
+    static final String CODE = "good-code", CLIENT_ID = "stub-client", CLIENT_SECRET = "stub-secret";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    private volatile long delayMillis;
+
+    StubOAuth2Provider() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/token", exchange -> {
+            String form = URLDecoder.decode(read(exchange.getRequestBody()), "UTF-8");
+            boolean valid = form.contains("code=" + CODE) && form.contains("client_id=" + CLIENT_ID)
+                    && form.contains("client_secret=" + CLIENT_SECRET) && form.contains("grant_type=authorization_code");
+            answer(exchange, valid ? 200 : 400, valid
+                    ? "{\"access_token\" : \"stub-token\", \"token_type\" : \"Bearer\", \"expires_in\" : 3600}"
+                    : "{\"error\" : \"invalid_grant\"}");
+        });
+        server.createContext("/me", exchange -> {
+            boolean valid = "Bearer stub-token".equals(exchange.getRequestHeaders().getFirst("Authorization"));
+            answer(exchange, valid ? 200 : 401, valid
+                    ? "{\"id\" : \"42\", \"emails\" : [{\"value\" : \"stub@example.com\", \"type\" : \"account\"}]," +
+                    " \"name\" : {\"givenName\" : \"Stub\", \"familyName\" : \"User\"}, \"kind\" : \"plus#person\"," +
+                    " \"image\" : {\"url\" : \"http://example.com/stub.png\", \"isDefault\" : false}}"
+                    : "{\"error\" : \"invalid_token\"}");
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    OAuth2Provider provider() {
+        String base = "http://127.0.0.1:" + server.getAddress().getPort();
+        return OAuth2Providers.googleTemplate(base + "/authorize", base + "/token", base + "/me")
+                .withCredentials(CLIENT_ID, CLIENT_SECRET);
+    }
+
+    void setDelayMillis(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * @return the number of connections opened by the clients so far
+     */
+    int getConnections() {
+        return clientPorts.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void answer(HttpExchange exchange, int status, String body) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        try {
+            Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        byte[] buffer = new byte[512];
+        int read;
+        while ((read = in.read(buffer)) >= 0)
+            builder.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+        return builder.toString();
+    }
+}
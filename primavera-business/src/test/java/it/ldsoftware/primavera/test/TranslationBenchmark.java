@@ -0,0 +1,125 @@
+package it.ldsoftware.primavera.test;
+
+import com.querydsl.core.types.Predicate;
+import it.ldsoftware.primavera.model.security.QGroup;
+import it.ldsoftware.primavera.presentation.lang.ShortTranslationDTO;
+import it.ldsoftware.primavera.presentation.security.GroupDTO;
+import it.ldsoftware.primavera.services.interfaces.GroupService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by luca on 04/07/17.
+ * Compares a page of groups read with all their translations against the same page read in a single language
+ * (English, the default one is Italian), as the number of languages the groups are translated in grows.
+ * Besides the time, the "translations" counter reports the translation rows read from the database and the
+ * "statements" counter the JDBC statements prepared: divided by the "operations" counter they give the rows
+ * and the statements needed to read a page.
+ * Run with the main method, it is not part of the unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TranslationBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"1", "5", "20"})
+    private int languages;
+
+    private ConfigurableApplicationContext context;
+    private GroupService service;
+    private Statistics statistics;
+    private Predicate predicate;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+        public long translations;
+        public long statements;
+        public long operations;
+    }
+
+    @Setup(Level.Trial)
+    public void startContext() {
+        context = new SpringApplicationBuilder(TestApplication.class)
+                .web(false)
+                .properties("spring.datasource.url=jdbc:h2:mem:translations;DB_CLOSE_DELAY=-1",
+                        "spring.jpa.properties.hibernate.generate_statistics=true",
+                        "logging.level.root=WARN")
+                .run();
+        service = context.getBean(GroupService.class);
+        statistics = context.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+
+        String prefix = "BENCH_" + languages + "_";
+        List<GroupDTO> groups = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            GroupDTO group = new GroupDTO();
+            group.setCode(prefix + i);
+            group.setDefaultLang("it");
+            group.addTranslation("it", new ShortTranslationDTO().withContent("Gruppo " + i));
+            if (languages > 1)
+                group.addTranslation("en", new ShortTranslationDTO().withContent("Group " + i));
+            String[] codes = Locale.getISOLanguages();
+            for (int l = 0; group.getTranslations().size() < languages; l++) {
+                if (!group.getTranslations().containsKey(codes[l]))
+                    group.addTranslation(codes[l], new ShortTranslationDTO().withContent(codes[l] + " " + i));
+            }
+            groups.add(group);
+        }
+        service.saveAll(groups);
+        predicate = QGroup.group.code.startsWith(prefix);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Page<GroupDTO> allLanguages(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        Page<GroupDTO> page = service.findBy(predicate, new PageRequest(0, PAGE_SIZE));
+        count(counters, page, before);
+        return page;
+    }
+
+    @Benchmark
+    public Page<GroupDTO> singleLanguage(Counters counters) {
+        long before = statistics.getPrepareStatementCount();
+        Page<GroupDTO> page = service.findBy(predicate, new PageRequest(0, PAGE_SIZE), "en");
+        count(counters, page, before);
+        return page;
+    }
+
+    private void count(Counters counters, Page<GroupDTO> page, long statementsBefore) {
+        counters.statements += statistics.getPrepareStatementCount() - statementsBefore;
+        counters.translations += page.getContent().stream().mapToInt(g -> g.getTranslations().size()).sum();
+        counters.operations++;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(TranslationBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -3,7 +3,7 @@ package it.ldsoftware.primavera.presentation.base;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -26,10 +26,13 @@ public abstract class BaseDTO {
     /**
      * This function is used to return the list of all field names
      * that will be used in various export functions, e.g. to export
-     * CSV files.
-     * @return a list of strings
+     * CSV files, and to choose the columns of the projections of the
+     * business services.
+     * @return a list of strings, that subclasses can extend
      */
     public List<String> _fields() {
-        return Collections.singletonList(FIELD_ID);
+        List<String> fields = new ArrayList<>();
+        fields.add(FIELD_ID);
+        return fields;
     }
 }
@@ -10,6 +10,7 @@ public abstract class CommonErrors {
             ERROR_BAD_CREDENTIALS = "error.bad.credentials", ERROR_DISABLED = "error.disabled",
             ERROR_LOGIN_ACCOUNT = "error.login.account", ERROR_LOGIN_GENERIC = "error.login.generic",
             ERROR_GOOGLE_AUTH_CONFIG = "error.google.auth.config",
+            ERROR_FACEBOOK_AUTH_CONFIG = "error.facebook.auth.config",
             ERROR_DATA_INTEGRITY = "error.data.integrity", MSG_SAVE_ERROR = "msg.save.error",
             MSG_INS_ERROR = "msg.ins.error", MSG_VALIDATION_ERROR = "msg.validation.error";
 
@@ -0,0 +1,33 @@
+package it.ldsoftware.primavera.processor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Created by luca on 02/07/17.
+ * Marks an abstract mapper whose abstract methods are implemented at compile time by the {@link MapperProcessor},
+ * in a subclass named like the mapper with the "Impl" suffix. Two kinds of methods are implemented:
+ * <ul>
+ * <li>{@code T name(S source)} creates a new T and copies the properties of the source in it</li>
+ * <li>{@code void name(S source, T target)} copies the properties of the source in an existing target</li>
+ * </ul>
+ * A property is copied when the source has a getter and the target a setter with the same name and type.
+ * When the types differ, the value is converted with a method of the mapper, or of one of its fields, that takes
+ * the source type and returns the target one; collections are converted element by element in a collection of
+ * the right size, or with the "add" method of the target for the property (e.g. {@code addContact} for
+ * {@code contacts}) when it has one. Properties that cannot be copied are left alone, with a compiler warning
+ * unless they are listed in {@link #ignore()}.
+ * <p>
+ * The generated class has the annotations of the mapper (e.g. {@code @Service}) and its constructors.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface GeneratedMapper {
+
+    /**
+     * @return the properties never copied, and never warned about
+     */
+    String[] ignore() default {};
+}
@@ -0,0 +1,472 @@
+package it.ldsoftware.primavera.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by luca on 02/07/17.
+ * Generates the implementation of the mappers annotated with {@link GeneratedMapper}.
+ * <p>
+ * The generated code is plain getter and setter calls: no reflection, no streams and no mapper created while
+ * mapping. Converted collections are allocated once with the size of the source.
+ */
+@SupportedAnnotationTypes("it.ldsoftware.primavera.processor.GeneratedMapper")
+public class MapperProcessor extends AbstractProcessor {
+
+    static final String SUFFIX = "Impl";
+
+    private Types types;
+    private Elements elements;
+    private TypeMirror collection;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        types = processingEnv.getTypeUtils();
+        elements = processingEnv.getElementUtils();
+        collection = types.erasure(elements.getTypeElement("java.util.Collection").asType());
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(GeneratedMapper.class)) {
+            try {
+                generate(element);
+            } catch (MappingException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.getMessage(), e.element);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Cannot write the mapper: " + e.getMessage(), element);
+            }
+        }
+        return true;
+    }
+
+    private void generate(Element element) throws IOException {
+        if (element.getKind() != ElementKind.CLASS || !element.getModifiers().contains(Modifier.ABSTRACT))
+            throw new MappingException("Only abstract classes can be generated mappers", element);
+        TypeElement mapper = (TypeElement) element;
+        if (mapper.getNestingKind() != NestingKind.TOP_LEVEL || !mapper.getTypeParameters().isEmpty())
+            throw new MappingException("Generated mappers must be top level classes without type parameters", element);
+
+        String pkg = elements.getPackageOf(mapper).getQualifiedName().toString();
+        String name = mapper.getSimpleName() + SUFFIX;
+        Set<String> ignore = new HashSet<>(Arrays.asList(mapper.getAnnotation(GeneratedMapper.class).ignore()));
+        List<Converter> converters = converters(mapper, pkg);
+
+        StringBuilder out = new StringBuilder();
+        out.append("package ").append(pkg).append(";\n\n");
+        out.append("@javax.annotation.Generated(\"").append(MapperProcessor.class.getName()).append("\")\n");
+        for (AnnotationMirror annotation : mapper.getAnnotationMirrors()) {
+            String type = annotation.getAnnotationType().toString();
+            if (!type.equals(GeneratedMapper.class.getName()) && !type.equals(SuppressWarnings.class.getName()))
+                out.append(annotation).append('\n');
+        }
+        out.append("public class ").append(name).append(" extends ").append(mapper.getQualifiedName()).append(" {\n");
+
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(mapper.getEnclosedElements())) {
+            if (!constructor.getModifiers().contains(Modifier.PRIVATE) && !constructor.getParameters().isEmpty())
+                constructor(constructor, name, out);
+        }
+        DeclaredType mapperType = (DeclaredType) mapper.asType();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(mapper))) {
+            if (method.getModifiers().contains(Modifier.ABSTRACT))
+                method(mapper, method, (ExecutableType) types.asMemberOf(mapperType, method), ignore, converters, out);
+        }
+        out.append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(pkg + "." + name, mapper).openWriter()) {
+            writer.write(out.toString());
+        }
+    }
+
+    private void constructor(ExecutableElement constructor, String name, StringBuilder out) {
+        List<String> names = new ArrayList<>();
+        out.append('\n');
+        for (AnnotationMirror annotation : constructor.getAnnotationMirrors())
+            out.append("    ").append(annotation).append('\n');
+        out.append("    public ").append(name).append('(');
+        for (VariableElement parameter : constructor.getParameters()) {
+            if (!names.isEmpty())
+                out.append(", ");
+            out.append(parameter.asType()).append(' ').append(parameter.getSimpleName());
+            names.add(parameter.getSimpleName().toString());
+        }
+        out.append(')');
+        if (!constructor.getThrownTypes().isEmpty())
+            out.append(" throws ").append(join(constructor.getThrownTypes()));
+        out.append(" {\n        super(").append(String.join(", ", names)).append(");\n    }\n");
+    }
+
+    private void method(TypeElement mapper, ExecutableElement method, ExecutableType resolved, Set<String> ignore,
+                        List<Converter> converters, StringBuilder out) {
+        // the unmapped properties of inherited methods are reported on the mapper, that can ignore them
+        Element at = method.getEnclosingElement().equals(mapper) ? method : mapper;
+        List<? extends TypeMirror> parameters = resolved.getParameterTypes();
+        TypeMirror result = resolved.getReturnType();
+        List<? extends VariableElement> names = method.getParameters();
+        Body body = new Body();
+
+        out.append("\n    @Override\n    ");
+        if (method.getModifiers().contains(Modifier.PUBLIC))
+            out.append("public ");
+        else if (method.getModifiers().contains(Modifier.PROTECTED))
+            out.append("protected ");
+
+        if (parameters.size() == 1 && result.getKind() == TypeKind.DECLARED) {
+            TypeElement target = (TypeElement) types.asElement(result);
+            if (target.getModifiers().contains(Modifier.ABSTRACT) || !hasDefaultConstructor(target))
+                throw new MappingException(result + " cannot be created by the mapper", method);
+            String source = names.get(0).getSimpleName().toString(), mapped = body.variable();
+            out.append(result).append(' ').append(method.getSimpleName())
+                    .append('(').append(parameters.get(0)).append(' ').append(source).append(") {\n");
+            body.line(result + " " + mapped + " = new " + result + "();");
+            copy(at, source, parameters.get(0), mapped, result, ignore, converters, body);
+            body.line("return " + mapped + ";");
+        } else if (parameters.size() == 2 && result.getKind() == TypeKind.VOID) {
+            String source = names.get(0).getSimpleName().toString(), target = names.get(1).getSimpleName().toString();
+            out.append("void ").append(method.getSimpleName())
+                    .append('(').append(parameters.get(0)).append(' ').append(source)
+                    .append(", ").append(parameters.get(1)).append(' ').append(target).append(") {\n");
+            copy(at, source, parameters.get(0), target, parameters.get(1), ignore, converters, body);
+        } else {
+            throw new MappingException("Generated mappers can only implement T name(S) and void name(S, T)", method);
+        }
+        out.append(body.code).append("    }\n");
+    }
+
+    /**
+     * Copies the properties of the source in the target, warning about the ones of the target left alone
+     * that the mapper does not ignore
+     */
+    private void copy(Element at, String source, TypeMirror sourceType, String target,
+                      TypeMirror targetType, Set<String> ignore, List<Converter> converters, Body body) {
+        Map<String, TypeMirror> getters = getters(sourceType);
+        for (Map.Entry<String, ExecutableElement> setter : setters(targetType).entrySet()) {
+            String property = setter.getKey();
+            if (ignore.contains(Introspector.decapitalize(property)))
+                continue;
+            TypeMirror from = getters.get(property);
+            if (from == null) {
+                unmapped(at, targetType, property, "the source has no such property");
+                continue;
+            }
+            TypeMirror to = ((ExecutableType) types.asMemberOf((DeclaredType) targetType, setter.getValue()))
+                    .getParameterTypes().get(0);
+            String get = source + "." + getter(sourceType, property) + "()";
+            String set = target + ".set" + property;
+
+            if (types.isSameType(from, to)) {
+                body.line(set + "(" + get + ");");
+            } else if (isCollection(from) && isCollection(to)) {
+                if (!copyCollection(get, from, target, targetType, property, to, converters, body))
+                    unmapped(at, targetType, property, "no conversion from " + from + " to " + to);
+            } else if (from.getKind() == TypeKind.DECLARED && to.getKind() == TypeKind.DECLARED) {
+                Converter converter = find(converters, from, to);
+                if (converter == null) {
+                    unmapped(at, targetType, property, "no converter from " + from + " to " + to);
+                    continue;
+                }
+                String value = body.variable();
+                body.line(from + " " + value + " = " + get + ";");
+                body.line(set + "(" + value + " == null ? null : " + converter.call(value) + ");");
+            } else {
+                unmapped(at, targetType, property, "no conversion from " + from + " to " + to);
+            }
+        }
+    }
+
+    /**
+     * @return false if the collection cannot be converted, and nothing was generated
+     */
+    private boolean copyCollection(String get, TypeMirror from, String target, TypeMirror targetType, String property,
+                                   TypeMirror to, List<Converter> converters, Body body) {
+        TypeMirror fromElement = element(from), toElement = element(to);
+        if (fromElement == null || toElement == null)
+            return false;
+        Converter converter = types.isAssignable(fromElement, toElement) ? null : find(converters, fromElement, toElement);
+        if (converter == null && !types.isAssignable(fromElement, toElement))
+            return false;
+        String adder = adder(targetType, property, toElement);
+        String values = adder == null ? newCollection(to) : null;
+        if (adder == null && values == null)
+            return false;
+
+        String items = body.variable(), item = body.variable();
+        String value = converter == null ? item : converter.call(item);
+        body.line(from + " " + items + " = " + get + ";");
+        body.open("if (" + items + " != null) {");
+        if (adder != null) {
+            body.line("for (" + fromElement + " " + item + " : " + items + ")");
+            body.line("    " + target + "." + adder + "(" + value + ");");
+        } else {
+            String result = body.variable();
+            body.line(to + " " + result + " = " + String.format(values, items + ".size()") + ";");
+            body.line("for (" + fromElement + " " + item + " : " + items + ")");
+            body.line("    " + result + ".add(" + value + ");");
+            body.line(target + ".set" + property + "(" + result + ");");
+        }
+        body.close();
+        return true;
+    }
+
+    private void unmapped(Element at, TypeMirror targetType, String property, String reason) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, "Unmapped property "
+                + Introspector.decapitalize(property) + " of " + targetType + ": " + reason
+                + "; add it to @GeneratedMapper(ignore = ...) to leave it alone on purpose", at);
+    }
+
+    /**
+     * @return the methods of the mapper and of its fields that can convert a value
+     */
+    private List<Converter> converters(TypeElement mapper, String pkg) {
+        List<Converter> converters = new ArrayList<>();
+        DeclaredType mapperType = (DeclaredType) mapper.asType();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(mapper))) {
+            if (!method.getModifiers().contains(Modifier.PRIVATE))
+                addConverter(converters, "this", method, mapperType);
+        }
+        for (VariableElement field : ElementFilter.fieldsIn(elements.getAllMembers(mapper))) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.PRIVATE) || modifiers.contains(Modifier.STATIC)
+                    || field.asType().getKind() != TypeKind.DECLARED)
+                continue;
+            if (!modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.PROTECTED)
+                    && !elements.getPackageOf(field).getQualifiedName().contentEquals(pkg))
+                continue;
+            DeclaredType fieldType = (DeclaredType) field.asType();
+            TypeElement fieldElement = (TypeElement) fieldType.asElement();
+            for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(fieldElement))) {
+                if (method.getModifiers().contains(Modifier.PUBLIC))
+                    addConverter(converters, "this." + field.getSimpleName(), method, fieldType);
+            }
+        }
+        return converters;
+    }
+
+    private void addConverter(List<Converter> converters, String receiver, ExecutableElement method, DeclaredType owner) {
+        if (method.getModifiers().contains(Modifier.STATIC) || method.getParameters().size() != 1
+                || ((TypeElement) method.getEnclosingElement()).getQualifiedName().contentEquals("java.lang.Object"))
+            return;
+        // the types of the methods of generic mappers are known only as members of the mapper
+        ExecutableType resolved = (ExecutableType) types.asMemberOf(owner, method);
+        if (resolved.getReturnType().getKind() == TypeKind.DECLARED
+                && resolved.getParameterTypes().get(0).getKind() == TypeKind.DECLARED)
+            converters.add(new Converter(receiver, method, resolved));
+    }
+
+    /**
+     * @return the converter from a type to another, preferring the convertTo methods of the mappers
+     */
+    private Converter find(List<Converter> converters, TypeMirror from, TypeMirror to) {
+        Converter found = null;
+        for (Converter converter : converters) {
+            if (types.isAssignable(from, converter.from) && types.isAssignable(converter.to, to)) {
+                if (converter.method.getSimpleName().toString().startsWith("convertTo"))
+                    return converter;
+                if (found == null)
+                    found = converter;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the types of the readable properties of the type, by capitalized name
+     */
+    private Map<String, TypeMirror> getters(TypeMirror type) {
+        Map<String, TypeMirror> getters = new LinkedHashMap<>();
+        if (type.getKind() != TypeKind.DECLARED)
+            return getters;
+        for (ExecutableElement method : accessors(type)) {
+            String name = method.getSimpleName().toString();
+            TypeMirror result = ((ExecutableType) types.asMemberOf((DeclaredType) type, method)).getReturnType();
+            if (!method.getParameters().isEmpty() || result.getKind() == TypeKind.VOID || name.equals("getClass"))
+                continue;
+            if (name.startsWith("get") && name.length() > 3)
+                getters.putIfAbsent(name.substring(3), result);
+            else if (name.startsWith("is") && name.length() > 2 && result.getKind() == TypeKind.BOOLEAN)
+                getters.putIfAbsent(name.substring(2), result);
+        }
+        return getters;
+    }
+
+    private String getter(TypeMirror type, String property) {
+        for (ExecutableElement method : accessors(type)) {
+            String name = method.getSimpleName().toString();
+            if (method.getParameters().isEmpty() && (name.equals("get" + property) || name.equals("is" + property)))
+                return name;
+        }
+        throw new IllegalStateException("No getter for " + property);
+    }
+
+    /**
+     * @return the setters of the type, by capitalized name of the property
+     */
+    private Map<String, ExecutableElement> setters(TypeMirror type) {
+        Map<String, ExecutableElement> setters = new LinkedHashMap<>();
+        if (type.getKind() != TypeKind.DECLARED)
+            return setters;
+        for (ExecutableElement method : accessors(type)) {
+            String name = method.getSimpleName().toString();
+            if (name.startsWith("set") && name.length() > 3 && method.getParameters().size() == 1)
+                setters.putIfAbsent(name.substring(3), method);
+        }
+        return setters;
+    }
+
+    private String adder(TypeMirror type, String property, TypeMirror element) {
+        String name = "add" + (property.endsWith("ies") ? property.substring(0, property.length() - 3) + "y"
+                : property.endsWith("s") ? property.substring(0, property.length() - 1) : property);
+        for (ExecutableElement method : accessors(type)) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == 1) {
+                TypeMirror parameter = ((ExecutableType) types.asMemberOf((DeclaredType) type, method))
+                        .getParameterTypes().get(0);
+                if (types.isAssignable(element, parameter))
+                    return name;
+            }
+        }
+        return null;
+    }
+
+    private List<ExecutableElement> accessors(TypeMirror type) {
+        List<ExecutableElement> accessors = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers((TypeElement) types.asElement(type)))) {
+            if (method.getModifiers().contains(Modifier.PUBLIC) && !method.getModifiers().contains(Modifier.STATIC))
+                accessors.add(method);
+        }
+        return accessors;
+    }
+
+    private boolean isCollection(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && types.isAssignable(types.erasure(type), collection);
+    }
+
+    private TypeMirror element(TypeMirror type) {
+        List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+        return arguments.size() == 1 && arguments.get(0).getKind() == TypeKind.DECLARED ? arguments.get(0) : null;
+    }
+
+    /**
+     * @return the expression creating a collection of the type, with a %s for its size, or null if not supported
+     */
+    private String newCollection(TypeMirror type) {
+        switch (types.erasure(type).toString()) {
+            case "java.util.Collection":
+            case "java.util.List":
+            case "java.util.ArrayList":
+                return "new java.util.ArrayList<>(%s)";
+            case "java.util.Set":
+            case "java.util.HashSet":
+                return "new java.util.HashSet<>((int) (%s / .75f) + 1)";
+            default:
+                return null;
+        }
+    }
+
+    private boolean hasDefaultConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && constructor.getModifiers().contains(Modifier.PUBLIC))
+                return true;
+        }
+        return false;
+    }
+
+    private static String join(List<? extends TypeMirror> types) {
+        StringBuilder joined = new StringBuilder();
+        for (TypeMirror type : types) {
+            if (joined.length() > 0)
+                joined.append(", ");
+            joined.append(type);
+        }
+        return joined.toString();
+    }
+
+    private static final class Converter {
+        final String receiver;
+        final ExecutableElement method;
+        final TypeMirror from, to;
+
+        Converter(String receiver, ExecutableElement method, ExecutableType resolved) {
+            this.receiver = receiver;
+            this.method = method;
+            this.from = resolved.getParameterTypes().get(0);
+            this.to = resolved.getReturnType();
+        }
+
+        String call(String argument) {
+            return receiver + "." + method.getSimpleName() + "(" + argument + ")";
+        }
+    }
+
+    /**
+     * The body of a generated method, with the local variables used so far
+     */
+    private static final class Body {
+        final StringBuilder code = new StringBuilder();
+        int variables, indent = 2;
+
+        String variable() {
+            return "v" + variables++;
+        }
+
+        void line(String line) {
+            for (int i = 0; i < indent; i++)
+                code.append("    ");
+            code.append(line).append('\n');
+        }
+
+        void open(String line) {
+            line(line);
+            indent++;
+        }
+
+        void close() {
+            indent--;
+            line("}");
+        }
+    }
+
+    private static final class MappingException extends RuntimeException {
+        final transient Element element;
+
+        MappingException(String message, Element element) {
+            super(message);
+            this.element = element;
+        }
+    }
+}
@@ -1,19 +1,36 @@
 package it.ldsoftware.primavera.vaadin.configuration;
 
+import com.vaadin.server.VaadinResponse;
+import com.vaadin.server.VaadinService;
+import it.ldsoftware.primavera.presentation.people.UserDTO;
+import it.ldsoftware.primavera.security.PasswordHasher;
+import it.ldsoftware.primavera.security.LoginThrottle;
+import it.ldsoftware.primavera.security.RehashingAuthenticationProvider;
+import it.ldsoftware.primavera.security.TokenAuthenticationFilter;
+import it.ldsoftware.primavera.security.TokenService;
 import it.ldsoftware.primavera.services.DummyUserDetailService;
+import it.ldsoftware.primavera.services.interfaces.UserService;
+import it.ldsoftware.primavera.util.SecuredUser;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.core.Authentication;
 import org.springframework.security.core.userdetails.UserDetailsService;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.web.authentication.LoginUrlAuthenticationEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.savedrequest.HttpSessionRequestCache;
+import org.springframework.security.web.savedrequest.NullRequestCache;
 import org.springframework.security.web.savedrequest.RequestCache;
 import org.springframework.security.web.savedrequest.RequestCacheAwareFilter;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 import org.vaadin.spring.security.VaadinSecurityContext;
 import org.vaadin.spring.security.web.VaadinDefaultRedirectStrategy;
 import org.vaadin.spring.security.web.VaadinRedirectStrategy;
@@ -21,6 +38,8 @@ import org.vaadin.spring.security.web.authentication.SavedRequestAwareVaadinAuth
 import org.vaadin.spring.security.web.authentication.VaadinAuthenticationSuccessHandler;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
 
 import static it.ldsoftware.primavera.util.UserUtil.ROLE_DB_CONSOLE;
 import static it.ldsoftware.primavera.util.UserUtil.ROLE_SUPERADMIN;
@@ -37,8 +56,14 @@ import static it.ldsoftware.primavera.util.UserUtil.ROLE_SUPERADMIN;
  * <li>expired/expired: user with expired credentials</li>
  * </ul>
  * To override this service, override the function <code>getUserDetailService()</code>.
- * This class also configures a password encoder with the BCrypt algorithm, which has proven to be
- * one of the most reliable against brute force attacks.
+ * The passwords are checked by the {@link PasswordHasher} of the business configuration (BCrypt by default,
+ * which has proven to be one of the most reliable against brute force attacks) outside of the request threads,
+ * and hashed again when they were stored with older parameters.
+ * <p>
+ * When the business configuration provides a {@link TokenService} ({@code it.primavera.security.token.enabled})
+ * the security context is not kept in the http session: the login issues a signed token in a cookie and each
+ * request is authenticated from it by the {@link TokenAuthenticationFilter}, without reading the database.
+ * The Vaadin UI state still lives in the session.
  *
  * @author Luca
  */
@@ -47,11 +72,35 @@ public class BaseSecurityConfig extends WebSecurityConfigurerAdapter {
     @Autowired
     VaadinSecurityContext vaadinSecurityContext;
 
+    @Autowired
+    PasswordHasher passwordHasher;
+
+    @Autowired(required = false)
+    UserService userService;
+
+    @Autowired(required = false)
+    TokenService tokenService;
+
+    @Autowired(required = false)
+    LoginThrottle loginThrottle;
+
+    @Value("${it.primavera.security.token.cookie:PRIMAVERA_TOKEN}")
+    String tokenCookie;
+
     @Override
     public void configure(AuthenticationManagerBuilder auth) throws Exception {
         auth
-                .userDetailsService(getUserDetailService())
-                .passwordEncoder(new BCryptPasswordEncoder());
+                .authenticationProvider(authenticationProvider());
+    }
+
+    /**
+     * @return the provider that checks the passwords, counting the failures on the {@link LoginThrottle} if any
+     */
+    protected RehashingAuthenticationProvider authenticationProvider() {
+        RehashingAuthenticationProvider provider =
+                new RehashingAuthenticationProvider(getUserDetailService(), passwordHasher, userService);
+        provider.setThrottle(loginThrottle);
+        return provider;
     }
 
     /**
@@ -80,6 +129,21 @@ public class BaseSecurityConfig extends WebSecurityConfigurerAdapter {
                 .headers().frameOptions().sameOrigin()
                 .and()
                 .exceptionHandling().authenticationEntryPoint(new LoginUrlAuthenticationEntryPoint("/login"));
+
+        if (tokenService != null) {
+            http
+                    .sessionManagement().sessionCreationPolicy(SessionCreationPolicy.STATELESS)
+                    .and()
+                    .addFilterBefore(new TokenAuthenticationFilter(tokenService, tokenCookie),
+                            UsernamePasswordAuthenticationFilter.class)
+                    .logout().addLogoutHandler((request, response, authentication) -> {
+                        if (request.getCookies() != null)
+                            for (Cookie cookie : request.getCookies())
+                                if (tokenCookie.equals(cookie.getName()))
+                                    tokenService.revoke(cookie.getValue());
+                    })
+                    .deleteCookies(tokenCookie);
+        }
     }
 
     @Override
@@ -110,16 +174,55 @@ public class BaseSecurityConfig extends WebSecurityConfigurerAdapter {
 
     @PostConstruct
     public void afterPropertiesSet() throws Exception {
+        if (tokenService != null)
+            this.vaadinSecurityContext.addAuthenticationSuccessHandler(authentication -> {
+                Cookie cookie = new Cookie(tokenCookie, tokenService.issue(tokenUser(authentication)));
+                cookie.setHttpOnly(true);
+                cookie.setPath("/");
+                currentResponse().addCookie(cookie);
+            });
         this.vaadinSecurityContext.addAuthenticationSuccessHandler(redirectSaveHandler());
     }
 
+    /**
+     * @return the response of the login: the Vaadin one, or the one of the Spring MVC request when the login
+     * completes outside of Vaadin (e.g. the callback of an OAuth2 provider)
+     */
+    static HttpServletResponse currentResponse() {
+        VaadinResponse vaadinResponse = VaadinService.getCurrentResponse();
+        if (vaadinResponse instanceof HttpServletResponse)
+            return (HttpServletResponse) vaadinResponse;
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes instanceof ServletRequestAttributes && ((ServletRequestAttributes) attributes).getResponse() != null)
+            return ((ServletRequestAttributes) attributes).getResponse();
+        throw new IllegalStateException("No response to add the token cookie to");
+    }
+
+    /**
+     * @return the user to put in the token. Logins with external providers (see
+     * {@link it.ldsoftware.primavera.vaadin.security.LoginProvider}) authenticate a {@link UserDTO} instead of a
+     * {@link SecuredUser}, possibly not saved yet: the user is rebuilt from its username and authorities
+     */
+    static SecuredUser tokenUser(Authentication authentication) {
+        Object principal = authentication.getPrincipal();
+        if (principal instanceof SecuredUser)
+            return (SecuredUser) principal;
+        if (principal instanceof UserDTO) {
+            UserDTO user = (UserDTO) principal;
+            return SecuredUser.authenticated(user.getId() > 0 ? user.getId() : null, user.getUsername(),
+                    authentication.getAuthorities());
+        }
+        return SecuredUser.authenticated(null, authentication.getName(), authentication.getAuthorities());
+    }
+
     /*
      * The HttpSessionRequestCache is where the initial request before redirect
-     * to the login is cached so it can be used after successful login
+     * to the login is cached so it can be used after successful login;
+     * nothing is cached when stateless
      */
     @Bean
     public RequestCache requestCache() {
-        return new HttpSessionRequestCache();
+        return tokenService != null ? new NullRequestCache() : new HttpSessionRequestCache();
     }
 
     /*
@@ -1,23 +1,22 @@
 package it.ldsoftware.primavera.vaadin.controllers;
 
-import com.google.gson.Gson;
-import it.ldsoftware.primavera.model.base.AppProperty;
-import it.ldsoftware.primavera.model.base.QAppProperty;
-import it.ldsoftware.primavera.services.interfaces.DatabaseService;
+import it.ldsoftware.primavera.security.OAuth2Client;
+import it.ldsoftware.primavera.security.OAuth2Profile;
+import it.ldsoftware.primavera.security.OAuth2Provider;
+import it.ldsoftware.primavera.security.OAuth2Providers;
 import it.ldsoftware.primavera.vaadin.exceptions.GAuthConfigurationException;
-import it.ldsoftware.primavera.vaadin.security.GoogleResponse;
 import it.ldsoftware.primavera.vaadin.security.LoginProvider;
-import org.scribe.model.*;
-import org.scribe.oauth.OAuthService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.vaadin.spring.security.VaadinSecurity;
 
 import javax.servlet.http.HttpServletRequest;
-
-import static it.ldsoftware.primavera.vaadin.util.SecurityUtils.getGoogleService;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by luca on 02/05/16.
@@ -27,10 +26,15 @@ import static it.ldsoftware.primavera.vaadin.util.SecurityUtils.getGoogleService
  * the user will be logged in, if they are already in the database.
  * If not, a new user will be created with all available details
  * coming in from the provider (e.g. name, surname, email...) and logged in.
+ * <p>
+ * The calls to the provider are made by the {@link OAuth2Client} while the request is suspended, so the
+ * request thread is free until the profile arrives; then the request is resumed and forwarded to the login.
  */
 @Controller
 public class OAuth2CallbackController {
 
+    private static final String PROFILE = OAuth2CallbackController.class.getName() + ".profile";
+
     @Autowired
     private VaadinSecurity security;
 
@@ -38,35 +42,52 @@ public class OAuth2CallbackController {
     private LoginProvider provider;
 
     @Autowired
-    private DatabaseService service;
+    private OAuth2Providers providers;
 
-    @RequestMapping("/googleCallback")
-    public void loginFromGoogle(HttpServletRequest request, @RequestParam String code) throws Exception {
-        Verifier v = new Verifier(code);
-
-        String gApiKey;
-        String gApiSecret;
-
-        try {
-            QAppProperty p = QAppProperty.appProperty;
-            gApiKey = service.findOne(AppProperty.class, p.key.eq("google.client.id")).getStringVal();
-            gApiSecret = service.findOne(AppProperty.class, p.key.eq("google.client.secret")).getStringVal();
-        } catch (NullPointerException e) {
-            throw new GAuthConfigurationException();
-        }
-        String callback = request.getRequestURL().toString();
+    @Autowired
+    private OAuth2Client client;
 
-        OAuthService svc = getGoogleService(callback, gApiKey, gApiSecret);
+    @Value("${it.primavera.oauth.timeout:15000}")
+    private long timeoutMillis;
 
-        Token t = svc.getAccessToken(null, v);
+    @RequestMapping("/googleCallback")
+    public DeferredResult<String> loginFromGoogle(HttpServletRequest request, @RequestParam String code) throws Exception {
+        return callback(providers.google(), request, code, new GAuthConfigurationException());
+    }
 
-        OAuthRequest r = new OAuthRequest(Verb.GET, "https://www.googleapis.com/plus/v1/people/me");
-        svc.signRequest(t, r);
+    @RequestMapping("/facebookCallback")
+    public DeferredResult<String> loginFromFacebook(HttpServletRequest request, @RequestParam String code) throws Exception {
+        return callback(providers.get(OAuth2Providers.FACEBOOK), request, code,
+                new IllegalStateException("Facebook client id or secret are not configured"));
+    }
 
-        Response resp = r.send();
+    @RequestMapping("/oauth2Callback/login")
+    public void completeLogin(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        OAuth2Profile profile = (OAuth2Profile) request.getAttribute(PROFILE);
+        if (profile == null) {
+            // only reachable through the forward of the callbacks
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            return;
+        }
+        security.login(provider.getAuthentication(profile));
+    }
 
-        GoogleResponse googleResponse = new Gson().fromJson(resp.getBody(), GoogleResponse.class);
-        security.login(provider.getAuthentication(googleResponse));
+    private DeferredResult<String> callback(OAuth2Provider oauth, HttpServletRequest request, String code,
+                                            Exception notConfigured) throws Exception {
+        if (oauth == null)
+            throw notConfigured;
+
+        DeferredResult<String> result = new DeferredResult<>(timeoutMillis);
+        client.fetchProfile(oauth, code, request.getRequestURL().toString())
+                .whenComplete((profile, error) -> {
+                    if (error != null) {
+                        result.setErrorResult(error instanceof CompletionException ? error.getCause() : error);
+                    } else {
+                        request.setAttribute(PROFILE, profile);
+                        result.setResult("forward:/oauth2Callback/login");
+                    }
+                });
+        return result;
     }
 
 }
@@ -1,14 +1,14 @@
 package it.ldsoftware.primavera.vaadin.data;
 
+import it.ldsoftware.primavera.query.Cursor;
 import it.ldsoftware.primavera.query.Filter;
+import it.ldsoftware.primavera.query.KeysetPage;
 import it.ldsoftware.primavera.query.Request;
 import it.ldsoftware.primavera.query.Sort;
 import org.vaadin.viritin.LazyList;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static it.ldsoftware.primavera.query.Sort.EMPTY;
@@ -23,8 +23,12 @@ public class FilterableLazyList<T> extends LazyList<T> {
 
     private final FilterableCountProvider countProvider;
     private final FilterablePagingProvider<T> pagingProvider;
+    private final FilterableKeysetProvider<T> keysetProvider;
     private final int pageSize;
 
+    // the cursors of the pages reached so far, valid only for the current filters
+    private final Map<Integer, Cursor> cursors = new HashMap<>();
+
     private Sort sortBy = EMPTY;
     private Set<Filter> filters = new HashSet<>();
 
@@ -47,11 +51,30 @@ public class FilterableLazyList<T> extends LazyList<T> {
         return list;
     }
 
+    /**
+     * Creates a list that scrolls with keyset pagination: the cursor returned with each page is used
+     * to fetch the following one, so that scrolling does not get slower with the depth of the page.
+     * The pages whose cursor is not known (e.g. when the user jumps far down the list) are read by offset
+     * with the paging provider, as the keyset provider cannot skip rows.
+     *
+     * @param p the keyset provider
+     * @param o the paging provider used when there is no cursor
+     * @param c the count provider
+     * @param i the page size
+     * @param <T> the type of the elements
+     * @return the list
+     */
+    public static <T> FilterableLazyList<T> ofKeyset(FilterableKeysetProvider<T> p, FilterablePagingProvider<T> o,
+                                                     FilterableCountProvider c, int i) {
+        return new FilterableLazyList<>(p, o, c, i);
+    }
+
     private FilterableLazyList(FilterableEntityProvider<T> pagingProvider, int pageSize) {
         super(pagingProvider, pageSize);
         this.pageSize = pageSize;
         this.pagingProvider = pagingProvider;
         this.countProvider = pagingProvider;
+        this.keysetProvider = null;
     }
 
     private FilterableLazyList(FilterablePagingProvider<T> pagingProvider, FilterableCountProvider countProvider,
@@ -60,6 +83,16 @@ public class FilterableLazyList<T> extends LazyList<T> {
         this.pageSize = pageSize;
         this.countProvider = countProvider;
         this.pagingProvider = pagingProvider;
+        this.keysetProvider = null;
+    }
+
+    private FilterableLazyList(FilterableKeysetProvider<T> keysetProvider, FilterablePagingProvider<T> pagingProvider,
+                               FilterableCountProvider countProvider, int pageSize) {
+        super(countProvider, pageSize);
+        this.pageSize = pageSize;
+        this.countProvider = countProvider;
+        this.pagingProvider = pagingProvider;
+        this.keysetProvider = keysetProvider;
     }
 
     public FilterableLazyList(FilterablePagingProvider<T> pagingProvider, FilterableCountProvider countProvider) {
@@ -72,15 +105,24 @@ public class FilterableLazyList<T> extends LazyList<T> {
 
     public void addFilter(Filter filter) {
         filters.add(filter);
+        cursors.clear();
     }
 
     public void removeFilter(Filter filter) {
         Filter tmp = filters.stream().filter(filter::equals).findFirst().get();
         filters.remove(tmp);
+        cursors.clear();
     }
 
     public void removeAllFilters() {
         filters.clear();
+        cursors.clear();
+    }
+
+    @Override
+    public void reset() {
+        cursors.clear();
+        super.reset();
     }
 
     protected int filteredSize() {
@@ -90,7 +132,17 @@ public class FilterableLazyList<T> extends LazyList<T> {
     @Override
     protected List<T> findEntities(int i) {
         Request req = new Request().withFirstRow(i).withPageSize(pageSize).withSortBy(sortBy).withFilters(filters);
-        return pagingProvider.findEntities(req);
+        if (keysetProvider == null)
+            return pagingProvider.findEntities(req);
+
+        Cursor cursor = cursors.get(i);
+        // a page that was never reached from the previous one has no cursor: it is read by offset
+        if (i > 0 && cursor == null)
+            return pagingProvider.findEntities(req);
+        KeysetPage<T> page = keysetProvider.findPage(req.withCursor(cursor));
+        if (page.hasNext())
+            cursors.put(i + pageSize, page.getNext());
+        return page.getContent();
     }
 
     @Override
@@ -108,6 +160,15 @@ public class FilterableLazyList<T> extends LazyList<T> {
         List<T> findEntities(Request request);
     }
 
+    /**
+     * Provider for keyset pagination. The request carries the cursor of the page, i.e. the one returned with
+     * the previous page, and no cursor for the first page; the pages that were never reached from the previous
+     * one are read by the paging provider instead.
+     */
+    public interface FilterableKeysetProvider<T> extends Serializable {
+        KeysetPage<T> findPage(Request request);
+    }
+
     public interface FilterableCountProvider extends CountProvider {
         int size(Request request);
 
@@ -8,7 +8,8 @@ import it.ldsoftware.primavera.vaadin.layouts.AbstractEditor;
 import it.ldsoftware.primavera.vaadin.layouts.AbstractEditorForm;
 import it.ldsoftware.primavera.validation.groups.NewUserValidationGroup;
 import it.ldsoftware.primavera.validation.groups.UserValidationGroup;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import it.ldsoftware.primavera.security.PasswordHasher;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import static it.ldsoftware.primavera.util.UserUtil.ROLE_USER_ADMIN;
 
@@ -21,6 +22,9 @@ public class UserEditor extends AbstractEditor<User, UserDTO> {
     private String oldPW;
     private String oldConf;
 
+    @Autowired
+    private PasswordHasher encoder;
+
     @Override
     public Class<User> getEntityClass() {
         return User.class;
@@ -50,8 +54,6 @@ public class UserEditor extends AbstractEditor<User, UserDTO> {
 
     @Override
     public void preSaveAction() {
-        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder();
-
         if (((UserForm) form()).isChangedPassword()) {
             oldPW = form().getBean().getPassword();
             oldConf = form().getBean().getConfirmPassword();
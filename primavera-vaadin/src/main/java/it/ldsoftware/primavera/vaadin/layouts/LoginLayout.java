@@ -9,10 +9,11 @@ import com.vaadin.ui.themes.ValoTheme;
 import it.ldsoftware.primavera.model.base.AppProperty;
 import it.ldsoftware.primavera.model.base.QAppProperty;
 import it.ldsoftware.primavera.i18n.LocalizationService;
+import it.ldsoftware.primavera.security.OAuth2Provider;
+import it.ldsoftware.primavera.security.OAuth2Providers;
 import it.ldsoftware.primavera.services.interfaces.DatabaseService;
 import it.ldsoftware.primavera.vaadin.dialogs.TermsOfServiceDialog;
 import it.ldsoftware.primavera.vaadin.theme.MetricConstants;
-import it.ldsoftware.primavera.vaadin.util.SecurityUtils;
 import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.authentication.CredentialsExpiredException;
 import org.springframework.security.authentication.DisabledException;
@@ -45,6 +46,7 @@ public class LoginLayout extends MVerticalLayout {
     private DatabaseService service;
     private UI ui;
     private VaadinSecurity sec;
+    private OAuth2Providers providers;
 
     private TextField txtUsername;
     private PasswordField password;
@@ -58,6 +60,15 @@ public class LoginLayout extends MVerticalLayout {
     private CheckBox cb;
 
     public LoginLayout(LocalizationService msg, UI ui, VaadinSecurity sec, DatabaseService service) {
+        this(msg, ui, sec, service, null);
+    }
+
+    /**
+     * @param providers the cached configuration of the login providers, if null it is read at every login
+     */
+    public LoginLayout(LocalizationService msg, UI ui, VaadinSecurity sec, DatabaseService service,
+                       OAuth2Providers providers) {
+        this.providers = providers;
         this.msg = msg;
         this.ui = ui;
         this.sec = sec;
@@ -186,26 +197,42 @@ public class LoginLayout extends MVerticalLayout {
     }
 
     private void googleLogin(ClickEvent event) {
-        String callback = Page.getCurrent().getLocation() + "googleCallback";
-        String gK;
-        String gS;
+        oauthLogin(OAuth2Providers.googleTemplate(OAuth2Providers.GOOGLE_AUTHORIZE_URI,
+                OAuth2Providers.GOOGLE_TOKEN_URI, OAuth2Providers.GOOGLE_PROFILE_URI), ERROR_GOOGLE_AUTH_CONFIG);
+    }
 
-        try {
-            QAppProperty p = QAppProperty.appProperty;
-            gK = service.findOne(AppProperty.class, p.key.eq("google.client.id")).getStringVal();
-            gS = service.findOne(AppProperty.class, p.key.eq("google.client.secret")).getStringVal();
+    private void facebookLogin(ClickEvent event) {
+        oauthLogin(OAuth2Providers.facebookTemplate(OAuth2Providers.FACEBOOK_AUTHORIZE_URI,
+                OAuth2Providers.FACEBOOK_TOKEN_URI, OAuth2Providers.FACEBOOK_PROFILE_URI), ERROR_FACEBOOK_AUTH_CONFIG);
+    }
 
-            String redirect = SecurityUtils.getGoogleService(callback, gK, gS).getAuthorizationUrl(null);
-            ui.getPage().open(redirect, "_self");
-        } catch (NullPointerException e) {
-            errorLabel.setValue(msg.translate(ERROR_GOOGLE_AUTH_CONFIG));
+    /**
+     * Sends the user to the provider, that sends them back to the "nameCallback" address
+     *
+     * @param template the provider with the default endpoints, used when the providers are not given
+     * @param error    the error shown if the provider is not configured
+     */
+    private void oauthLogin(OAuth2Provider template, String error) {
+        String callback = Page.getCurrent().getLocation() + template.getName() + "Callback";
+        OAuth2Provider provider;
+
+        if (providers != null) {
+            provider = providers.get(template.getName());
+        } else {
+            QAppProperty p = QAppProperty.appProperty;
+            AppProperty key = service.findOne(AppProperty.class, p.key.eq(template.getName() + ".client.id"));
+            AppProperty secret = service.findOne(AppProperty.class, p.key.eq(template.getName() + ".client.secret"));
+            provider = key == null || secret == null || key.getStringVal() == null || secret.getStringVal() == null
+                    ? null : template.withCredentials(key.getStringVal(), secret.getStringVal());
         }
-    }
 
-    private void facebookLogin(ClickEvent event) {
-        // TODO
+        if (provider == null)
+            errorLabel.setValue(msg.translate(error));
+        else
+            ui.getPage().open(provider.getAuthorizationUrl(callback), "_self");
     }
 
+    // twitter still uses OAuth 1.0a, that the OAuth2Client does not support
     private void twitterLogin(ClickEvent event) {
         // TODO
     }
@@ -3,6 +3,7 @@ package it.ldsoftware.primavera.vaadin.security;
 import it.ldsoftware.primavera.presentation.people.UserDTO;
 import it.ldsoftware.primavera.model.people.QUser;
 import it.ldsoftware.primavera.model.people.User;
+import it.ldsoftware.primavera.security.OAuth2Profile;
 import it.ldsoftware.primavera.services.interfaces.DatabaseService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -22,18 +23,19 @@ public class LoginProvider {
     @SuppressWarnings("SpringJavaAutowiringInspection")
     private DatabaseService svc;
 
-    public Authentication getAuthentication(GoogleResponse googleResponse) {
+    public Authentication getAuthentication(OAuth2Profile profile) {
+        // providers may not give the email, the user is then known by the id in the provider
+        String login = profile.getEmail() != null ? profile.getEmail() : profile.getProvider() + "_" + profile.getId();
         QUser qUser = QUser.user;
-        User u = svc.findOne(User.class, qUser.primaryEmail.eq(googleResponse.getPrincipalMail())
-                .or(qUser.primaryEmail.eq(googleResponse.getPrincipalMail())));
+        User u = svc.findOne(User.class, qUser.primaryEmail.eq(login).or(qUser.username.eq(login)));
 
         if (u == null) {
             u = new User();
             u.setEnabled(true);
-            u.setPrimaryEmail(googleResponse.getPrincipalMail());
-            u.setName(googleResponse.getName().getGivenName());
-            u.setSurname(googleResponse.getName().getFamilyName());
-            u.setUsername(googleResponse.getPrincipalMail());
+            u.setPrimaryEmail(profile.getEmail());
+            u.setName(profile.getGivenName());
+            u.setSurname(profile.getFamilyName());
+            u.setUsername(login);
         }
 
         UserDTO userDTO = new UserDTO(u);